@@ -0,0 +1,117 @@
+package com.agriguide.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+import com.agriguide.util.DatabaseUtil;
+
+/**
+ * ベンチマーク共通の準備
+ *
+ * MySQLの代わりにメモリ上のH2データベース（MySQL互換モード）を使います。
+ * 本物のDBとは速さが違うので、数値は「変更の前後の比較」に使ってください。
+ */
+public class BenchmarkSupport {
+    
+    // プールが作られる前に設定する（DatabaseUtil は JDBC_URL を優先して使う）
+    static {
+        System.setProperty("JDBC_URL", "jdbc:h2:mem:agrinav;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("JDBC_USER", "sa");
+        System.setProperty("JDBC_PASSWORD", "");
+    }
+    
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS sensor_data ("
+            + "id INT AUTO_INCREMENT PRIMARY KEY, speed DOUBLE NOT NULL, distance DOUBLE NOT NULL, "
+            + "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, machine_id VARCHAR(64) NOT NULL DEFAULT 'default', "
+            + "wal_id VARCHAR(36), wal_seq BIGINT)",
+        "CREATE UNIQUE INDEX IF NOT EXISTS uk_sensor_data_wal ON sensor_data (wal_id, wal_seq)",
+        "CREATE TABLE IF NOT EXISTS trip_data ("
+            + "id INT AUTO_INCREMENT PRIMARY KEY, speed DOUBLE NOT NULL, distance DOUBLE NOT NULL, "
+            + "latitude DOUBLE NOT NULL, longitude DOUBLE NOT NULL, "
+            + "recorded_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3), geohash BIGINT, "
+            + "machine_id VARCHAR(64) NOT NULL DEFAULT 'default', wal_id VARCHAR(36), wal_seq BIGINT)",
+        "CREATE UNIQUE INDEX IF NOT EXISTS uk_trip_data_wal ON trip_data (wal_id, wal_seq)",
+        "CREATE INDEX IF NOT EXISTS idx_trip_data_recorded_at ON trip_data (recorded_at, id)",
+        "CREATE INDEX IF NOT EXISTS idx_trip_data_geohash ON trip_data (geohash, recorded_at)",
+        "CREATE INDEX IF NOT EXISTS idx_sensor_data_machine ON sensor_data (machine_id, id)",
+        "CREATE INDEX IF NOT EXISTS idx_trip_data_machine ON trip_data (machine_id, id)",
+        "CREATE TABLE IF NOT EXISTS trip_rollup ("
+            + "machine_id VARCHAR(64) NOT NULL, bucket_seconds INT NOT NULL, bucket_start TIMESTAMP NOT NULL, "
+            + "point_count BIGINT NOT NULL, speed_sum DOUBLE NOT NULL, speed_min DOUBLE NOT NULL, "
+            + "speed_max DOUBLE NOT NULL, distance_sum DOUBLE NOT NULL, "
+            + "PRIMARY KEY (machine_id, bucket_seconds, bucket_start))",
+        "CREATE TABLE IF NOT EXISTS trip_segment ("
+            + "id BIGINT AUTO_INCREMENT PRIMARY KEY, machine_id VARCHAR(64) NOT NULL, "
+            + "segment_type VARCHAR(16) NOT NULL, start_id INT NOT NULL, end_id INT NOT NULL, "
+            + "start_time TIMESTAMP(3) NOT NULL, end_time TIMESTAMP(3) NOT NULL, point_count BIGINT NOT NULL, "
+            + "distance DOUBLE NOT NULL, speed_sum DOUBLE NOT NULL, speed_max DOUBLE NOT NULL, "
+            + "start_latitude DOUBLE NOT NULL, start_longitude DOUBLE NOT NULL, "
+            + "end_latitude DOUBLE NOT NULL, end_longitude DOUBLE NOT NULL)",
+        "CREATE INDEX IF NOT EXISTS idx_trip_segment_machine ON trip_segment (machine_id, start_time)",
+        "CREATE TABLE IF NOT EXISTS field_coverage ("
+            + "field_id VARCHAR(64) NOT NULL PRIMARY KEY, machine_id VARCHAR(64), boundary VARCHAR(65535) NOT NULL, "
+            + "width_meters DOUBLE NOT NULL, cell_meters DOUBLE NOT NULL, field_cells INT NOT NULL, "
+            + "covered_cells INT NOT NULL, overlap_cells INT NOT NULL, covered_bitmap BLOB NOT NULL, "
+            + "overlap_bitmap BLOB NOT NULL, created_at TIMESTAMP(3) NOT NULL, updated_at TIMESTAMP(3) NOT NULL)"
+    };
+    
+    /**
+     * テーブルを作り直して、走行データをrows件入れておく
+     */
+    public static void resetDatabase(int rows) throws SQLException {
+        try (Connection conn = DatabaseUtil.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (String sql : SCHEMA) {
+                stmt.execute(sql);
+            }
+            stmt.execute("TRUNCATE TABLE trip_data RESTART IDENTITY");
+            stmt.execute("TRUNCATE TABLE sensor_data RESTART IDENTITY");
+            stmt.execute("TRUNCATE TABLE trip_rollup");
+            stmt.execute("TRUNCATE TABLE trip_segment RESTART IDENTITY");
+            stmt.execute("TRUNCATE TABLE field_coverage");
+        }
+        
+        if (rows > 0) {
+            insertTripRows(rows);
+        }
+    }
+    
+    // 1秒おきに少しずつ進む走行データを入れる
+    private static void insertTripRows(int rows) throws SQLException {
+        String sql = "INSERT INTO trip_data (speed, distance, latitude, longitude, recorded_at) "
+            + "VALUES (?, ?, ?, ?, ?)";
+        long start = System.currentTimeMillis() - rows * 1000L;
+        
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            conn.setAutoCommit(false);
+            for (int i = 0; i < rows; i++) {
+                stmt.setDouble(1, 5 + (i % 50) / 10.0);
+                stmt.setDouble(2, i * 1.5);
+                stmt.setDouble(3, 36.5 + i * 0.00001);
+                stmt.setDouble(4, 138.5 + (i % 200) * 0.00001);
+                stmt.setTimestamp(5, new Timestamp(start + i * 1000L));
+                stmt.addBatch();
+                if (i % 1000 == 999) {
+                    stmt.executeBatch();
+                }
+            }
+            stmt.executeBatch();
+            conn.commit();
+        }
+    }
+    
+    /**
+     * アプリのログ（System.out）を捨てる
+     * LOG_LEVEL=DEBUG のときは1リクエストごとにログを出すので、そのままだと測定結果がログの速さになってしまう
+     */
+    public static void silenceAppLogs() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
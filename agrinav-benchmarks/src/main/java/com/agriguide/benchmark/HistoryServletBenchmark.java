@@ -0,0 +1,102 @@
+package com.agriguide.benchmark;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.agriguide.controller.HistoryDataServlet;
+import com.agriguide.util.DatabaseUtil;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * /api/history-data のGETを、サーブレットごと呼んだときの速さ
+ *
+ * - latest10 / latest100: 最新N件（メモリ上のバッファから返す）
+ * - page1000 / page10000: afterId を使ったページング（H2から読みながら書き出す）
+ *
+ * 同じリクエストばかりだとキャッシュの速さを測ることになるので、
+ * ページングは afterId を変えながら呼び、最新N件はレスポンスのキャッシュあり・なしの両方を測ります。
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryServletBenchmark {
+    
+    private static final int ROWS = 20000;
+    
+    // ページングで順番に使う afterId の数と間隔（最後のページも limit 件そろうようにする）
+    private static final int PAGES = 16;
+    private static final int PAGE_STEP = 500;
+    
+    @Param({ "latest10", "latest100", "page1000", "page10000" })
+    public String query;
+    
+    // false の場合はレスポンスをとっておかない（RESPONSE_CACHE_SIZE=0。毎回作る速さを測る）
+    @Param({ "true", "false" })
+    public boolean responseCache;
+    
+    private HistoryDataServlet servlet;
+    private HttpServletRequest[] requests;
+    private int next;
+    private HttpServletResponse response;
+    private MockServlet.CountingWriter writer;
+    
+    @Setup
+    public void setUp() throws SQLException, ServletException {
+        BenchmarkSupport.silenceAppLogs();
+        BenchmarkSupport.resetDatabase(ROWS);
+        
+        // キャッシュの大きさはサーブレットを作るときに読む
+        System.setProperty("RESPONSE_CACHE_SIZE", responseCache ? "32" : "0");
+        servlet = new HistoryDataServlet();
+        servlet.init(MockServlet.config("HistoryDataServlet"));
+        
+        requests = new HttpServletRequest[query.startsWith("latest") ? 1 : PAGES];
+        for (int i = 0; i < requests.length; i++) {
+            Map<String, String> params = new HashMap<>();
+            if (query.startsWith("latest")) {
+                params.put("limit", query.substring("latest".length()));
+            } else {
+                params.put("afterId", Integer.toString(i * PAGE_STEP));
+                params.put("limit", query.substring("page".length()));
+            }
+            requests[i] = MockServlet.get("/agrinav-system/api/history-data", params);
+        }
+        writer = new MockServlet.CountingWriter();
+        response = MockServlet.response(writer);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        DatabaseUtil.shutdown();
+    }
+    
+    @Benchmark
+    public long doGet() throws ServletException, IOException {
+        HttpServletRequest request = requests[next];
+        next = (next + 1) % requests.length;
+        servlet.service(request, response);
+        return writer.getCount();
+    }
+}
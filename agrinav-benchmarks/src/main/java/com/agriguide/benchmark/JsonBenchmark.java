@@ -0,0 +1,70 @@
+package com.agriguide.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.agriguide.model.TripData;
+import com.agriguide.model.TripPoints;
+import com.agriguide.util.JsonUtil;
+
+/**
+ * JSON変換の速さ（JsonUtil.toJson / toJsonArray）
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+    
+    @Param({ "1", "10", "100", "1000" })
+    public int size;
+    
+    private TripData single;
+    private List<TripData> list;
+    private TripPoints points;
+    
+    @Setup
+    public void setUp() {
+        list = new ArrayList<>(size);
+        points = new TripPoints(size);
+        for (int i = 0; i < size; i++) {
+            double speed = 5 + (i % 50) / 10.0;
+            double distance = i * 1.5;
+            double latitude = 36.5 + i * 0.00001;
+            double longitude = 138.5 + (i % 200) * 0.00001;
+            list.add(new TripData(i + 1, speed, distance, latitude, longitude));
+            points.add(i + 1, speed, distance, latitude, longitude);
+        }
+        single = list.get(0);
+    }
+    
+    @Benchmark
+    public String toJson() {
+        return JsonUtil.toJson(single);
+    }
+    
+    @Benchmark
+    public String toJsonArrayList() {
+        return JsonUtil.toJsonArray(list);
+    }
+    
+    @Benchmark
+    public String toJsonArrayPoints() {
+        return JsonUtil.toJsonArray(points);
+    }
+}
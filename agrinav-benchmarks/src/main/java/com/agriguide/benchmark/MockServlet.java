@@ -0,0 +1,113 @@
+package com.agriguide.benchmark;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+
+import jakarta.servlet.ServletConfig;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Tomcat無しでサーブレットを呼ぶための、最低限のリクエスト・レスポンス
+ * （java.lang.reflect.Proxy で必要なメソッドだけ答える）
+ */
+public class MockServlet {
+    
+    /**
+     * 書き込まれた文字数だけを数えるWriter（内容は捨てる）
+     */
+    public static class CountingWriter extends Writer {
+        private long count;
+        
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+        
+        @Override
+        public void write(String str, int off, int len) {
+            count += len;
+        }
+        
+        @Override
+        public void write(int c) {
+            count++;
+        }
+        
+        @Override
+        public void flush() {
+        }
+        
+        @Override
+        public void close() {
+        }
+        
+        public long getCount() {
+            return count;
+        }
+    }
+    
+    /**
+     * GETリクエスト（非同期は使わない）
+     */
+    public static HttpServletRequest get(String uri, Map<String, String> params) {
+        return (HttpServletRequest) Proxy.newProxyInstance(MockServlet.class.getClassLoader(),
+            new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getMethod": return "GET";
+                    case "getRequestURI": return uri;
+                    case "getProtocol": return "HTTP/1.1";
+                    case "getParameter": return params.get((String) args[0]);
+                    case "getParameterMap": return params;
+                    case "getParameterNames": return Collections.enumeration(params.keySet());
+                    case "getHeaders": return Collections.emptyEnumeration();
+                    case "getHeaderNames": return Collections.emptyEnumeration();
+                    case "isAsyncSupported": return false;
+                    case "getDateHeader": return -1L;
+                    default: return defaultValue(method.getReturnType());
+                }
+            });
+    }
+    
+    /**
+     * レスポンス（本文はwriterへ、ヘッダーなどは捨てる）
+     */
+    public static HttpServletResponse response(CountingWriter writer) {
+        PrintWriter printWriter = new PrintWriter(writer);
+        int[] status = { 200 };
+        return (HttpServletResponse) Proxy.newProxyInstance(MockServlet.class.getClassLoader(),
+            new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getWriter": return printWriter;
+                    case "setStatus": status[0] = (Integer) args[0]; return null;
+                    case "getStatus": return status[0];
+                    case "getCharacterEncoding": return "UTF-8";
+                    default: return defaultValue(method.getReturnType());
+                }
+            });
+    }
+    
+    /**
+     * サーブレットのinit()に渡す設定
+     */
+    public static ServletConfig config(String name) {
+        return (ServletConfig) Proxy.newProxyInstance(MockServlet.class.getClassLoader(),
+            new Class<?>[] { ServletConfig.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getServletName": return name;
+                    case "getInitParameterNames": return Collections.emptyEnumeration();
+                    default: return defaultValue(method.getReturnType());
+                }
+            });
+    }
+    
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+}
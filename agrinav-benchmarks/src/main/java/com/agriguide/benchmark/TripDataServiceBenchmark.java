@@ -0,0 +1,86 @@
+package com.agriguide.benchmark;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.agriguide.model.TripData;
+import com.agriguide.service.TripDataService;
+import com.agriguide.util.DatabaseUtil;
+
+/**
+ * 走行データの検証と保存の速さ（H2データベース）
+ *
+ * サーブレットと同じ TripDataService.getInstance() を測ります（バッファ・集計・区間などの更新も含む）。
+ * ライトビハインドの有無は WRITE_BEHIND_ENABLED で決まります（初期値は無効で、その場で保存する）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TripDataServiceBenchmark {
+    
+    private static final int BATCH_SIZE = 100;
+    
+    private TripDataService service;
+    private List<TripData> batch;
+    private int counter;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        BenchmarkSupport.silenceAppLogs();
+        BenchmarkSupport.resetDatabase(0);
+        service = TripDataService.getInstance();
+        
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new TripData(8.5, 150.3 + i, 36.5 + i * 0.0001, 138.5));
+        }
+    }
+    
+    // 保存した行がたまり続けないように、測定の区切りごとに空にする
+    @TearDown(Level.Iteration)
+    public void truncate() throws SQLException {
+        BenchmarkSupport.resetDatabase(0);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.shutdown();
+        DatabaseUtil.shutdown();
+    }
+    
+    @Benchmark
+    public String validate() {
+        int i = counter++;
+        return service.validate(i % 100, (i % 1000) * 1.5, 36.5, 138.5);
+    }
+    
+    @Benchmark
+    public int saveTripData() {
+        int i = counter++;
+        return service.saveTripData(8.5, (i % 1000) * 1.5, 36.5 + (i % 100) * 0.0001, 138.5);
+    }
+    
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int saveTripDataBatch() {
+        return service.saveTripDataBatch(batch);
+    }
+}
@@ -0,0 +1,434 @@
+package com.agriguide.loadtest;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletMapping;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 負荷テスト用の小さなサーブレットコンテナ
+ *
+ * JDKに入っている HttpServer（com.sun.net.httpserver）でHTTPを受けて、
+ * アプリのフィルターとサーブレットをそのまま呼びます。
+ * Tomcatと同じように「決まった数のリクエスト用スレッド」で処理するので、
+ * スレッドやコネクションプールが足りなくなる様子を再現できます。
+ *
+ * 非同期（startAsync）には対応していないので、サーブレットはリクエスト用スレッドで
+ * そのまま動きます（ASYNC_SERVLETS_ENABLED=false のTomcatと同じ動き）。
+ * レスポンスは全部メモリにためてから送ります。
+ */
+public class EmbeddedServer {
+    
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+    
+    private final HttpServer server;
+    private final ExecutorService threads;
+    
+    // URL → サーブレット（完全一致）、フィルターは /agrinav-system/api/ 以下に使う
+    private final Map<String, HttpServlet> servlets = new LinkedHashMap<>();
+    private final List<Filter> apiFilters = new ArrayList<>();
+    
+    /**
+     * @param port 待ち受けるポート（0は空いているポート）
+     * @param maxThreads リクエスト用スレッドの数（Tomcatの maxThreads）
+     */
+    public EmbeddedServer(int port, int maxThreads) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        AtomicInteger number = new AtomicInteger();
+        this.threads = Executors.newFixedThreadPool(maxThreads, r -> {
+            Thread t = new Thread(r, "loadtest-http-" + number.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(threads);
+        server.createContext("/", this::handle);
+    }
+    
+    /**
+     * サーブレットを登録する（init() もここで呼ぶ）
+     */
+    public void addServlet(String path, HttpServlet servlet) throws ServletException {
+        servlet.init(config(servlet.getClass().getSimpleName()));
+        servlets.put(path, servlet);
+    }
+    
+    /**
+     * /agrinav-system/api/ 以下のリクエストに使うフィルターを登録する（登録した順に通る）
+     */
+    public void addApiFilter(Filter filter) {
+        apiFilters.add(filter);
+    }
+    
+    public void start() {
+        server.start();
+    }
+    
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    public void stop() {
+        server.stop(0);
+        threads.shutdown();
+        try {
+            threads.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (HttpServlet servlet : servlets.values()) {
+            servlet.destroy();
+        }
+    }
+    
+    // 1リクエストの処理（HttpServer のスレッドで動く）
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            HttpServlet servlet = servlets.get(path);
+            if (servlet == null) {
+                exchange.getRequestBody().readAllBytes();
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            
+            Exchange state = new Exchange(exchange, path);
+            HttpServletRequest request = state.request();
+            HttpServletResponse response = state.response();
+            List<Filter> filters = path.startsWith("/agrinav-system/api/") ? apiFilters : List.of();
+            try {
+                new Chain(filters, servlet).doFilter(request, response);
+            } catch (Exception e) {
+                state.reset();
+                state.status = 500;
+            }
+            state.send();
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    /**
+     * フィルターを順番に通して、最後にサーブレットを呼ぶ
+     */
+    private static class Chain implements FilterChain {
+        private final List<Filter> filters;
+        private final HttpServlet servlet;
+        private int next;
+        
+        Chain(List<Filter> filters, HttpServlet servlet) {
+            this.filters = filters;
+            this.servlet = servlet;
+        }
+        
+        @Override
+        public void doFilter(jakarta.servlet.ServletRequest request, jakarta.servlet.ServletResponse response)
+                throws IOException, ServletException {
+            if (next < filters.size()) {
+                filters.get(next++).doFilter(request, response, this);
+            } else {
+                servlet.service(request, response);
+            }
+        }
+    }
+    
+    /**
+     * 1回分のリクエストとレスポンスの状態
+     * （MockServlet と同じく java.lang.reflect.Proxy で必要なメソッドだけ答える）
+     */
+    private static class Exchange {
+        private final HttpExchange exchange;
+        private final String path;
+        private final Map<String, List<String>> params = new LinkedHashMap<>();
+        private final byte[] body;
+        
+        private int status = 200;
+        private final Headers headers = new Headers();
+        private String contentType;
+        private String characterEncoding;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+        private PrintWriter writer;
+        private ServletOutputStream output;
+        
+        Exchange(HttpExchange exchange, String path) throws IOException {
+            this.exchange = exchange;
+            this.path = path;
+            this.body = exchange.getRequestBody().readAllBytes();
+            parseQuery(exchange.getRequestURI().getRawQuery());
+            String type = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (type != null && type.startsWith("application/x-www-form-urlencoded")) {
+                parseQuery(new String(body, StandardCharsets.UTF_8));
+            }
+        }
+        
+        private void parseQuery(String query) {
+            if (query == null || query.isEmpty()) {
+                return;
+            }
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+                String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+                params.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+            }
+        }
+        
+        private Map<String, String[]> parameterMap() {
+            Map<String, String[]> map = new LinkedHashMap<>();
+            params.forEach((name, values) -> map.put(name, values.toArray(new String[0])));
+            return map;
+        }
+        
+        HttpServletRequest request() {
+            Headers in = exchange.getRequestHeaders();
+            return (HttpServletRequest) Proxy.newProxyInstance(EmbeddedServer.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getMethod": return exchange.getRequestMethod();
+                        case "getRequestURI": return path;
+                        case "getQueryString": return exchange.getRequestURI().getRawQuery();
+                        case "getProtocol": return exchange.getProtocol();
+                        case "getScheme": return "http";
+                        case "getRemoteAddr": return exchange.getRemoteAddress().getAddress().getHostAddress();
+                        case "getParameter": {
+                            List<String> values = params.get((String) args[0]);
+                            return values != null ? values.get(0) : null;
+                        }
+                        case "getParameterValues": {
+                            List<String> values = params.get((String) args[0]);
+                            return values != null ? values.toArray(new String[0]) : null;
+                        }
+                        case "getParameterMap": return parameterMap();
+                        case "getParameterNames": return Collections.enumeration(params.keySet());
+                        case "getHeader": return in.getFirst((String) args[0]);
+                        case "getHeaders": {
+                            List<String> values = in.get((String) args[0]);
+                            return Collections.enumeration(values != null ? values : List.<String>of());
+                        }
+                        case "getHeaderNames": return Collections.enumeration(in.keySet());
+                        case "getDateHeader": return dateHeader(in.getFirst((String) args[0]));
+                        case "getContentType": return in.getFirst("Content-Type");
+                        case "getContentLength": return body.length;
+                        case "getContentLengthLong": return (long) body.length;
+                        case "getCharacterEncoding": return "UTF-8";
+                        case "getInputStream": return inputStream(new ByteArrayInputStream(body));
+                        case "getReader": return new BufferedReader(
+                            new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+                        case "getHttpServletMapping": return mapping(path);
+                        case "isAsyncSupported": return false;
+                        case "isAsyncStarted": return false;
+                        default: return defaultValue(method.getReturnType());
+                    }
+                });
+        }
+        
+        HttpServletResponse response() {
+            return (HttpServletResponse) Proxy.newProxyInstance(EmbeddedServer.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setStatus": status = (Integer) args[0]; return null;
+                        case "sendError": status = (Integer) args[0]; return null;
+                        case "getStatus": return status;
+                        case "setHeader": headers.set((String) args[0], String.valueOf(args[1])); return null;
+                        case "addHeader": headers.add((String) args[0], String.valueOf(args[1])); return null;
+                        case "setIntHeader": headers.set((String) args[0], String.valueOf(args[1])); return null;
+                        case "setDateHeader": headers.set((String) args[0], formatDate((Long) args[1])); return null;
+                        case "getHeader": return headers.getFirst((String) args[0]);
+                        case "containsHeader": return headers.containsKey((String) args[0]);
+                        case "setContentType": contentType = (String) args[0]; return null;
+                        case "getContentType": return contentType;
+                        case "setCharacterEncoding": characterEncoding = (String) args[0]; return null;
+                        case "getCharacterEncoding": return characterEncoding != null ? characterEncoding : "ISO-8859-1";
+                        case "getWriter": return writer();
+                        case "getOutputStream": return outputStream();
+                        case "isCommitted": return false;
+                        case "reset": reset(); return null;
+                        case "resetBuffer": buffer.reset(); return null;
+                        default: return defaultValue(method.getReturnType());
+                    }
+                });
+        }
+        
+        private PrintWriter writer() {
+            if (writer == null) {
+                Charset charset = Charset.forName(characterEncoding != null ? characterEncoding : "ISO-8859-1");
+                writer = new PrintWriter(new OutputStreamWriter(buffer, charset));
+            }
+            return writer;
+        }
+        
+        private ServletOutputStream outputStream() {
+            if (output == null) {
+                output = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) {
+                        buffer.write(b);
+                    }
+                    
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        buffer.write(b, off, len);
+                    }
+                    
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+                    
+                    @Override
+                    public void setWriteListener(WriteListener listener) {
+                    }
+                };
+            }
+            return output;
+        }
+        
+        void reset() {
+            if (writer != null) {
+                writer.flush();
+            }
+            buffer.reset();
+            headers.clear();
+            contentType = null;
+            status = 200;
+        }
+        
+        // ためておいたレスポンスを送る
+        void send() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            Headers out = exchange.getResponseHeaders();
+            out.putAll(headers);
+            if (contentType != null) {
+                boolean hasCharset = contentType.contains("charset=");
+                out.set("Content-Type", contentType
+                    + (!hasCharset && characterEncoding != null ? ";charset=" + characterEncoding : ""));
+            }
+            byte[] bytes = buffer.toByteArray();
+            boolean noBody = status == 304 || status == 204 || exchange.getRequestMethod().equals("HEAD");
+            exchange.sendResponseHeaders(status, noBody || bytes.length == 0 ? -1 : bytes.length);
+            if (!noBody && bytes.length > 0) {
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(bytes);
+                }
+            }
+        }
+    }
+    
+    private static long dateHeader(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value, HTTP_DATE).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid date header: " + value);
+        }
+    }
+    
+    private static String formatDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+    }
+    
+    private static ServletInputStream inputStream(InputStream in) {
+        return new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in.read(b, off, len);
+            }
+            
+            @Override
+            public boolean isFinished() {
+                try {
+                    return in.available() == 0;
+                } catch (IOException e) {
+                    return true;
+                }
+            }
+            
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+            
+            @Override
+            public void setReadListener(ReadListener listener) {
+            }
+        };
+    }
+    
+    private static HttpServletMapping mapping(String pattern) {
+        return (HttpServletMapping) Proxy.newProxyInstance(EmbeddedServer.class.getClassLoader(),
+            new Class<?>[] { HttpServletMapping.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getPattern": return pattern;
+                    case "getMatchValue": return pattern;
+                    default: return defaultValue(method.getReturnType());
+                }
+            });
+    }
+    
+    private static ServletConfig config(String name) {
+        return (ServletConfig) Proxy.newProxyInstance(EmbeddedServer.class.getClassLoader(),
+            new Class<?>[] { ServletConfig.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getServletName": return name;
+                    case "getInitParameterNames": return Collections.emptyEnumeration();
+                    default: return defaultValue(method.getReturnType());
+                }
+            });
+    }
+    
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        return null;
+    }
+}
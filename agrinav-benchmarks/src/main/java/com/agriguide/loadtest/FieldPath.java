@@ -0,0 +1,162 @@
+package com.agriguide.loadtest;
+
+import java.util.Random;
+
+/**
+ * 1台の農機の動きを作るクラス（負荷テスト用）
+ *
+ * 倉庫から道路を走って圃場へ行き、作業幅ずつ往復しながら作業して
+ * （端で速度を落として折り返す）、ときどき止まって（荷下ろしなど）、
+ * 終わったら倉庫へ戻る、をくり返します。
+ * 速度は km/h、距離は走った合計（m）で、APIに送る値と同じ単位です。
+ */
+public class FieldPath {
+    
+    // 緯度1度あたりの距離（m）
+    private static final double METERS_PER_DEG_LAT = 111_320.0;
+    
+    private static final double ROAD_SPEED_KMH = 30;
+    private static final double WORK_SPEED_KMH = 7;
+    private static final double TURN_SPEED_KMH = 3;
+    
+    private enum Phase { TO_FIELD, WORKING, TURNING, STOPPED, TO_YARD }
+    
+    private final Random random;
+    private final double metersPerDegLon;
+    
+    // 倉庫と圃場（圃場の南西の角からの東・北方向の長さ、m）
+    private final double yardLat;
+    private final double yardLon;
+    private final double fieldLat;
+    private final double fieldLon;
+    private final double fieldWidth;
+    private final double fieldLength;
+    private final double implementWidth;
+    
+    // 今の状態（圃場の南西の角からの位置、m）
+    private Phase phase = Phase.TO_FIELD;
+    private double x;
+    private double y;
+    private int pass;
+    private boolean north = true;
+    private double phaseLeft;
+    private double odometer;
+    private double speedKmh;
+    
+    /**
+     * @param machineIndex 機械の番号（圃場の場所がずれるように使う）
+     * @param seed 乱数の種（同じ値なら同じ動きになる）
+     */
+    public FieldPath(int machineIndex, long seed) {
+        this.random = new Random(seed + machineIndex);
+        this.yardLat = 36.5 + (machineIndex / 20) * 0.02;
+        this.yardLon = 138.5 + (machineIndex % 20) * 0.02;
+        this.metersPerDegLon = METERS_PER_DEG_LAT * Math.cos(Math.toRadians(yardLat));
+        this.fieldLat = yardLat + 0.004 + random.nextDouble() * 0.004;
+        this.fieldLon = yardLon + 0.004 + random.nextDouble() * 0.004;
+        this.fieldWidth = 150 + random.nextInt(250);
+        this.fieldLength = 200 + random.nextInt(300);
+        this.implementWidth = 4 + random.nextInt(5);
+        this.x = (yardLon - fieldLon) * metersPerDegLon;
+        this.y = (yardLat - fieldLat) * METERS_PER_DEG_LAT;
+    }
+    
+    /**
+     * dtSeconds 秒だけ進める
+     */
+    public void advance(double dtSeconds) {
+        double step = speedKmh / 3.6 * dtSeconds;
+        switch (phase) {
+            case TO_FIELD:
+                speedKmh = ROAD_SPEED_KMH;
+                if (moveTowards(0, 0, step)) {
+                    startPass();
+                }
+                break;
+            case WORKING:
+                speedKmh = WORK_SPEED_KMH + random.nextGaussian() * 0.3;
+                y += north ? step : -step;
+                if (north ? y >= fieldLength : y <= 0) {
+                    y = north ? fieldLength : 0;
+                    phase = Phase.TURNING;
+                    phaseLeft = implementWidth * Math.PI / 2;
+                } else if (random.nextDouble() < dtSeconds / 600) {
+                    // 平均10分に1回止まる（30〜120秒）
+                    phase = Phase.STOPPED;
+                    phaseLeft = 30 + random.nextInt(90);
+                }
+                break;
+            case TURNING:
+                speedKmh = TURN_SPEED_KMH;
+                phaseLeft -= step;
+                if (phaseLeft <= 0) {
+                    pass++;
+                    if ((pass + 1) * implementWidth > fieldWidth) {
+                        phase = Phase.TO_YARD;
+                    } else {
+                        north = !north;
+                        startPass();
+                    }
+                }
+                break;
+            case STOPPED:
+                speedKmh = 0;
+                phaseLeft -= dtSeconds;
+                if (phaseLeft <= 0) {
+                    phase = Phase.WORKING;
+                }
+                break;
+            case TO_YARD:
+                speedKmh = ROAD_SPEED_KMH;
+                if (moveTowards((yardLon - fieldLon) * metersPerDegLon, (yardLat - fieldLat) * METERS_PER_DEG_LAT, step)) {
+                    // 倉庫に着いたら、最初から作業し直す
+                    pass = 0;
+                    north = true;
+                    phase = Phase.TO_FIELD;
+                }
+                break;
+        }
+        odometer += Math.abs(step);
+        if (odometer > 100_000) {
+            // APIの上限（100km）を超えたら0に戻す（トリップメーターのリセット）
+            odometer = 0;
+        }
+        speedKmh = Math.max(0, speedKmh);
+    }
+    
+    private void startPass() {
+        phase = Phase.WORKING;
+        x = pass * implementWidth + implementWidth / 2;
+    }
+    
+    // 目的地へまっすぐ進む（着いたら true）
+    private boolean moveTowards(double tx, double ty, double step) {
+        double dx = tx - x;
+        double dy = ty - y;
+        double d = Math.hypot(dx, dy);
+        if (d <= step) {
+            x = tx;
+            y = ty;
+            return true;
+        }
+        x += dx / d * step;
+        y += dy / d * step;
+        return false;
+    }
+    
+    public double getLatitude() {
+        return fieldLat + y / METERS_PER_DEG_LAT;
+    }
+    
+    public double getLongitude() {
+        return fieldLon + x / metersPerDegLon;
+    }
+    
+    public double getSpeedKmh() {
+        return speedKmh;
+    }
+    
+    public double getDistance() {
+        return odometer;
+    }
+}
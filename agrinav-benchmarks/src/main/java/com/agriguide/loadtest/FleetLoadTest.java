@@ -0,0 +1,571 @@
+package com.agriguide.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.agriguide.benchmark.BenchmarkSupport;
+import com.agriguide.controller.AppLifecycleListener;
+import com.agriguide.controller.CompressionFilter;
+import com.agriguide.controller.HistoryDataServlet;
+import com.agriguide.controller.MetricsFilter;
+import com.agriguide.controller.MetricsServlet;
+import com.agriguide.controller.SensorDataServlet;
+import com.agriguide.util.DatabaseUtil;
+
+/**
+ * 農機の台数を増やしながら負荷をかけて、どこで詰まるか（飽和点）を探すツール
+ *
+ * - 農機 N台: 圃場を往復しながら、GPSの位置を /api/history-data へ、速度を /api/sensor-data へ送る
+ * - ダッシュボード M画面: /api/sensor-data と /api/history-data を一定間隔で読む（ETagを送る）
+ *
+ * 何も指定しない場合は、このプロセスの中でサーブレットとH2（MySQLの代わり）を動かします。
+ * url= を指定すると、すでに動いているサーバー（ステージングのTomcatなど）に負荷をかけます。
+ *
+ * 処理時間は「送るはずだった時刻」から数えるので、サーバーが詰まって送信が遅れた分も
+ * 結果に入ります（遅れた分を無かったことにしない）。
+ *
+ * 実行例:
+ * <pre>
+ * java -cp target/benchmarks.jar com.agriguide.loadtest.FleetLoadTest machines=50,100,200,400 dashboards=20 duration=60
+ * </pre>
+ */
+public class FleetLoadTest {
+    
+    private static final String SENSOR_PATH = "/agrinav-system/api/sensor-data";
+    private static final String HISTORY_PATH = "/agrinav-system/api/history-data";
+    
+    // 設定（key=value の引数、またはシステムプロパティ）
+    private final List<Integer> machineSteps;
+    private final double fixesPerSecond;
+    private final int dashboards;
+    private final long pollMillis;
+    private final int historyLimit;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int reportSeconds;
+    private final int maxInFlight;
+    private final double sloP99Millis;
+    private final long seed;
+    
+    private final String baseUrl;
+    private final boolean countRows;
+    
+    private final HttpClient client;
+    private final ExecutorService clientThreads;
+    private final ScheduledExecutorService scheduler;
+    private final Semaphore inFlight;
+    
+    // 操作ごとの記録（順番を保つ）
+    private final Map<String, OperationStats> operations = new LinkedHashMap<>();
+    private final OperationStats postTrip;
+    private final OperationStats postSensor;
+    private final OperationStats getSensor;
+    private final OperationStats getHistory;
+    
+    private FleetLoadTest(Map<String, String> options, String baseUrl, boolean countRows) {
+        this.machineSteps = parseSteps(option(options, "machines", "50"));
+        this.fixesPerSecond = Double.parseDouble(option(options, "rate", "1"));
+        this.dashboards = Integer.parseInt(option(options, "dashboards", "20"));
+        this.pollMillis = Long.parseLong(option(options, "poll", "1000"));
+        this.historyLimit = Integer.parseInt(option(options, "historyLimit", "100"));
+        this.warmupSeconds = Integer.parseInt(option(options, "warmup", "10"));
+        this.durationSeconds = Integer.parseInt(option(options, "duration", "60"));
+        this.reportSeconds = Integer.parseInt(option(options, "report", "10"));
+        this.maxInFlight = Integer.parseInt(option(options, "maxInFlight", "5000"));
+        this.sloP99Millis = Double.parseDouble(option(options, "sloP99", "500"));
+        this.seed = Long.parseLong(option(options, "seed", "42"));
+        this.baseUrl = baseUrl;
+        this.countRows = countRows;
+        
+        this.clientThreads = Executors.newFixedThreadPool(
+            Integer.parseInt(option(options, "clientThreads", "8")), daemon("loadtest-client"));
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(clientThreads)
+            .build();
+        this.scheduler = Executors.newScheduledThreadPool(4, daemon("loadtest-scheduler"));
+        this.inFlight = new Semaphore(maxInFlight);
+        
+        this.postTrip = operation("POST history-data");
+        this.postSensor = operation("POST sensor-data");
+        this.getSensor = operation("GET sensor-data");
+        this.getHistory = operation("GET history-data");
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                System.err.println("引数は key=value の形で指定してください: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        
+        String url = option(options, "url", null);
+        if (url != null) {
+            // 外のサーバーに負荷をかける（行数は JDBC_URL を指定した場合だけ数える）
+            boolean countRows = System.getProperty("JDBC_URL") != null;
+            new FleetLoadTest(options, url.replaceAll("/+$", ""), countRows).run();
+            return;
+        }
+        
+        // このプロセスの中でサーブレットとH2を動かす
+        BenchmarkSupport.resetDatabase(Integer.parseInt(option(options, "rows", "10000")));
+        AppLifecycleListener lifecycle = new AppLifecycleListener();
+        lifecycle.contextInitialized(null);
+        
+        EmbeddedServer server = new EmbeddedServer(Integer.parseInt(option(options, "port", "0")),
+            Integer.parseInt(option(options, "threads", "200")));
+        server.addApiFilter(new MetricsFilter());
+        server.addApiFilter(new CompressionFilter());
+        server.addServlet(SENSOR_PATH, new SensorDataServlet());
+        server.addServlet(HISTORY_PATH, new HistoryDataServlet());
+        server.addServlet("/agrinav-system/metrics", new MetricsServlet());
+        server.start();
+        System.out.println("📦 組み込みサーバー: http://127.0.0.1:" + server.getPort()
+            + "/agrinav-system/metrics で計測値を見られます");
+        
+        try {
+            new FleetLoadTest(options, "http://127.0.0.1:" + server.getPort(), true).run();
+        } finally {
+            server.stop();
+            lifecycle.contextDestroyed(null);
+        }
+    }
+    
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            value = System.getProperty("loadtest." + name);
+        }
+        return value != null ? value : defaultValue;
+    }
+    
+    private static List<Integer> parseSteps(String value) {
+        List<Integer> steps = new ArrayList<>();
+        for (String s : value.split(",")) {
+            steps.add(Integer.parseInt(s.trim()));
+        }
+        return steps;
+    }
+    
+    private OperationStats operation(String name) {
+        OperationStats stats = new OperationStats(name);
+        operations.put(name, stats);
+        return stats;
+    }
+    
+    private static ThreadFactory daemon(String prefix) {
+        AtomicInteger number = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + number.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+    
+    // ---- 実行 ----
+    
+    private void run() throws Exception {
+        System.out.printf(Locale.ROOT, "🚜 対象: %s, 農機 %s台（1台あたり %.1f件/秒）, ダッシュボード %d画面（%dms間隔）%n",
+            baseUrl, machineSteps, fixesPerSecond, dashboards, pollMillis);
+        
+        List<StepResult> results = new ArrayList<>();
+        int machineOffset = 0;
+        for (int machines : machineSteps) {
+            results.add(runStep(machines, machineOffset));
+            // 次の段階では別の機械IDを使う（前の段階の続きにしない）
+            machineOffset += machines;
+        }
+        
+        printSummary(results);
+        scheduler.shutdownNow();
+        clientThreads.shutdownNow();
+    }
+    
+    private StepResult runStep(int machines, int machineOffset) throws Exception {
+        System.out.printf("%n===== 農機 %d台 =====%n", machines);
+        List<ScheduledFuture<?>> tasks = new ArrayList<>();
+        
+        long periodNanos = (long) (1_000_000_000L / fixesPerSecond);
+        for (int i = 0; i < machines; i++) {
+            Machine machine = new Machine("load-" + (machineOffset + i), new FieldPath(machineOffset + i, seed),
+                periodNanos);
+            long delay = ThreadLocalRandom.current().nextLong(periodNanos);
+            machine.startNanos = System.nanoTime() + delay;
+            tasks.add(scheduler.scheduleAtFixedRate(machine::tick, delay, periodNanos, TimeUnit.NANOSECONDS));
+        }
+        for (int i = 0; i < dashboards; i++) {
+            Dashboard dashboard = new Dashboard(TimeUnit.MILLISECONDS.toNanos(pollMillis));
+            long delay = ThreadLocalRandom.current().nextLong(Math.max(1, pollMillis));
+            dashboard.startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            tasks.add(scheduler.scheduleAtFixedRate(dashboard::tick, delay, pollMillis, TimeUnit.MILLISECONDS));
+        }
+        
+        // ウォームアップ（記録はするが、結果には入れない）
+        Thread.sleep(warmupSeconds * 1000L);
+        Map<String, Counts> stepStart = snapshotAll();
+        long rowsAtStart = countRows();
+        long startNanos = System.nanoTime();
+        
+        // 途中経過を表示しながら待つ
+        Map<String, Counts> previous = stepStart;
+        long previousNanos = startNanos;
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        while (System.nanoTime() < endNanos) {
+            long sleep = Math.min(TimeUnit.SECONDS.toMillis(reportSeconds),
+                TimeUnit.NANOSECONDS.toMillis(endNanos - System.nanoTime()));
+            Thread.sleep(Math.max(1, sleep));
+            Map<String, Counts> now = snapshotAll();
+            long nowNanos = System.nanoTime();
+            printInterval((nowNanos - startNanos) / 1_000_000_000.0, previous, now, (nowNanos - previousNanos) / 1e9);
+            previous = now;
+            previousNanos = nowNanos;
+        }
+        Map<String, Counts> stepEnd = snapshotAll();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        
+        for (ScheduledFuture<?> task : tasks) {
+            task.cancel(false);
+        }
+        // 送った分の返事を待つ（最大30秒）
+        inFlight.tryAcquire(maxInFlight, 30, TimeUnit.SECONDS);
+        inFlight.release(maxInFlight);
+        
+        long rows = countRows() - rowsAtStart;
+        StepResult result = new StepResult(machines, seconds, stepStart, stepEnd, rows);
+        printStep(result);
+        return result;
+    }
+    
+    /**
+     * 1台の農機（決まった間隔で位置と速度を送る）
+     */
+    private class Machine {
+        private final String id;
+        private final FieldPath path;
+        private final long periodNanos;
+        private long startNanos;
+        private long ticks;
+        
+        Machine(String id, FieldPath path, long periodNanos) {
+            this.id = id;
+            this.path = path;
+            this.periodNanos = periodNanos;
+        }
+        
+        void tick() {
+            long intended = startNanos + ticks++ * periodNanos;
+            path.advance(periodNanos / 1e9);
+            String speed = format(path.getSpeedKmh());
+            String distance = format(path.getDistance());
+            send(postTrip, intended, post(HISTORY_PATH, "machineId=" + id + "&speed=" + speed + "&distance=" + distance
+                + "&latitude=" + format7(path.getLatitude()) + "&longitude=" + format7(path.getLongitude())), null);
+            send(postSensor, intended, post(SENSOR_PATH, "machineId=" + id + "&speed=" + speed
+                + "&distance=" + distance), null);
+        }
+    }
+    
+    /**
+     * 1つのダッシュボード（ブラウザと同じく、前回のETagを送って読む）
+     */
+    private class Dashboard {
+        private final long periodNanos;
+        private long startNanos;
+        private long ticks;
+        private final AtomicReference<String> sensorEtag = new AtomicReference<>();
+        private final AtomicReference<String> historyEtag = new AtomicReference<>();
+        
+        Dashboard(long periodNanos) {
+            this.periodNanos = periodNanos;
+        }
+        
+        void tick() {
+            long intended = startNanos + ticks++ * periodNanos;
+            send(getSensor, intended, get(SENSOR_PATH, sensorEtag.get()), sensorEtag);
+            send(getHistory, intended, get(HISTORY_PATH + "?limit=" + historyLimit, historyEtag.get()), historyEtag);
+        }
+    }
+    
+    private HttpRequest post(String path, String form) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+            .timeout(Duration.ofSeconds(30))
+            .header("Content-Type", "application/x-www-form-urlencoded")
+            .POST(HttpRequest.BodyPublishers.ofString(form))
+            .build();
+    }
+    
+    private HttpRequest get(String path, String etag) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path))
+            .timeout(Duration.ofSeconds(30))
+            .header("Accept-Encoding", "gzip");
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        return builder.GET().build();
+    }
+    
+    // 送って、返事が来たら記録する（同時に送る数が上限なら送らずに数える）
+    private void send(OperationStats stats, long intendedNanos, HttpRequest request, AtomicReference<String> etag) {
+        if (!inFlight.tryAcquire()) {
+            stats.dropped.increment();
+            return;
+        }
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, error) -> {
+            inFlight.release();
+            stats.latency.record((System.nanoTime() - intendedNanos) / 1000);
+            if (error != null) {
+                stats.failures.increment();
+                return;
+            }
+            int status = response.statusCode();
+            if (status == 304) {
+                stats.notModified.increment();
+            } else if (status >= 400) {
+                stats.httpErrors.increment();
+            } else {
+                stats.ok.increment();
+            }
+            stats.bytes.add(response.body().length);
+            if (etag != null) {
+                response.headers().firstValue("ETag").ifPresent(etag::set);
+            }
+        });
+    }
+    
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+    
+    private static String format7(double value) {
+        return String.format(Locale.ROOT, "%.7f", value);
+    }
+    
+    // DBに書き込まれた行数（走行データ + センサーデータ）
+    private long countRows() {
+        if (!countRows) {
+            return 0;
+        }
+        try (Connection conn = DatabaseUtil.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                 "SELECT (SELECT COUNT(*) FROM trip_data) + (SELECT COUNT(*) FROM sensor_data)")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            System.out.println("⚠️ 行数を数えられません: " + e.getMessage());
+            return 0;
+        }
+    }
+    
+    // ---- 記録と表示 ----
+    
+    /**
+     * 1つの操作（例: POST history-data）の記録
+     */
+    private static class OperationStats {
+        private final String name;
+        private final LatencyRecorder latency = new LatencyRecorder();
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder notModified = new LongAdder();
+        private final LongAdder httpErrors = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        
+        OperationStats(String name) {
+            this.name = name;
+        }
+        
+        Counts snapshot() {
+            return new Counts(latency.snapshot(), ok.sum(), notModified.sum(), httpErrors.sum(),
+                failures.sum(), dropped.sum(), bytes.sum());
+        }
+    }
+    
+    /**
+     * ある時点の記録（差を取って区間の値にする）
+     */
+    private static class Counts {
+        final LatencyRecorder.Snapshot latency;
+        final long ok;
+        final long notModified;
+        final long httpErrors;
+        final long failures;
+        final long dropped;
+        final long bytes;
+        
+        Counts(LatencyRecorder.Snapshot latency, long ok, long notModified, long httpErrors,
+               long failures, long dropped, long bytes) {
+            this.latency = latency;
+            this.ok = ok;
+            this.notModified = notModified;
+            this.httpErrors = httpErrors;
+            this.failures = failures;
+            this.dropped = dropped;
+            this.bytes = bytes;
+        }
+        
+        Counts since(Counts earlier) {
+            return new Counts(latency.since(earlier.latency), ok - earlier.ok, notModified - earlier.notModified,
+                httpErrors - earlier.httpErrors, failures - earlier.failures, dropped - earlier.dropped,
+                bytes - earlier.bytes);
+        }
+        
+        long completed() {
+            return ok + notModified + httpErrors + failures;
+        }
+        
+        long errors() {
+            return httpErrors + failures + dropped;
+        }
+        
+        double errorRate() {
+            long attempted = completed() + dropped;
+            return attempted == 0 ? 0 : (double) errors() / attempted;
+        }
+    }
+    
+    /**
+     * 1段階（農機の台数ごと）の結果
+     */
+    private class StepResult {
+        final int machines;
+        final double seconds;
+        final Map<String, Counts> counts = new LinkedHashMap<>();
+        final long rows;
+        
+        StepResult(int machines, double seconds, Map<String, Counts> start, Map<String, Counts> end, long rows) {
+            this.machines = machines;
+            this.seconds = seconds;
+            this.rows = rows;
+            for (String name : end.keySet()) {
+                counts.put(name, end.get(name).since(start.get(name)));
+            }
+        }
+        
+        // 送るはずだった件数（1秒あたり）と、実際に受け付けられた件数
+        double targetWritesPerSecond() {
+            return machines * fixesPerSecond * 2;
+        }
+        
+        double acceptedWritesPerSecond() {
+            return (counts.get(postTrip.name).ok + counts.get(postSensor.name).ok) / seconds;
+        }
+        
+        double worstP99() {
+            double worst = 0;
+            for (Counts c : counts.values()) {
+                worst = Math.max(worst, c.latency.getPercentileMillis(99));
+            }
+            return worst;
+        }
+        
+        double worstErrorRate() {
+            double worst = 0;
+            for (Counts c : counts.values()) {
+                worst = Math.max(worst, c.errorRate());
+            }
+            return worst;
+        }
+        
+        // 飽和しているか（受け付けが目標の95%未満、エラー1%以上、p99が目標超え）
+        String verdict() {
+            List<String> reasons = new ArrayList<>();
+            if (acceptedWritesPerSecond() < targetWritesPerSecond() * 0.95) {
+                reasons.add("書き込みが追いつかない");
+            }
+            if (worstErrorRate() >= 0.01) {
+                reasons.add("エラー率");
+            }
+            if (worstP99() > sloP99Millis) {
+                reasons.add("p99 > " + (long) sloP99Millis + "ms");
+            }
+            return reasons.isEmpty() ? "OK" : "飽和（" + String.join(", ", reasons) + "）";
+        }
+    }
+    
+    private Map<String, Counts> snapshotAll() {
+        Map<String, Counts> snapshot = new LinkedHashMap<>();
+        for (OperationStats stats : operations.values()) {
+            snapshot.put(stats.name, stats.snapshot());
+        }
+        return snapshot;
+    }
+    
+    private void printInterval(double elapsed, Map<String, Counts> previous, Map<String, Counts> now, double seconds) {
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf(Locale.ROOT, "[%5.0fs] ヒープ %dMB, 返事待ち %d%n", elapsed,
+            (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024), maxInFlight - inFlight.availablePermits());
+        for (String name : now.keySet()) {
+            Counts c = now.get(name).since(previous.get(name));
+            System.out.printf(Locale.ROOT, "    %-18s %8.1f/s  p50 %8.2fms  p99 %8.2fms  エラー %d%n",
+                name, c.completed() / seconds, c.latency.getPercentileMillis(50),
+                c.latency.getPercentileMillis(99), c.errors());
+        }
+    }
+    
+    private void printStep(StepResult result) {
+        System.out.printf(Locale.ROOT, "%n--- 農機 %d台の結果（%.0f秒） ---%n", result.machines, result.seconds);
+        System.out.printf("%-18s %10s %10s %10s %10s %8s %8s %8s %10s%n",
+            "操作", "件/秒", "p50(ms)", "p99(ms)", "p99.9(ms)", "304", "エラー", "捨てた", "KB/秒");
+        for (Map.Entry<String, Counts> entry : result.counts.entrySet()) {
+            Counts c = entry.getValue();
+            System.out.printf(Locale.ROOT, "%-18s %10.1f %10.2f %10.2f %10.2f %8d %8d %8d %10.1f%n",
+                entry.getKey(), c.completed() / result.seconds,
+                c.latency.getPercentileMillis(50), c.latency.getPercentileMillis(99),
+                c.latency.getPercentileMillis(99.9), c.notModified, c.httpErrors + c.failures, c.dropped,
+                c.bytes / 1024.0 / result.seconds);
+        }
+        if (countRows) {
+            System.out.printf(Locale.ROOT, "DBに書き込まれた行: %d（%.1f行/秒）%n", result.rows, result.rows / result.seconds);
+        }
+        System.out.printf(Locale.ROOT, "書き込み: 目標 %.1f件/秒, 受付 %.1f件/秒 → %s%n",
+            result.targetWritesPerSecond(), result.acceptedWritesPerSecond(), result.verdict());
+    }
+    
+    private void printSummary(List<StepResult> results) {
+        System.out.printf("%n===== まとめ =====%n");
+        System.out.printf("%8s %12s %12s %12s %10s  %s%n", "農機", "目標(件/秒)", "受付(件/秒)", "最大p99(ms)",
+            "エラー率", "判定");
+        StepResult lastOk = null;
+        for (StepResult r : results) {
+            System.out.printf(Locale.ROOT, "%8d %12.1f %12.1f %12.2f %9.2f%%  %s%n", r.machines,
+                r.targetWritesPerSecond(), r.acceptedWritesPerSecond(), r.worstP99(), r.worstErrorRate() * 100,
+                r.verdict());
+            if (r.verdict().equals("OK")) {
+                lastOk = r;
+            }
+        }
+        if (lastOk != null) {
+            System.out.println("✅ 問題なく処理できた最大の台数: " + lastOk.machines + "台");
+        } else {
+            System.out.println("⚠️ どの段階でも飽和しました。台数を減らして試してください");
+        }
+    }
+}
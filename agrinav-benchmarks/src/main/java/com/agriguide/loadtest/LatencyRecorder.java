@@ -0,0 +1,114 @@
+package com.agriguide.loadtest;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 負荷テスト用の処理時間の記録
+ *
+ * アプリの LatencyHistogram はバケットが2倍ずつなので、p99.9 を比べるには粗すぎます。
+ * ここでは2倍ごとの範囲をさらに32個に分けるので、誤差は約3%です（32µs未満はそのままの値）。
+ * 記録は配列の数を1つ増やすだけなので、たくさんのスレッドから同時に呼べます。
+ */
+public class LatencyRecorder {
+    
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    
+    // 2^36µs（約19時間）まで
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = SUB_COUNT + (MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    
+    /**
+     * 1回分を記録（マイクロ秒）
+     */
+    public void record(long micros) {
+        counts.incrementAndGet(index(Math.max(0, micros)));
+    }
+    
+    private static int index(long micros) {
+        if (micros < SUB_COUNT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BITS;
+        int sub = (int) (micros >>> shift) & (SUB_COUNT - 1);
+        return SUB_COUNT + shift * SUB_COUNT + sub;
+    }
+    
+    // バケットに入る一番大きい値（マイクロ秒）
+    private static long upperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_COUNT) / SUB_COUNT;
+        int sub = (index - SUB_COUNT) % SUB_COUNT;
+        return ((long) (SUB_COUNT + sub) << shift) + (1L << shift) - 1;
+    }
+    
+    /**
+     * 今までの記録をコピーする（集計はコピーに対して行う）
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+    
+    /**
+     * ある時点の記録（2つの差を取ると、その間の記録になる）
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long total;
+        
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long sum = 0;
+            for (long c : counts) {
+                sum += c;
+            }
+            this.total = sum;
+        }
+        
+        /**
+         * earlier から後に記録された分
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] diff = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                diff[i] = counts[i] - (earlier != null ? earlier.counts[i] : 0);
+            }
+            return new Snapshot(diff);
+        }
+        
+        public long getCount() {
+            return total;
+        }
+        
+        /**
+         * パーセンタイル値（ミリ秒）。記録が無い場合は0
+         * @param percentile 0〜100（例: 99.9）
+         */
+        public double getPercentileMillis(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long threshold = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= threshold) {
+                    return upperBound(i) / 1000.0;
+                }
+            }
+            return upperBound(BUCKETS - 1) / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+-- trip_data に記録時刻（recorded_at）を追加するスクリプト（MySQL用）
+--
+-- 走行データを時間の範囲で読むために使います（/api/history-data?from=...&to=...）。
+-- 既存のデータは、保存された時刻（timestamp）を記録時刻としてコピーします。
+
+ALTER TABLE trip_data
+    ADD COLUMN recorded_at TIMESTAMP(3) NULL COMMENT '記録時刻';
+
+UPDATE trip_data SET recorded_at = `timestamp` WHERE recorded_at IS NULL;
+
+ALTER TABLE trip_data
+    MODIFY recorded_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) COMMENT '記録時刻';
+
+-- 時間の範囲で探すためのインデックス
+CREATE INDEX idx_trip_data_recorded_at ON trip_data (recorded_at, id);
+
+-- PostgreSQLの場合:
+-- ALTER TABLE trip_data ADD COLUMN recorded_at TIMESTAMP(3);
+-- UPDATE trip_data SET recorded_at = "timestamp" WHERE recorded_at IS NULL;
+-- ALTER TABLE trip_data ALTER COLUMN recorded_at SET NOT NULL;
+-- ALTER TABLE trip_data ALTER COLUMN recorded_at SET DEFAULT CURRENT_TIMESTAMP;
+-- CREATE INDEX idx_trip_data_recorded_at ON trip_data (recorded_at, id);
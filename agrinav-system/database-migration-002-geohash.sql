@@ -0,0 +1,14 @@
+-- trip_data にジオハッシュ（geohash）を追加するスクリプト（MySQL用）
+--
+-- 範囲検索（/api/history-data/area）で、地図のマスごとにインデックスで絞り込むために使います。
+-- 既存のデータのジオハッシュは、アプリの起動時に裏で少しずつ計算して入れます。
+
+ALTER TABLE trip_data
+    ADD COLUMN geohash BIGINT NULL COMMENT 'ジオハッシュ（52ビット）';
+
+-- マスの範囲と時刻で探すためのインデックス
+CREATE INDEX idx_trip_data_geohash ON trip_data (geohash, recorded_at);
+
+-- PostgreSQLの場合:
+-- ALTER TABLE trip_data ADD COLUMN geohash BIGINT;
+-- CREATE INDEX idx_trip_data_geohash ON trip_data (geohash, recorded_at);
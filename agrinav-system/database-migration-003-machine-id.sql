@@ -0,0 +1,20 @@
+-- sensor_data と trip_data に機械ID（machine_id）を追加するスクリプト（MySQL用）
+--
+-- 複数の機械（トラクターなど）のデータを区別するために使います。
+-- 既存のデータは 'default' の機械のデータになります。
+
+ALTER TABLE sensor_data
+    ADD COLUMN machine_id VARCHAR(64) NOT NULL DEFAULT 'default' COMMENT '機械ID';
+
+ALTER TABLE trip_data
+    ADD COLUMN machine_id VARCHAR(64) NOT NULL DEFAULT 'default' COMMENT '機械ID';
+
+-- 機械ごとの最新データ（MAX(id)）と、機械ごとのページングに使うインデックス
+CREATE INDEX idx_sensor_data_machine ON sensor_data (machine_id, id);
+CREATE INDEX idx_trip_data_machine ON trip_data (machine_id, id);
+
+-- PostgreSQLの場合:
+-- ALTER TABLE sensor_data ADD COLUMN machine_id VARCHAR(64) NOT NULL DEFAULT 'default';
+-- ALTER TABLE trip_data ADD COLUMN machine_id VARCHAR(64) NOT NULL DEFAULT 'default';
+-- CREATE INDEX idx_sensor_data_machine ON sensor_data (machine_id, id);
+-- CREATE INDEX idx_trip_data_machine ON trip_data (machine_id, id);
@@ -0,0 +1,67 @@
+-- 走行データの1分ごと・1時間ごとの集計テーブルを作るスクリプト（MySQL用）
+--
+-- アプリは走行データを保存するたびにメモリ上で集計し、ROLLUP_FLUSH_MS ごとにこのテーブルへ足し込みます。
+-- /api/trip-rollups はこのテーブルを読むので、元の走行データは読みません。
+-- distance_sum は機械ごとに前の点から進んだ距離の合計です（距離が0に戻った場合は、戻ってから走った分）。
+
+CREATE TABLE trip_rollup (
+    machine_id VARCHAR(64) NOT NULL COMMENT '機械ID',
+    bucket_seconds INT NOT NULL COMMENT '集計の単位（60 = 1分、3600 = 1時間）',
+    bucket_start TIMESTAMP NOT NULL COMMENT '集計の開始時刻',
+    point_count BIGINT NOT NULL COMMENT '件数',
+    speed_sum DOUBLE NOT NULL COMMENT '速度の合計',
+    speed_min DOUBLE NOT NULL COMMENT '速度の最小',
+    speed_max DOUBLE NOT NULL COMMENT '速度の最大',
+    distance_sum DOUBLE NOT NULL COMMENT '進んだ距離の合計（前の点からの差の合計）',
+    PRIMARY KEY (machine_id, bucket_seconds, bucket_start),
+    INDEX idx_trip_rollup_time (bucket_seconds, bucket_start)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='走行データの集計テーブル';
+
+-- 今までの走行データから集計を作る（アプリを止めている間に1回だけ実行してください）
+-- 距離は前の点（時刻順）からの差にしてから足します（アプリの TripRollupService と同じ計算）
+CREATE TEMPORARY TABLE trip_data_delta AS
+SELECT machine_id, recorded_at, speed,
+       CASE WHEN prev_distance IS NULL THEN 0
+            WHEN distance >= prev_distance THEN distance - prev_distance
+            ELSE distance END AS distance_delta
+FROM (SELECT machine_id, recorded_at, speed, distance,
+             LAG(distance) OVER (PARTITION BY machine_id ORDER BY recorded_at, id) AS prev_distance
+      FROM trip_data) t;
+
+INSERT INTO trip_rollup (machine_id, bucket_seconds, bucket_start, point_count, speed_sum,
+                         speed_min, speed_max, distance_sum)
+SELECT machine_id, 60, FROM_UNIXTIME(FLOOR(UNIX_TIMESTAMP(recorded_at) / 60) * 60),
+       COUNT(*), SUM(speed), MIN(speed), MAX(speed), SUM(distance_delta)
+FROM trip_data_delta
+GROUP BY machine_id, FLOOR(UNIX_TIMESTAMP(recorded_at) / 60);
+
+INSERT INTO trip_rollup (machine_id, bucket_seconds, bucket_start, point_count, speed_sum,
+                         speed_min, speed_max, distance_sum)
+SELECT machine_id, 3600, FROM_UNIXTIME(FLOOR(UNIX_TIMESTAMP(recorded_at) / 3600) * 3600),
+       COUNT(*), SUM(speed), MIN(speed), MAX(speed), SUM(distance_delta)
+FROM trip_data_delta
+GROUP BY machine_id, FLOOR(UNIX_TIMESTAMP(recorded_at) / 3600);
+
+DROP TEMPORARY TABLE trip_data_delta;
+
+-- PostgreSQLの場合は ENGINE / COMMENT / INDEX を外し、DOUBLE を DOUBLE PRECISION にして、インデックスは別に作ってください
+-- （テーブルは database-setup-postgresql.sql にもあります）:
+-- CREATE INDEX idx_trip_rollup_time ON trip_rollup (bucket_seconds, bucket_start);
+--
+-- 今までの走行データからの集計は、PostgreSQLでは FROM_UNIXTIME / UNIX_TIMESTAMP の代わりに date_trunc を使います
+-- （前の点からの差を入れる一時テーブルは、上と同じ CREATE TEMPORARY TABLE trip_data_delta AS ... で作れます）:
+-- INSERT INTO trip_rollup (machine_id, bucket_seconds, bucket_start, point_count, speed_sum,
+--                          speed_min, speed_max, distance_sum)
+-- SELECT machine_id, 60, date_trunc('minute', recorded_at),
+--        COUNT(*), SUM(speed), MIN(speed), MAX(speed), SUM(distance_delta)
+-- FROM trip_data_delta
+-- GROUP BY machine_id, date_trunc('minute', recorded_at);
+--
+-- INSERT INTO trip_rollup (machine_id, bucket_seconds, bucket_start, point_count, speed_sum,
+--                          speed_min, speed_max, distance_sum)
+-- SELECT machine_id, 3600, date_trunc('hour', recorded_at),
+--        COUNT(*), SUM(speed), MIN(speed), MAX(speed), SUM(distance_delta)
+-- FROM trip_data_delta
+-- GROUP BY machine_id, date_trunc('hour', recorded_at);
+--
+-- DROP TABLE trip_data_delta;
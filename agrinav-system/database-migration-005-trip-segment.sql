@@ -0,0 +1,29 @@
+-- 走行データを作業中・アイドル・停止・移動の区間に区切ったテーブルを作るスクリプト（MySQL用）
+--
+-- アプリは走行データを保存するたびに機械ごとに区間を区切り、終わった区間を SEGMENT_FLUSH_MS ごとにこのテーブルへ保存します。
+-- /api/trip-segments はこのテーブルを読むので、元の走行データは読みません。
+-- 今までの走行データの区間は作りません（このスクリプトを実行した後に保存された分から作ります）。
+
+CREATE TABLE trip_segment (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    machine_id VARCHAR(64) NOT NULL COMMENT '機械ID',
+    segment_type VARCHAR(16) NOT NULL COMMENT '区間の種類（moving / idle / stopped / transit）',
+    start_id INT NOT NULL COMMENT '最初の走行データのID',
+    end_id INT NOT NULL COMMENT '最後の走行データのID',
+    start_time TIMESTAMP(3) NOT NULL COMMENT '開始時刻',
+    end_time TIMESTAMP(3) NOT NULL COMMENT '終了時刻',
+    point_count BIGINT NOT NULL COMMENT '走行データの件数',
+    distance DOUBLE NOT NULL COMMENT '進んだ距離(m)',
+    speed_sum DOUBLE NOT NULL COMMENT '速度の合計',
+    speed_max DOUBLE NOT NULL COMMENT '速度の最大',
+    start_latitude DOUBLE NOT NULL COMMENT '開始位置の緯度',
+    start_longitude DOUBLE NOT NULL COMMENT '開始位置の経度',
+    end_latitude DOUBLE NOT NULL COMMENT '終了位置の緯度',
+    end_longitude DOUBLE NOT NULL COMMENT '終了位置の経度',
+    INDEX idx_trip_segment_machine (machine_id, start_time),
+    INDEX idx_trip_segment_time (start_time)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='走行データの区間テーブル';
+
+-- PostgreSQLの場合は id を BIGSERIAL PRIMARY KEY にして ENGINE / COMMENT / INDEX を外し、インデックスは別に作ってください:
+-- CREATE INDEX idx_trip_segment_machine ON trip_segment (machine_id, start_time);
+-- CREATE INDEX idx_trip_segment_time ON trip_segment (start_time);
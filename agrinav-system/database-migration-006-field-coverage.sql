@@ -0,0 +1,21 @@
+-- 圃場ごとの作業済みの範囲（散布・収穫が終わったマス目）のテーブルを作るスクリプト（MySQL用）
+--
+-- 圃場は /api/coverage へのPOSTで登録します。アプリは走行データを保存するたびにメモリ上のマス目を塗り、
+-- 変わった圃場を COVERAGE_SNAPSHOT_MS ごとにこのテーブルへ保存します（起動時に読み込みます）。
+
+CREATE TABLE field_coverage (
+    field_id VARCHAR(64) NOT NULL PRIMARY KEY COMMENT '圃場ID',
+    machine_id VARCHAR(64) NULL COMMENT 'この機械だけ数える（NULLは全部の機械）',
+    boundary TEXT NOT NULL COMMENT '圃場の境界（緯度,経度;緯度,経度;...）',
+    width_meters DOUBLE NOT NULL COMMENT '作業機の幅(m)',
+    cell_meters DOUBLE NOT NULL COMMENT '1マスの大きさ(m)',
+    field_cells INT NOT NULL COMMENT '圃場のマスの数',
+    covered_cells INT NOT NULL COMMENT '作業済みのマスの数',
+    overlap_cells INT NOT NULL COMMENT '重なりのマスの数',
+    covered_bitmap MEDIUMBLOB NOT NULL COMMENT '作業済みのマスのビット（Deflate圧縮）',
+    overlap_bitmap MEDIUMBLOB NOT NULL COMMENT '重なりのマスのビット（Deflate圧縮）',
+    created_at TIMESTAMP(3) NOT NULL COMMENT '登録した時刻',
+    updated_at TIMESTAMP(3) NOT NULL COMMENT '最後に塗った時刻'
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='圃場ごとの作業済みの範囲テーブル';
+
+-- PostgreSQLの場合は MEDIUMBLOB を BYTEA にして、ENGINE / COMMENT を外してください
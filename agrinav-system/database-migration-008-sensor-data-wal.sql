@@ -0,0 +1,17 @@
+-- sensor_data にライトアヘッドログのID（wal_id）と番号（wal_seq）を追加するスクリプト（MySQL用）
+--
+-- WAL_ENABLED=true の場合、ログから保存するセンサーデータに付けます。
+-- 保存の直後（チェックポイントの記録前）に落ちて同じデータを再生し直しても、
+-- 保存済みのデータは飛ばすので、センサーデータが2重になりません（走行データは 007 で同じ列を追加しています）。
+-- ログを使わずに保存したデータは両方NULLです（ユニークキーはNULL同士を同じとはみなしません）。
+
+ALTER TABLE sensor_data
+    ADD COLUMN wal_id VARCHAR(36) NULL COMMENT 'ライトアヘッドログのID',
+    ADD COLUMN wal_seq BIGINT NULL COMMENT 'ライトアヘッドログの中の番号';
+
+CREATE UNIQUE INDEX uk_sensor_data_wal ON sensor_data (wal_id, wal_seq);
+
+-- PostgreSQLの場合:
+-- ALTER TABLE sensor_data ADD COLUMN wal_id VARCHAR(36) NULL;
+-- ALTER TABLE sensor_data ADD COLUMN wal_seq BIGINT NULL;
+-- CREATE UNIQUE INDEX uk_sensor_data_wal ON sensor_data (wal_id, wal_seq);
@@ -82,6 +82,20 @@ CREATE TABLE IF NOT EXISTS trip_data (
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
 
+-- 走行データの集計テーブル（1分ごと・1時間ごと。今までの走行データからの集計は database-migration-004-trip-rollup.sql を参照）
+CREATE TABLE IF NOT EXISTS trip_rollup (
+    machine_id VARCHAR(64) NOT NULL,
+    bucket_seconds INTEGER NOT NULL,
+    bucket_start TIMESTAMP NOT NULL,
+    point_count BIGINT NOT NULL,
+    speed_sum DOUBLE PRECISION NOT NULL,
+    speed_min DOUBLE PRECISION NOT NULL,
+    speed_max DOUBLE PRECISION NOT NULL,
+    distance_sum DOUBLE PRECISION NOT NULL,
+    PRIMARY KEY (machine_id, bucket_seconds, bucket_start)
+);
+CREATE INDEX IF NOT EXISTS idx_trip_rollup_time ON trip_rollup (bucket_seconds, bucket_start);
+
 -- テストユーザーの作成
 INSERT INTO users (username, password, email, full_name, role) 
 VALUES ('testuser', 'password123', 'test@example.com', 'Test User', 'farmer')
@@ -0,0 +1,74 @@
+package com.agriguide.controller;
+
+import com.agriguide.repository.Storage;
+import com.agriguide.service.CoverageService;
+import com.agriguide.service.LiveUpdateHub;
+import com.agriguide.service.MachineStateRegistry;
+import com.agriguide.service.SensorDataService;
+import com.agriguide.service.TrackTileService;
+import com.agriguide.service.TripDataService;
+import com.agriguide.service.TripRollupService;
+import com.agriguide.service.TripSegmentService;
+import com.agriguide.util.DatabaseUtil;
+import com.agriguide.util.DbExecutor;
+import com.agriguide.util.Log;
+
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import jakarta.servlet.annotation.WebListener;
+
+/**
+ * アプリの起動・終了を受け取るクラス
+ * 終了時に未保存データの書き込みやコネクションプールの後片付けをします
+ */
+@WebListener
+public class AppLifecycleListener implements ServletContextListener {
+    
+    private static final Log LOG = Log.get(AppLifecycleListener.class);
+    
+    /**
+     * アプリ起動時に1回だけ実行される
+     */
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        // 最新データをメモリに読み込んでおく
+        SensorDataService.getInstance().warmUp();
+        TripDataService.getInstance().warmUp();
+        MachineStateRegistry.getInstance().warmUp();
+        CoverageService.getInstance().warmUp();
+        
+        // 以前のデータにジオハッシュを入れる（範囲検索用、裏で実行）
+        TripDataService.getInstance().startGeohashBackfill();
+        
+        LOG.info("✅ AgriNav を起動しました");
+    }
+    
+    /**
+     * アプリ終了時に1回だけ実行される
+     */
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        // リアルタイム配信を止める
+        LiveUpdateHub.getInstance().shutdown();
+        
+        // ライトビハインドのキューに残っているデータを先に保存する
+        SensorDataService.getInstance().shutdown();
+        TripDataService.getInstance().shutdown();
+        TripRollupService.getInstance().shutdown();
+        TripSegmentService.getInstance().shutdown();
+        CoverageService.getInstance().shutdown();
+        TrackTileService.getInstance().shutdown();
+        MachineStateRegistry.getInstance().shutdown();
+        
+        // アプリの中のファイルに保存している場合は、ディスクへ書き出して閉じる
+        Storage.shutdown();
+        
+        // DB処理用のスレッドを止めて、プール内の接続をすべて閉じる
+        DbExecutor.shutdown();
+        DatabaseUtil.shutdown();
+        LOG.info("✅ AgriNav を終了しました");
+        
+        // 残っているログを書き出す（これより後のログはその場で書き出す）
+        Log.shutdown(2000);
+    }
+}
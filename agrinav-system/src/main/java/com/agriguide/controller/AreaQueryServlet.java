@@ -0,0 +1,130 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Timestamp;
+import java.time.format.DateTimeParseException;
+
+import com.agriguide.model.TripPoints;
+import com.agriguide.service.TripDataService;
+import com.agriguide.util.AreaQuery;
+import com.agriguide.util.GeoPolygon;
+import com.agriguide.util.JsonUtil;
+import com.agriguide.util.JsonWriter;
+import com.agriguide.util.Log;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 範囲検索APIのコントローラー
+ * /api/history-data/area にアクセスしたときの処理を担当します
+ *
+ * 長方形（bbox）または圃場の境界（polygon）の中の走行データを返します。
+ */
+@WebServlet(value = "/agrinav-system/api/history-data/area", asyncSupported = true)
+public class AreaQueryServlet extends HttpServlet {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final Log LOG = Log.get(AreaQueryServlet.class);
+    
+    // 範囲を覆うマスの最大数（SQLの条件の数になる）
+    private static final int MAX_CELLS = 32;
+    
+    private TripDataService service;
+    
+    /**
+     * Servlet起動時に1回だけ実行される
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        this.service = TripDataService.getInstance();
+        LOG.info("✅ AreaQueryServlet を起動しました");
+    }
+    
+    /**
+     * GETリクエストの処理
+     * 例: ?polygon=36.50,138.50;36.50,138.52;36.52,138.52;36.52,138.50&from=2024-06-01T00:00:00Z
+     *     ?bbox=36.50,138.50,36.52,138.52&from=...&to=...&limit=5000&afterId=0
+     *     ?bbox=...&machineId=tractor-01（その機械のデータだけ）
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        // DBを使うことがあるので、Tomcatのスレッドとは別のスレッドで処理する
+        AsyncRequestSupport.execute(request, response, this::handleGet);
+    }
+    
+    private void handleGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        // CORS設定
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        
+        GeoPolygon area;
+        String machineId;
+        long afterId;
+        int limit;
+        Timestamp from;
+        Timestamp to;
+        try {
+            String polygonParam = request.getParameter("polygon");
+            String bboxParam = request.getParameter("bbox");
+            if (polygonParam != null) {
+                area = GeoPolygon.parse(polygonParam);
+            } else if (bboxParam != null) {
+                area = GeoPolygon.parseBox(bboxParam);
+            } else {
+                response.setStatus(400);
+                PrintWriter out = response.getWriter();
+                out.print(JsonUtil.toErrorJson("bboxかpolygonが必要です"));
+                return;
+            }
+            
+            String afterIdParam = request.getParameter("afterId");
+            String limitParam = request.getParameter("limit");
+            machineId = HistoryDataServlet.parseMachineFilter(request.getParameter("machineId"));
+            afterId = afterIdParam != null ? Long.parseLong(afterIdParam) : 0;
+            limit = service.clampPageLimit(limitParam != null ? Integer.parseInt(limitParam) : 0);
+            from = HistoryDataServlet.parseTime(request.getParameter("from"));
+            to = HistoryDataServlet.parseTime(request.getParameter("to"));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            // NumberFormatException も IllegalArgumentException の仲間
+            response.setStatus(400);
+            PrintWriter out = response.getWriter();
+            out.print(JsonUtil.toErrorJson("パラメータが不正です"));
+            return;
+        }
+        
+        TripPoints points = new TripPoints(Math.min(limit, 1024));
+        long nextAfterId = service.findInArea(new AreaQuery(area, MAX_CELLS), machineId, afterId, from, to,
+            limit, points);
+        
+        // {"points":[...],"nextAfterId":123}（続きがない場合は nextAfterId が null）
+        // 範囲の外の点を除くので、続きがあってもlimit件より少ない場合があります
+        JsonWriter json = new JsonWriter(response.getWriter());
+        json.writeRaw("{\"points\":[");
+        for (int i = 0; i < points.size(); i++) {
+            if (i > 0) {
+                json.writeRaw(',');
+            }
+            json.writeTrip(points.getId(i), points.getSpeed(i), points.getDistance(i),
+                points.getLatitude(i), points.getLongitude(i), points.getRecordedAt(i));
+        }
+        json.writeRaw("],\"nextAfterId\":");
+        if (nextAfterId > 0) {
+            json.writeLong(nextAfterId);
+        } else {
+            json.writeRaw("null");
+        }
+        json.writeRaw('}');
+        json.flush();
+        
+        LOG.debug("✅ 範囲検索: {}件", points.size());
+    }
+}
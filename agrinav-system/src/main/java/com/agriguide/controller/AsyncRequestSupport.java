@@ -0,0 +1,284 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.DbExecutor;
+import com.agriguide.util.JsonUtil;
+import com.agriguide.util.Log;
+import com.agriguide.util.Metrics;
+import com.agriguide.util.QueryDeadline;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * データベースを使う処理を、Tomcatのスレッドとは別のスレッドで実行する仕組み
+ *
+ * Tomcatのリクエスト用スレッドは数が限られています（通常200本）。
+ * DBの応答が遅いと、そのスレッドが全部待ち状態になり、
+ * 画面（HTMLやJS）の表示まで止まってしまいます。
+ *
+ * そこで AsyncContext を使ってTomcatのスレッドをすぐに返し、
+ * 実際の処理は DbExecutor のスレッド（Java 21なら仮想スレッド）で行います。
+ *
+ * - DBの空きを ASYNC_REQUEST_TIMEOUT_MS 待っても取れない場合は 503 を返します
+ *   （スレッドの空きを待つ間も時間に数えます）
+ * - 処理を始めたあとは、残りの時間をDBのクエリとネットワークのタイムアウトにします（QueryDeadline）。
+ *   DBサーバーが応答しなくても、DBの枠を持ったまま止まりません。時間切れは 503（Retry-After）です。
+ *   取り消されたクエリは保存されておらず、ライトアヘッドログから保存するデータは wal_id / wal_seq で
+ *   二重に入らないので、送り直してもらって大丈夫です
+ * - DBへの同時アクセス数は DbExecutor で制限します
+ * - 処理結果はいったんメモリにためてから送ります
+ * - パラメータ・ヘッダー・本文は渡す前に写しておき（CopiedRequest）、
+ *   終わったあとのレスポンスへの書き込みは無視します（GuardedResponse）
+ *
+ * 件数の多いデータをそのまま書き出したい場合は executeStreaming() を使います。
+ */
+public class AsyncRequestSupport {
+    
+    private static final Log LOG = Log.get(AsyncRequestSupport.class);
+    
+    /**
+     * 別スレッドで実行する処理（サーブレットの doGet / doPost の中身）
+     */
+    public interface Handler {
+        void handle(HttpServletRequest request, HttpServletResponse response) throws Exception;
+    }
+    
+    private static final boolean ENABLED = AppConfig.getBoolean("ASYNC_SERVLETS_ENABLED", true);
+    private static final long TIMEOUT_MILLIS = AppConfig.getLong("ASYNC_REQUEST_TIMEOUT_MS", 10000);
+    private static final int MAX_BODY_BYTES = AppConfig.getInt("ASYNC_MAX_BODY_BYTES", 1024 * 1024);
+    private static final int MAX_UPLOAD_BYTES = AppConfig.getInt("ASYNC_MAX_UPLOAD_BYTES", 8 * 1024 * 1024);
+    
+    // 503を返した回数（理由ごと）
+    private static final LongAdder TIMEOUTS = rejections("timeout");
+    private static final LongAdder BUSY = rejections("busy");
+    
+    private static final LongAdder QUERY_TIMEOUTS = rejections("query_timeout");
+    
+    private static LongAdder rejections(String reason) {
+        return Metrics.counter("agrinav_async_rejections_total",
+            "非同期の処理で503を返した回数（timeout: 処理を始める前に時間切れ、busy: DBの空きがない、"
+                + "query_timeout: 処理中にDBの時間切れ）", "reason", reason);
+    }
+    
+    /**
+     * 処理を実行する
+     * 非同期が使えない場合は、今のスレッドでそのまま実行します
+     */
+    public static void execute(HttpServletRequest request, HttpServletResponse response, Handler handler)
+            throws ServletException, IOException {
+        start(request, response, handler, false, MAX_BODY_BYTES);
+    }
+    
+    /**
+     * 走行データのアップロードを実行する
+     * 本文の上限が ASYNC_MAX_UPLOAD_BYTES になる以外は execute() と同じです。
+     * 本文はバイト列のまま写すので、件数が多くてもTripDataのオブジェクトは作りません。
+     */
+    public static void executeUpload(HttpServletRequest request, HttpServletResponse response, Handler handler)
+            throws ServletException, IOException {
+        start(request, response, handler, false, MAX_UPLOAD_BYTES);
+    }
+    
+    /**
+     * 処理を実行する（結果をためずにレスポンスへ直接書き込む）
+     * 大量のデータを返すAPIで使います。
+     */
+    public static void executeStreaming(HttpServletRequest request, HttpServletResponse response, Handler handler)
+            throws ServletException, IOException {
+        start(request, response, handler, true, MAX_BODY_BYTES);
+    }
+    
+    private static void start(HttpServletRequest request, HttpServletResponse response, Handler handler,
+                              boolean streaming, int maxBodyBytes) throws ServletException, IOException {
+        
+        if (!ENABLED || !request.isAsyncSupported()) {
+            try {
+                handler.handle(request, response);
+            } catch (IOException | ServletException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ServletException(e);
+            }
+            return;
+        }
+        
+        // 別スレッドからは、写したリクエストと、閉じたら書き込めなくなるレスポンスだけを使う
+        CopiedRequest copy = CopiedRequest.copy(request, maxBodyBytes);
+        if (copy == null) {
+            sendError(response, 413, "リクエストが大きすぎます");
+            return;
+        }
+        GuardedResponse guarded = new GuardedResponse(response);
+        
+        // 処理を途中で止めずに503を返すことはしないので、コンテナのタイムアウトは使わない（0は無制限）
+        // 時間制限は run() でDBの空きを待つ間と、DBのクエリ・ネットワークにかける
+        AsyncContext context = request.startAsync(request, response);
+        context.setTimeout(0);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        
+        // 接続が切れたら、処理の結果は書き込まずに捨てる
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                guarded.close();
+            }
+            
+            @Override
+            public void onError(AsyncEvent event) {
+                guarded.close();
+            }
+            
+            @Override
+            public void onComplete(AsyncEvent event) {
+                guarded.close();
+            }
+            
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        
+        try {
+            DbExecutor.execute(() -> run(copy, guarded, handler, streaming, context, deadline));
+        } catch (RuntimeException e) {
+            // スレッドが用意できない（終了処理中など）
+            guarded.close();
+            BUSY.increment();
+            sendError(response, 503, "サーバーが混み合っています");
+            finish(response);
+            complete(context);
+        }
+    }
+    
+    // 別スレッドでの処理
+    private static void run(HttpServletRequest request, GuardedResponse guarded, Handler handler,
+                            boolean streaming, AsyncContext context, long deadline) {
+        BufferedResponse buffered = streaming ? null : new BufferedResponse(guarded);
+        boolean permitted = false;
+        int status = 0;
+        String message = null;
+        
+        try {
+            // DBへアクセスできる枠が空くまで待つ（スレッドの空きを待つ間に時間が過ぎていたら待たない）
+            long remaining = deadline - System.currentTimeMillis();
+            permitted = remaining > 0 && DbExecutor.acquire(remaining);
+            if (!permitted) {
+                if (remaining > 0) {
+                    BUSY.increment();
+                } else {
+                    TIMEOUTS.increment();
+                    LOG.warn("⚠️ 処理を始める前に時間が過ぎました: {}", request.getRequestURI());
+                }
+                status = 503;
+                message = "サーバーが混み合っています";
+            } else if (guarded.isClosed()) {
+                // 待っている間に接続が切れた（処理しない）
+            } else {
+                // 残りの時間を、このスレッドで借りる接続のタイムアウトにする
+                QueryDeadline.set(deadline);
+                if (streaming) {
+                    // 接続が切れない限り、このスレッドだけがレスポンスを書く
+                    handler.handle(request, guarded);
+                } else {
+                    handler.handle(request, buffered);
+                    // 処理の中でエラーを返した場合も、時間切れなら503にする（送り直してもらう）
+                    if (buffered.getStatus() >= 500 && System.currentTimeMillis() >= deadline) {
+                        QUERY_TIMEOUTS.increment();
+                        LOG.warn("⚠️ 処理中に時間が過ぎました: {}", request.getRequestURI());
+                        status = 503;
+                        message = "サーバーが混み合っています";
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            BUSY.increment();
+            status = 503;
+            message = "サーバーが混み合っています";
+        } catch (Exception e) {
+            if (QueryDeadline.isTimeout(e) || System.currentTimeMillis() >= deadline) {
+                QUERY_TIMEOUTS.increment();
+                LOG.warn("⚠️ 処理中に時間が過ぎました: {} ({})", request.getRequestURI(), e.getMessage());
+                status = 503;
+                message = "サーバーが混み合っています";
+            } else {
+                Metrics.counter("agrinav_request_errors_total", "APIの処理中に起きた例外の数（例外の種類ごと）",
+                    "type", e.getClass().getSimpleName()).increment();
+                LOG.error("❌ エラー: {}", e.getMessage());
+                status = 500;
+                message = "サーバーエラー";
+            }
+        } finally {
+            QueryDeadline.clear();
+            if (permitted) {
+                DbExecutor.release();
+            }
+        }
+        
+        HttpServletResponse response = (HttpServletResponse) guarded.getResponse();
+        synchronized (guarded) {
+            if (!guarded.close()) {
+                // 接続が切れている
+                return;
+            }
+            try {
+                // ストリーミングの場合、書き込みは終わっている（途中でエラーの場合も、送れるならエラーを返す）
+                if (status != 0) {
+                    sendError(response, status, message);
+                } else if (!streaming) {
+                    buffered.copyTo(response);
+                }
+            } catch (IOException e) {
+                LOG.error("❌ レスポンス送信エラー: {}", e.getMessage());
+            } finally {
+                finish(response);
+            }
+        }
+        complete(context);
+    }
+    
+    // 圧縮している場合は残りを書き出す
+    private static void finish(HttpServletResponse response) {
+        try {
+            CompressionFilter.finish(response);
+        } catch (IOException e) {
+            LOG.error("❌ レスポンス送信エラー: {}", e.getMessage());
+        }
+    }
+    
+    // 処理の終わりを知らせる（接続が切れてコンテナが先に終えている場合は何もしない）
+    private static void complete(AsyncContext context) {
+        try {
+            context.complete();
+        } catch (IllegalStateException e) {
+            // すでに終わっている
+        }
+    }
+    
+    // エラーのJSONを返す
+    private static void sendError(HttpServletResponse response, int status, String message) throws IOException {
+        if (response.isCommitted()) {
+            return;
+        }
+        response.reset();
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        if (status == 503) {
+            response.setHeader("Retry-After", "1");
+        }
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+        out.print(JsonUtil.toErrorJson(message));
+        out.flush();
+    }
+}
@@ -0,0 +1,131 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.agriguide.model.TripData;
+import com.agriguide.service.TripDataService;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.Log;
+import com.agriguide.util.MachineId;
+import com.agriguide.util.TripPointBinaryDecoder;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * バイナリ形式（application/x-agrinav-trip）の走行データを受け取る処理
+ * /api/history-data と /api/history-data/bulk の POST で使います
+ *
+ * AsyncRequestSupport.executeUpload() から、DBへアクセスする許可を取ったあとで呼びます。
+ * 本文は受け取ったバイト列のまま写してあるので、遅い回線でもDBの枠を使って待つことはありません。
+ * 文字列を作らずに1件ずつ取り出し、BATCH_SIZE件たまるごとに保存します（全部の件数分のデータは作りません）。
+ * 許可が取れなかった場合は1件も保存せずに503を返すので、送り直しても二重になりません。
+ */
+final class BinaryTripUpload {
+    
+    private static final Log LOG = Log.get(BinaryTripUpload.class);
+    
+    // 何件ごとにデータベースへ保存するか
+    private static final int BATCH_SIZE = 500;
+    
+    // 1回で受け取れる件数
+    private static final int MAX_POINTS = AppConfig.getInt("BINARY_UPLOAD_MAX_POINTS", 200000);
+    
+    private BinaryTripUpload() {
+    }
+    
+    /**
+     * バイナリ形式のリクエストかどうか（Content-Typeで判定）
+     */
+    static boolean isBinary(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return contentType != null
+            && contentType.toLowerCase(Locale.ROOT).startsWith(TripPointBinaryDecoder.CONTENT_TYPE);
+    }
+    
+    /**
+     * 本文の走行データを読みながら、BATCH_SIZE件ごとに保存する
+     * 形式が不正な場合や件数が多すぎる場合も、それまでに読んだ分は保存して件数を返します
+     * 返すJSON: {"success":true,"accepted":120,"rejected":0}
+     */
+    static void handle(HttpServletRequest request, HttpServletResponse response, TripDataService service)
+            throws IOException {
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        
+        int accepted = 0;
+        int rejected = 0;
+        int read = 0;
+        List<TripData> batch = new ArrayList<>(BATCH_SIZE);
+        int status = 200;
+        String error = null;
+        
+        try {
+            TripPointBinaryDecoder decoder = new TripPointBinaryDecoder(request.getInputStream());
+            String machineId = null;
+            
+            while (decoder.next()) {
+                if (machineId == null) {
+                    // ヘッダーの機械ID → パラメータ → "default" の順
+                    String raw = decoder.getMachineId();
+                    machineId = MachineId.normalize(raw != null ? raw : request.getParameter("machineId"));
+                    if (machineId == null) {
+                        response.setStatus(400);
+                        PrintWriter out = response.getWriter();
+                        out.print("{\"error\":\"machineIdが不正です\",\"accepted\":0,\"rejected\":0}");
+                        return;
+                    }
+                }
+                
+                if (read >= MAX_POINTS) {
+                    status = 413;
+                    error = "件数が多すぎます";
+                    break;
+                }
+                read++;
+                
+                if (service.validate(decoder.getSpeed(), decoder.getDistance(),
+                        decoder.getLatitude(), decoder.getLongitude()) != null) {
+                    rejected++;
+                    continue;
+                }
+                TripData data = decoder.toTripData();
+                data.setMachineId(machineId);
+                batch.add(data);
+                if (batch.size() >= BATCH_SIZE) {
+                    int saved = service.saveTripDataBatch(batch);
+                    accepted += saved;
+                    rejected += batch.size() - saved;
+                    batch.clear();
+                }
+            }
+        } catch (TripPointBinaryDecoder.ParseException e) {
+            // 途中までに読んだ分は保存して、形式エラーを返す
+            status = 400;
+            error = "バイナリの形式が不正です";
+        }
+        
+        // 残りを保存
+        if (!batch.isEmpty()) {
+            int saved = service.saveTripDataBatch(batch);
+            accepted += saved;
+            rejected += batch.size() - saved;
+        }
+        
+        PrintWriter out = response.getWriter();
+        if (error != null) {
+            response.setStatus(status);
+            out.print("{\"error\":\"" + error + "\",\"accepted\":" + accepted
+                + ",\"rejected\":" + rejected + "}");
+            return;
+        }
+        out.print("{\"success\":true,\"accepted\":" + accepted + ",\"rejected\":" + rejected + "}");
+        
+        LOG.debug("✅ バイナリアップロード: 受付{}件, 不正{}件", accepted, rejected);
+    }
+}
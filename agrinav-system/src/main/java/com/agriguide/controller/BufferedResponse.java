@@ -0,0 +1,255 @@
+package com.agriguide.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * レスポンスをいったんメモリにためておくラッパー
+ *
+ * ステータス・ヘッダー・本文をすべてこの中に記録し、
+ * copyTo() を呼んだときに初めて本物のレスポンスへ書き込みます。
+ * タイムアウトの返事と処理結果が同時に書き込まれるのを防ぐために使います。
+ */
+class BufferedResponse extends HttpServletResponseWrapper {
+    
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+    private final Map<String, List<String>> headers = new LinkedHashMap<>();
+    private int status = SC_OK;
+    private String contentType;
+    private String characterEncoding;
+    private PrintWriter writer;
+    private ServletOutputStream stream;
+    
+    BufferedResponse(HttpServletResponse response) {
+        super(response);
+    }
+    
+    /**
+     * ためておいた内容を本物のレスポンスへ書き込む
+     */
+    void copyTo(HttpServletResponse response) throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        response.setStatus(status);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (String value : header.getValue()) {
+                response.addHeader(header.getKey(), value);
+            }
+        }
+        if (contentType != null) {
+            response.setContentType(contentType);
+        }
+        if (characterEncoding != null) {
+            response.setCharacterEncoding(characterEncoding);
+        }
+        response.setContentLength(body.size());
+        body.writeTo(response.getOutputStream());
+    }
+    
+    // ----- ステータス -----
+    
+    @Override
+    public void setStatus(int sc) {
+        this.status = sc;
+    }
+    
+    @Override
+    public int getStatus() {
+        return status;
+    }
+    
+    @Override
+    public void sendError(int sc) {
+        sendError(sc, null);
+    }
+    
+    @Override
+    public void sendError(int sc, String msg) {
+        this.status = sc;
+        body.reset();
+    }
+    
+    // ----- ヘッダー -----
+    
+    @Override
+    public void setHeader(String name, String value) {
+        List<String> values = new ArrayList<>(1);
+        values.add(value);
+        headers.put(name, values);
+    }
+    
+    @Override
+    public void addHeader(String name, String value) {
+        headers.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+    }
+    
+    @Override
+    public void setIntHeader(String name, int value) {
+        setHeader(name, Integer.toString(value));
+    }
+    
+    @Override
+    public void addIntHeader(String name, int value) {
+        addHeader(name, Integer.toString(value));
+    }
+    
+    @Override
+    public void setDateHeader(String name, long date) {
+        setHeader(name, formatDate(date));
+    }
+    
+    @Override
+    public void addDateHeader(String name, long date) {
+        addHeader(name, formatDate(date));
+    }
+    
+    // HTTPの日付形式（例: Tue, 3 Jun 2008 11:05:30 GMT）
+    private static String formatDate(long date) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(date).atOffset(ZoneOffset.UTC));
+    }
+    
+    @Override
+    public boolean containsHeader(String name) {
+        return headers.containsKey(name);
+    }
+    
+    @Override
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+    
+    @Override
+    public Collection<String> getHeaders(String name) {
+        List<String> values = headers.get(name);
+        return values == null ? new ArrayList<>() : new ArrayList<>(values);
+    }
+    
+    @Override
+    public Collection<String> getHeaderNames() {
+        return new ArrayList<>(headers.keySet());
+    }
+    
+    @Override
+    public void setContentType(String type) {
+        this.contentType = type;
+    }
+    
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+    
+    @Override
+    public void setCharacterEncoding(String charset) {
+        this.characterEncoding = charset;
+    }
+    
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding != null ? characterEncoding : "UTF-8";
+    }
+    
+    @Override
+    public void setContentLength(int len) {
+        // copyTo() で実際の長さを設定する
+    }
+    
+    @Override
+    public void setContentLengthLong(long len) {
+        // copyTo() で実際の長さを設定する
+    }
+    
+    // ----- 本文 -----
+    
+    @Override
+    public PrintWriter getWriter() {
+        if (stream != null) {
+            throw new IllegalStateException("getOutputStream() has already been called");
+        }
+        if (writer == null) {
+            Charset charset = characterEncoding != null
+                ? Charset.forName(characterEncoding) : StandardCharsets.UTF_8;
+            writer = new PrintWriter(new OutputStreamWriter(body, charset));
+        }
+        return writer;
+    }
+    
+    @Override
+    public ServletOutputStream getOutputStream() {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() has already been called");
+        }
+        if (stream == null) {
+            stream = new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    body.write(b);
+                }
+                
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    body.write(b, off, len);
+                }
+                
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+                
+                @Override
+                public void setWriteListener(WriteListener listener) {
+                    throw new IllegalStateException("non-blocking IO is not supported");
+                }
+            };
+        }
+        return stream;
+    }
+    
+    @Override
+    public void flushBuffer() {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+    
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+    
+    @Override
+    public void resetBuffer() {
+        if (writer != null) {
+            writer.flush();
+        }
+        body.reset();
+    }
+    
+    @Override
+    public void reset() {
+        resetBuffer();
+        headers.clear();
+        status = SC_OK;
+        contentType = null;
+        characterEncoding = null;
+    }
+}
@@ -0,0 +1,138 @@
+package com.agriguide.controller;
+
+import com.agriguide.util.AppConfig;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 条件付きGET（ETag / If-None-Match、Last-Modified / If-Modified-Since）の処理
+ *
+ * データを保存するたびに増える番号（バージョン）からETagを作ります。
+ * ブラウザが前回と同じETagを送ってきた場合は、データを読まずに304（変更なし）を返します。
+ * 機械が止まっていてデータが増えないときのポーリングは、ほとんどこれで済みます。
+ *
+ * gzipで圧縮して返すときは、圧縮しないときと中身が違うので、ETagの最後に "-gz" を付けます（gzipEtag()）。
+ * If-None-Match はどちらのETagでも同じバージョンとして扱います。
+ *
+ * バージョンはこのサーバーで保存したデータだけで増えるので、
+ * 複数台のサーバーで同じデータベースを使う場合は CONDITIONAL_GET_ENABLED=false にしてください。
+ */
+final class ConditionalGet {
+    
+    private static final boolean ENABLED = AppConfig.getBoolean("CONDITIONAL_GET_ENABLED", true);
+    
+    // 起動した時刻（再起動してバージョンが0に戻っても、前のETagと同じにならないようにする）
+    private static final String STARTED = Long.toString(System.currentTimeMillis(), 36);
+    
+    // 圧縮して返すときにETagの最後に付ける文字
+    private static final String GZIP_SUFFIX = "-gz";
+    
+    private ConditionalGet() {
+    }
+    
+    /**
+     * ETagとLast-Modifiedを付けて、変更がなければ304を返す
+     * @param name ETagに入れる名前（APIごとに変える）
+     * @param version データのバージョン（0以下の場合はまだ分からないので何もしない）
+     * @param lastModified 最後に変更された時刻（1970年からのミリ秒、0の場合は付けない）
+     * @return 304を返した場合はtrue（呼び出し元はそのまま終わる）
+     */
+    static boolean notModified(HttpServletRequest request, HttpServletResponse response,
+                               String name, long version, long lastModified) {
+        if (!ENABLED || version <= 0) {
+            return false;
+        }
+        
+        setValidators(response, name, version, lastModified);
+        boolean notModified = isNotModified(request, name, version, lastModified);
+        if (notModified) {
+            // 圧縮したほうのETagで聞かれた場合は、304にもそのETagを付ける
+            String ifNoneMatch = request.getHeader("If-None-Match");
+            String etag = etag(name, version);
+            String gzip = gzipEtag(etag);
+            if (ifNoneMatch != null && gzip.equals(matched(ifNoneMatch, etag))) {
+                response.setHeader("ETag", gzip);
+            }
+            response.setHeader("Access-Control-Allow-Origin", "*");
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+    
+    /**
+     * ブラウザが持っているデータが最新か調べるだけ（ヘッダーは付けない）
+     * 304を返さない場合、ETagは返すデータが作れたときに setValidators() で付けます（エラーに付けないため）
+     */
+    static boolean isNotModified(HttpServletRequest request, String name, long version, long lastModified) {
+        if (!ENABLED || version <= 0) {
+            return false;
+        }
+        
+        // If-None-Match があるときは If-Modified-Since より優先する
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matched(ifNoneMatch, etag(name, version)) != null;
+        }
+        return lastModified > 0 && isNotModifiedSince(request, lastModified);
+    }
+    
+    /**
+     * ETagとLast-Modifiedを付ける（バージョンが0以下の場合は何もしない）
+     */
+    static void setValidators(HttpServletResponse response, String name, long version, long lastModified) {
+        if (!ENABLED || version <= 0) {
+            return;
+        }
+        response.setHeader("ETag", etag(name, version));
+        response.setHeader("Cache-Control", "no-cache");  // 使う前に毎回確認してもらう
+        if (lastModified > 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+    }
+    
+    private static String etag(String name, long version) {
+        return "\"" + name + "-" + STARTED + "-" + version + "\"";
+    }
+    
+    /**
+     * 圧縮して返すときのETag（"..." の最後に "-gz" を付ける。すでに付いている場合や、形式が違う場合はそのまま）
+     */
+    static String gzipEtag(String etag) {
+        if (etag == null || etag.length() < 2 || !etag.endsWith("\"")
+                || etag.endsWith(GZIP_SUFFIX + "\"")) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + GZIP_SUFFIX + "\"";
+    }
+    
+    // "a", W/"b" のように並んだETagのどれかが、etag か圧縮したほうのETagと同じか
+    // @return 同じだったほう（圧縮したほうなら gzipEtag(etag) の文字列、"*" は etag）、無い場合はnull
+    private static String matched(String header, String etag) {
+        String gzip = gzipEtag(etag);
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return etag;
+            }
+            if (candidate.equals(gzip)) {
+                return gzip;
+            }
+        }
+        return null;
+    }
+    
+    // If-Modified-Since 以降に変更がないか（HTTPの日時は秒単位）
+    private static boolean isNotModifiedSince(HttpServletRequest request, long lastModified) {
+        try {
+            long since = request.getDateHeader("If-Modified-Since");
+            return since >= 0 && lastModified / 1000 <= since / 1000;
+        } catch (IllegalArgumentException e) {
+            // 日時の形式が正しくない場合は無視する
+            return false;
+        }
+    }
+}
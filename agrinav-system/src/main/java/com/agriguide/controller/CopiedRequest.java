@@ -0,0 +1,255 @@
+package com.agriguide.controller;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * リクエストの内容（パラメータ・ヘッダー・本文）を写しておくラッパー
+ *
+ * タイムアウトでリクエストが終わると、Tomcatは本物のリクエストを次のリクエストに使い回します。
+ * 別スレッドの処理がそのあとも読めるように、渡す前に必要な内容を写しておきます。
+ */
+class CopiedRequest extends HttpServletRequestWrapper {
+    
+    private final Map<String, String[]> parameters = new LinkedHashMap<>();
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final String method;
+    private final String requestUri;
+    private final String servletPath;
+    private final String pathInfo;
+    private final String queryString;
+    private final String contentType;
+    private String characterEncoding;
+    private final byte[] body;
+    private boolean bodyRead;
+    
+    private CopiedRequest(HttpServletRequest request, byte[] body) {
+        super(request);
+        for (Map.Entry<String, String[]> parameter : request.getParameterMap().entrySet()) {
+            parameters.put(parameter.getKey(), parameter.getValue().clone());
+        }
+        Enumeration<String> names = request.getHeaderNames();
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            headers.computeIfAbsent(name, k -> new ArrayList<>(1)).addAll(Collections.list(request.getHeaders(name)));
+        }
+        this.method = request.getMethod();
+        this.requestUri = request.getRequestURI();
+        this.servletPath = request.getServletPath();
+        this.pathInfo = request.getPathInfo();
+        this.queryString = request.getQueryString();
+        this.contentType = request.getContentType();
+        this.characterEncoding = request.getCharacterEncoding();
+        this.body = body;
+    }
+    
+    /**
+     * リクエストを写す（本文がmaxBodyBytesより大きい場合はnull）
+     * 本文を読むので、Tomcatのスレッドで呼びます
+     */
+    static CopiedRequest copy(HttpServletRequest request, int maxBodyBytes) throws IOException {
+        // フォームの場合は、パラメータを読んだ時点で本文も読み終わる
+        request.getParameterMap();
+        byte[] body = new byte[0];
+        String type = request.getContentType();
+        if (type != null && !type.toLowerCase(Locale.ROOT).startsWith("application/x-www-form-urlencoded")) {
+            body = readBody(request.getInputStream(), maxBodyBytes);
+            if (body == null) {
+                return null;
+            }
+        }
+        return new CopiedRequest(request, body);
+    }
+    
+    private static byte[] readBody(InputStream in, int maxBodyBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            if (out.size() + n > maxBodyBytes) {
+                return null;
+            }
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+    
+    // ----- パラメータ -----
+    
+    @Override
+    public String getParameter(String name) {
+        String[] values = parameters.get(name);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+    
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return Collections.unmodifiableMap(parameters);
+    }
+    
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+    
+    @Override
+    public String[] getParameterValues(String name) {
+        String[] values = parameters.get(name);
+        return values == null ? null : values.clone();
+    }
+    
+    // ----- ヘッダー -----
+    
+    @Override
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+    
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        List<String> values = headers.get(name);
+        return Collections.enumeration(values == null ? new ArrayList<>() : values);
+    }
+    
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(headers.keySet());
+    }
+    
+    @Override
+    public int getIntHeader(String name) {
+        String value = getHeader(name);
+        return value == null ? -1 : Integer.parseInt(value);
+    }
+    
+    @Override
+    public long getDateHeader(String name) {
+        String value = getHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid date header: " + name);
+        }
+    }
+    
+    // ----- パス -----
+    
+    @Override
+    public String getMethod() {
+        return method;
+    }
+    
+    @Override
+    public String getRequestURI() {
+        return requestUri;
+    }
+    
+    @Override
+    public String getServletPath() {
+        return servletPath;
+    }
+    
+    @Override
+    public String getPathInfo() {
+        return pathInfo;
+    }
+    
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+    
+    // ----- 本文 -----
+    
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+    
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+    
+    @Override
+    public void setCharacterEncoding(String encoding) {
+        this.characterEncoding = encoding;
+    }
+    
+    @Override
+    public int getContentLength() {
+        return body.length;
+    }
+    
+    @Override
+    public long getContentLengthLong() {
+        return body.length;
+    }
+    
+    @Override
+    public ServletInputStream getInputStream() {
+        if (bodyRead) {
+            throw new IllegalStateException("the body has already been read");
+        }
+        bodyRead = true;
+        ByteArrayInputStream in = new ByteArrayInputStream(body);
+        return new ServletInputStream() {
+            @Override
+            public int read() {
+                return in.read();
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return in.read(b, off, len);
+            }
+            
+            @Override
+            public boolean isFinished() {
+                return in.available() == 0;
+            }
+            
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+            
+            @Override
+            public void setReadListener(ReadListener listener) {
+                throw new IllegalStateException("non-blocking IO is not supported");
+            }
+        };
+    }
+    
+    @Override
+    public BufferedReader getReader() {
+        Charset charset = characterEncoding != null ? Charset.forName(characterEncoding) : StandardCharsets.UTF_8;
+        return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+    }
+}
@@ -0,0 +1,262 @@
+package com.agriguide.controller;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import com.agriguide.model.CoverageGrid;
+import com.agriguide.service.CoverageService;
+import com.agriguide.util.JsonUtil;
+import com.agriguide.util.JsonWriter;
+import com.agriguide.util.Log;
+import com.agriguide.util.MachineId;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 圃場ごとの作業済みの範囲APIのコントローラー
+ * /api/coverage と /api/coverage/bitmap にアクセスしたときの処理を担当します
+ *
+ * 作業済み・重なりの割合はメモリ上で数えておいた値を返すだけなので、元の走行データは読みません。
+ * 地図には /api/coverage/bitmap の画像（1マス1ピクセル）を、bounds の範囲に重ねて表示します。
+ */
+@WebServlet(value = { "/agrinav-system/api/coverage", "/agrinav-system/api/coverage/bitmap" },
+            asyncSupported = true)
+public class CoverageServlet extends HttpServlet {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final Log LOG = Log.get(CoverageServlet.class);
+    
+    // 画像の色（0: 圃場の外、1: まだ、2: 作業済み、3: 重なり）
+    private static final IndexColorModel COLORS = new IndexColorModel(2, 4,
+        new byte[] { 0, (byte) 0x9e, (byte) 0x2e, (byte) 0xe6 },
+        new byte[] { 0, (byte) 0x9e, (byte) 0x7d, (byte) 0x51 },
+        new byte[] { 0, (byte) 0x9e, (byte) 0x32, (byte) 0x00 },
+        new byte[] { 0, (byte) 0x40, (byte) 0xa0, (byte) 0xc0 });
+    
+    private CoverageService service;
+    
+    /**
+     * Servlet起動時に1回だけ実行される
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        this.service = CoverageService.getInstance();
+        LOG.info("✅ CoverageServlet を起動しました");
+    }
+    
+    /**
+     * GETリクエストの処理
+     * 例: /api/coverage                        → {"fields":[{...},{...}]}
+     *     /api/coverage?fieldId=north-01       → {"fieldId":"north-01","coveredPercent":..,...}
+     *     /api/coverage/bitmap?fieldId=north-01 → PNG画像
+     * （メモリ上の値を返すだけなので、Tomcatのスレッドでそのまま処理する）
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        // CORS設定
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        
+        String fieldId = request.getParameter("fieldId");
+        boolean bitmap = request.getServletPath().endsWith("/bitmap");
+        if (fieldId == null && !bitmap) {
+            List<CoverageGrid> grids = service.getAll();
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            JsonWriter json = new JsonWriter(response.getWriter());
+            json.writeRaw("{\"fields\":[");
+            for (int i = 0; i < grids.size(); i++) {
+                if (i > 0) {
+                    json.writeRaw(',');
+                }
+                writeGrid(json, grids.get(i));
+            }
+            json.writeRaw("]}");
+            json.flush();
+            return;
+        }
+        
+        CoverageGrid grid = fieldId != null ? service.get(fieldId) : null;
+        if (grid == null) {
+            response.setStatus(404);
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            PrintWriter out = response.getWriter();
+            out.print(JsonUtil.toErrorJson("圃場が見つかりません"));
+            return;
+        }
+        
+        if (!bitmap) {
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            JsonWriter json = new JsonWriter(response.getWriter());
+            writeGrid(json, grid);
+            json.flush();
+            return;
+        }
+        
+        // 変わっていなければ304を返す（地図の再読み込み用）
+        // 登録し直すと番号が0から数え直しになるので、マス目を作ったときの番号も入れる
+        long version;
+        long updatedAt;
+        synchronized (grid) {
+            version = grid.getVersion();
+            updatedAt = grid.getUpdatedAt();
+        }
+        if (ConditionalGet.notModified(request, response, "coverage-" + fieldId + "-" + grid.getGeneration(),
+                version + 1, updatedAt)) {
+            return;
+        }
+        
+        // マスの値だけをロックの中で写し、画像を作って送るのはロックの外で行う（走行データの保存を待たせない）
+        int cols = grid.getCols();
+        int rows = grid.getRows();
+        byte[] cells = new byte[cols * rows];
+        synchronized (grid) {
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    cells[row * cols + col] = (byte) grid.getCell(row, col);
+                }
+            }
+        }
+        
+        // 1マス1ピクセル、北を上にする（色は4つだけなので、PNGはとても小さくなる）
+        BufferedImage image = new BufferedImage(cols, rows, BufferedImage.TYPE_BYTE_BINARY, COLORS);
+        for (int row = 0; row < rows; row++) {
+            int y = rows - 1 - row;
+            for (int col = 0; col < cols; col++) {
+                image.getRaster().setSample(col, y, 0, cells[row * cols + col]);
+            }
+        }
+        response.setContentType("image/png");
+        ImageIO.write(image, "png", response.getOutputStream());
+        
+        LOG.debug("✅ 作業済みの範囲の画像を返しました: {}", fieldId);
+    }
+    
+    /**
+     * POSTリクエストの処理（圃場の登録）
+     * 例: ?fieldId=north-01&polygon=36.50,138.50;36.50,138.51;36.51,138.51;36.51,138.50&width=6
+     *     &cellMeters=1&machineId=tractor-01&from=2024-06-01T00:00:00Z
+     * 同じ fieldId で登録し直すと、作業済みの範囲は空に戻ります
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        // DBを使うので、Tomcatのスレッドとは別のスレッドで処理する
+        AsyncRequestSupport.execute(request, response, this::handlePost);
+    }
+    
+    private void handlePost(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        // CORS設定
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        
+        CoverageGrid grid;
+        try {
+            String fieldId = request.getParameter("fieldId");
+            String polygon = request.getParameter("polygon");
+            String width = request.getParameter("width");
+            if (fieldId == null || !MachineId.isValid(fieldId) || polygon == null || width == null) {
+                throw new IllegalArgumentException("fieldId, polygon and width are required");
+            }
+            String cellMeters = request.getParameter("cellMeters");
+            grid = service.register(fieldId, polygon,
+                HistoryDataServlet.parseMachineFilter(request.getParameter("machineId")),
+                Double.parseDouble(width), cellMeters != null ? Double.parseDouble(cellMeters) : 0,
+                HistoryDataServlet.parseTime(request.getParameter("from")));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            // 数値でない幅や、広すぎる圃場もここに来る
+            response.setStatus(400);
+            PrintWriter out = response.getWriter();
+            out.print(JsonUtil.toErrorJson("パラメータが不正です"));
+            return;
+        } catch (IllegalStateException e) {
+            response.setStatus(503);
+            PrintWriter out = response.getWriter();
+            out.print(JsonUtil.toErrorJson("作業済みの範囲の計算は無効です"));
+            return;
+        }
+        
+        response.setStatus(201);
+        JsonWriter json = new JsonWriter(response.getWriter());
+        writeGrid(json, grid);
+        json.flush();
+    }
+    
+    /**
+     * DELETEリクエストの処理（圃場の削除）
+     * 例: ?fieldId=north-01
+     */
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        // DBを使うので、Tomcatのスレッドとは別のスレッドで処理する
+        AsyncRequestSupport.execute(request, response, this::handleDelete);
+    }
+    
+    private void handleDelete(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        // CORS設定
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        
+        String fieldId = request.getParameter("fieldId");
+        PrintWriter out = response.getWriter();
+        if (fieldId == null || !service.delete(fieldId)) {
+            response.setStatus(404);
+            out.print(JsonUtil.toErrorJson("圃場が見つかりません"));
+            return;
+        }
+        out.print("{\"success\":true}");
+    }
+    
+    // 1つの圃場の割合と面積を書く（面積は m²）
+    // ロックの中ではメモリ上の文字列を作るだけにして、遅いブラウザへの送信でロックを持ち続けない
+    private void writeGrid(JsonWriter out, CoverageGrid grid) throws IOException {
+        StringWriter text = new StringWriter(512);
+        JsonWriter json = new JsonWriter(text);
+        synchronized (grid) {
+            json.writeRaw("{\"fieldId\":").writeString(grid.getFieldId());
+            json.writeRaw(",\"machineId\":");
+            if (grid.getMachineId() != null) {
+                json.writeString(grid.getMachineId());
+            } else {
+                json.writeRaw("null");
+            }
+            json.writeRaw(",\"widthMeters\":").writeFixed(grid.getWidthMeters(), 2);
+            json.writeRaw(",\"cellMeters\":").writeFixed(grid.getCellMeters(), 2);
+            json.writeRaw(",\"fieldArea\":").writeFixed(grid.getFieldCells() * grid.getCellArea(), 1);
+            json.writeRaw(",\"coveredArea\":").writeFixed(grid.getCoveredCells() * grid.getCellArea(), 1);
+            json.writeRaw(",\"overlapArea\":").writeFixed(grid.getOverlapCells() * grid.getCellArea(), 1);
+            json.writeRaw(",\"coveredPercent\":").writeFixed(grid.getCoveredPercent(), 2);
+            json.writeRaw(",\"overlapPercent\":").writeFixed(grid.getOverlapPercent(), 2);
+            json.writeRaw(",\"updatedAt\":").writeLong(grid.getUpdatedAt());
+            json.writeRaw(",\"rebuilding\":").writeRaw(service.isRebuilding(grid.getFieldId()) ? "true" : "false");
+            // 画像を重ねる範囲 [[南, 西], [北, 東]]（LeafletのimageOverlayにそのまま渡せる形）
+            json.writeRaw(",\"bounds\":[[").writeFixed(grid.getSouthLat(), JsonWriter.COORDINATE_DECIMALS);
+            json.writeRaw(',').writeFixed(grid.getWestLon(), JsonWriter.COORDINATE_DECIMALS);
+            json.writeRaw("],[").writeFixed(grid.getNorthLat(), JsonWriter.COORDINATE_DECIMALS);
+            json.writeRaw(',').writeFixed(grid.getEastLon(), JsonWriter.COORDINATE_DECIMALS);
+            json.writeRaw("]],\"cols\":").writeLong(grid.getCols());
+            json.writeRaw(",\"rows\":").writeLong(grid.getRows());
+            json.writeRaw('}');
+            json.flush();
+        }
+        out.writeRaw(text.toString());
+    }
+}
@@ -0,0 +1,273 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * 閉じたあとの書き込みを無視するレスポンスのラッパー
+ *
+ * タイムアウトや接続切れでリクエストが終わると、Tomcatは本物のレスポンスを使い回します。
+ * 別スレッドの処理がそのあとに書き込んでも、次のリクエストに混ざらないようにします。
+ * 本文の書き込みと close() は同じロックで行うので、書き込み途中に閉じることもありません。
+ */
+class GuardedResponse extends HttpServletResponseWrapper {
+    
+    private boolean closed;
+    private ServletOutputStream stream;
+    private PrintWriter writer;
+    
+    GuardedResponse(HttpServletResponse response) {
+        super(response);
+    }
+    
+    /**
+     * 閉じる（これ以降の書き込みは無視する）
+     * @return このスレッドが閉じた場合はtrue（もう閉じていた場合はfalse）
+     */
+    synchronized boolean close() {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+    
+    synchronized boolean isClosed() {
+        return closed;
+    }
+    
+    // ----- ステータス・ヘッダー -----
+    
+    @Override
+    public synchronized void setStatus(int sc) {
+        if (!closed) {
+            super.setStatus(sc);
+        }
+    }
+    
+    @Override
+    public synchronized void sendError(int sc) throws IOException {
+        if (!closed) {
+            super.sendError(sc);
+        }
+    }
+    
+    @Override
+    public synchronized void sendError(int sc, String msg) throws IOException {
+        if (!closed) {
+            super.sendError(sc, msg);
+        }
+    }
+    
+    @Override
+    public synchronized void sendRedirect(String location) throws IOException {
+        if (!closed) {
+            super.sendRedirect(location);
+        }
+    }
+    
+    @Override
+    public synchronized void setHeader(String name, String value) {
+        if (!closed) {
+            super.setHeader(name, value);
+        }
+    }
+    
+    @Override
+    public synchronized void addHeader(String name, String value) {
+        if (!closed) {
+            super.addHeader(name, value);
+        }
+    }
+    
+    @Override
+    public synchronized void setIntHeader(String name, int value) {
+        if (!closed) {
+            super.setIntHeader(name, value);
+        }
+    }
+    
+    @Override
+    public synchronized void addIntHeader(String name, int value) {
+        if (!closed) {
+            super.addIntHeader(name, value);
+        }
+    }
+    
+    @Override
+    public synchronized void setDateHeader(String name, long date) {
+        if (!closed) {
+            super.setDateHeader(name, date);
+        }
+    }
+    
+    @Override
+    public synchronized void addDateHeader(String name, long date) {
+        if (!closed) {
+            super.addDateHeader(name, date);
+        }
+    }
+    
+    @Override
+    public synchronized void addCookie(Cookie cookie) {
+        if (!closed) {
+            super.addCookie(cookie);
+        }
+    }
+    
+    @Override
+    public synchronized void setContentType(String type) {
+        if (!closed) {
+            super.setContentType(type);
+        }
+    }
+    
+    @Override
+    public synchronized void setCharacterEncoding(String charset) {
+        if (!closed) {
+            super.setCharacterEncoding(charset);
+        }
+    }
+    
+    @Override
+    public synchronized void setContentLength(int len) {
+        if (!closed) {
+            super.setContentLength(len);
+        }
+    }
+    
+    @Override
+    public synchronized void setContentLengthLong(long len) {
+        if (!closed) {
+            super.setContentLengthLong(len);
+        }
+    }
+    
+    @Override
+    public synchronized void setLocale(Locale locale) {
+        if (!closed) {
+            super.setLocale(locale);
+        }
+    }
+    
+    @Override
+    public synchronized void setBufferSize(int size) {
+        if (!closed) {
+            super.setBufferSize(size);
+        }
+    }
+    
+    @Override
+    public synchronized boolean isCommitted() {
+        return closed || super.isCommitted();
+    }
+    
+    @Override
+    public synchronized void reset() {
+        if (!closed) {
+            super.reset();
+        }
+    }
+    
+    @Override
+    public synchronized void resetBuffer() {
+        if (!closed) {
+            super.resetBuffer();
+        }
+    }
+    
+    @Override
+    public synchronized void flushBuffer() throws IOException {
+        if (!closed) {
+            super.flushBuffer();
+        }
+    }
+    
+    // ----- 本文 -----
+    
+    @Override
+    public synchronized ServletOutputStream getOutputStream() throws IOException {
+        if (stream == null) {
+            ServletOutputStream out = closed ? null : super.getOutputStream();
+            stream = new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    synchronized (GuardedResponse.this) {
+                        if (!closed) {
+                            out.write(b);
+                        }
+                    }
+                }
+                
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    synchronized (GuardedResponse.this) {
+                        if (!closed) {
+                            out.write(b, off, len);
+                        }
+                    }
+                }
+                
+                @Override
+                public void flush() throws IOException {
+                    synchronized (GuardedResponse.this) {
+                        if (!closed) {
+                            out.flush();
+                        }
+                    }
+                }
+                
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+                
+                @Override
+                public void setWriteListener(WriteListener listener) {
+                    throw new IllegalStateException("non-blocking IO is not supported");
+                }
+            };
+        }
+        return stream;
+    }
+    
+    @Override
+    public synchronized PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            PrintWriter out = closed ? null : super.getWriter();
+            writer = new PrintWriter(new Writer() {
+                @Override
+                public void write(char[] cbuf, int off, int len) {
+                    synchronized (GuardedResponse.this) {
+                        if (!closed) {
+                            out.write(cbuf, off, len);
+                        }
+                    }
+                }
+                
+                @Override
+                public void flush() {
+                    synchronized (GuardedResponse.this) {
+                        if (!closed) {
+                            out.flush();
+                        }
+                    }
+                }
+                
+                @Override
+                public void close() {
+                    flush();
+                }
+            });
+        }
+        return writer;
+    }
+}
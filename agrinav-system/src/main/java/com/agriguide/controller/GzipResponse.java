@@ -0,0 +1,239 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * 本文をgzipで圧縮しながら書き込むレスポンスのラッパー（CompressionFilterで使う）
+ *
+ * 圧縮するかどうかは、最初に本文を書くときに決めます。
+ * その時点のステータス・Content-Type・長さを見て、圧縮しても意味がない場合は
+ * そのまま書き込みます。すでに圧縮済み（Content-Encodingあり）の場合もそのままです。
+ * 圧縮する場合は、付けてあるETagを圧縮用のETag（ConditionalGet.gzipEtag()）に替えます。
+ */
+class GzipResponse extends HttpServletResponseWrapper {
+    
+    private final int minBytes;
+    
+    // 設定された長さ（圧縮する場合は使わない）
+    private long contentLength = -1;
+    
+    private GzipStream stream;
+    private PrintWriter writer;
+    
+    // 圧縮するかどうか決めたか、圧縮先（圧縮しない場合はnull）
+    private boolean decided;
+    private GZIPOutputStream gzip;
+    private boolean finished;
+    
+    GzipResponse(HttpServletResponse response, int minBytes) {
+        super(response);
+        this.minBytes = minBytes;
+    }
+    
+    // ----- 長さ（圧縮すると変わるので、決めるまで預かる） -----
+    
+    @Override
+    public void setContentLength(int len) {
+        setContentLengthLong(len);
+    }
+    
+    @Override
+    public void setContentLengthLong(long len) {
+        if (decided) {
+            if (gzip == null) {
+                super.setContentLengthLong(len);
+            }
+        } else {
+            contentLength = len;
+        }
+    }
+    
+    @Override
+    public void setHeader(String name, String value) {
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            setContentLengthLong(value != null ? Long.parseLong(value.trim()) : -1);
+        } else {
+            super.setHeader(name, value);
+        }
+    }
+    
+    @Override
+    public void addHeader(String name, String value) {
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            setContentLengthLong(value != null ? Long.parseLong(value.trim()) : -1);
+        } else {
+            super.addHeader(name, value);
+        }
+    }
+    
+    // ----- 本文 -----
+    
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() has already been called");
+        }
+        if (stream == null) {
+            stream = new GzipStream();
+        }
+        return stream;
+    }
+    
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (stream != null) {
+                throw new IllegalStateException("getOutputStream() has already been called");
+            }
+            stream = new GzipStream();
+            writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+        }
+        return writer;
+    }
+    
+    // 最初に書くときに、圧縮するかどうかを決める
+    private OutputStream target() throws IOException {
+        if (!decided) {
+            decided = true;
+            if (shouldCompress()) {
+                super.setHeader("Content-Encoding", "gzip");
+                String etag = getHeader("ETag");
+                if (etag != null) {
+                    super.setHeader("ETag", ConditionalGet.gzipEtag(etag));
+                }
+                gzip = new GZIPOutputStream(super.getOutputStream(), 8192);
+            } else if (contentLength >= 0) {
+                super.setContentLengthLong(contentLength);
+            }
+        }
+        return gzip != null ? gzip : super.getOutputStream();
+    }
+    
+    private boolean shouldCompress() {
+        int status = getStatus();
+        if (status < 200 || status == SC_NO_CONTENT || status == SC_NOT_MODIFIED) {
+            return false;
+        }
+        if (getHeader("Content-Encoding") != null) {
+            return false;  // すでに圧縮済み
+        }
+        if (contentLength >= 0 && contentLength < minBytes) {
+            return false;
+        }
+        String type = getContentType();
+        if (type == null || type.startsWith("text/event-stream")) {
+            return false;
+        }
+        return type.startsWith("application/json") || type.startsWith("text/")
+            || type.startsWith("application/x-ndjson");
+    }
+    
+    /**
+     * 圧縮の残りを書き出して終わらせる（2回目以降は何もしない）
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (writer != null) {
+            writer.flush();
+        }
+        if (gzip != null) {
+            gzip.finish();
+        }
+    }
+    
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (decided) {
+            target().flush();
+        }
+        super.flushBuffer();
+    }
+    
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        // 書きかけの圧縮データは捨てて、同じ設定で書き直す
+        if (gzip != null) {
+            try {
+                gzip = new GZIPOutputStream(super.getOutputStream(), 8192);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+    
+    @Override
+    public void reset() {
+        super.reset();
+        // ヘッダーも消えるので、最初からやり直す
+        super.addHeader("Vary", "Accept-Encoding");
+        contentLength = -1;
+        stream = null;
+        writer = null;
+        decided = false;
+        gzip = null;
+        finished = false;
+    }
+    
+    // 書き込まれた内容を target() へ渡すストリーム
+    private class GzipStream extends ServletOutputStream {
+        
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                target().write(b, off, len);
+            }
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            if (decided) {
+                target().flush();
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            finish();
+            GzipResponse.super.getOutputStream().close();
+        }
+        
+        @Override
+        public boolean isReady() {
+            try {
+                return GzipResponse.super.getOutputStream().isReady();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            try {
+                GzipResponse.super.getOutputStream().setWriteListener(listener);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
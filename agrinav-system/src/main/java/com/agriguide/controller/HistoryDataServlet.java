@@ -1,12 +1,21 @@
 package com.agriguide.controller;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
 
-import com.agriguide.model.TripData;
+import com.agriguide.model.TripPoints;
 import com.agriguide.service.TripDataService;
+import com.agriguide.util.AppConfig;
 import com.agriguide.util.JsonUtil;
+import com.agriguide.util.JsonWriter;
+import com.agriguide.util.Log;
+import com.agriguide.util.MachineId;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
@@ -18,28 +27,87 @@ import jakarta.servlet.http.HttpServletResponse;
  * 走行履歴データAPIのコントローラー
  * /api/history-data にアクセスしたときの処理を担当します
  */
-@WebServlet("/agrinav-system/api/history-data")
+@WebServlet(value = "/agrinav-system/api/history-data", asyncSupported = true)
 public class HistoryDataServlet extends HttpServlet {
     
+    private static final long serialVersionUID = 1L;
+    
+    private static final Log LOG = Log.get(HistoryDataServlet.class);
+    
     private TripDataService service;
     
+    // 最新N件のレスポンス（件数ごと）。走行データを保存すると使わなくなる
+    private final ResponseCache latestCache =
+        new ResponseCache("history-latest", AppConfig.getInt("RESPONSE_CACHE_SIZE", 32));
+    
     /**
      * Servlet起動時に1回だけ実行される
      */
     @Override
     public void init() throws ServletException {
         super.init();
-        this.service = new TripDataService();
-        System.out.println("✅ HistoryDataServlet を起動しました");
+        this.service = TripDataService.getInstance();
+        LOG.info("✅ HistoryDataServlet を起動しました");
     }
     
     /**
      * GETリクエストの処理
      * 走行履歴データを返す
+     *
+     * afterId / from / to のどれかを指定した場合は、古い順に続きを読むページングになります
+     * （例: ?afterId=0&from=2024-06-01T00:00:00Z&to=2024-06-02T00:00:00Z&limit=5000）
+     * ページングでは machineId を指定すると、その機械のデータだけを返します
+     *
+     * 最新N件（ページングではない場合）は、前回から走行データが増えていなければ
+     * データを読まずに304を返します（ETag / Last-Modified）
+     * 他のブラウザ用に作ったレスポンスが使える場合は、それをそのまま返します
      */
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+        // DBを使うことがあるので、Tomcatのスレッドとは別のスレッドで処理する
+        if (request.getParameter("afterId") != null || request.getParameter("from") != null
+                || request.getParameter("to") != null) {
+            // 件数が多いので、ためずにレスポンスへ直接書き込む
+            AsyncRequestSupport.executeStreaming(request, response, this::handlePage);
+        } else {
+            // ETag / Last-Modified は返すデータがあるときだけ付ける（読めずに500を返すときは付けない）
+            long lastModified = service.getLastModified();
+            long version = service.getVersion();
+            if (ConditionalGet.isNotModified(request, "history", version, lastModified)) {
+                ConditionalGet.notModified(request, response, "history", version, lastModified);
+                return;
+            }
+            
+            // とっておいたレスポンスがあれば、DBのスレッドを使わずにすぐ返す
+            ResponseCache.Entry cached = latestCache.get(latestCacheKey(request), version);
+            if (cached != null) {
+                ConditionalGet.setValidators(response, "history", cached.version, lastModified);
+                ResponseCache.write(cached, request, response);
+            } else {
+                AsyncRequestSupport.execute(request, response, this::handleGet);
+            }
+        }
+    }
+    
+    // 最新N件のキャッシュのキー（件数をそろえてから作る）
+    private String latestCacheKey(HttpServletRequest request) {
+        return "limit=" + service.clampLatestLimit(parseLimit(request.getParameter("limit")));
+    }
+    
+    // limitパラメータを変換（数値でない場合は0 = デフォルト）
+    private static int parseLimit(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    private void handleGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
         
         // CORS設定（別のドメインからアクセスを許可）
         response.setHeader("Access-Control-Allow-Origin", "*");
@@ -50,44 +118,145 @@ public class HistoryDataServlet extends HttpServlet {
         
         try {
             // limitパラメータを取得（デフォルト10件）
-            String limitParam = request.getParameter("limit");
-            int limit = 10;
+            int limit = service.clampLatestLimit(parseLimit(request.getParameter("limit")));
+            String key = "limit=" + limit;
             
-            if (limitParam != null) {
-                try {
-                    limit = Integer.parseInt(limitParam);
-                } catch (NumberFormatException e) {
-                    // パラメータが数値でない場合はデフォルト値を使用
-                }
+            // データより先にバージョンと時刻を読む（古いデータに新しいバージョンを付けないため）
+            long lastModified = service.getLastModified();
+            long version = service.getVersion();
+            ResponseCache.Entry entry = latestCache.get(key, version);
+            if (entry == null) {
+                // データを取得（できるだけメモリ上のバッファから）
+                // 読めなかった場合は例外になるので、空の結果をキャッシュしたりETagを付けたりしない
+                TripPoints points = service.getLatestTripPoints(limit);
+                
+                // JSON配列にして、ほかのブラウザ用にもとっておく
+                ByteArrayOutputStream body = new ByteArrayOutputStream(64 + points.size() * 96);
+                JsonWriter json = new JsonWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+                json.writeTripArray(points);
+                json.flush();
+                entry = latestCache.put(key, version, "application/json;charset=UTF-8", body.toByteArray());
+                
+                LOG.debug("✅ 履歴データを返しました: {}件", points.size());
             }
-            
-            // データを取得
-            List<TripData> dataList = service.getLatestTripData(limit);
-            
-            // JSON配列に変換
-            String jsonResponse = JsonUtil.toJsonArray(dataList);
-            
-            // レスポンスを書き込む
-            PrintWriter out = response.getWriter();
-            out.print(jsonResponse);
-            
-            System.out.println("✅ 履歴データを返しました: " + dataList.size() + "件");
-            
+            ConditionalGet.setValidators(response, "history", entry.version, lastModified);
+            ResponseCache.write(entry, request, response);
+        
         } catch (Exception e) {
-            System.out.println("❌ エラー: " + e.getMessage());
+            LOG.error("❌ エラー: {}", e.getMessage());
             response.setStatus(500);  // エラーステータス
             PrintWriter out = response.getWriter();
             out.print(JsonUtil.toErrorJson("サーバーエラー"));
         }
     }
     
+    // ページングの処理
+    // 返すJSON: {"points":[...],"nextAfterId":123}（続きがない場合は nextAfterId が null）
+    private void handlePage(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        
+        String machineId;
+        long afterId;
+        int limit;
+        Timestamp from;
+        Timestamp to;
+        try {
+            String afterIdParam = request.getParameter("afterId");
+            String limitParam = request.getParameter("limit");
+            machineId = parseMachineFilter(request.getParameter("machineId"));
+            afterId = afterIdParam != null ? Long.parseLong(afterIdParam) : 0;
+            limit = service.clampPageLimit(limitParam != null ? Integer.parseInt(limitParam) : 0);
+            from = parseTime(request.getParameter("from"));
+            to = parseTime(request.getParameter("to"));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            // NumberFormatException も IllegalArgumentException の仲間
+            response.setStatus(400);
+            PrintWriter out = response.getWriter();
+            out.print(JsonUtil.toErrorJson("パラメータが不正です"));
+            return;
+        }
+        
+        // 1件読むたびにJSONを書き出す（リストに集めない）
+        JsonWriter json = new JsonWriter(response.getWriter());
+        json.writeRaw("{\"points\":[");
+        int[] lastId = new int[1];
+        int[] written = new int[1];
+        int count = service.streamTripPoints(machineId, afterId, from, to, limit,
+            (id, speed, distance, latitude, longitude, recordedAt) -> {
+                if (written[0]++ > 0) {
+                    json.writeRaw(',');
+                }
+                json.writeTrip(id, speed, distance, latitude, longitude, recordedAt);
+                lastId[0] = id;
+            });
+        
+        // limit件ちょうど返した場合は、続きがあるかもしれない
+        json.writeRaw("],\"nextAfterId\":");
+        if (count >= limit) {
+            json.writeLong(lastId[0]);
+        } else {
+            json.writeRaw("null");
+        }
+        json.writeRaw('}');
+        json.flush();
+        
+        LOG.debug("✅ 履歴データを返しました（ページング）: {}件", count);
+    }
+    
+    // 日時のパラメータを変換（1970年からのミリ秒、または 2024-06-01T00:00:00Z の形式）
+    static Timestamp parseTime(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        if (value.chars().allMatch(Character::isDigit)) {
+            return new Timestamp(Long.parseLong(value));
+        }
+        return Timestamp.from(OffsetDateTime.parse(value).toInstant());
+    }
+    
+    // 機械IDで絞り込むパラメータを変換（指定なしの場合はnull = 全部の機械）
+    static String parseMachineFilter(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        if (!MachineId.isValid(value)) {
+            throw new IllegalArgumentException("invalid machineId: " + value);
+        }
+        return value;
+    }
+    
+    // 保存するデータの機械IDを変換（指定なしの場合は MachineId.DEFAULT）
+    static String parseMachineId(String value) {
+        String machineId = MachineId.normalize(value);
+        if (machineId == null) {
+            throw new IllegalArgumentException("invalid machineId: " + value);
+        }
+        return machineId;
+    }
+    
     /**
      * POSTリクエストの処理
      * 新しい走行データを保存
+     *
+     * Content-Type が application/x-agrinav-trip の場合は、バイナリ形式で
+     * 何件でもまとめて送れます（形式は TripPointBinaryDecoder を参照）
      */
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+        // バイナリ形式は件数が多いので、本文の上限を大きくする（/bulk と同じ）
+        if (BinaryTripUpload.isBinary(request)) {
+            AsyncRequestSupport.executeUpload(request, response,
+                (req, res) -> BinaryTripUpload.handle(req, res, service));
+            return;
+        }
+        // DBを使うことがあるので、Tomcatのスレッドとは別のスレッドで処理する
+        AsyncRequestSupport.execute(request, response, this::handlePost);
+    }
+    
+    private void handlePost(HttpServletRequest request, HttpServletResponse response) throws IOException {
         
         // CORS設定
         response.setHeader("Access-Control-Allow-Origin", "*");
@@ -115,18 +284,42 @@ public class HistoryDataServlet extends HttpServlet {
             double distance = Double.parseDouble(distanceParam);
             double latitude = Double.parseDouble(latitudeParam);
             double longitude = Double.parseDouble(longitudeParam);
+            String machineId = parseMachineId(request.getParameter("machineId"));
+            
+            // 値が不正な場合は400（保存の失敗と区別するため、先に調べる）
+            String error = service.validate(speed, distance, latitude, longitude);
+            if (error != null) {
+                response.setStatus(400);
+                PrintWriter out = response.getWriter();
+                out.print(JsonUtil.toErrorJson(error));
+                return;
+            }
             
             // データを保存
-            int id = service.saveTripData(speed, distance, latitude, longitude);
+            int id = service.saveTripData(machineId, speed, distance, latitude, longitude);
             
             // レスポンスを返す
             PrintWriter out = response.getWriter();
-            out.print("{\"success\":true,\"id\":" + id + "}");
-            
+            if (id == TripDataService.QUEUED) {
+                // キューに入れた（まだIDは決まっていない）
+                out.print("{\"success\":true,\"queued\":true}");
+            } else if (id <= 0) {
+                // 保存できなかった（端末が捨てないように、あとで送り直してもらう）
+                response.setStatus(503);
+                response.setHeader("Retry-After", "1");
+                out.print("{\"success\":false,\"error\":\"保存できませんでした\"}");
+            } else {
+                out.print("{\"success\":true,\"id\":" + id + "}");
+            }
+        
         } catch (NumberFormatException e) {
             response.setStatus(400);
             PrintWriter out = response.getWriter();
             out.print(JsonUtil.toErrorJson("数値が不正です"));
+        } catch (IllegalArgumentException e) {
+            response.setStatus(400);
+            PrintWriter out = response.getWriter();
+            out.print(JsonUtil.toErrorJson("machineIdが不正です"));
         } catch (Exception e) {
             response.setStatus(500);
             PrintWriter out = response.getWriter();
@@ -0,0 +1,262 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.agriguide.service.LiveUpdateHub;
+import com.agriguide.util.Log;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * リアルタイム配信APIのコントローラー（Server-Sent Events）
+ * /api/stream にアクセスしたときの処理を担当します
+ *
+ * 接続を開いたままにして、新しいセンサーデータや走行データが保存されるたびに
+ * イベントとして送ります。ダッシュボードは定期的に問い合わせる必要がなくなります。
+ *
+ * 非同期サーブレット＋ノンブロッキング書き込みを使うので、
+ * 接続を待っている間はスレッドを使いません。
+ */
+@WebServlet(value = "/agrinav-system/api/stream", asyncSupported = true)
+public class LiveUpdateServlet extends HttpServlet {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final Log LOG = Log.get(LiveUpdateServlet.class);
+    
+    // 1接続あたりためておける走行データのイベント数（超えたら古いものを捨ててresync）
+    private static final int MAX_PENDING_TRIPS = 100;
+    
+    private LiveUpdateHub hub;
+    
+    /**
+     * Servlet起動時に1回だけ実行される
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        this.hub = LiveUpdateHub.getInstance();
+        LOG.info("✅ LiveUpdateServlet を起動しました");
+    }
+    
+    /**
+     * GETリクエストの処理
+     * イベントストリームを開始する
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        
+        // CORS設定（別のドメインからアクセスを許可）
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        
+        // イベントストリームの設定
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("X-Accel-Buffering", "no");  // プロキシにためこませない
+        
+        // 非同期モードを開始（タイムアウトなし）
+        AsyncContext async = request.startAsync();
+        async.setTimeout(0);
+        
+        ServletOutputStream out = response.getOutputStream();
+        SseClient client = new SseClient(async, out);
+        async.addListener(client);
+        
+        if (!hub.subscribe(client)) {
+            // 接続数が多すぎる
+            response.setStatus(503);
+            async.complete();
+            return;
+        }
+        
+        // 切断されたら3秒後に再接続してもらう
+        client.enqueueRaw("retry: 3000\n\n".getBytes(StandardCharsets.UTF_8));
+        out.setWriteListener(client);
+    }
+    
+    /**
+     * ダッシュボード1接続分
+     *
+     * - センサーデータは機械ごとに最新の1件だけ持つ（遅い接続には途中のデータを飛ばして送る）
+     * - 走行データは最大MAX_PENDING_TRIPS件までためる
+     * - 送れる状態（isReady）のときだけ書き込み、待つことはしない
+     */
+    private class SseClient implements LiveUpdateHub.Subscriber, WriteListener, AsyncListener {
+        
+        private final AsyncContext async;
+        private final ServletOutputStream out;
+        
+        // 送信待ちのデータ（thisで保護）
+        private final LinkedHashMap<String, byte[]> pendingSensors = new LinkedHashMap<>();
+        private final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+        private boolean resync;
+        private boolean needFlush;
+        private boolean ready;
+        private boolean closed;
+        
+        SseClient(AsyncContext async, ServletOutputStream out) {
+            this.async = async;
+            this.out = out;
+        }
+        
+        @Override
+        public void onSensor(String machineId, byte[] event) {
+            synchronized (this) {
+                pendingSensors.put(machineId, event);
+            }
+            drain();
+        }
+        
+        @Override
+        public void onTrip(byte[] event) {
+            synchronized (this) {
+                if (pending.size() >= MAX_PENDING_TRIPS) {
+                    // 遅すぎる接続: 古いイベントを捨てて、あとで履歴を取り直してもらう
+                    pending.pollFirst();
+                    resync = true;
+                }
+                pending.addLast(event);
+            }
+            drain();
+        }
+        
+        @Override
+        public void onResync(byte[] event) {
+            synchronized (this) {
+                pending.clear();
+                resync = true;
+            }
+            drain();
+        }
+        
+        @Override
+        public void onHeartbeat(byte[] event) {
+            synchronized (this) {
+                // 他に送るものがあるときは不要
+                if (pending.isEmpty() && pendingSensors.isEmpty() && !resync) {
+                    pending.addLast(event);
+                }
+            }
+            drain();
+        }
+        
+        synchronized void enqueueRaw(byte[] data) {
+            pending.addFirst(data);
+        }
+        
+        // 次に送るイベントを取り出す
+        private byte[] nextEvent() {
+            if (resync) {
+                resync = false;
+                return "event: resync\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8);
+            }
+            byte[] event = pending.pollFirst();
+            if (event != null) {
+                return event;
+            }
+            Iterator<byte[]> sensors = pendingSensors.values().iterator();
+            if (sensors.hasNext()) {
+                event = sensors.next();
+                sensors.remove();
+            }
+            return event;
+        }
+        
+        // 送れるだけ送る（送れなくなったら onWritePossible を待つ）
+        private synchronized void drain() {
+            if (closed || !ready) {
+                return;
+            }
+            try {
+                while (out.isReady()) {
+                    byte[] event = nextEvent();
+                    if (event == null) {
+                        if (needFlush) {
+                            needFlush = false;
+                            out.flush();
+                            continue;
+                        }
+                        return;
+                    }
+                    out.write(event);
+                    needFlush = true;
+                }
+            } catch (IOException | IllegalStateException e) {
+                close();
+            }
+        }
+        
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            hub.unsubscribe(this);
+            try {
+                async.complete();
+            } catch (IllegalStateException e) {
+                // すでに終了している
+            }
+        }
+        
+        // ===== WriteListener =====
+        
+        @Override
+        public void onWritePossible() {
+            synchronized (this) {
+                ready = true;
+            }
+            drain();
+        }
+        
+        @Override
+        public void onError(Throwable t) {
+            synchronized (this) {
+                close();
+            }
+        }
+        
+        // ===== AsyncListener =====
+        
+        @Override
+        public void onComplete(AsyncEvent event) {
+            synchronized (this) {
+                closed = true;
+            }
+            hub.unsubscribe(this);
+        }
+        
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            synchronized (this) {
+                close();
+            }
+        }
+        
+        @Override
+        public void onError(AsyncEvent event) {
+            synchronized (this) {
+                close();
+            }
+        }
+        
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import com.agriguide.model.MachineState;
+import com.agriguide.service.MachineStateRegistry;
+import com.agriguide.util.JsonUtil;
+import com.agriguide.util.JsonWriter;
+import com.agriguide.util.Log;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 機械ごとの現在の状態APIのコントローラー
+ * /api/machines にアクセスしたときの処理を担当します
+ *
+ * ダッシュボードが1回のリクエストで、全部の機械（または1台）の速度と位置を取得できます。
+ */
+@WebServlet("/agrinav-system/api/machines")
+public class MachineServlet extends HttpServlet {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final Log LOG = Log.get(MachineServlet.class);
+    
+    private MachineStateRegistry registry;
+    
+    /**
+     * Servlet起動時に1回だけ実行される
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        this.registry = MachineStateRegistry.getInstance();
+        LOG.info("✅ MachineServlet を起動しました");
+    }
+    
+    /**
+     * GETリクエストの処理
+     * 例: /api/machines                      → {"machines":[{...},{...}]}
+     *     /api/machines?machineId=tractor-01 → {"machineId":"tractor-01",...}
+     * （メモリ上の値を返すだけなので、Tomcatのスレッドでそのまま処理する）
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        
+        // CORS設定
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        
+        try {
+            JsonWriter json = new JsonWriter(response.getWriter());
+            String machineId = request.getParameter("machineId");
+            
+            if (machineId != null) {
+                // 1台分
+                MachineState state = registry.get(machineId);
+                if (state == null) {
+                    response.setStatus(404);
+                    PrintWriter out = response.getWriter();
+                    out.print(JsonUtil.toErrorJson("機械が見つかりません"));
+                    return;
+                }
+                writeState(json, state);
+            } else {
+                // 全部の機械
+                List<MachineState> states = registry.getAll();
+                json.writeRaw("{\"machines\":[");
+                for (int i = 0; i < states.size(); i++) {
+                    if (i > 0) {
+                        json.writeRaw(',');
+                    }
+                    writeState(json, states.get(i));
+                }
+                json.writeRaw("]}");
+            }
+            json.flush();
+        
+        } catch (Exception e) {
+            LOG.error("❌ エラー: {}", e.getMessage());
+            response.setStatus(500);
+            PrintWriter out = response.getWriter();
+            out.print(JsonUtil.toErrorJson("サーバーエラー"));
+        }
+    }
+    
+    // 1台分の状態を書く（位置がまだ無い場合は latitude / longitude が null）
+    private static void writeState(JsonWriter json, MachineState state) throws IOException {
+        json.writeRaw("{\"machineId\":").writeString(state.getMachineId());
+        json.writeRaw(",\"speed\":").writeFixed(state.getSpeed(), JsonWriter.SPEED_DECIMALS);
+        json.writeRaw(",\"distance\":").writeFixed(state.getDistance(), JsonWriter.DISTANCE_DECIMALS);
+        json.writeRaw(",\"updatedAt\":").writeLong(state.getUpdatedAt());
+        if (state.hasPosition()) {
+            json.writeRaw(",\"latitude\":").writeFixed(state.getLatitude(), JsonWriter.COORDINATE_DECIMALS);
+            json.writeRaw(",\"longitude\":").writeFixed(state.getLongitude(), JsonWriter.COORDINATE_DECIMALS);
+            json.writeRaw(",\"positionAt\":").writeLong(state.getPositionAt());
+        } else {
+            json.writeRaw(",\"latitude\":null,\"longitude\":null,\"positionAt\":null");
+        }
+        json.writeRaw('}');
+    }
+}
@@ -0,0 +1,113 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.agriguide.util.LatencyHistogram;
+import com.agriguide.util.Metrics;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.HttpServletMapping;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * APIごとの処理時間とステータスを記録するフィルター
+ *
+ * 非同期の処理（AsyncRequestSupport）の場合は、レスポンスが完了した時点までを記録します。
+ * APIの名前はサーブレットのURLパターンを使うので、存在しないURLが増えても種類は増えません。
+ * メソッドも決まったもの以外は "other" にまとめます。
+ * リアルタイム配信（SSE）は接続している時間になるので、処理時間には入れません。
+ */
+@WebFilter(urlPatterns = "/agrinav-system/api/*", asyncSupported = true)
+public class MetricsFilter implements Filter {
+    
+    // ラベルにそのまま使うHTTPメソッド（それ以外は "other"）
+    private static final Set<String> METHODS = Set.of(
+        "GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH");
+    
+    // 「メソッド URLパターン」→ 計測値（毎回ラベルの文字列を作らないため）
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> statuses = new ConcurrentHashMap<>();
+    
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            chain.doFilter(request, response);
+            failed = false;
+        } finally {
+            if (!failed && request.isAsyncStarted()) {
+                // 別のスレッドで処理が終わったときに記録する
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        record(request, response, start, false);
+                    }
+                    
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+                    
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+                    
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                record(request, response, start, failed);
+            }
+        }
+    }
+    
+    private void record(HttpServletRequest request, HttpServletResponse response, long start, boolean failed) {
+        String method = method(request);
+        String endpoint = endpoint(request);
+        int status = failed ? 500 : response.getStatus();
+        
+        String contentType = response.getContentType();
+        if (contentType == null || !contentType.startsWith("text/event-stream")) {
+            latencies.computeIfAbsent(method + " " + endpoint, k -> Metrics.histogram(
+                "agrinav_http_request_duration_seconds", "APIの処理時間（レスポンスを送り終わるまで）",
+                "endpoint", endpoint, "method", method)).recordSince(start);
+        }
+        
+        String statusClass = (status / 100) + "xx";
+        statuses.computeIfAbsent(method + " " + endpoint + " " + statusClass, k -> Metrics.counter(
+            "agrinav_http_responses_total", "APIのレスポンスの数（ステータスの種類ごと）",
+            "endpoint", endpoint, "method", method, "status", statusClass)).increment();
+    }
+    
+    // HTTPメソッド（知らないものは "other"）
+    private static String method(HttpServletRequest request) {
+        String method = request.getMethod();
+        return METHODS.contains(method) ? method : "other";
+    }
+    
+    // サーブレットのURLパターン（見つからない場合は "other"）
+    private static String endpoint(HttpServletRequest request) {
+        HttpServletMapping mapping = request.getHttpServletMapping();
+        String pattern = mapping != null ? mapping.getPattern() : null;
+        if (pattern == null || pattern.isEmpty() || pattern.equals("/")) {
+            return "other";
+        }
+        return pattern;
+    }
+}
@@ -0,0 +1,193 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+import com.agriguide.repository.Storage;
+import com.agriguide.service.LiveUpdateHub;
+import com.agriguide.service.MachineStateRegistry;
+import com.agriguide.service.SensorDataService;
+import com.agriguide.service.TripDataService;
+import com.agriguide.service.WriteAheadLog;
+import com.agriguide.service.WriteBehindQueue;
+import com.agriguide.store.ColumnarTable;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.ConnectionPool;
+import com.agriguide.util.DatabaseUtil;
+import com.agriguide.util.DbExecutor;
+import com.agriguide.util.Log;
+import com.agriguide.util.Metrics;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 計測値（メトリクス）のコントローラー
+ * /agrinav-system/metrics で、Prometheus のテキスト形式の計測値を返します
+ *
+ * APIごとの処理時間（p50 / p99 は Prometheus の histogram_quantile で計算）、
+ * Repositoryの処理時間と行数、コネクションプール、キューの長さなどが入っています。
+ */
+@WebServlet("/agrinav-system/metrics")
+public class MetricsServlet extends HttpServlet {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final Log LOG = Log.get(MetricsServlet.class);
+    
+    private static final boolean ENABLED = AppConfig.getBoolean("METRICS_ENABLED", true);
+    
+    /**
+     * Servlet起動時に1回だけ実行される
+     * 読むたびに値を取りに行くもの（ゲージ）をここで登録します
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        registerPoolMetrics();
+        registerServiceMetrics();
+        registerJvmMetrics();
+        LOG.info("✅ MetricsServlet を起動しました");
+    }
+    
+    // コネクションプールとDB処理用のスレッド
+    private void registerPoolMetrics() {
+        poolGauge("agrinav_db_pool_connections", "コネクションプールの接続の数（状態ごと）",
+            ConnectionPool.PoolStats::getActive, "state", "active");
+        poolGauge("agrinav_db_pool_connections", "コネクションプールの接続の数（状態ごと）",
+            ConnectionPool.PoolStats::getIdle, "state", "idle");
+        poolGauge("agrinav_db_pool_max_connections", "コネクションプールの最大接続数",
+            ConnectionPool.PoolStats::getMaxSize);
+        poolGauge("agrinav_db_pool_waiters", "空き接続を待っているスレッドの数",
+            ConnectionPool.PoolStats::getWaiters);
+        Metrics.counter("agrinav_db_pool_timeouts_total", "空き接続を待つ時間が過ぎた回数",
+            () -> poolValue(ConnectionPool.PoolStats::getTimeouts));
+        Metrics.counter("agrinav_db_pool_created_total", "作った物理接続の数",
+            () -> poolValue(ConnectionPool.PoolStats::getCreated));
+        Metrics.histogram("agrinav_db_connection_acquire_seconds", "プールから接続を借りるまでの時間",
+            () -> {
+                ConnectionPool.PoolStats stats = DatabaseUtil.getPoolStats();
+                return stats != null ? stats.getAcquireLatency() : null;
+            });
+        
+        Metrics.gauge("agrinav_db_executor_active", "DBを使う処理の実行中の数", DbExecutor::getActiveCount);
+        Metrics.gauge("agrinav_db_executor_waiting", "DBを使う処理の順番待ちの数", DbExecutor::getWaitingCount);
+        Metrics.gauge("agrinav_db_executor_max_concurrency", "DBを使う処理の最大同時実行数",
+            DbExecutor::getMaxConcurrency);
+    }
+    
+    private static void poolGauge(String name, String help, ToLongFunction<ConnectionPool.PoolStats> value,
+                                  String... labels) {
+        Metrics.gauge(name, help, () -> poolValue(value), labels);
+    }
+    
+    // まだ一度も接続していない場合は0
+    private static long poolValue(ToLongFunction<ConnectionPool.PoolStats> value) {
+        ConnectionPool.PoolStats stats = DatabaseUtil.getPoolStats();
+        return stats != null ? value.applyAsLong(stats) : 0;
+    }
+    
+    // 書き込みのキュー・ログ、リアルタイム配信、機械の数
+    private void registerServiceMetrics() {
+        registerWriteBehind("sensor-data", SensorDataService.getInstance().getWriteBehindQueue());
+        registerWriteBehind("trip-data", TripDataService.getInstance().getWriteBehindQueue());
+        registerWriteAhead("sensor-data", SensorDataService.getInstance().getWriteAheadLog());
+        registerWriteAhead("trip-data", TripDataService.getInstance().getWriteAheadLog());
+        for (Map.Entry<String, ColumnarTable> entry : Storage.getTables().entrySet()) {
+            registerStore(entry.getKey(), entry.getValue());
+        }
+        
+        LiveUpdateHub hub = LiveUpdateHub.getInstance();
+        Metrics.gauge("agrinav_sse_subscribers", "リアルタイム配信の接続数", hub::getSubscriberCount);
+        Metrics.counter("agrinav_sse_published_total", "リアルタイム配信で送ったイベントの数", hub::getPublishedCount);
+        Metrics.counter("agrinav_sse_dropped_total", "送りきれずに捨てたイベントの数", hub::getDroppedCount);
+        
+        MachineStateRegistry machines = MachineStateRegistry.getInstance();
+        Metrics.gauge("agrinav_machines", "現在の状態をメモリに持っている機械の数", machines::size);
+        
+        Metrics.gauge("agrinav_log_pending", "まだ書き出していないログの件数", Log::getPendingCount);
+        Metrics.counter("agrinav_log_dropped_total", "書き出しが追いつかずに捨てたログの件数", Log::getDroppedCount);
+    }
+    
+    private static void registerWriteBehind(String name, WriteBehindQueue<?> queue) {
+        if (queue == null) {
+            return;
+        }
+        Metrics.gauge("agrinav_write_behind_queue_depth", "ライトビハインドのキューに入っている件数",
+            queue::getQueueDepth, "queue", name);
+        Metrics.counter("agrinav_write_behind_retries_total", "ライトビハインドで保存をやり直した回数",
+            queue::getRetriedCount, "queue", name);
+        Metrics.counter("agrinav_write_behind_dead_lettered_total", "やり直しても保存できず、ログへ書いた件数",
+            queue::getDeadLetteredCount, "queue", name);
+        Metrics.counter("agrinav_write_behind_failed_total", "ライトビハインドで保存できずに失った件数",
+            queue::getFailedCount, "queue", name);
+        Metrics.counter("agrinav_write_behind_rejected_total", "キューが満杯で入れられなかった件数",
+            queue::getRejectedCount, "queue", name);
+        Metrics.histogram("agrinav_write_behind_flush_seconds", "ライトビハインドの1回の保存にかかった時間",
+            queue::getFlushLatency, "queue", name);
+    }
+    
+    private static void registerWriteAhead(String name, WriteAheadLog<?> log) {
+        if (log == null) {
+            return;
+        }
+        Metrics.gauge("agrinav_wal_lag_records", "ライトアヘッドログのまだ保存していない件数",
+            log::getLagCount, "log", name);
+        Metrics.gauge("agrinav_wal_lag_bytes", "ライトアヘッドログのまだ保存していないバイト数",
+            log::getLagBytes, "log", name);
+        Metrics.gauge("agrinav_wal_lag_seconds", "ライトアヘッドログのまだ保存していない一番古いデータの経過時間",
+            () -> log.getLagMillis() / 1000.0, "log", name);
+        Metrics.gauge("agrinav_wal_disk_bytes", "ライトアヘッドログが使っているディスク容量",
+            log::getDiskBytes, "log", name);
+        Metrics.counter("agrinav_wal_failed_attempts_total", "ライトアヘッドログからの保存に失敗した回数",
+            log::getFailedAttempts, "log", name);
+        Metrics.counter("agrinav_wal_rejected_total", "ディスクの上限で書けなかった件数",
+            log::getRejectedCount, "log", name);
+    }
+    
+    private static void registerStore(String name, ColumnarTable table) {
+        Metrics.gauge("agrinav_store_rows", "アプリの中のファイルに保存している行数", table::getRowCount, "table", name);
+        Metrics.gauge("agrinav_store_blocks", "圧縮して確定したブロックの数", table::getBlockCount, "table", name);
+        Metrics.gauge("agrinav_store_disk_bytes", "圧縮したデータと索引のバイト数", table::getDiskBytes, "table", name);
+        Metrics.gauge("agrinav_store_raw_bytes", "圧縮しなかった場合のバイト数（圧縮率の計算用）",
+            table::getRawBytes, "table", name);
+        Metrics.counter("agrinav_store_cache_hits_total", "展開済みのブロックを使えた回数",
+            table::getCacheHits, "table", name);
+        Metrics.counter("agrinav_store_cache_misses_total", "ブロックをファイルから展開した回数",
+            table::getCacheMisses, "table", name);
+    }
+    
+    // JVMのメモリとスレッド
+    private void registerJvmMetrics() {
+        Runtime runtime = Runtime.getRuntime();
+        Metrics.gauge("agrinav_jvm_heap_used_bytes", "使っているヒープメモリ",
+            () -> runtime.totalMemory() - runtime.freeMemory());
+        Metrics.gauge("agrinav_jvm_heap_max_bytes", "ヒープメモリの上限", runtime::maxMemory);
+        Metrics.gauge("agrinav_jvm_threads", "動いているスレッドの数",
+            () -> ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+    
+    /**
+     * GETリクエストの処理
+     * 全部の計測値を返す
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if (!ENABLED) {
+            response.setStatus(404);
+            return;
+        }
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+        Metrics.writePrometheus(out);
+        out.flush();
+    }
+}
@@ -0,0 +1,150 @@
+package com.agriguide.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 作り終わったレスポンスの本文を、圧縮したものと一緒にとっておくキャッシュ
+ *
+ * キーは「API＋パラメータ」で、データのバージョン（保存するたびに増える番号）も一緒に記録します。
+ * バージョンが変わったエントリーは古いので使いません（保存すると自然に無効になります）。
+ * 同じ内容を何台ものダッシュボードが読む場合、2回目からは配列のコピーだけで返せます。
+ *
+ * 最近使ったものから capacity 個まで持ちます（LRU）。
+ */
+final class ResponseCache {
+    
+    /**
+     * とっておいたレスポンス
+     */
+    static final class Entry {
+        final long version;
+        final String contentType;
+        final byte[] body;
+        
+        // gzipで圧縮した本文（小さくて圧縮しない場合はnull）
+        final byte[] gzipBody;
+        
+        Entry(long version, String contentType, byte[] body, byte[] gzipBody) {
+            this.version = version;
+            this.contentType = contentType;
+            this.body = body;
+            this.gzipBody = gzipBody;
+        }
+    }
+    
+    private final String name;
+    private final Map<String, Entry> entries;
+    
+    // 統計情報
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    
+    /**
+     * @param name ログに使う名前
+     * @param capacity 持っておく最大の数（0の場合はキャッシュしない）
+     */
+    ResponseCache(String name, int capacity) {
+        this.name = name;
+        int max = Math.max(0, capacity);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > max;
+            }
+        };
+    }
+    
+    /**
+     * とっておいたレスポンスを取り出す
+     * @param version 今のデータのバージョン
+     * @return 無い場合や、バージョンが古い場合はnull
+     */
+    Entry get(String key, long version) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.version != version) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+    
+    /**
+     * レスポンスをとっておく（圧縮したものも作る）
+     * @param version 本文を作る前に読んだデータのバージョン
+     * @return とっておいたエントリー
+     */
+    Entry put(String key, long version, String contentType, byte[] body) throws IOException {
+        byte[] gzipBody = null;
+        if (body.length >= CompressionFilter.MIN_BYTES) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(body);
+            }
+            gzipBody = compressed.toByteArray();
+        }
+        
+        Entry entry = new Entry(version, contentType, body, gzipBody);
+        if (version > 0) {
+            synchronized (entries) {
+                Entry current = entries.get(key);
+                // 同時に作った場合は、新しいバージョンのほうを残す
+                if (current == null || current.version <= version) {
+                    entries.put(key, entry);
+                }
+            }
+        }
+        return entry;
+    }
+    
+    /**
+     * とっておいたレスポンスを返す（ブラウザがgzipを受け取れる場合は圧縮したほう）
+     * 圧縮したほうを返すときは、付けてあるETagを圧縮用のETagに替えます
+     */
+    static void write(Entry entry, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType(entry.contentType);
+        byte[] bytes = entry.body;
+        if (entry.gzipBody != null && CompressionFilter.acceptsGzip(request)) {
+            response.setHeader("Content-Encoding", "gzip");
+            String etag = response.getHeader("ETag");
+            if (etag != null) {
+                response.setHeader("ETag", ConditionalGet.gzipEtag(etag));
+            }
+            bytes = entry.gzipBody;
+        }
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+    }
+    
+    public long getHitCount() {
+        return hits.sum();
+    }
+    
+    public long getMissCount() {
+        return misses.sum();
+    }
+    
+    @Override
+    public String toString() {
+        synchronized (entries) {
+            return "ResponseCache{" + name + ", size=" + entries.size() + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + "}";
+        }
+    }
+}
@@ -3,8 +3,13 @@ package com.agriguide.controller;
 import java.io.IOException;
 import java.io.PrintWriter;
 
+import com.agriguide.model.MachineState;
 import com.agriguide.model.SensorData;
+import com.agriguide.service.MachineStateRegistry;
 import com.agriguide.service.SensorDataService;
+import com.agriguide.util.JsonUtil;
+import com.agriguide.util.Log;
+import com.agriguide.util.MachineId;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
@@ -16,9 +21,13 @@ import jakarta.servlet.http.HttpServletResponse;
  * センサーデータAPIのコントローラー
  * /api/sensor-data にアクセスしたときの処理を担当します
  */
-@WebServlet("/agrinav-system/api/sensor-data")
+@WebServlet(value = "/agrinav-system/api/sensor-data", asyncSupported = true)
 public class SensorDataServlet extends HttpServlet {
     
+    private static final long serialVersionUID = 1L;
+    
+    private static final Log LOG = Log.get(SensorDataServlet.class);
+    
     private SensorDataService service;
     
     /**
@@ -27,18 +36,37 @@ public class SensorDataServlet extends HttpServlet {
     @Override
     public void init() throws ServletException {
         super.init();
-        this.service = new SensorDataService();
-        System.out.println("✅ SensorDataServlet を起動しました");
+        this.service = SensorDataService.getInstance();
+        LOG.info("✅ SensorDataServlet を起動しました");
     }
     
     /**
      * GETリクエストの処理
-     * 最新のセンサーデータを返す
+     * 最新のセンサーデータを返す（?machineId=tractor-01 の場合はその機械の最新データ）
+     * （メモリ上の値を返すだけなので、Tomcatのスレッドでそのまま処理する）
+     * 前回から変わっていない場合は304を返します（ETag / Last-Modified）
      */
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
         
+        // 前回と同じデータなら、中身を作らずに304を返す
+        // 機械を指定した場合は、走行データでも変わる MachineStateRegistry の番号と機械IDから作る
+        // （時刻は端末の時計なので、Last-Modified は付けない）
+        String machineParam = request.getParameter("machineId");
+        boolean notModified;
+        if (machineParam != null) {
+            String normalized = MachineId.normalize(machineParam);
+            notModified = normalized != null && ConditionalGet.notModified(request, response,
+                "sensor-" + normalized, MachineStateRegistry.getInstance().getVersion(), 0);
+        } else {
+            notModified = ConditionalGet.notModified(request, response, "sensor",
+                service.getVersion(), service.getLastModified());
+        }
+        if (notModified) {
+            return;
+        }
+        
         // CORS設定（別のドメインからアクセスを許可）
         response.setHeader("Access-Control-Allow-Origin", "*");
         
@@ -48,19 +76,31 @@ public class SensorDataServlet extends HttpServlet {
         
         try {
             // 最新データを取得
-            SensorData data = service.getLatestSensorData();
-            
-            // カンマ区切りで返す（例: "8.5,150.3"）
-            String responseText = data.getSpeed() + "," + data.getDistance();
+            String responseText;
+            String machineId = request.getParameter("machineId");
+            if (machineId != null) {
+                MachineState state = MachineStateRegistry.getInstance().get(machineId);
+                if (state == null) {
+                    response.setStatus(404);  // まだデータが無い機械
+                    response.getWriter().print("0.0,0.0");
+                    return;
+                }
+                responseText = state.getSpeed() + "," + state.getDistance();
+            } else {
+                SensorData data = service.getLatestSensorData();
+                
+                // カンマ区切りで返す（例: "8.5,150.3"）
+                responseText = data.getSpeed() + "," + data.getDistance();
+            }
             
             // レスポンスを書き込む
             PrintWriter out = response.getWriter();
             out.print(responseText);
             
-            System.out.println("✅ センサーデータを返しました: " + responseText);
-            
+            LOG.debug("✅ センサーデータを返しました: {}", responseText);
+        
         } catch (Exception e) {
-            System.out.println("❌ エラー: " + e.getMessage());
+            LOG.error("❌ エラー: {}", e.getMessage());
             response.setStatus(500);  // エラーステータス
             PrintWriter out = response.getWriter();
             out.print("0.0,0.0");
@@ -74,6 +114,11 @@ public class SensorDataServlet extends HttpServlet {
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+        // DBを使うことがあるので、Tomcatのスレッドとは別のスレッドで処理する
+        AsyncRequestSupport.execute(request, response, this::handlePost);
+    }
+    
+    private void handlePost(HttpServletRequest request, HttpServletResponse response) throws IOException {
         
         // CORS設定
         response.setHeader("Access-Control-Allow-Origin", "*");
@@ -97,13 +142,41 @@ public class SensorDataServlet extends HttpServlet {
             double speed = Double.parseDouble(speedParam);
             double distance = Double.parseDouble(distanceParam);
             
+            // 機械ID（省略した場合は "default"）
+            String machineId = MachineId.normalize(request.getParameter("machineId"));
+            if (machineId == null) {
+                response.setStatus(400);
+                PrintWriter out = response.getWriter();
+                out.print("{\"error\":\"machineIdが不正です\"}");
+                return;
+            }
+            
+            // 値が不正な場合は400（保存の失敗と区別するため、先に調べる）
+            String error = service.validate(speed, distance);
+            if (error != null) {
+                response.setStatus(400);
+                PrintWriter out = response.getWriter();
+                out.print(JsonUtil.toErrorJson(error));
+                return;
+            }
+            
             // データを保存
-            int id = service.saveSensorData(speed, distance);
+            int id = service.saveSensorData(machineId, speed, distance);
             
             // レスポンスを返す
             PrintWriter out = response.getWriter();
-            out.print("{\"success\":true,\"id\":" + id + "}");
-            
+            if (id == SensorDataService.QUEUED) {
+                // キューに入れた（まだIDは決まっていない）
+                out.print("{\"success\":true,\"queued\":true}");
+            } else if (id <= 0) {
+                // 保存できなかった（端末が捨てないように、あとで送り直してもらう）
+                response.setStatus(503);
+                response.setHeader("Retry-After", "1");
+                out.print("{\"success\":false,\"error\":\"保存できませんでした\"}");
+            } else {
+                out.print("{\"success\":true,\"id\":" + id + "}");
+            }
+        
         } catch (NumberFormatException e) {
             response.setStatus(400);
             PrintWriter out = response.getWriter();
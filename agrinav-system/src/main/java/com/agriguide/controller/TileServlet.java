@@ -0,0 +1,219 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.agriguide.service.TrackTileService;
+import com.agriguide.service.TrackTileService.Tile;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.JsonUtil;
+import com.agriguide.util.Log;
+import com.agriguide.util.QueryDeadline;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 地図に重ねる走行ルートのタイルAPIのコントローラー
+ * /api/tiles/{z}/{x}/{y}.png にアクセスしたときの処理を担当します
+ *
+ * メモリにあるタイルは、Tomcatのスレッドでそのまま返します。
+ * 無い場合は TrackTileService のタイル用のスレッドでディスクから読むか、走行データを読んで作り、
+ * できるまで TILE_WAIT_MS 待ちます（待つ間はTomcatのスレッドを使いません）。
+ * 作るのに時間がかかる場合は、何も描かれていないタイルを「保存しないで」の印を付けて202で返します。
+ * 作るのはそのまま続けるので、次に取り直したときに返せます（リクエストの時間制限では止めません）。
+ */
+@WebServlet(value = "/agrinav-system/api/tiles/*", asyncSupported = true)
+public class TileServlet extends HttpServlet {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final Log LOG = Log.get(TileServlet.class);
+    
+    // メモリに無いタイルができるのを待つ時間（ミリ秒）
+    private static final long WAIT_MILLIS = AppConfig.getLong("TILE_WAIT_MS", 30000);
+    
+    private TrackTileService service;
+    
+    /**
+     * Servlet起動時に1回だけ実行される
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        this.service = TrackTileService.getInstance();
+        LOG.info("✅ TileServlet を起動しました");
+    }
+    
+    /**
+     * GETリクエストの処理
+     * 例: /api/tiles/16/57981/25622.png                      → 全部の機械のルート
+     *     /api/tiles/16/57981/25622.png?machineId=tractor-01 → 1台の機械のルート
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        // CORS設定
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        
+        int[] zxy;
+        String machineId;
+        try {
+            zxy = parseTile(request.getPathInfo());
+            machineId = HistoryDataServlet.parseMachineFilter(request.getParameter("machineId"));
+        } catch (IllegalArgumentException e) {
+            writeError(response, 400, "パラメータが不正です");
+            return;
+        }
+        if (!service.isEnabled()) {
+            writeError(response, 503, "地図のタイルは無効です");
+            return;
+        }
+        if (!service.isValid(zxy[0], zxy[1], zxy[2])) {
+            writeError(response, 404, "タイルが見つかりません");
+            return;
+        }
+        
+        // メモリにあれば、DBを使わないのでこのまま返す
+        Tile tile = service.getCached(zxy[0], zxy[1], zxy[2], machineId);
+        if (tile != null) {
+            writeTile(request, response, tile);
+            return;
+        }
+        
+        // 無い場合は、タイル用のスレッドで読むか作る
+        CompletionStage<Tile> pending = service.requestTile(zxy[0], zxy[1], zxy[2], machineId);
+        if (!request.isAsyncSupported()) {
+            waitTile(request, response, pending);
+            return;
+        }
+        
+        // 「できた」と「待ちきれない」のどちらか先に guarded を閉じた方だけが返事をする
+        GuardedResponse guarded = new GuardedResponse(response);
+        AsyncContext context = request.startAsync(request, response);
+        context.setTimeout(WAIT_MILLIS);
+        context.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (guarded.close()) {
+                    writePending(response);
+                    context.complete();
+                }
+            }
+            
+            @Override
+            public void onError(AsyncEvent event) {
+                guarded.close();
+            }
+            
+            @Override
+            public void onComplete(AsyncEvent event) {
+                guarded.close();
+            }
+            
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        
+        pending.whenComplete((done, error) -> {
+            synchronized (guarded) {
+                if (!guarded.close()) {
+                    return;
+                }
+                try {
+                    if (error != null) {
+                        writeFailure(response, error);
+                    } else {
+                        writeTile(request, response, done);
+                    }
+                } catch (IOException e) {
+                    LOG.debug("⚠️ タイルを送れません: {}", e.getMessage());
+                }
+            }
+            context.complete();
+        });
+    }
+    
+    // 非同期が使えない場合は、このスレッドで待つ
+    private void waitTile(HttpServletRequest request, HttpServletResponse response, CompletionStage<Tile> pending)
+            throws ServletException, IOException {
+        try {
+            writeTile(request, response, pending.toCompletableFuture().get(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        } catch (TimeoutException e) {
+            writePending(response);
+        } catch (ExecutionException e) {
+            writeFailure(response, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        }
+    }
+    
+    // "/{z}/{x}/{y}.png" を [z, x, y] にする
+    private static int[] parseTile(String path) {
+        if (path == null || !path.endsWith(".png")) {
+            throw new IllegalArgumentException("invalid tile path: " + path);
+        }
+        String[] parts = path.substring(1, path.length() - 4).split("/");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("invalid tile path: " + path);
+        }
+        // 数字でない場合は NumberFormatException（IllegalArgumentException の仲間）になる
+        return new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]) };
+    }
+    
+    // PNGを返す（同じ画像をもう持っている場合は304）
+    // 点が多くて新しい点だけで描いたタイルには、X-Tile-Truncated を付ける
+    private void writeTile(HttpServletRequest request, HttpServletResponse response, Tile tile) throws IOException {
+        if (tile.isTruncated()) {
+            response.setHeader("X-Tile-Truncated", "true");
+        }
+        if (ConditionalGet.notModified(request, response, "tile", tile.getChecksum() + 1, 0)) {
+            return;
+        }
+        byte[] png = tile.getPng();
+        response.setContentType("image/png");
+        response.setContentLength(png.length);
+        response.getOutputStream().write(png);
+    }
+    
+    // まだできていないタイルの代わりに、何も描かれていないタイルを保存させずに返す
+    private void writePending(HttpServletResponse response) throws IOException {
+        byte[] png = service.getEmptyTile().getPng();
+        response.setStatus(202);
+        response.setHeader("Cache-Control", "no-store");
+        response.setHeader("X-Tile-Pending", "true");
+        response.setContentType("image/png");
+        response.setContentLength(png.length);
+        response.getOutputStream().write(png);
+    }
+    
+    // タイルを作れなかった（DBの時間切れの場合は、あとで取り直してもらう503）
+    private void writeFailure(HttpServletResponse response, Throwable error) throws IOException {
+        if (QueryDeadline.isTimeout(error)) {
+            response.setHeader("Retry-After", "1");
+            writeError(response, 503, "サーバーが混み合っています");
+        } else {
+            writeError(response, 500, "サーバーエラー");
+        }
+    }
+    
+    private void writeError(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+        out.print(JsonUtil.toErrorJson(message));
+    }
+}
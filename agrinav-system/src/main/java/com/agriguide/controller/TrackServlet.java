@@ -0,0 +1,150 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Timestamp;
+import java.time.format.DateTimeParseException;
+
+import com.agriguide.model.TripPoints;
+import com.agriguide.service.TripDataService;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.JsonUtil;
+import com.agriguide.util.JsonWriter;
+import com.agriguide.util.Log;
+import com.agriguide.util.TrackSimplifier;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 間引いた走行ルートAPIのコントローラー
+ * /api/history-data/track にアクセスしたときの処理を担当します
+ *
+ * 1日分の走行データを全部送るとブラウザが重くなるので、
+ * 形を保ったまま点の数を減らして返します。
+ * - route: 地図用（Douglas-Peucker法）
+ * - series: 速度・距離のグラフ用（LTTB法）
+ */
+@WebServlet(value = "/agrinav-system/api/history-data/track", asyncSupported = true)
+public class TrackServlet extends HttpServlet {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final Log LOG = Log.get(TrackServlet.class);
+    
+    // 間引く前に読み込む最大件数（1件あたり約44バイト）
+    private static final int MAX_SOURCE_POINTS = AppConfig.getInt("TRACK_MAX_SOURCE_POINTS", 200000);
+    
+    // 返す点の数の上限
+    private static final int MAX_POINTS = 10000;
+    
+    private TripDataService service;
+    
+    /**
+     * Servlet起動時に1回だけ実行される
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        this.service = TripDataService.getInstance();
+        LOG.info("✅ TrackServlet を起動しました");
+    }
+    
+    /**
+     * GETリクエストの処理
+     * 例: ?from=2024-06-01T00:00:00Z&to=2024-06-02T00:00:00Z&maxPoints=500&tolerance=2
+     *     ?machineId=tractor-01&from=...（その機械のルートだけ）
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        // DBを使うので、Tomcatのスレッドとは別のスレッドで処理する
+        AsyncRequestSupport.execute(request, response, this::handleGet);
+    }
+    
+    private void handleGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        // CORS設定
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        
+        String machineId;
+        long afterId;
+        Timestamp from;
+        Timestamp to;
+        int maxPoints;
+        double tolerance;
+        try {
+            String afterIdParam = request.getParameter("afterId");
+            String maxPointsParam = request.getParameter("maxPoints");
+            String toleranceParam = request.getParameter("tolerance");
+            machineId = HistoryDataServlet.parseMachineFilter(request.getParameter("machineId"));
+            afterId = afterIdParam != null ? Long.parseLong(afterIdParam) : 0;
+            from = HistoryDataServlet.parseTime(request.getParameter("from"));
+            to = HistoryDataServlet.parseTime(request.getParameter("to"));
+            maxPoints = maxPointsParam != null ? Integer.parseInt(maxPointsParam) : 1000;
+            tolerance = toleranceParam != null ? Double.parseDouble(toleranceParam) : 0;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            // NumberFormatException も IllegalArgumentException の仲間
+            response.setStatus(400);
+            PrintWriter out = response.getWriter();
+            out.print(JsonUtil.toErrorJson("パラメータが不正です"));
+            return;
+        }
+        
+        // 範囲の指定が無い場合は最近24時間
+        if (from == null && to == null && afterId == 0) {
+            from = new Timestamp(System.currentTimeMillis() - 24L * 60 * 60 * 1000);
+        }
+        maxPoints = Math.max(2, Math.min(maxPoints, MAX_POINTS));
+        
+        // 範囲内の点を配列に読み込む（1件多く読んで、続きがあるか調べる）
+        TripPoints points = new TripPoints(1024);
+        service.loadTripPoints(machineId, afterId, from, to, MAX_SOURCE_POINTS + 1, points);
+        boolean truncated = points.size() > MAX_SOURCE_POINTS;
+        int sourceCount = truncated ? MAX_SOURCE_POINTS : points.size();
+        points.truncate(sourceCount);
+        
+        int[] route = TrackSimplifier.simplifyRoute(points, tolerance, maxPoints);
+        int[] series = TrackSimplifier.downsampleSeries(points, maxPoints);
+        
+        // {"sourceCount":N,"truncated":false,"nextAfterId":null,"route":[...],"series":[...]}
+        JsonWriter json = new JsonWriter(response.getWriter());
+        json.writeRaw("{\"sourceCount\":");
+        json.writeLong(sourceCount);
+        json.writeRaw(",\"truncated\":");
+        json.writeRaw(truncated ? "true" : "false");
+        json.writeRaw(",\"nextAfterId\":");
+        if (truncated) {
+            json.writeLong(points.getId(sourceCount - 1));
+        } else {
+            json.writeRaw("null");
+        }
+        json.writeRaw(",\"route\":");
+        writePoints(json, points, route);
+        json.writeRaw(",\"series\":");
+        writePoints(json, points, series);
+        json.writeRaw('}');
+        json.flush();
+        
+        LOG.debug("✅ 走行ルートを返しました: {}件 → ルート{}件, グラフ{}件",
+            sourceCount, route.length, series.length);
+    }
+    
+    // 指定した番号の点だけをJSON配列で書く
+    private static void writePoints(JsonWriter json, TripPoints points, int[] indexes) throws IOException {
+        json.writeRaw('[');
+        for (int k = 0; k < indexes.length; k++) {
+            if (k > 0) {
+                json.writeRaw(',');
+            }
+            int i = indexes[k];
+            json.writeTrip(points.getId(i), points.getSpeed(i), points.getDistance(i),
+                points.getLatitude(i), points.getLongitude(i), points.getRecordedAt(i));
+        }
+        json.writeRaw(']');
+    }
+}
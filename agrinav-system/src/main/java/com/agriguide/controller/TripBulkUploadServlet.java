@@ -0,0 +1,167 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.agriguide.model.TripData;
+import com.agriguide.service.TripDataService;
+import com.agriguide.util.Log;
+import com.agriguide.util.MachineId;
+import com.agriguide.util.TripPointStreamParser;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 走行データの一括アップロードAPIのコントローラー
+ * /api/history-data/bulk にアクセスしたときの処理を担当します
+ *
+ * 電波が届かない間にたまったデータを、1回のリクエストでまとめて送れます。
+ * 本文は JSON配列 または NDJSON（1行に1件）で送ってください。
+ * 機械IDは1件ごとの "machineId"、またはパラメータ ?machineId=tractor-01 で指定できます
+ * （1件ごとの指定が優先です）。
+ * Content-Type が application/x-agrinav-trip の場合は、バイナリ形式として読みます。
+ * 本文は ASYNC_MAX_UPLOAD_BYTES バイトまで受け取れます（超えると413）。
+ */
+@WebServlet("/agrinav-system/api/history-data/bulk")
+public class TripBulkUploadServlet extends HttpServlet {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final Log LOG = Log.get(TripBulkUploadServlet.class);
+    
+    // 何件ごとにデータベースへ保存するか
+    private static final int BATCH_SIZE = 500;
+    
+    private TripDataService service;
+    
+    /**
+     * Servlet起動時に1回だけ実行される
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        this.service = TripDataService.getInstance();
+        LOG.info("✅ TripBulkUploadServlet を起動しました");
+    }
+    
+    /**
+     * POSTリクエストの処理
+     * DBを使うので、Tomcatのスレッドとは別のスレッドで処理する（DBの同時アクセス数の枠も使う）
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        
+        // バイナリ形式の場合
+        if (BinaryTripUpload.isBinary(request)) {
+            AsyncRequestSupport.executeUpload(request, response,
+                (req, res) -> BinaryTripUpload.handle(req, res, service));
+            return;
+        }
+        AsyncRequestSupport.executeUpload(request, response, this::handlePost);
+    }
+    
+    // 本文の走行データを読みながら、BATCH_SIZE件ごとに保存する
+    private void handlePost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        
+        // CORS設定
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        
+        if (request.getCharacterEncoding() == null) {
+            request.setCharacterEncoding("UTF-8");
+        }
+        
+        int accepted = 0;
+        int rejected = 0;
+        List<TripData> batch = new ArrayList<>(BATCH_SIZE);
+        
+        // 1件ごとに指定が無い場合の機械ID
+        String defaultMachineId = MachineId.normalize(request.getParameter("machineId"));
+        if (defaultMachineId == null) {
+            response.setStatus(400);
+            PrintWriter out = response.getWriter();
+            out.print("{\"error\":\"machineIdが不正です\",\"accepted\":0,\"rejected\":0}");
+            return;
+        }
+        String lastRawId = null;
+        String lastMachineId = defaultMachineId;
+        
+        try {
+            TripPointStreamParser parser = new TripPointStreamParser(request.getReader());
+            
+            // 1件ずつ読み込んで検証する
+            while (parser.next()) {
+                if (!parser.isComplete() || service.validate(parser.getSpeed(), parser.getDistance(),
+                        parser.getLatitude(), parser.getLongitude()) != null) {
+                    rejected++;
+                    continue;
+                }
+                
+                // 機械ID（同じIDが続く場合はチェックを省く）
+                String rawId = parser.getMachineId();
+                String machineId = defaultMachineId;
+                if (rawId != null) {
+                    if (rawId != lastRawId) {
+                        lastRawId = rawId;
+                        lastMachineId = MachineId.normalize(rawId);
+                    }
+                    machineId = lastMachineId;
+                }
+                if (machineId == null) {
+                    rejected++;
+                    continue;
+                }
+                
+                TripData data = parser.toTripData();
+                data.setMachineId(machineId);
+                batch.add(data);
+                if (batch.size() >= BATCH_SIZE) {
+                    int saved = service.saveTripDataBatch(batch);
+                    accepted += saved;
+                    rejected += batch.size() - saved;
+                    batch.clear();
+                }
+            }
+            
+            // 残りを保存
+            if (!batch.isEmpty()) {
+                int saved = service.saveTripDataBatch(batch);
+                accepted += saved;
+                rejected += batch.size() - saved;
+                batch.clear();
+            }
+            
+            // レスポンスを返す
+            PrintWriter out = response.getWriter();
+            out.print("{\"success\":true,\"accepted\":" + accepted + ",\"rejected\":" + rejected + "}");
+            
+            LOG.debug("✅ 一括アップロード: 受付{}件, 不正{}件", accepted, rejected);
+        
+        } catch (TripPointStreamParser.ParseException e) {
+            // 途中までに保存した分は有効のまま、形式エラーを返す
+            if (!batch.isEmpty()) {
+                int saved = service.saveTripDataBatch(batch);
+                accepted += saved;
+                rejected += batch.size() - saved;
+            }
+            response.setStatus(400);
+            PrintWriter out = response.getWriter();
+            out.print("{\"error\":\"JSONの形式が不正です\",\"accepted\":" + accepted
+                + ",\"rejected\":" + rejected + "}");
+        } catch (Exception e) {
+            LOG.error("❌ エラー: {}", e.getMessage());
+            response.setStatus(500);
+            PrintWriter out = response.getWriter();
+            out.print("{\"error\":\"サーバーエラー\",\"accepted\":" + accepted
+                + ",\"rejected\":" + rejected + "}");
+        }
+    }
+}
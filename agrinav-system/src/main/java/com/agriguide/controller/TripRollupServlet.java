@@ -0,0 +1,125 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Timestamp;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+import com.agriguide.model.TripRollup;
+import com.agriguide.service.TripRollupService;
+import com.agriguide.util.JsonUtil;
+import com.agriguide.util.JsonWriter;
+import com.agriguide.util.Log;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 走行データの時間ごとの集計APIのコントローラー
+ * /api/trip-rollups にアクセスしたときの処理を担当します
+ *
+ * 1分ごと・1時間ごとの平均速度や進んだ距離を返します。
+ * 集計済みの値を読むだけなので、1シーズン分でも時間の数だけの読み込みで済みます。
+ */
+@WebServlet(value = "/agrinav-system/api/trip-rollups", asyncSupported = true)
+public class TripRollupServlet extends HttpServlet {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final Log LOG = Log.get(TripRollupServlet.class);
+    
+    private TripRollupService service;
+    
+    /**
+     * Servlet起動時に1回だけ実行される
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        this.service = TripRollupService.getInstance();
+        LOG.info("✅ TripRollupServlet を起動しました");
+    }
+    
+    /**
+     * GETリクエストの処理
+     * 例: ?resolution=hour&from=2024-04-01T00:00:00Z&to=2024-10-01T00:00:00Z&machineId=tractor-01
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        // DBを使うので、Tomcatのスレッドとは別のスレッドで処理する
+        AsyncRequestSupport.execute(request, response, this::handleGet);
+    }
+    
+    private void handleGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        // CORS設定
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        
+        String resolution = request.getParameter("resolution");
+        if (resolution == null) {
+            resolution = "minute";
+        }
+        int seconds;
+        if (resolution.equals("minute")) {
+            seconds = TripRollupService.MINUTE;
+        } else if (resolution.equals("hour")) {
+            seconds = TripRollupService.HOUR;
+        } else {
+            response.setStatus(400);
+            PrintWriter out = response.getWriter();
+            out.print(JsonUtil.toErrorJson("resolutionはminuteかhourです"));
+            return;
+        }
+        
+        List<TripRollup> rollups;
+        try {
+            String machineId = HistoryDataServlet.parseMachineFilter(request.getParameter("machineId"));
+            Timestamp from = HistoryDataServlet.parseTime(request.getParameter("from"));
+            Timestamp to = HistoryDataServlet.parseTime(request.getParameter("to"));
+            
+            // 範囲の指定が無い場合は、1分ごとなら最近24時間、1時間ごとなら最近30日
+            if (to == null) {
+                to = new Timestamp(System.currentTimeMillis());
+            }
+            if (from == null) {
+                long days = seconds == TripRollupService.MINUTE ? 1 : 30;
+                from = new Timestamp(to.getTime() - days * 24 * 60 * 60 * 1000);
+            }
+            rollups = service.query(machineId, seconds, from, to);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            // 時間の数が多すぎる場合もここに来る
+            response.setStatus(400);
+            PrintWriter out = response.getWriter();
+            out.print(JsonUtil.toErrorJson("パラメータが不正です"));
+            return;
+        }
+        
+        // {"resolution":"minute","buckets":[{"start":...,"count":..,"avgSpeed":..,...}, ...]}
+        JsonWriter json = new JsonWriter(response.getWriter());
+        json.writeRaw("{\"resolution\":").writeString(resolution);
+        json.writeRaw(",\"buckets\":[");
+        for (int i = 0; i < rollups.size(); i++) {
+            TripRollup rollup = rollups.get(i);
+            if (i > 0) {
+                json.writeRaw(',');
+            }
+            json.writeRaw("{\"start\":").writeLong(rollup.getBucketStart());
+            json.writeRaw(",\"count\":").writeLong(rollup.getCount());
+            json.writeRaw(",\"avgSpeed\":").writeFixed(rollup.getAverageSpeed(), JsonWriter.SPEED_DECIMALS);
+            json.writeRaw(",\"minSpeed\":").writeFixed(rollup.getSpeedMin(), JsonWriter.SPEED_DECIMALS);
+            json.writeRaw(",\"maxSpeed\":").writeFixed(rollup.getSpeedMax(), JsonWriter.SPEED_DECIMALS);
+            json.writeRaw(",\"distance\":").writeFixed(rollup.getDistanceDelta(), JsonWriter.DISTANCE_DECIMALS);
+            json.writeRaw('}');
+        }
+        json.writeRaw("]}");
+        json.flush();
+        
+        LOG.debug("✅ 走行データの集計を返しました: {}件", rollups.size());
+    }
+}
@@ -0,0 +1,145 @@
+package com.agriguide.controller;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Timestamp;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+import com.agriguide.model.TripSegment;
+import com.agriguide.service.TripSegmentService;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.JsonUtil;
+import com.agriguide.util.JsonWriter;
+import com.agriguide.util.Log;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * 作業中・アイドル・停止・移動の区間APIのコントローラー
+ * /api/trip-segments にアクセスしたときの処理を担当します
+ *
+ * 区間ごとの時間・距離・平均速度と、種類ごとの合計を返します。
+ * 保存済みの区間を読むだけなので、元の走行データは読みません。
+ */
+@WebServlet(value = "/agrinav-system/api/trip-segments", asyncSupported = true)
+public class TripSegmentServlet extends HttpServlet {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private static final Log LOG = Log.get(TripSegmentServlet.class);
+    
+    private static final int DEFAULT_LIMIT = 1000;
+    private static final int MAX_LIMIT = AppConfig.getInt("SEGMENT_MAX_RESULTS", 10000);
+    
+    private TripSegmentService service;
+    
+    /**
+     * Servlet起動時に1回だけ実行される
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        this.service = TripSegmentService.getInstance();
+        LOG.info("✅ TripSegmentServlet を起動しました");
+    }
+    
+    /**
+     * GETリクエストの処理
+     * 例: ?machineId=tractor-01&from=2024-06-01T00:00:00Z&to=2024-06-02T00:00:00Z&type=moving
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        // DBを使うので、Tomcatのスレッドとは別のスレッドで処理する
+        AsyncRequestSupport.execute(request, response, this::handleGet);
+    }
+    
+    private void handleGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        // CORS設定
+        response.setHeader("Access-Control-Allow-Origin", "*");
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        
+        List<TripSegmentService.Entry> entries;
+        try {
+            String machineId = HistoryDataServlet.parseMachineFilter(request.getParameter("machineId"));
+            Timestamp from = HistoryDataServlet.parseTime(request.getParameter("from"));
+            Timestamp to = HistoryDataServlet.parseTime(request.getParameter("to"));
+            String typeParam = request.getParameter("type");
+            TripSegment.Type type = typeParam == null || typeParam.isEmpty()
+                ? null : TripSegment.Type.fromLabel(typeParam);
+            String limitParam = request.getParameter("limit");
+            int limit = limitParam != null ? Integer.parseInt(limitParam) : DEFAULT_LIMIT;
+            if (limit <= 0) {
+                limit = DEFAULT_LIMIT;
+            }
+            limit = Math.min(limit, MAX_LIMIT);
+            
+            // 範囲の指定が無い場合は最近24時間
+            if (to == null) {
+                to = new Timestamp(System.currentTimeMillis());
+            }
+            if (from == null) {
+                from = new Timestamp(to.getTime() - 24L * 60 * 60 * 1000);
+            }
+            entries = service.query(machineId, type, from, to, limit);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            // 知らない種類や、数値でないlimitもここに来る
+            response.setStatus(400);
+            PrintWriter out = response.getWriter();
+            out.print(JsonUtil.toErrorJson("パラメータが不正です"));
+            return;
+        }
+        
+        // 種類ごとの合計（時間・距離）
+        TripSegment.Type[] types = TripSegment.Type.values();
+        long[] totalMillis = new long[types.length];
+        double[] totalDistance = new double[types.length];
+        
+        // {"segments":[{"machineId":..,"type":"moving","start":..,"end":..,...}, ...],"totals":{"moving":{...},...}}
+        JsonWriter json = new JsonWriter(response.getWriter());
+        json.writeRaw("{\"segments\":[");
+        for (int i = 0; i < entries.size(); i++) {
+            TripSegmentService.Entry entry = entries.get(i);
+            TripSegment segment = entry.segment;
+            if (i > 0) {
+                json.writeRaw(',');
+            }
+            json.writeRaw("{\"machineId\":").writeString(segment.getMachineId());
+            json.writeRaw(",\"type\":").writeString(segment.getType().label());
+            json.writeRaw(",\"startId\":").writeLong(segment.getStartId());
+            json.writeRaw(",\"endId\":").writeLong(segment.getEndId());
+            json.writeRaw(",\"start\":").writeLong(segment.getStartTime());
+            json.writeRaw(",\"end\":").writeLong(segment.getEndTime());
+            json.writeRaw(",\"durationMs\":").writeLong(segment.getDurationMillis());
+            json.writeRaw(",\"count\":").writeLong(segment.getCount());
+            json.writeRaw(",\"distance\":").writeFixed(segment.getDistance(), JsonWriter.DISTANCE_DECIMALS);
+            json.writeRaw(",\"avgSpeed\":").writeFixed(segment.getAverageSpeed(), JsonWriter.SPEED_DECIMALS);
+            json.writeRaw(",\"maxSpeed\":").writeFixed(segment.getSpeedMax(), JsonWriter.SPEED_DECIMALS);
+            json.writeRaw(",\"open\":").writeRaw(entry.open ? "true" : "false");
+            json.writeRaw('}');
+            
+            totalMillis[segment.getType().ordinal()] += segment.getDurationMillis();
+            totalDistance[segment.getType().ordinal()] += segment.getDistance();
+        }
+        json.writeRaw("],\"totals\":{");
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                json.writeRaw(',');
+            }
+            json.writeString(types[i].label());
+            json.writeRaw(":{\"durationMs\":").writeLong(totalMillis[i]);
+            json.writeRaw(",\"distance\":").writeFixed(totalDistance[i], JsonWriter.DISTANCE_DECIMALS);
+            json.writeRaw('}');
+        }
+        json.writeRaw("}}");
+        json.flush();
+        
+        LOG.debug("✅ 区間を返しました: {}件", entries.size());
+    }
+}
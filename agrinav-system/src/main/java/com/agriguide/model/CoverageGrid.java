@@ -0,0 +1,542 @@
+package com.agriguide.model;
+
+import com.agriguide.util.GeoPolygon;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 1つの圃場の作業済みの範囲を、マス目（1マス cellMeters 四方）のビットで持つクラス
+ * データベースのfield_coverageテーブルと対応しています
+ *
+ * 走行データが届くたびに、前の点から今の点までを作業機の幅で塗ります（端が丸い帯）。
+ * 塗ったマスの数は塗るたびに数えておくので、作業済みの割合は元の走行データを読まずに返せます。
+ * すでに塗ってあるマスを、別の通り（同じ機械でも、作業機の幅より前に塗ったマス）でもう一度塗った場合は
+ * 「重なり」（二重に作業した範囲）として数えます。
+ *
+ * 同時に呼ばないでください（呼び出し側で圃場ごとに同期します）。
+ */
+public class CoverageGrid {
+    
+    // 緯度・経度1度あたりのおおよその距離（メートル）
+    private static final double METERS_PER_DEGREE_LAT = 110540.0;
+    private static final double METERS_PER_DEGREE_LON = 111320.0;
+    
+    // マス目を作るたびに増える番号（同じ圃場を登録し直したときに、前のETagと重ならないように）
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+    
+    private final String fieldId;
+    private final String boundaryText;    // 圃場の境界（"緯度,経度;緯度,経度;..."）
+    private final GeoPolygon boundary;
+    private final String machineId;       // この機械だけ数える（nullの場合は全部の機械）
+    private final double widthMeters;     // 作業機の幅 (m)
+    private final double cellMeters;      // 1マスの大きさ (m)
+    private final long createdAt;
+    
+    // 通りを区切る条件（これより時間が空いた、または離れた点の間は塗らない）
+    private final long maxGapMillis;
+    private final double maxStepMeters;
+    
+    // マス目の位置（南西の角）と大きさ
+    private final double originLat;
+    private final double originLon;
+    private final double metersPerDegreeLon;
+    private final int cols;
+    private final int rows;
+    
+    // マスごとのビット（南の行から順に、行の中は西から順）
+    private final long[] inside;          // 圃場の中のマス
+    private final long[] covered;         // 塗ったマス
+    private final long[] overlap;         // 2回以上塗ったマス
+    private final int fieldCells;
+    private int coveredCells;
+    private int overlapCells;
+    
+    private long updatedAt;
+    private long version;                 // 変わるたびに増える番号（ETag用）
+    private final long generation = GENERATIONS.incrementAndGet();  // このマス目の番号（ETag用）
+    private boolean dirty;
+    
+    // 機械ごとの、前の点と最近塗ったマス
+    private final Map<String, Pass> passes = new HashMap<>();
+    
+    /**
+     * 新しい圃場のマス目を作る
+     * @param boundaryText 圃場の境界（"緯度,経度;緯度,経度;..."）
+     * @param maxCells マスの数の上限
+     * @throws IllegalArgumentException 境界が不正、またはマスの数が上限を超える場合
+     */
+    public CoverageGrid(String fieldId, String boundaryText, String machineId, double widthMeters,
+                        double cellMeters, long createdAt, long maxGapMillis, double maxStepMeters, int maxCells) {
+        if (!(widthMeters > 0) || !(cellMeters > 0)) {
+            throw new IllegalArgumentException("width and cell size must be positive");
+        }
+        this.fieldId = fieldId;
+        this.boundaryText = boundaryText;
+        this.boundary = GeoPolygon.parse(boundaryText);
+        this.machineId = machineId;
+        this.widthMeters = widthMeters;
+        this.cellMeters = cellMeters;
+        this.createdAt = createdAt;
+        this.updatedAt = createdAt;
+        this.maxGapMillis = maxGapMillis;
+        this.maxStepMeters = maxStepMeters;
+        
+        this.originLat = boundary.getMinLat();
+        this.originLon = boundary.getMinLon();
+        this.metersPerDegreeLon = METERS_PER_DEGREE_LON
+            * Math.cos(Math.toRadians((boundary.getMinLat() + boundary.getMaxLat()) / 2));
+        double cellsX = Math.ceil((boundary.getMaxLon() - originLon) * metersPerDegreeLon / cellMeters);
+        double cellsY = Math.ceil((boundary.getMaxLat() - originLat) * METERS_PER_DEGREE_LAT / cellMeters);
+        if (cellsX * cellsY > maxCells) {
+            throw new IllegalArgumentException("too many cells");
+        }
+        this.cols = Math.max(1, (int) cellsX);
+        this.rows = Math.max(1, (int) cellsY);
+        
+        int words = (cols * rows + 63) >>> 6;
+        this.inside = new long[words];
+        this.covered = new long[words];
+        this.overlap = new long[words];
+        
+        // マスの中心が境界の中にあれば、圃場のマスとする
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            double lat = originLat + (row + 0.5) * cellMeters / METERS_PER_DEGREE_LAT;
+            for (int col = 0; col < cols; col++) {
+                double lon = originLon + (col + 0.5) * cellMeters / metersPerDegreeLon;
+                if (boundary.contains(lat, lon)) {
+                    set(inside, row * cols + col);
+                    count++;
+                }
+            }
+        }
+        this.fieldCells = count;
+    }
+    
+    /**
+     * 走行データ1件を足す（前の点からこの点までを塗る）
+     * @param working 作業中かどうか（falseの場合は位置だけ覚えて、塗らない）
+     * @return 新しく塗ったマスがあればtrue
+     */
+    public boolean add(String passKey, double lat, double lon, long time, boolean working) {
+        Pass pass = passes.computeIfAbsent(passKey, k -> new Pass(widthMeters + 2 * cellMeters));
+        double x = toX(lon);
+        double y = toY(lat);
+        if (!pass.started) {
+            pass.started = true;
+            pass.x = x;
+            pass.y = y;
+            pass.time = time;
+            return false;
+        }
+        if (time < pass.time) {
+            return false;
+        }
+        
+        double dx = x - pass.x;
+        double dy = y - pass.y;
+        double step = Math.sqrt(dx * dx + dy * dy);
+        boolean painted = false;
+        if (time - pass.time > maxGapMillis || step > maxStepMeters) {
+            // 途切れた場合は、別の通りとして扱う（前の通りのマスを重なりとして数えるように）
+            pass.odometer += widthMeters + 2 * cellMeters + step;
+        } else {
+            pass.odometer += step;
+            if (working) {
+                painted = paint(pass, pass.x, pass.y, x, y);
+            }
+        }
+        pass.x = x;
+        pass.y = y;
+        pass.time = time;
+        if (painted) {
+            updatedAt = time;
+            version++;
+            dirty = true;
+        }
+        return painted;
+    }
+    
+    // 線分 (x1,y1)-(x2,y2) から作業機の幅の半分以内のマスを塗る
+    private boolean paint(Pass pass, double x1, double y1, double x2, double y2) {
+        double radius = widthMeters / 2;
+        int col0 = Math.max(0, (int) Math.floor((Math.min(x1, x2) - radius) / cellMeters));
+        int col1 = Math.min(cols - 1, (int) Math.floor((Math.max(x1, x2) + radius) / cellMeters));
+        int row0 = Math.max(0, (int) Math.floor((Math.min(y1, y2) - radius) / cellMeters));
+        int row1 = Math.min(rows - 1, (int) Math.floor((Math.max(y1, y2) + radius) / cellMeters));
+        if (col0 > col1 || row0 > row1) {
+            return false;
+        }
+        
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double radiusSquared = radius * radius;
+        // 作業機の幅くらい進む間に塗ったマスは、同じ通りとして重なりに数えない
+        double window = pass.window;
+        boolean changed = false;
+        for (int row = row0; row <= row1; row++) {
+            double cy = (row + 0.5) * cellMeters;
+            for (int col = col0; col <= col1; col++) {
+                double cx = (col + 0.5) * cellMeters;
+                // マスの中心から線分までの距離
+                double t = lengthSquared > 0 ? ((cx - x1) * dx + (cy - y1) * dy) / lengthSquared : 0;
+                t = Math.max(0, Math.min(1, t));
+                double ex = x1 + t * dx - cx;
+                double ey = y1 + t * dy - cy;
+                if (ex * ex + ey * ey > radiusSquared) {
+                    continue;
+                }
+                int index = row * cols + col;
+                if (!get(inside, index)) {
+                    continue;
+                }
+                double last = pass.mark(index);
+                if (!get(covered, index)) {
+                    set(covered, index);
+                    coveredCells++;
+                    changed = true;
+                } else if (!get(overlap, index) && (Double.isNaN(last) || pass.odometer - last > window)) {
+                    set(overlap, index);
+                    overlapCells++;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+    
+    /**
+     * 保存した塗ったマス・重なりのマスを戻す（toBytes() で作ったもの）
+     * @throws IllegalArgumentException マス目の大きさが合わない場合
+     */
+    public void restore(byte[] coveredBytes, byte[] overlapBytes, long updatedAt) {
+        fromBytes(coveredBytes, covered);
+        fromBytes(overlapBytes, overlap);
+        coveredCells = 0;
+        overlapCells = 0;
+        for (int i = 0; i < covered.length; i++) {
+            covered[i] &= inside[i];
+            overlap[i] &= covered[i];
+            coveredCells += Long.bitCount(covered[i]);
+            overlapCells += Long.bitCount(overlap[i]);
+        }
+        this.updatedAt = updatedAt;
+        version++;
+    }
+    
+    /**
+     * 別のマス目（同じ圃場・同じ大きさ）で塗ったマスを足す（過去の走行データから作り直したものなど）
+     */
+    public void merge(CoverageGrid other) {
+        if (other.cols != cols || other.rows != rows) {
+            throw new IllegalArgumentException("grid size mismatch");
+        }
+        coveredCells = 0;
+        overlapCells = 0;
+        for (int i = 0; i < covered.length; i++) {
+            overlap[i] |= other.overlap[i] | (covered[i] & other.covered[i]);
+            covered[i] |= other.covered[i];
+            coveredCells += Long.bitCount(covered[i]);
+            overlapCells += Long.bitCount(overlap[i]);
+        }
+        updatedAt = Math.max(updatedAt, other.updatedAt);
+        version++;
+        dirty = true;
+    }
+    
+    /**
+     * 塗ったマスのビットを圧縮したもの（データベースへの保存用）
+     */
+    public byte[] getCoveredBytes() {
+        return toBytes(covered);
+    }
+    
+    /**
+     * 重なりのマスのビットを圧縮したもの（データベースへの保存用）
+     */
+    public byte[] getOverlapBytes() {
+        return toBytes(overlap);
+    }
+    
+    /**
+     * マスの状態（0: 圃場の外、1: まだ、2: 作業済み、3: 重なり）
+     */
+    public int getCell(int row, int col) {
+        int index = row * cols + col;
+        if (!get(inside, index)) {
+            return 0;
+        }
+        if (get(overlap, index)) {
+            return 3;
+        }
+        return get(covered, index) ? 2 : 1;
+    }
+    
+    // ビットを1つ立てる
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+    
+    private static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+    
+    // ほとんど同じ値が続くので、Deflateで小さくする
+    private static byte[] toBytes(long[] bits) {
+        ByteBuffer raw = ByteBuffer.allocate(bits.length * 8);
+        raw.asLongBuffer().put(bits);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw.array());
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bits.length / 8));
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+    
+    private static void fromBytes(byte[] bytes, long[] bits) {
+        byte[] raw = new byte[bits.length * 8];
+        Inflater inflater = new Inflater();
+        inflater.setInput(bytes);
+        try {
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, raw.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != raw.length || !inflater.finished()) {
+                throw new IllegalArgumentException("bitmap size mismatch");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("invalid bitmap", e);
+        } finally {
+            inflater.end();
+        }
+        ByteBuffer.wrap(raw).asLongBuffer().get(bits);
+    }
+    
+    private double toX(double lon) {
+        return (lon - originLon) * metersPerDegreeLon;
+    }
+    
+    private double toY(double lat) {
+        return (lat - originLat) * METERS_PER_DEGREE_LAT;
+    }
+    
+    public String getFieldId() {
+        return fieldId;
+    }
+    
+    public String getBoundaryText() {
+        return boundaryText;
+    }
+    
+    public GeoPolygon getBoundary() {
+        return boundary;
+    }
+    
+    public String getMachineId() {
+        return machineId;
+    }
+    
+    public double getWidthMeters() {
+        return widthMeters;
+    }
+    
+    public double getCellMeters() {
+        return cellMeters;
+    }
+    
+    public long getCreatedAt() {
+        return createdAt;
+    }
+    
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    /**
+     * このマス目を作ったときの番号（アプリの中で、作るたびに違う番号）
+     */
+    public long getGeneration() {
+        return generation;
+    }
+    
+    public int getCols() {
+        return cols;
+    }
+    
+    public int getRows() {
+        return rows;
+    }
+    
+    /**
+     * マス目の北端の緯度（地図に重ねるときに使う）
+     */
+    public double getNorthLat() {
+        return originLat + rows * cellMeters / METERS_PER_DEGREE_LAT;
+    }
+    
+    /**
+     * マス目の東端の経度（地図に重ねるときに使う）
+     */
+    public double getEastLon() {
+        return originLon + cols * cellMeters / metersPerDegreeLon;
+    }
+    
+    public double getSouthLat() {
+        return originLat;
+    }
+    
+    public double getWestLon() {
+        return originLon;
+    }
+    
+    public int getFieldCells() {
+        return fieldCells;
+    }
+    
+    public int getCoveredCells() {
+        return coveredCells;
+    }
+    
+    public int getOverlapCells() {
+        return overlapCells;
+    }
+    
+    /**
+     * 作業済みの割合（%、圃場のマスが無い場合は0）
+     */
+    public double getCoveredPercent() {
+        return fieldCells > 0 ? coveredCells * 100.0 / fieldCells : 0;
+    }
+    
+    /**
+     * 重なりの割合（%、圃場のマスに対して）
+     */
+    public double getOverlapPercent() {
+        return fieldCells > 0 ? overlapCells * 100.0 / fieldCells : 0;
+    }
+    
+    /**
+     * マス1つの面積 (m²)
+     */
+    public double getCellArea() {
+        return cellMeters * cellMeters;
+    }
+    
+    /**
+     * 前回の保存から変わったかどうか
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+    
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+    
+    // 1つの通り（機械ごと）の、前の点と最近塗ったマス
+    // 最近塗ったマスは int と double の配列のハッシュ表に入れる（塗るたびに Integer・Double を作らないため）
+    private static final class Pass {
+        private static final int MIN_CAPACITY = 1024;
+        
+        final double window;      // この距離より前に塗ったマスは、別の通りとして扱う (m)
+        boolean started;
+        double x;
+        double y;
+        long time;
+        double odometer;          // この通りで進んだ距離の合計 (m)
+        int[] cells = newCells(MIN_CAPACITY);         // マスの番号（-1は空き）
+        double[] marks = new double[MIN_CAPACITY];    // 最後に塗ったときの odometer
+        int size;
+        
+        Pass(double window) {
+            this.window = window;
+        }
+        
+        /**
+         * マスを今の odometer で塗ったことにする
+         * @return 前に塗ったときの odometer（覚えていない場合はNaN）
+         */
+        double mark(int cell) {
+            int mask = cells.length - 1;
+            for (int i = slot(cell, mask); ; i = (i + 1) & mask) {
+                if (cells[i] == cell) {
+                    double last = marks[i];
+                    marks[i] = odometer;
+                    return last;
+                }
+                if (cells[i] < 0) {
+                    cells[i] = cell;
+                    marks[i] = odometer;
+                    if (++size * 2 > cells.length) {
+                        prune();
+                    }
+                    return Double.NaN;
+                }
+            }
+        }
+        
+        // 作業機の幅より前に塗ったマスは忘れて作り直す（メモリを増やさないため）
+        // 残ったマスが多い場合は表を大きくする
+        private void prune() {
+            int live = 0;
+            for (int i = 0; i < cells.length; i++) {
+                if (cells[i] >= 0 && odometer - marks[i] <= window) {
+                    live++;
+                }
+            }
+            int capacity = MIN_CAPACITY;
+            while (capacity < live * 4) {
+                capacity <<= 1;
+            }
+            int[] oldCells = cells;
+            double[] oldMarks = marks;
+            cells = newCells(capacity);
+            marks = new double[capacity];
+            size = live;
+            int mask = capacity - 1;
+            for (int i = 0; i < oldCells.length; i++) {
+                if (oldCells[i] < 0 || odometer - oldMarks[i] > window) {
+                    continue;
+                }
+                int j = slot(oldCells[i], mask);
+                while (cells[j] >= 0) {
+                    j = (j + 1) & mask;
+                }
+                cells[j] = oldCells[i];
+                marks[j] = oldMarks[i];
+            }
+        }
+        
+        private static int slot(int cell, int mask) {
+            int h = cell * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+        
+        private static int[] newCells(int capacity) {
+            int[] cells = new int[capacity];
+            Arrays.fill(cells, -1);
+            return cells;
+        }
+    }
+}
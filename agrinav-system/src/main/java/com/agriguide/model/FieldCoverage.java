@@ -0,0 +1,96 @@
+package com.agriguide.model;
+
+/**
+ * 1つの圃場の作業済みの範囲を保存するときの内容（CoverageGrid のその時点の写し）
+ * データベースのfield_coverageテーブルの1行と対応しています
+ */
+public class FieldCoverage {
+    
+    private final String fieldId;
+    private final String machineId;       // この機械だけ数える（nullの場合は全部の機械）
+    private final String boundary;        // 圃場の境界（"緯度,経度;緯度,経度;..."）
+    private final double widthMeters;     // 作業機の幅 (m)
+    private final double cellMeters;      // 1マスの大きさ (m)
+    private final int fieldCells;         // 圃場のマスの数
+    private final int coveredCells;       // 作業済みのマスの数
+    private final int overlapCells;       // 重なりのマスの数
+    private final byte[] coveredBitmap;   // 作業済みのマスのビット（圧縮済み）
+    private final byte[] overlapBitmap;   // 重なりのマスのビット（圧縮済み）
+    private final long createdAt;
+    private final long updatedAt;
+    
+    public FieldCoverage(String fieldId, String machineId, String boundary, double widthMeters, double cellMeters,
+                         int fieldCells, int coveredCells, int overlapCells, byte[] coveredBitmap,
+                         byte[] overlapBitmap, long createdAt, long updatedAt) {
+        this.fieldId = fieldId;
+        this.machineId = machineId;
+        this.boundary = boundary;
+        this.widthMeters = widthMeters;
+        this.cellMeters = cellMeters;
+        this.fieldCells = fieldCells;
+        this.coveredCells = coveredCells;
+        this.overlapCells = overlapCells;
+        this.coveredBitmap = coveredBitmap;
+        this.overlapBitmap = overlapBitmap;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+    }
+    
+    /**
+     * マス目の今の状態を写す（呼び出し側で圃場ごとに同期してください）
+     */
+    public static FieldCoverage of(CoverageGrid grid) {
+        return new FieldCoverage(grid.getFieldId(), grid.getMachineId(), grid.getBoundaryText(),
+            grid.getWidthMeters(), grid.getCellMeters(), grid.getFieldCells(), grid.getCoveredCells(),
+            grid.getOverlapCells(), grid.getCoveredBytes(), grid.getOverlapBytes(), grid.getCreatedAt(),
+            grid.getUpdatedAt());
+    }
+    
+    public String getFieldId() {
+        return fieldId;
+    }
+    
+    public String getMachineId() {
+        return machineId;
+    }
+    
+    public String getBoundary() {
+        return boundary;
+    }
+    
+    public double getWidthMeters() {
+        return widthMeters;
+    }
+    
+    public double getCellMeters() {
+        return cellMeters;
+    }
+    
+    public int getFieldCells() {
+        return fieldCells;
+    }
+    
+    public int getCoveredCells() {
+        return coveredCells;
+    }
+    
+    public int getOverlapCells() {
+        return overlapCells;
+    }
+    
+    public byte[] getCoveredBitmap() {
+        return coveredBitmap;
+    }
+    
+    public byte[] getOverlapBitmap() {
+        return overlapBitmap;
+    }
+    
+    public long getCreatedAt() {
+        return createdAt;
+    }
+    
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -0,0 +1,121 @@
+package com.agriguide.model;
+
+/**
+ * 1台の機械の現在の状態（最新の速度・距離・位置）
+ *
+ * 一度作ったら中身を変えないクラスです。
+ * 状態が変わったときは新しいオブジェクトに差し替えるので、
+ * 読む側はロックなしでそのまま使えます。
+ *
+ * センサーの時刻はサーバーの時計、位置の時刻は機械の時計なので、2つの時刻は比べません。
+ * 速度・距離は届いた順に差し替え、届いた回数を sequence に数えます（0はデータベースから読んだだけ）。
+ */
+public class MachineState {
+    
+    private final String machineId;
+    private final double speed;           // 速度 (km/h)
+    private final double distance;        // 距離 (m)
+    private final long updatedAt;         // 速度・距離の時刻（1970年からのミリ秒）
+    private final double latitude;        // 緯度
+    private final double longitude;       // 経度
+    private final long positionAt;        // 位置の時刻（0は位置がまだない）
+    private final long sequence;          // 届いたデータを反映した回数（0はデータベースから読んだだけ）
+    
+    public MachineState(String machineId, double speed, double distance, long updatedAt,
+                        double latitude, double longitude, long positionAt) {
+        this(machineId, speed, distance, updatedAt, latitude, longitude, positionAt, 0);
+    }
+    
+    private MachineState(String machineId, double speed, double distance, long updatedAt,
+                         double latitude, double longitude, long positionAt, long sequence) {
+        this.machineId = machineId;
+        this.speed = speed;
+        this.distance = distance;
+        this.updatedAt = updatedAt;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.positionAt = positionAt;
+        this.sequence = sequence;
+    }
+    
+    /**
+     * 届いたセンサーの値で速度・距離を差し替えた新しい状態を作る（届いた順に差し替える）
+     */
+    public MachineState withReading(double speed, double distance, long time) {
+        return new MachineState(machineId, speed, distance, time, latitude, longitude, positionAt, sequence + 1);
+    }
+    
+    /**
+     * 届いた走行データで位置を差し替えた新しい状態を作る（位置の時刻が古い場合はそのまま）
+     * 走行データにも速度と距離があるので、いちばん新しい位置なら一緒に差し替えます
+     */
+    public MachineState withPosition(double speed, double distance, double latitude, double longitude, long time) {
+        if (time < positionAt) {
+            return this;
+        }
+        return new MachineState(machineId, speed, distance, time, latitude, longitude, time, sequence + 1);
+    }
+    
+    /**
+     * データベースから読んだ状態を重ねた新しい状態を作る
+     * 保存された値どうしなので、速度・距離と位置はそれぞれ時刻が新しいほうを使います
+     */
+    public MachineState merge(MachineState loaded) {
+        boolean newerReading = loaded.updatedAt > updatedAt;
+        boolean newerPosition = loaded.positionAt > positionAt;
+        return new MachineState(machineId,
+            newerReading ? loaded.speed : speed, newerReading ? loaded.distance : distance,
+            newerReading ? loaded.updatedAt : updatedAt,
+            newerPosition ? loaded.latitude : latitude, newerPosition ? loaded.longitude : longitude,
+            newerPosition ? loaded.positionAt : positionAt, sequence);
+    }
+    
+    public String getMachineId() {
+        return machineId;
+    }
+    
+    public double getSpeed() {
+        return speed;
+    }
+    
+    public double getDistance() {
+        return distance;
+    }
+    
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+    
+    public double getLatitude() {
+        return latitude;
+    }
+    
+    public double getLongitude() {
+        return longitude;
+    }
+    
+    public long getPositionAt() {
+        return positionAt;
+    }
+    
+    /**
+     * 届いたデータを反映した回数（0はデータベースから読んだ値だけ）
+     */
+    public long getSequence() {
+        return sequence;
+    }
+    
+    /**
+     * 位置がわかっているか（走行データを1件でも受け取ったか）
+     */
+    public boolean hasPosition() {
+        return positionAt > 0;
+    }
+    
+    // デバッグ用：データを文字列で表示
+    @Override
+    public String toString() {
+        return "MachineState{" + machineId + ", speed=" + speed + ", distance=" + distance
+            + ", lat=" + latitude + ", lng=" + longitude + "}";
+    }
+}
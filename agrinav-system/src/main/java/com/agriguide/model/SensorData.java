@@ -1,5 +1,7 @@
 package com.agriguide.model;
 
+import com.agriguide.util.MachineId;
+
 /**
  * センサーデータを保存するクラス
  * データベースのsensor_dataテーブルと対応しています
@@ -9,6 +11,9 @@ public class SensorData {
     private int id;              // データのID
     private double speed;        // 速度 (km/h)
     private double distance;     // 距離 (m)
+    private String machineId = MachineId.DEFAULT;  // 機械ID
+    private String walId;        // ライトアヘッドログから保存する場合のログのID（それ以外はnull）
+    private long walSeq;         // ライトアヘッドログの中の番号（二重に保存しないため）
     
     // コンストラクタ1: 空のデータを作る
     public SensorData() {
@@ -40,6 +45,18 @@ public class SensorData {
         return distance;
     }
     
+    public String getMachineId() {
+        return machineId;
+    }
+    
+    public String getWalId() {
+        return walId;
+    }
+    
+    public long getWalSeq() {
+        return walSeq;
+    }
+    
     // セッター：値を設定するメソッド
     public void setId(int id) {
         this.id = id;
@@ -53,9 +70,18 @@ public class SensorData {
         this.distance = distance;
     }
     
+    public void setMachineId(String machineId) {
+        this.machineId = machineId;
+    }
+    
+    public void setWal(String walId, long walSeq) {
+        this.walId = walId;
+        this.walSeq = walSeq;
+    }
+    
     // デバッグ用：データを文字列で表示
     @Override
     public String toString() {
-        return "SensorData{id=" + id + ", speed=" + speed + ", distance=" + distance + "}";
+        return "SensorData{id=" + id + ", machine=" + machineId + ", speed=" + speed + ", distance=" + distance + "}";
     }
 }
@@ -1,5 +1,7 @@
 package com.agriguide.model;
 
+import com.agriguide.util.MachineId;
+
 /**
  * 走行履歴データを保存するクラス
  * データベースのtrip_dataテーブルと対応しています
@@ -11,6 +13,10 @@ public class TripData {
     private double distance;     // 距離 (m)
     private double latitude;     // 緯度
     private double longitude;    // 経度
+    private long recordedAt;     // 記録時刻（1970年からのミリ秒、0は未設定）
+    private String machineId = MachineId.DEFAULT;  // 機械ID
+    private String walId;        // ライトアヘッドログから保存する場合のログのID（それ以外はnull）
+    private long walSeq;         // ライトアヘッドログの中の番号（二重に保存しないため）
     
     // コンストラクタ1: 空のデータを作る
     public TripData() {
@@ -54,6 +60,22 @@ public class TripData {
         return longitude;
     }
     
+    public long getRecordedAt() {
+        return recordedAt;
+    }
+    
+    public String getWalId() {
+        return walId;
+    }
+    
+    public long getWalSeq() {
+        return walSeq;
+    }
+    
+    public String getMachineId() {
+        return machineId;
+    }
+    
     // セッター：値を設定するメソッド
     public void setId(int id) {
         this.id = id;
@@ -75,10 +97,23 @@ public class TripData {
         this.longitude = longitude;
     }
     
+    public void setRecordedAt(long recordedAt) {
+        this.recordedAt = recordedAt;
+    }
+    
+    public void setMachineId(String machineId) {
+        this.machineId = machineId;
+    }
+    
+    public void setWal(String walId, long walSeq) {
+        this.walId = walId;
+        this.walSeq = walSeq;
+    }
+    
     // デバッグ用：データを文字列で表示
     @Override
     public String toString() {
-        return "TripData{id=" + id + ", speed=" + speed + ", distance=" + distance + 
+        return "TripData{id=" + id + ", machine=" + machineId + ", speed=" + speed + ", distance=" + distance + 
                ", lat=" + latitude + ", lng=" + longitude + "}";
     }
 }
@@ -0,0 +1,132 @@
+package com.agriguide.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 走行データを項目ごとの配列で持つクラス（たくさんの点をまとめて扱う用）
+ *
+ * TripDataを1件ずつオブジェクトにする代わりに、
+ * id・速度・距離・緯度・経度・記録時刻をそれぞれ int[] / double[] / long[] に並べて保存します。
+ * オブジェクトをほとんど作らないので、メモリもGCの負担も小さくなります。
+ */
+public class TripPoints {
+    
+    private int size;
+    private int[] ids;
+    private double[] speeds;
+    private double[] distances;
+    private double[] latitudes;
+    private double[] longitudes;
+    private long[] recordedAts;
+    
+    // コンストラクタ: 最初に確保する件数を指定する
+    public TripPoints(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.ids = new int[capacity];
+        this.speeds = new double[capacity];
+        this.distances = new double[capacity];
+        this.latitudes = new double[capacity];
+        this.longitudes = new double[capacity];
+        this.recordedAts = new long[capacity];
+    }
+    
+    /**
+     * 1件追加する（足りなくなったら配列を2倍に広げる）
+     */
+    public void add(int id, double speed, double distance, double latitude, double longitude) {
+        add(id, speed, distance, latitude, longitude, 0);
+    }
+    
+    /**
+     * 記録時刻つきで1件追加する
+     */
+    public void add(int id, double speed, double distance, double latitude, double longitude, long recordedAt) {
+        if (size == ids.length) {
+            grow();
+        }
+        ids[size] = id;
+        speeds[size] = speed;
+        distances[size] = distance;
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        recordedAts[size] = recordedAt;
+        size++;
+    }
+    
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        speeds = Arrays.copyOf(speeds, capacity);
+        distances = Arrays.copyOf(distances, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        recordedAts = Arrays.copyOf(recordedAts, capacity);
+    }
+    
+    /**
+     * 中身を空にする（配列はそのまま使い回す）
+     */
+    public void clear() {
+        size = 0;
+    }
+    
+    /**
+     * 先頭からnewSize件だけ残し、後ろを切り捨てる
+     */
+    public void truncate(int newSize) {
+        if (newSize < size) {
+            size = Math.max(0, newSize);
+        }
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    // ゲッター：i番目の値を取得する
+    public int getId(int i) {
+        return ids[i];
+    }
+    
+    public double getSpeed(int i) {
+        return speeds[i];
+    }
+    
+    public double getDistance(int i) {
+        return distances[i];
+    }
+    
+    public double getLatitude(int i) {
+        return latitudes[i];
+    }
+    
+    public double getLongitude(int i) {
+        return longitudes[i];
+    }
+    
+    /**
+     * i番目の記録時刻（1970年からのミリ秒、不明な場合は0）
+     */
+    public long getRecordedAt(int i) {
+        return recordedAts[i];
+    }
+    
+    /**
+     * TripDataのリストに変換する（古いAPIとの互換用）
+     */
+    public List<TripData> toList() {
+        List<TripData> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            TripData data = new TripData(ids[i], speeds[i], distances[i], latitudes[i], longitudes[i]);
+            data.setRecordedAt(recordedAts[i]);
+            list.add(data);
+        }
+        return list;
+    }
+}
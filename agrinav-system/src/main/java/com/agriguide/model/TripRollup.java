@@ -0,0 +1,139 @@
+package com.agriguide.model;
+
+/**
+ * 走行データの時間ごとの集計（1分ごと・1時間ごと）
+ * データベースのtrip_rollupテーブルと対応しています
+ *
+ * 件数・速度の合計／最小／最大・進んだ距離の合計を持っていれば、
+ * 平均速度やその時間に進んだ距離は、元の走行データを読まずに計算できます。
+ * 距離は前の点からの差を足していくので、どの集計も足し算でまとめられます
+ * （1時間の距離は、その中の1分ごとの距離の合計と同じになります）。
+ * 同じ機械・同じ時間の集計どうしは merge() でまとめられます。
+ */
+public class TripRollup {
+    
+    private final String machineId;
+    private final int bucketSeconds;      // 集計の単位（60 = 1分、3600 = 1時間）
+    private final long bucketStart;       // 集計の開始時刻（1970年からのミリ秒）
+    
+    private long count;                   // 件数
+    private double speedSum;              // 速度の合計（平均の計算用）
+    private double speedMin;
+    private double speedMax;
+    private double distanceSum;           // 進んだ距離 (m) の合計（前の点からの差を足したもの）
+    
+    public TripRollup(String machineId, int bucketSeconds, long bucketStart) {
+        this.machineId = machineId;
+        this.bucketSeconds = bucketSeconds;
+        this.bucketStart = bucketStart;
+    }
+    
+    /**
+     * データベースから読んだ値で作る
+     */
+    public TripRollup(String machineId, int bucketSeconds, long bucketStart, long count, double speedSum,
+                      double speedMin, double speedMax, double distanceSum) {
+        this(machineId, bucketSeconds, bucketStart);
+        this.count = count;
+        this.speedSum = speedSum;
+        this.speedMin = speedMin;
+        this.speedMax = speedMax;
+        this.distanceSum = distanceSum;
+    }
+    
+    /**
+     * 走行データ1件を足す
+     * @param distanceDelta 同じ機械の前の点から進んだ距離 (m)
+     */
+    public void add(double speed, double distanceDelta) {
+        if (count == 0) {
+            speedMin = speedMax = speed;
+        } else {
+            speedMin = Math.min(speedMin, speed);
+            speedMax = Math.max(speedMax, speed);
+        }
+        speedSum += speed;
+        distanceSum += distanceDelta;
+        count++;
+    }
+    
+    /**
+     * 同じ機械・同じ時間の集計を足す（保存済みの分とまだ保存していない分など）
+     */
+    public void merge(TripRollup other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            speedMin = other.speedMin;
+            speedMax = other.speedMax;
+        } else {
+            speedMin = Math.min(speedMin, other.speedMin);
+            speedMax = Math.max(speedMax, other.speedMax);
+        }
+        speedSum += other.speedSum;
+        distanceSum += other.distanceSum;
+        count += other.count;
+    }
+    
+    /**
+     * 同じ内容のコピーを作る
+     */
+    public TripRollup copy() {
+        return new TripRollup(machineId, bucketSeconds, bucketStart, count, speedSum,
+            speedMin, speedMax, distanceSum);
+    }
+    
+    public String getMachineId() {
+        return machineId;
+    }
+    
+    public int getBucketSeconds() {
+        return bucketSeconds;
+    }
+    
+    public long getBucketStart() {
+        return bucketStart;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public double getSpeedSum() {
+        return speedSum;
+    }
+    
+    public double getSpeedMin() {
+        return speedMin;
+    }
+    
+    public double getSpeedMax() {
+        return speedMax;
+    }
+    
+    public double getDistanceSum() {
+        return distanceSum;
+    }
+    
+    /**
+     * 平均速度（データが無い場合は0）
+     */
+    public double getAverageSpeed() {
+        return count > 0 ? speedSum / count : 0;
+    }
+    
+    /**
+     * この時間に進んだ距離（前の点からの差の合計。時間をまたいだ点の間の距離は、後の点の時間に入る）
+     */
+    public double getDistanceDelta() {
+        return distanceSum;
+    }
+    
+    // デバッグ用：データを文字列で表示
+    @Override
+    public String toString() {
+        return "TripRollup{" + machineId + ", " + bucketSeconds + "s@" + bucketStart + ", count=" + count
+            + ", avg=" + getAverageSpeed() + ", distance=" + getDistanceDelta() + "}";
+    }
+}
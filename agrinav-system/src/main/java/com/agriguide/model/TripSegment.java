@@ -0,0 +1,209 @@
+package com.agriguide.model;
+
+/**
+ * 走行データを状態ごとに区切った1つの区間（作業中・アイドル・停止・移動）
+ * データベースのtrip_segmentテーブルと対応しています
+ *
+ * 走行データを1件足すたびに件数・距離・速度の合計を更新するので、
+ * 作業時間や作業中の平均速度は、元の走行データを読まずに計算できます。
+ */
+public class TripSegment {
+    
+    /**
+     * 区間の種類
+     */
+    public enum Type {
+        MOVING,    // 作業中（圃場の中を作業速度で走っている）
+        IDLE,      // アイドル（止まっているが、短い。旋回の待ちなど）
+        STOPPED,   // 停止（SEGMENT_STOP_DWELL_MS より長く止まっている）
+        TRANSIT;   // 移動（道路を走っている）
+        
+        /**
+         * APIやデータベースで使う名前（小文字）
+         */
+        public String label() {
+            return name().toLowerCase();
+        }
+        
+        /**
+         * label() の名前から種類を取得
+         * @throws IllegalArgumentException 知らない名前の場合
+         */
+        public static Type fromLabel(String label) {
+            return valueOf(label.toUpperCase());
+        }
+    }
+    
+    private final String machineId;
+    private Type type;
+    
+    private final int startId;            // 最初の走行データのID
+    private int endId;                    // 最後の走行データのID
+    private final long startTime;         // 開始時刻（1970年からのミリ秒）
+    private long endTime;                 // 終了時刻（次の区間の開始時刻。最後の区間は最後のデータの時刻）
+    private long count;                   // 走行データの件数
+    private double distance;              // 進んだ距離 (m)
+    private double speedSum;              // 速度の合計（平均の計算用）
+    private double speedMax;
+    private final double startLatitude;
+    private final double startLongitude;
+    private double endLatitude;
+    private double endLongitude;
+    
+    /**
+     * 走行データの位置から区間を始める（データ自体は add() で足してください）
+     */
+    public TripSegment(String machineId, Type type, int startId, double latitude, double longitude, long time) {
+        this.machineId = machineId;
+        this.type = type;
+        this.startId = startId;
+        this.startTime = time;
+        this.startLatitude = latitude;
+        this.startLongitude = longitude;
+    }
+    
+    /**
+     * データベースから読んだ値で作る
+     */
+    public TripSegment(String machineId, Type type, int startId, int endId, long startTime, long endTime,
+                       long count, double distance, double speedSum, double speedMax,
+                       double startLatitude, double startLongitude, double endLatitude, double endLongitude) {
+        this.machineId = machineId;
+        this.type = type;
+        this.startId = startId;
+        this.endId = endId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.count = count;
+        this.distance = distance;
+        this.speedSum = speedSum;
+        this.speedMax = speedMax;
+        this.startLatitude = startLatitude;
+        this.startLongitude = startLongitude;
+        this.endLatitude = endLatitude;
+        this.endLongitude = endLongitude;
+    }
+    
+    /**
+     * 走行データ1件を足す
+     * @param distanceDelta 前の走行データから進んだ距離 (m)
+     */
+    public void add(int id, double speed, double distanceDelta, double latitude, double longitude, long time) {
+        endId = id;
+        endTime = time;
+        endLatitude = latitude;
+        endLongitude = longitude;
+        distance += distanceDelta;
+        speedSum += speed;
+        speedMax = count == 0 ? speed : Math.max(speedMax, speed);
+        count++;
+    }
+    
+    /**
+     * すぐ後に続く区間をつなげる（短すぎて区間にしなかった分など）
+     */
+    public void append(TripSegment next) {
+        endId = next.endId;
+        endTime = next.endTime;
+        endLatitude = next.endLatitude;
+        endLongitude = next.endLongitude;
+        distance += next.distance;
+        speedSum += next.speedSum;
+        speedMax = Math.max(speedMax, next.speedMax);
+        count += next.count;
+    }
+    
+    /**
+     * 同じ内容のコピーを作る
+     */
+    public TripSegment copy() {
+        return new TripSegment(machineId, type, startId, endId, startTime, endTime, count, distance, speedSum,
+            speedMax, startLatitude, startLongitude, endLatitude, endLongitude);
+    }
+    
+    public String getMachineId() {
+        return machineId;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public int getStartId() {
+        return startId;
+    }
+    
+    public int getEndId() {
+        return endId;
+    }
+    
+    public long getStartTime() {
+        return startTime;
+    }
+    
+    public long getEndTime() {
+        return endTime;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public double getDistance() {
+        return distance;
+    }
+    
+    public double getSpeedSum() {
+        return speedSum;
+    }
+    
+    public double getSpeedMax() {
+        return speedMax;
+    }
+    
+    public double getStartLatitude() {
+        return startLatitude;
+    }
+    
+    public double getStartLongitude() {
+        return startLongitude;
+    }
+    
+    public double getEndLatitude() {
+        return endLatitude;
+    }
+    
+    public double getEndLongitude() {
+        return endLongitude;
+    }
+    
+    /**
+     * 区間の長さ（ミリ秒）
+     */
+    public long getDurationMillis() {
+        return endTime - startTime;
+    }
+    
+    /**
+     * 平均速度（データが無い場合は0）
+     */
+    public double getAverageSpeed() {
+        return count > 0 ? speedSum / count : 0;
+    }
+    
+    public void setType(Type type) {
+        this.type = type;
+    }
+    
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+    
+    // デバッグ用：データを文字列で表示
+    @Override
+    public String toString() {
+        return "TripSegment{" + machineId + ", " + type.label() + ", id=" + startId + "-" + endId
+            + ", " + getDurationMillis() + "ms, count=" + count + ", distance=" + distance
+            + ", avg=" + getAverageSpeed() + "}";
+    }
+}
@@ -0,0 +1,157 @@
+package com.agriguide.repository;
+
+import com.agriguide.model.MachineState;
+import com.agriguide.model.SensorData;
+import com.agriguide.store.ColumnarTable;
+import com.agriguide.util.Log;
+import com.agriguide.util.MachineId;
+import com.agriguide.util.QueryMetrics;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * センサーデータをアプリの中のファイル（ColumnarTable）に保存するクラス（STORAGE=embedded）
+ * 列は 速度, 距離 で、時刻は保存した時刻です（データベースの created_at と同じ）。
+ */
+public class EmbeddedSensorDataStore implements SensorDataStore {
+    
+    private static final Log LOG = Log.get(EmbeddedSensorDataStore.class);
+    
+    static final String[] COLUMNS = {"speed", "distance"};
+    
+    private static final QueryMetrics FIND_LATEST = new QueryMetrics("sensor_data", "find_latest");
+    private static final QueryMetrics FIND_LATEST_PER_MACHINE = new QueryMetrics("sensor_data", "find_latest_per_machine");
+    private static final QueryMetrics INSERT = new QueryMetrics("sensor_data", "insert");
+    private static final QueryMetrics INSERT_BATCH = new QueryMetrics("sensor_data", "insert_batch");
+    
+    private final ColumnarTable table;
+    
+    public EmbeddedSensorDataStore(ColumnarTable table) {
+        this.table = table;
+    }
+    
+    @Override
+    public SensorData findLatest() throws SQLException {
+        SensorData data = new SensorData(0, 0.0, 0.0);
+        long start = System.nanoTime();
+        try {
+            int count = table.scanBackward(1, (id, time, machineId, v) -> {
+                data.setId((int) id);
+                data.setSpeed(v[0]);
+                data.setDistance(v[1]);
+                data.setMachineId(machineId);
+                return true;
+            });
+            FIND_LATEST.rows(count);
+        } catch (IOException e) {
+            LOG.error("❌ データ取得エラー: {}", e.getMessage());
+            throw EmbeddedTripDataStore.error(FIND_LATEST, e);
+        } finally {
+            FIND_LATEST.recordSince(start);
+        }
+        return data;
+    }
+    
+    @Override
+    public List<MachineState> findLatestPerMachine() {
+        long start = System.nanoTime();
+        List<MachineState> states = new ArrayList<>();
+        for (ColumnarTable.Row row : table.latestPerMachine()) {
+            states.add(new MachineState(row.machineId, row.values[0], row.values[1], row.time, 0, 0, 0));
+        }
+        FIND_LATEST_PER_MACHINE.rows(states.size());
+        FIND_LATEST_PER_MACHINE.recordSince(start);
+        return states;
+    }
+    
+    @Override
+    public int save(SensorData data) {
+        long start = System.nanoTime();
+        try {
+            int id = append(data);
+            INSERT.rows(1);
+            LOG.debug("✅ データを保存しました ID: {}", id);
+            return id;
+        } catch (IOException e) {
+            EmbeddedTripDataStore.error(INSERT, e);
+            LOG.error("❌ データ保存エラー: {}", e.getMessage());
+            return 0;
+        } finally {
+            INSERT.recordSince(start);
+        }
+    }
+    
+    /**
+     * 複数のセンサーデータをまとめて保存（全部保存するか、1件も保存しないか）
+     * ライトアヘッドログから再生したデータの扱いは EmbeddedTripDataStore.saveBatch と同じです。
+     * @return 保存されたデータのID（dataListと同じ順番。保存済みで飛ばした場合は0）
+     */
+    @Override
+    public int[] saveBatch(List<SensorData> dataList) throws SQLException {
+        int[] ids = new int[dataList.size()];
+        long start = System.nanoTime();
+        try {
+            int saved = 0;
+            for (int from = 0, to; from < ids.length; from = to) {
+                String walId = dataList.get(from).getWalId();
+                to = from + 1;
+                while (to < ids.length && Objects.equals(dataList.get(to).getWalId(), walId)) {
+                    to++;
+                }
+                saved += appendRun(dataList, from, to, walId, ids);
+            }
+            INSERT_BATCH.rows(saved);
+            return ids;
+        } catch (IOException e) {
+            throw EmbeddedTripDataStore.error(INSERT_BATCH, e);
+        } finally {
+            INSERT_BATCH.recordSince(start);
+        }
+    }
+    
+    // dataList の from 〜 to-1 件目（同じログのデータ）を保存する
+    // @return 保存した件数
+    private int appendRun(List<SensorData> dataList, int from, int to, String walId, int[] ids) throws IOException {
+        long savedSeq = walId != null ? table.getPosition(walId) : -1;
+        int[] positions = new int[to - from];
+        long[] times = new long[positions.length];
+        String[] machines = new String[positions.length];
+        double[][] values = new double[positions.length][];
+        long now = System.currentTimeMillis();
+        int count = 0;
+        long lastSeq = 0;
+        for (int i = from; i < to; i++) {
+            SensorData data = dataList.get(i);
+            if (walId != null && data.getWalSeq() <= savedSeq) {
+                continue;
+            }
+            positions[count] = i;
+            times[count] = now;
+            machines[count] = data.getMachineId() != null ? data.getMachineId() : MachineId.DEFAULT;
+            values[count] = new double[] {data.getSpeed(), data.getDistance()};
+            lastSeq = data.getWalSeq();
+            count++;
+        }
+        long[] appended = table.appendAll(count, times, machines, values, walId, lastSeq);
+        for (int i = 0; i < count; i++) {
+            ids[positions[i]] = (int) appended[i];
+        }
+        return count;
+    }
+    
+    private int append(SensorData data) throws IOException {
+        String machineId = data.getMachineId() != null ? data.getMachineId() : MachineId.DEFAULT;
+        return (int) table.append(System.currentTimeMillis(), machineId,
+            new double[] {data.getSpeed(), data.getDistance()});
+    }
+    
+    /**
+     * 保存先のテーブル（計測値用）
+     */
+    public ColumnarTable getTable() {
+        return table;
+    }
+}
@@ -0,0 +1,296 @@
+package com.agriguide.repository;
+
+import com.agriguide.model.TripData;
+import com.agriguide.model.TripPoints;
+import com.agriguide.store.ColumnarTable;
+import com.agriguide.util.GeoHash;
+import com.agriguide.util.Log;
+import com.agriguide.util.MachineId;
+import com.agriguide.util.QueryMetrics;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 走行データをアプリの中のファイル（ColumnarTable）に保存するクラス（STORAGE=embedded）
+ * 列は 速度, 距離, 緯度, 経度 で、IDと記録時刻はテーブルが持っています。
+ *
+ * ファイルの読み書きのエラー（IOException）は、JDBC の実装と同じく SQLException にして返します。
+ */
+public class EmbeddedTripDataStore implements TripDataStore {
+    
+    private static final Log LOG = Log.get(EmbeddedTripDataStore.class);
+    
+    static final String[] COLUMNS = {"speed", "distance", "latitude", "longitude"};
+    
+    // 計測値はデータベースの場合と同じ名前で記録する（どちらの保存先でも同じグラフで見られるように）
+    private static final QueryMetrics FIND_LATEST = new QueryMetrics("trip_data", "find_latest");
+    private static final QueryMetrics STREAM_AFTER = new QueryMetrics("trip_data", "stream_after");
+    private static final QueryMetrics STREAM_IN_RANGES = new QueryMetrics("trip_data", "stream_in_ranges");
+    private static final QueryMetrics STREAM_TRACK = new QueryMetrics("trip_data", "stream_track");
+    private static final QueryMetrics FIND_LATEST_PER_MACHINE = new QueryMetrics("trip_data", "find_latest_per_machine");
+    private static final QueryMetrics INSERT = new QueryMetrics("trip_data", "insert");
+    private static final QueryMetrics INSERT_BATCH = new QueryMetrics("trip_data", "insert_batch");
+    
+    private final ColumnarTable table;
+    
+    public EmbeddedTripDataStore(ColumnarTable table) {
+        this.table = table;
+    }
+    
+    @Override
+    public List<TripData> findLatest(int limit) {
+        TripPoints points = new TripPoints(limit);
+        try {
+            findLatest(limit, points);
+        } catch (SQLException e) {
+            LOG.error("❌ データ取得エラー: {}", e.getMessage());
+        }
+        return points.toList();
+    }
+    
+    @Override
+    public int findLatest(int limit, TripPoints out) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            int count = table.scanBackward(limit, (id, time, machineId, v) -> {
+                out.add((int) id, v[0], v[1], v[2], v[3], time);
+                return true;
+            });
+            FIND_LATEST.rows(count);
+            return count;
+        } catch (IOException e) {
+            throw error(FIND_LATEST, e);
+        } finally {
+            FIND_LATEST.recordSince(start);
+        }
+    }
+    
+    @Override
+    public int streamAfter(String machineId, long afterId, Timestamp from, Timestamp to, int limit, int fetchSize,
+                           RowHandler handler) throws SQLException, IOException {
+        return stream(STREAM_AFTER, machineId, null, afterId, from, to, limit, handler);
+    }
+    
+    @Override
+    public int streamInRanges(String machineId, long[] geohashRanges, long afterId, Timestamp from, Timestamp to,
+                              int limit, int fetchSize, RowHandler handler) throws SQLException, IOException {
+        if (geohashRanges.length == 0) {
+            return 0;
+        }
+        return stream(STREAM_IN_RANGES, machineId, geohashRanges, afterId, from, to, limit, handler);
+    }
+    
+    // streamAfter / streamInRanges の共通部分
+    // handler の IOException（書き込みの失敗）はそのまま返す
+    private int stream(QueryMetrics metrics, String machineId, long[] geohashRanges, long afterId,
+                       Timestamp from, Timestamp to, int limit, RowHandler handler) throws IOException {
+        long start = System.nanoTime();
+        double[][] bounds = geohashRanges != null ? valueBounds(geohashRanges) : new double[2][];
+        try {
+            int count = table.scan(machineId, afterId,
+                from != null ? from.getTime() : Long.MIN_VALUE,
+                to != null ? to.getTime() : Long.MAX_VALUE,
+                bounds[0], bounds[1], limit, (id, time, machine, v) -> {
+                    if (geohashRanges != null && !inRanges(GeoHash.encode(v[2], v[3]), geohashRanges)) {
+                        return false;
+                    }
+                    handler.row((int) id, v[0], v[1], v[2], v[3], time);
+                    return true;
+                });
+            metrics.rows(count);
+            return count;
+        } finally {
+            metrics.recordSince(start);
+        }
+    }
+    
+    @Override
+    public int streamTrackInRanges(String machineId, long[] geohashRanges, Timestamp from, int limit, int fetchSize,
+                                   TrackHandler handler) throws SQLException {
+        if (geohashRanges.length == 0) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        try {
+            // 新しい順に読む（機械・時刻・緯度経度の範囲が合わないブロックは展開しない）
+            long fromTime = from != null ? from.getTime() : Long.MIN_VALUE;
+            double[][] bounds = valueBounds(geohashRanges);
+            int count = table.scanBackward(machineId, fromTime, bounds[0], bounds[1], limit, (id, time, machine, v) -> {
+                if (!inRanges(GeoHash.encode(v[2], v[3]), geohashRanges)) {
+                    return false;
+                }
+                handler.point(machine, v[2], v[3], time);
+                return true;
+            });
+            STREAM_TRACK.rows(count);
+            return count;
+        } catch (IOException e) {
+            throw error(STREAM_TRACK, e);
+        } finally {
+            STREAM_TRACK.recordSince(start);
+        }
+    }
+    
+    // ジオハッシュの範囲を覆う緯度・経度の四角形を、列ごとの {最小値, 最大値} にする（速度・距離は指定なし）
+    // 範囲の最初と最後のジオハッシュで上位のビットが同じ部分のマスは、範囲の全部の点を含む
+    static double[][] valueBounds(long[] ranges) {
+        double minLat = Double.POSITIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < ranges.length; i += 2) {
+            long first = ranges[i];
+            long last = ranges[i + 1] - 1;
+            int bits = (Long.numberOfLeadingZeros(first ^ last) - (Long.SIZE - GeoHash.BITS)) & ~1;
+            double[] b = GeoHash.bounds(GeoHash.cellOf(first, bits), bits);
+            minLat = Math.min(minLat, b[0]);
+            minLon = Math.min(minLon, b[1]);
+            maxLat = Math.max(maxLat, b[2]);
+            maxLon = Math.max(maxLon, b[3]);
+        }
+        // マスの境目の点を計算の誤差で外さないように、少しだけ広げる
+        double margin = 1e-9;
+        return new double[][] {
+            {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, minLat - margin, minLon - margin},
+            {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, maxLat + margin, maxLon + margin}
+        };
+    }
+    
+    private static boolean inRanges(long geohash, long[] ranges) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (geohash >= ranges[i] && geohash < ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    @Override
+    public List<TripData> findLatestPerMachine() {
+        long start = System.nanoTime();
+        List<TripData> list = new ArrayList<>();
+        for (ColumnarTable.Row row : table.latestPerMachine()) {
+            TripData data = new TripData((int) row.id, row.values[0], row.values[1], row.values[2], row.values[3]);
+            data.setRecordedAt(row.time);
+            data.setMachineId(row.machineId);
+            list.add(data);
+        }
+        FIND_LATEST_PER_MACHINE.rows(list.size());
+        FIND_LATEST_PER_MACHINE.recordSince(start);
+        return list;
+    }
+    
+    /**
+     * ジオハッシュは読むときに緯度・経度から計算するので、入れ直すものはありません
+     */
+    @Override
+    public int backfillGeohash(int batchSize) {
+        return 0;
+    }
+    
+    @Override
+    public int save(TripData data) {
+        long start = System.nanoTime();
+        try {
+            int id = append(data);
+            INSERT.rows(1);
+            LOG.debug("✅ データを保存しました ID: {}", id);
+            return id;
+        } catch (IOException e) {
+            error(INSERT, e);
+            LOG.error("❌ データ保存エラー: {}", e.getMessage());
+            return 0;
+        } finally {
+            INSERT.recordSince(start);
+        }
+    }
+    
+    /**
+     * 複数の走行データをまとめて保存（全部保存するか、1件も保存しないか）
+     * 例外の場合は1件も書いていないので、ライトビハインドのやり直しで2重になりません。
+     *
+     * ライトアヘッドログから再生したデータ（walIdあり）は、ログごとに最後に保存した番号をテーブルに記録し、
+     * それまでの番号のもの（保存の直後に落ちて再生し直した分）は飛ばします。
+     * @return 保存されたデータのID（dataListと同じ順番。保存済みで飛ばした場合は0）
+     */
+    @Override
+    public int[] saveBatch(List<TripData> dataList) throws SQLException {
+        int[] ids = new int[dataList.size()];
+        long start = System.nanoTime();
+        try {
+            // 同じログのデータが続く範囲ごとに保存する
+            int saved = 0;
+            for (int from = 0, to; from < ids.length; from = to) {
+                String walId = dataList.get(from).getWalId();
+                to = from + 1;
+                while (to < ids.length && Objects.equals(dataList.get(to).getWalId(), walId)) {
+                    to++;
+                }
+                saved += appendRun(dataList, from, to, walId, ids);
+            }
+            if (saved < ids.length) {
+                LOG.info("📦 保存済みのデータを{}件飛ばしました（ライトアヘッドログの再生）", ids.length - saved);
+            }
+            INSERT_BATCH.rows(saved);
+            return ids;
+        } catch (IOException e) {
+            throw error(INSERT_BATCH, e);
+        } finally {
+            INSERT_BATCH.recordSince(start);
+        }
+    }
+    
+    // dataList の from 〜 to-1 件目（同じログのデータ）を保存する
+    // @return 保存した件数
+    private int appendRun(List<TripData> dataList, int from, int to, String walId, int[] ids) throws IOException {
+        long savedSeq = walId != null ? table.getPosition(walId) : -1;
+        int[] positions = new int[to - from];
+        long[] times = new long[positions.length];
+        String[] machines = new String[positions.length];
+        double[][] values = new double[positions.length][];
+        int count = 0;
+        long lastSeq = 0;
+        for (int i = from; i < to; i++) {
+            TripData data = dataList.get(i);
+            if (walId != null && data.getWalSeq() <= savedSeq) {
+                continue;
+            }
+            positions[count] = i;
+            times[count] = data.getRecordedAt() > 0 ? data.getRecordedAt() : System.currentTimeMillis();
+            machines[count] = data.getMachineId() != null ? data.getMachineId() : MachineId.DEFAULT;
+            values[count] = new double[] {data.getSpeed(), data.getDistance(), data.getLatitude(), data.getLongitude()};
+            lastSeq = data.getWalSeq();
+            count++;
+        }
+        long[] appended = table.appendAll(count, times, machines, values, walId, lastSeq);
+        for (int i = 0; i < count; i++) {
+            ids[positions[i]] = (int) appended[i];
+        }
+        return count;
+    }
+    
+    private int append(TripData data) throws IOException {
+        long recordedAt = data.getRecordedAt() > 0 ? data.getRecordedAt() : System.currentTimeMillis();
+        String machineId = data.getMachineId() != null ? data.getMachineId() : MachineId.DEFAULT;
+        return (int) table.append(recordedAt, machineId,
+            new double[] {data.getSpeed(), data.getDistance(), data.getLatitude(), data.getLongitude()});
+    }
+    
+    /**
+     * 保存先のテーブル（計測値用）
+     */
+    public ColumnarTable getTable() {
+        return table;
+    }
+    
+    // ファイルのエラーを、JDBC と同じ SQLException にして数える（SQLSTATE 58030 = 入出力エラー）
+    static SQLException error(QueryMetrics metrics, IOException e) {
+        SQLException sqlException = new SQLException(e.getMessage(), "58030", e);
+        metrics.error(sqlException);
+        return sqlException;
+    }
+}
@@ -0,0 +1,119 @@
+package com.agriguide.repository;
+
+import com.agriguide.model.FieldCoverage;
+import com.agriguide.util.DatabaseUtil;
+import com.agriguide.util.QueryMetrics;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * field_coverageテーブル（圃場ごとの作業済みの範囲）を読み書きするクラス
+ */
+public class FieldCoverageRepository {
+    
+    // 処理ごとの計測値（/agrinav-system/metrics で確認できます）
+    private static final QueryMetrics SAVE = new QueryMetrics("field_coverage", "save");
+    private static final QueryMetrics FIND_ALL = new QueryMetrics("field_coverage", "find_all");
+    private static final QueryMetrics DELETE = new QueryMetrics("field_coverage", "delete");
+    
+    /**
+     * 圃場の作業済みの範囲を保存（行が無ければ追加、あれば置き換え）
+     * @throws SQLException 保存に失敗した場合
+     */
+    public void save(FieldCoverage coverage) throws SQLException {
+        // MySQL・PostgreSQLのどちらでも動くように、更新して0件なら追加する
+        String update = "UPDATE field_coverage SET machine_id = ?, boundary = ?, width_meters = ?, cell_meters = ?, " +
+                       "field_cells = ?, covered_cells = ?, overlap_cells = ?, covered_bitmap = ?, " +
+                       "overlap_bitmap = ?, created_at = ?, updated_at = ? WHERE field_id = ?";
+        String insert = "INSERT INTO field_coverage (machine_id, boundary, width_meters, cell_meters, field_cells, " +
+                       "covered_cells, overlap_cells, covered_bitmap, overlap_bitmap, created_at, updated_at, " +
+                       "field_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            int updated;
+            try (PreparedStatement stmt = conn.prepareStatement(update)) {
+                bind(stmt, coverage);
+                updated = stmt.executeUpdate();
+            }
+            if (updated == 0) {
+                try (PreparedStatement stmt = conn.prepareStatement(insert)) {
+                    bind(stmt, coverage);
+                    stmt.executeUpdate();
+                }
+            }
+            SAVE.rows(1);
+        } catch (SQLException e) {
+            SAVE.error(e);
+            throw e;
+        } finally {
+            SAVE.recordSince(start);
+        }
+    }
+    
+    // UPDATE・INSERTで同じ順番にしてある
+    private static void bind(PreparedStatement stmt, FieldCoverage coverage) throws SQLException {
+        stmt.setString(1, coverage.getMachineId());
+        stmt.setString(2, coverage.getBoundary());
+        stmt.setDouble(3, coverage.getWidthMeters());
+        stmt.setDouble(4, coverage.getCellMeters());
+        stmt.setInt(5, coverage.getFieldCells());
+        stmt.setInt(6, coverage.getCoveredCells());
+        stmt.setInt(7, coverage.getOverlapCells());
+        stmt.setBytes(8, coverage.getCoveredBitmap());
+        stmt.setBytes(9, coverage.getOverlapBitmap());
+        stmt.setTimestamp(10, new Timestamp(coverage.getCreatedAt()));
+        stmt.setTimestamp(11, new Timestamp(coverage.getUpdatedAt()));
+        stmt.setString(12, coverage.getFieldId());
+    }
+    
+    /**
+     * 全部の圃場を取得（起動時に読み込む）
+     * @throws SQLException 取得に失敗した場合
+     */
+    public List<FieldCoverage> findAll() throws SQLException {
+        String sql = "SELECT field_id, machine_id, boundary, width_meters, cell_meters, field_cells, covered_cells, " +
+                    "overlap_cells, covered_bitmap, overlap_bitmap, created_at, updated_at FROM field_coverage";
+        
+        List<FieldCoverage> list = new ArrayList<>();
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                list.add(new FieldCoverage(rs.getString(1), rs.getString(2), rs.getString(3), rs.getDouble(4),
+                    rs.getDouble(5), rs.getInt(6), rs.getInt(7), rs.getInt(8), rs.getBytes(9), rs.getBytes(10),
+                    rs.getTimestamp(11).getTime(), rs.getTimestamp(12).getTime()));
+            }
+            FIND_ALL.rows(list.size());
+        } catch (SQLException e) {
+            FIND_ALL.error(e);
+            throw e;
+        } finally {
+            FIND_ALL.recordSince(start);
+        }
+        return list;
+    }
+    
+    /**
+     * 圃場を削除
+     * @return 削除できた場合はtrue
+     * @throws SQLException 削除に失敗した場合
+     */
+    public boolean delete(String fieldId) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("DELETE FROM field_coverage WHERE field_id = ?")) {
+            stmt.setString(1, fieldId);
+            int deleted = stmt.executeUpdate();
+            DELETE.rows(deleted);
+            return deleted > 0;
+        } catch (SQLException e) {
+            DELETE.error(e);
+            throw e;
+        } finally {
+            DELETE.recordSince(start);
+        }
+    }
+}
@@ -1,30 +1,50 @@
 package com.agriguide.repository;
 
+import com.agriguide.model.MachineState;
 import com.agriguide.model.SensorData;
 import com.agriguide.util.DatabaseUtil;
+import com.agriguide.util.Log;
+import com.agriguide.util.QueryMetrics;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * sensor_dataテーブルからデータを取得・保存するクラス
  * データベースとのやり取りを担当します
  */
-public class SensorDataRepository {
+public class SensorDataRepository implements SensorDataStore {
+    
+    private static final Log LOG = Log.get(SensorDataRepository.class);
+    
+    // 処理ごとの計測値（/agrinav-system/metrics で確認できます）
+    private static final QueryMetrics FIND_LATEST = new QueryMetrics("sensor_data", "find_latest");
+    private static final QueryMetrics FIND_LATEST_PER_MACHINE = new QueryMetrics("sensor_data", "find_latest_per_machine");
+    private static final QueryMetrics INSERT = new QueryMetrics("sensor_data", "insert");
+    private static final QueryMetrics INSERT_BATCH = new QueryMetrics("sensor_data", "insert_batch");
     
     /**
      * 最新のセンサーデータを1件取得
-     * @return 最新のSensorData
+     * @return 最新のSensorData（データが無い場合は全部0）
      */
-    public SensorData findLatest() {
+    @Override
+    public SensorData findLatest() throws SQLException {
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
+        long start = System.nanoTime();
         
         try {
             // データベースに接続
             conn = DatabaseUtil.getConnection();
             
             // SQL文を準備（最新の1件を取得）
-            String sql = "SELECT id, speed, distance FROM sensor_data ORDER BY id DESC LIMIT 1";
+            String sql = "SELECT id, speed, distance, machine_id FROM sensor_data ORDER BY id DESC LIMIT 1";
             stmt = conn.prepareStatement(sql);
             
             // SQL実行
@@ -36,48 +56,86 @@ public class SensorDataRepository {
                 data.setId(rs.getInt("id"));
                 data.setSpeed(rs.getDouble("speed"));
                 data.setDistance(rs.getDouble("distance"));
+                data.setMachineId(rs.getString("machine_id"));
+                FIND_LATEST.rows(1);
                 return data;
             }
             
             // データがない場合はデフォルト値を返す
             return new SensorData(0, 0.0, 0.0);
-            
+        
         } catch (SQLException e) {
-            System.out.println("❌ データ取得エラー: " + e.getMessage());
-            return new SensorData(0, 0.0, 0.0);
+            FIND_LATEST.error(e);
+            LOG.error("❌ データ取得エラー: {}", e.getMessage());
+            throw e;
         } finally {
+            FIND_LATEST.recordSince(start);
             // リソースを閉じる
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.out.println("⚠️ リソースクローズエラー");
+                LOG.warn("⚠️ リソースクローズエラー");
             }
         }
     }
     
+    /**
+     * 機械ごとに最新のセンサーデータを1件ずつ取得
+     * （machine_id, id のインデックスで、機械ごとの一番大きいIDを探します）
+     * @return 機械ごとの状態（位置は入っていません）
+     * @throws SQLException 取得に失敗した場合
+     */
+    @Override
+    public List<MachineState> findLatestPerMachine() throws SQLException {
+        String sql = "SELECT s.machine_id, s.speed, s.distance, s.created_at FROM sensor_data s " +
+                    "JOIN (SELECT MAX(id) AS id FROM sensor_data GROUP BY machine_id) m ON s.id = m.id";
+        
+        List<MachineState> states = new ArrayList<>();
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                Timestamp createdAt = rs.getTimestamp(4);
+                states.add(new MachineState(rs.getString(1), rs.getDouble(2), rs.getDouble(3),
+                    createdAt != null ? createdAt.getTime() : 0, 0, 0, 0));
+            }
+            FIND_LATEST_PER_MACHINE.rows(states.size());
+        } catch (SQLException e) {
+            FIND_LATEST_PER_MACHINE.error(e);
+            throw e;
+        } finally {
+            FIND_LATEST_PER_MACHINE.recordSince(start);
+        }
+        return states;
+    }
+    
     /**
      * 新しいセンサーデータを保存
      * @param data 保存するSensorData
      * @return 保存されたデータのID
      */
+    @Override
     public int save(SensorData data) {
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
+        long start = System.nanoTime();
         
         try {
             // データベースに接続
             conn = DatabaseUtil.getConnection();
             
             // SQL文を準備（データ挿入）
-            String sql = "INSERT INTO sensor_data (speed, distance) VALUES (?, ?)";
+            String sql = "INSERT INTO sensor_data (speed, distance, machine_id) VALUES (?, ?, ?)";
             stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
             
             // 値を設定
             stmt.setDouble(1, data.getSpeed());
             stmt.setDouble(2, data.getDistance());
+            stmt.setString(3, data.getMachineId());
             
             // SQL実行
             stmt.executeUpdate();
@@ -86,24 +144,147 @@ public class SensorDataRepository {
             rs = stmt.getGeneratedKeys();
             if (rs.next()) {
                 int id = rs.getInt(1);
-                System.out.println("✅ データを保存しました ID: " + id);
+                INSERT.rows(1);
+                LOG.debug("✅ データを保存しました ID: {}", id);
                 return id;
             }
             
             return 0;
-            
+        
         } catch (SQLException e) {
-            System.out.println("❌ データ保存エラー: " + e.getMessage());
+            INSERT.error(e);
+            LOG.error("❌ データ保存エラー: {}", e.getMessage());
             return 0;
         } finally {
+            INSERT.recordSince(start);
             // リソースを閉じる
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.out.println("⚠️ リソースクローズエラー");
+                LOG.warn("⚠️ リソースクローズエラー");
+            }
+        }
+    }
+    
+    /**
+     * 複数のセンサーデータをまとめて保存（1回のトランザクション）
+     * 1件ずつ保存するよりも、DBとの往復とコミットの回数が大幅に減ります
+     *
+     * ライトアヘッドログから再生したデータ（walIdあり）は wal_id / wal_seq も保存し、
+     * 前回保存してあるもの（保存の直後に落ちて再生し直した分）は飛ばします。
+     * @param dataList 保存するSensorDataのリスト
+     * @return 保存されたデータのID（dataListと同じ順番。取得できなかった場合や、保存済みで飛ばした場合は0）
+     * @throws SQLException 保存に失敗した場合（全件ロールバックされます）
+     */
+    @Override
+    public int[] saveBatch(List<SensorData> dataList) throws SQLException {
+        int[] ids = new int[dataList.size()];
+        if (dataList.isEmpty()) {
+            return ids;
+        }
+        
+        // ログから再生したデータの場合だけ wal_id / wal_seq を書く（使わない場合は列を追加しなくてよい）
+        boolean replayed = false;
+        for (SensorData data : dataList) {
+            if (data.getWalId() != null) {
+                replayed = true;
+                break;
+            }
+        }
+        String sql = replayed
+            ? "INSERT INTO sensor_data (speed, distance, machine_id, wal_id, wal_seq) VALUES (?, ?, ?, ?, ?)"
+            : "INSERT INTO sensor_data (speed, distance, machine_id) VALUES (?, ?, ?)";
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                Set<String> saved = replayed ? findSavedWal(conn, dataList) : Collections.emptySet();
+                
+                // 全件をバッチに追加（保存済みのものは飛ばす）
+                List<Integer> inserted = new ArrayList<>(dataList.size());
+                for (int i = 0; i < dataList.size(); i++) {
+                    SensorData data = dataList.get(i);
+                    if (data.getWalId() != null && saved.contains(data.getWalId() + ":" + data.getWalSeq())) {
+                        continue;
+                    }
+                    stmt.setDouble(1, data.getSpeed());
+                    stmt.setDouble(2, data.getDistance());
+                    stmt.setString(3, data.getMachineId());
+                    if (replayed) {
+                        stmt.setString(4, data.getWalId());
+                        if (data.getWalId() != null) {
+                            stmt.setLong(5, data.getWalSeq());
+                        } else {
+                            stmt.setNull(5, Types.BIGINT);
+                        }
+                    }
+                    stmt.addBatch();
+                    inserted.add(i);
+                }
+                if (inserted.size() < dataList.size()) {
+                    LOG.info("📦 保存済みのデータを{}件飛ばしました（ライトアヘッドログの再生）",
+                        dataList.size() - inserted.size());
+                }
+                if (inserted.isEmpty()) {
+                    conn.commit();
+                    return ids;
+                }
+                
+                // まとめて実行
+                stmt.executeBatch();
+                
+                // 自動生成されたIDを取得
+                try (ResultSet rs = stmt.getGeneratedKeys()) {
+                    int i = 0;
+                    while (rs.next() && i < inserted.size()) {
+                        ids[inserted.get(i++)] = rs.getInt(1);
+                    }
+                }
+                
+                conn.commit();
+                INSERT_BATCH.rows(inserted.size());
+                return ids;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            INSERT_BATCH.error(e);
+            throw e;
+        } finally {
+            INSERT_BATCH.recordSince(start);
+        }
+    }
+    
+    // 保存済みの wal_id / wal_seq を "wal_id:wal_seq" の形で返す（ログごとに番号の範囲で検索する）
+    private static Set<String> findSavedWal(Connection conn, List<SensorData> dataList) throws SQLException {
+        Map<String, long[]> ranges = new HashMap<>();
+        for (SensorData data : dataList) {
+            if (data.getWalId() == null) {
+                continue;
+            }
+            long[] range = ranges.computeIfAbsent(data.getWalId(), k -> new long[] {Long.MAX_VALUE, Long.MIN_VALUE});
+            range[0] = Math.min(range[0], data.getWalSeq());
+            range[1] = Math.max(range[1], data.getWalSeq());
+        }
+        
+        Set<String> saved = new HashSet<>();
+        String sql = "SELECT wal_seq FROM sensor_data WHERE wal_id = ? AND wal_seq BETWEEN ? AND ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (Map.Entry<String, long[]> range : ranges.entrySet()) {
+                stmt.setString(1, range.getKey());
+                stmt.setLong(2, range.getValue()[0]);
+                stmt.setLong(3, range.getValue()[1]);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        saved.add(range.getKey() + ":" + rs.getLong(1));
+                    }
+                }
             }
         }
+        return saved;
     }
 }
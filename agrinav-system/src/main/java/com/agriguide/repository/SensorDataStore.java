@@ -0,0 +1,44 @@
+package com.agriguide.repository;
+
+import com.agriguide.model.MachineState;
+import com.agriguide.model.SensorData;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * センサーデータの保存先
+ * Serviceはこのインターフェースだけを使います。どの実装を使うかは Storage で決まります。
+ *
+ * - SensorDataRepository: データベース（JDBC）
+ * - EmbeddedSensorDataStore: アプリの中のファイル（DBサーバーが無い環境用）
+ */
+public interface SensorDataStore {
+    
+    /**
+     * 最新のセンサーデータを1件取得
+     * @return 最新のSensorData（データが無い場合は全部0）
+     * @throws SQLException 読み込めなかった場合（データが無い場合と区別するため）
+     */
+    SensorData findLatest() throws SQLException;
+    
+    /**
+     * 機械ごとに最新のセンサーデータを1件ずつ取得
+     * @return 機械ごとの状態（位置は入っていません）
+     */
+    List<MachineState> findLatestPerMachine() throws SQLException;
+    
+    /**
+     * 新しいセンサーデータを保存
+     * @return 保存されたデータのID（失敗した場合は0）
+     */
+    int save(SensorData data);
+    
+    /**
+     * 複数のセンサーデータをまとめて保存
+     * ライトアヘッドログから再生したデータ（SensorData.getWalId()がnullでない）のうち、
+     * 前回保存してあるものは飛ばします（戻り値のIDは0）
+     * @return 保存されたデータのID（dataListと同じ順番）
+     * @throws SQLException 保存に失敗した場合
+     */
+    int[] saveBatch(List<SensorData> dataList) throws SQLException;
+}
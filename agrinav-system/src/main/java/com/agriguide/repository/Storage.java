@@ -0,0 +1,100 @@
+package com.agriguide.repository;
+
+import com.agriguide.store.ColumnarTable;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.Log;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 走行データ・センサーデータの保存先を選ぶクラス
+ *
+ * STORAGE=jdbc（初期値）の場合はデータベース、
+ * STORAGE=embedded の場合はアプリの中のファイル（ColumnarTable）に保存します。
+ * embedded は、データベースサーバーを置けない圃場のゲートウェイなどで使います。
+ */
+public final class Storage {
+    
+    private static final Log LOG = Log.get(Storage.class);
+    
+    private static final boolean EMBEDDED = "embedded".equalsIgnoreCase(AppConfig.getString("STORAGE", "jdbc"));
+    
+    private static TripDataStore tripData;
+    private static SensorDataStore sensorData;
+    
+    // 開いたテーブル（名前 → テーブル。計測値とアプリ終了時に使う）
+    private static final Map<String, ColumnarTable> TABLES = new LinkedHashMap<>();
+    
+    private Storage() {
+    }
+    
+    /**
+     * アプリの中のファイルに保存する設定かどうか
+     */
+    public static boolean isEmbedded() {
+        return EMBEDDED;
+    }
+    
+    /**
+     * 走行データの保存先（アプリ全体で1つ）
+     */
+    public static synchronized TripDataStore tripData() {
+        if (tripData == null) {
+            tripData = EMBEDDED
+                ? new EmbeddedTripDataStore(open("trip-data", EmbeddedTripDataStore.COLUMNS))
+                : new TripDataRepository();
+        }
+        return tripData;
+    }
+    
+    /**
+     * センサーデータの保存先（アプリ全体で1つ）
+     */
+    public static synchronized SensorDataStore sensorData() {
+        if (sensorData == null) {
+            sensorData = EMBEDDED
+                ? new EmbeddedSensorDataStore(open("sensor-data", EmbeddedSensorDataStore.COLUMNS))
+                : new SensorDataRepository();
+        }
+        return sensorData;
+    }
+    
+    // 設定値（EMBEDDED_*）を使ってテーブルを開く
+    // （保存先の初期値は、OSが消すことのある一時ディレクトリではなく、ホームディレクトリの中にする）
+    private static ColumnarTable open(String name, String[] columns) {
+        Path directory = Path.of(AppConfig.getString("EMBEDDED_STORE_DIR",
+            Path.of(System.getProperty("user.home"), "agrinav", "store").toString())).resolve(name);
+        LOG.info("📦 {} の保存先: {}", name, directory.toAbsolutePath());
+        try {
+            ColumnarTable table = new ColumnarTable(name, directory, columns,
+                AppConfig.getInt("EMBEDDED_BLOCK_ROWS", 4096),
+                AppConfig.getInt("EMBEDDED_SEGMENT_BYTES", 32 * 1024 * 1024),
+                AppConfig.getLong("EMBEDDED_SYNC_MS", 1000),
+                AppConfig.getInt("EMBEDDED_CACHE_BLOCKS", 64));
+            TABLES.put(name, table);
+            return table;
+        } catch (IOException e) {
+            // 保存先が無いと動けないので、ここで止める
+            LOG.error("❌ {} を開けません: {}", name, e.getMessage());
+            throw new IllegalStateException(name + " を開けません: " + directory, e);
+        }
+    }
+    
+    /**
+     * 開いているテーブルの一覧（STORAGE=jdbc の場合は空）
+     */
+    public static synchronized Map<String, ColumnarTable> getTables() {
+        return new LinkedHashMap<>(TABLES);
+    }
+    
+    /**
+     * 開いているテーブルをディスクへ書き出して閉じる（アプリ終了時に呼ぶ）
+     */
+    public static synchronized void shutdown() {
+        for (ColumnarTable table : TABLES.values()) {
+            table.close();
+        }
+    }
+}
@@ -1,67 +1,318 @@
 package com.agriguide.repository;
 
 import com.agriguide.model.TripData;
+import com.agriguide.model.TripPoints;
 import com.agriguide.util.DatabaseUtil;
+import com.agriguide.util.GeoHash;
+import com.agriguide.util.Log;
+import com.agriguide.util.QueryMetrics;
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * trip_dataテーブルからデータを取得・保存するクラス
  * 走行履歴データのデータベース操作を担当します
  */
-public class TripDataRepository {
+public class TripDataRepository implements TripDataStore {
+    
+    private static final Log LOG = Log.get(TripDataRepository.class);
+    
+    // 処理ごとの計測値（/agrinav-system/metrics で確認できます）
+    private static final QueryMetrics FIND_LATEST = new QueryMetrics("trip_data", "find_latest");
+    private static final QueryMetrics STREAM_AFTER = new QueryMetrics("trip_data", "stream_after");
+    private static final QueryMetrics STREAM_IN_RANGES = new QueryMetrics("trip_data", "stream_in_ranges");
+    private static final QueryMetrics STREAM_TRACK = new QueryMetrics("trip_data", "stream_track");
+    private static final QueryMetrics FIND_LATEST_PER_MACHINE = new QueryMetrics("trip_data", "find_latest_per_machine");
+    private static final QueryMetrics BACKFILL_GEOHASH = new QueryMetrics("trip_data", "backfill_geohash");
+    private static final QueryMetrics INSERT = new QueryMetrics("trip_data", "insert");
+    private static final QueryMetrics INSERT_BATCH = new QueryMetrics("trip_data", "insert_batch");
     
     /**
      * 最新のN件の走行データを取得
      * @param limit 取得する件数
      * @return TripDataのリスト
      */
+    @Override
     public List<TripData> findLatest(int limit) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        List<TripData> dataList = new ArrayList<>();
-        
+        TripPoints points = new TripPoints(limit);
         try {
-            // データベースに接続
-            conn = DatabaseUtil.getConnection();
-            
-            // SQL文を準備（最新のN件を取得）
-            String sql = "SELECT id, speed, distance, latitude, longitude " +
-                        "FROM trip_data ORDER BY id DESC LIMIT ?";
-            stmt = conn.prepareStatement(sql);
+            findLatest(limit, points);
+            LOG.debug("✅ {}件のデータを取得しました", points.size());
+        } catch (SQLException e) {
+            LOG.error("❌ データ取得エラー: {}", e.getMessage());
+        }
+        return points.toList();  // エラーの場合は空のリスト
+    }
+    
+    /**
+     * 最新のN件の走行データを、配列形式のTripPointsに読み込む（新しい順）
+     * 1件ごとにTripDataを作らないので、件数が多いときに速くなります
+     * @param limit 取得する件数
+     * @param out 読み込み先（最後に追加されます）
+     * @return 読み込んだ件数
+     * @throws SQLException 取得に失敗した場合
+     */
+    @Override
+    public int findLatest(int limit, TripPoints out) throws SQLException {
+        // SQL文を準備（最新のN件を取得）
+        String sql = "SELECT id, speed, distance, latitude, longitude " +
+                    "FROM trip_data ORDER BY id DESC LIMIT ?";
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, limit);
             
-            // SQL実行
-            rs = stmt.executeQuery();
+            // SQL実行して、結果を1件ずつ追加
+            int count = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    out.add(rs.getInt(1), rs.getDouble(2), rs.getDouble(3), rs.getDouble(4), rs.getDouble(5));
+                    count++;
+                }
+            }
+            FIND_LATEST.rows(count);
+            return count;
+        } catch (SQLException e) {
+            FIND_LATEST.error(e);
+            throw e;
+        } finally {
+            FIND_LATEST.recordSince(start);
+        }
+    }
+    
+    /**
+     * IDがafterIdより大きい走行データを、古い順にlimit件まで読み込む（キーセット方式のページング）
+     *
+     * OFFSETを使わずに「前回の最後のID」から続きを読むので、
+     * 何ページ目でも同じ速さで読めます。
+     * 結果はリストに集めずに、1件読むたびにhandlerへ渡します。
+     *
+     * @param machineId この機械のデータだけ（nullの場合は全部の機械）
+     * @param afterId このIDより後のデータを読む（最初は0）
+     * @param from 記録時刻がこれ以降のデータだけ（nullの場合は指定なし）
+     * @param to 記録時刻がこれより前のデータだけ（nullの場合は指定なし）
+     * @param limit 最大件数
+     * @param fetchSize 1回の通信でDBから受け取る件数
+     * @param handler 1件ずつ受け取る処理
+     * @return 読み込んだ件数
+     * @throws SQLException 取得に失敗した場合
+     * @throws IOException handlerで書き込みに失敗した場合
+     */
+    @Override
+    public int streamAfter(String machineId, long afterId, Timestamp from, Timestamp to, int limit, int fetchSize,
+                           RowHandler handler) throws SQLException, IOException {
+        return stream(STREAM_AFTER, machineId, null, afterId, from, to, false, limit, fetchSize,
+            rs -> row(rs, handler));
+    }
+    
+    /**
+     * ジオハッシュが指定した範囲に入る走行データを、古い順にlimit件まで読み込む
+     * 範囲は AreaQuery.getRanges() の形（[開始, 終了) の組を並べた配列）で渡します。
+     * マス単位の絞り込みなので、範囲の外の点も含まれます（呼び出し側で判定してください）。
+     * @return 読み込んだ件数
+     */
+    @Override
+    public int streamInRanges(String machineId, long[] geohashRanges, long afterId, Timestamp from, Timestamp to,
+                              int limit, int fetchSize, RowHandler handler) throws SQLException, IOException {
+        if (geohashRanges.length == 0) {
+            return 0;
+        }
+        return stream(STREAM_IN_RANGES, machineId, geohashRanges, afterId, from, to, false, limit, fetchSize,
+            rs -> row(rs, handler));
+    }
+    
+    /**
+     * ジオハッシュが指定した範囲に入る走行データの位置を、機械IDと一緒に新しい順にlimit件まで読み込む
+     * マス単位の絞り込みなので、範囲の外の点も含まれます（呼び出し側で判定してください）。
+     * @return 読み込んだ件数
+     */
+    @Override
+    public int streamTrackInRanges(String machineId, long[] geohashRanges, Timestamp from, int limit, int fetchSize,
+                                   TrackHandler handler) throws SQLException {
+        if (geohashRanges.length == 0) {
+            return 0;
+        }
+        try {
+            return stream(STREAM_TRACK, machineId, geohashRanges, 0, from, null, true, limit, fetchSize, rs -> {
+                Timestamp recordedAt = rs.getTimestamp(6);
+                handler.point(rs.getString(7), rs.getDouble(4), rs.getDouble(5),
+                    recordedAt != null ? recordedAt.getTime() : 0);
+            });
+        } catch (IOException e) {
+            // handler は書き込みをしないので、ここには来ない
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    // 1行を RowHandler に渡す
+    private static void row(ResultSet rs, RowHandler handler) throws SQLException, IOException {
+        Timestamp recordedAt = rs.getTimestamp(6);
+        handler.row(rs.getInt(1), rs.getDouble(2), rs.getDouble(3), rs.getDouble(4),
+            rs.getDouble(5), recordedAt != null ? recordedAt.getTime() : 0);
+    }
+    
+    // 読み込んだ1行を受け取る処理（stream の中だけで使う）
+    private interface ResultReader {
+        void read(ResultSet rs) throws SQLException, IOException;
+    }
+    
+    // streamAfter / streamInRanges / streamTrackInRanges の共通部分（newestFirst がtrueの場合は新しい順）
+    private int stream(QueryMetrics metrics, String machineId, long[] geohashRanges, long afterId, Timestamp from,
+                       Timestamp to, boolean newestFirst, int limit, int fetchSize, ResultReader reader)
+            throws SQLException, IOException {
+        StringBuilder sql = new StringBuilder(
+            "SELECT id, speed, distance, latitude, longitude, recorded_at, machine_id FROM trip_data WHERE id > ?");
+        if (machineId != null) {
+            sql.append(" AND machine_id = ?");
+        }
+        if (geohashRanges != null) {
+            sql.append(" AND (");
+            for (int i = 0; i < geohashRanges.length; i += 2) {
+                sql.append(i == 0 ? "" : " OR ").append("(geohash >= ? AND geohash < ?)");
+            }
+            sql.append(")");
+        }
+        if (from != null) {
+            sql.append(" AND recorded_at >= ?");
+        }
+        if (to != null) {
+            sql.append(" AND recorded_at < ?");
+        }
+        sql.append(newestFirst ? " ORDER BY id DESC LIMIT ?" : " ORDER BY id LIMIT ?");
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            // 結果を少しずつ受け取る設定はDBごとに違う
+            // - MySQL: fetchSizeにInteger.MIN_VALUEを指定すると1行ずつ受け取る
+            // - PostgreSQL: 自動コミットを切らないとfetchSizeが効かない（プールに返すときに元に戻る）
+            boolean mysql = conn.getMetaData().getURL().startsWith("jdbc:mysql:");
+            if (!mysql) {
+                conn.setAutoCommit(false);
+            }
             
-            // 結果を1件ずつTripDataに変換してリストに追加
+            try (PreparedStatement stmt = conn.prepareStatement(sql.toString(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setFetchSize(mysql ? Integer.MIN_VALUE : Math.max(1, fetchSize));
+                
+                int index = 1;
+                stmt.setLong(index++, afterId);
+                if (machineId != null) {
+                    stmt.setString(index++, machineId);
+                }
+                if (geohashRanges != null) {
+                    for (long value : geohashRanges) {
+                        stmt.setLong(index++, value);
+                    }
+                }
+                if (from != null) {
+                    stmt.setTimestamp(index++, from);
+                }
+                if (to != null) {
+                    stmt.setTimestamp(index++, to);
+                }
+                stmt.setInt(index, limit);
+                
+                int count = 0;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        reader.read(rs);
+                        count++;
+                    }
+                }
+                metrics.rows(count);
+                return count;
+            }
+        } catch (SQLException e) {
+            metrics.error(e);
+            throw e;
+        } finally {
+            metrics.recordSince(start);
+        }
+    }
+    
+    /**
+     * 機械ごとに最新の走行データを1件ずつ取得
+     * （machine_id, id のインデックスで、機械ごとの一番大きいIDを探します）
+     * @return 機械ごとの最新データ
+     * @throws SQLException 取得に失敗した場合
+     */
+    @Override
+    public List<TripData> findLatestPerMachine() throws SQLException {
+        String sql = "SELECT t.id, t.speed, t.distance, t.latitude, t.longitude, t.recorded_at, t.machine_id " +
+                    "FROM trip_data t " +
+                    "JOIN (SELECT MAX(id) AS id FROM trip_data GROUP BY machine_id) m ON t.id = m.id";
+        
+        List<TripData> list = new ArrayList<>();
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
             while (rs.next()) {
-                TripData data = new TripData();
-                data.setId(rs.getInt("id"));
-                data.setSpeed(rs.getDouble("speed"));
-                data.setDistance(rs.getDouble("distance"));
-                data.setLatitude(rs.getDouble("latitude"));
-                data.setLongitude(rs.getDouble("longitude"));
-                dataList.add(data);
+                TripData data = new TripData(rs.getInt(1), rs.getDouble(2), rs.getDouble(3),
+                    rs.getDouble(4), rs.getDouble(5));
+                Timestamp recordedAt = rs.getTimestamp(6);
+                data.setRecordedAt(recordedAt != null ? recordedAt.getTime() : 0);
+                data.setMachineId(rs.getString(7));
+                list.add(data);
             }
-            
-            System.out.println("✅ " + dataList.size() + "件のデータを取得しました");
-            return dataList;
-            
+            FIND_LATEST_PER_MACHINE.rows(list.size());
         } catch (SQLException e) {
-            System.out.println("❌ データ取得エラー: " + e.getMessage());
-            return dataList;  // 空のリストを返す
+            FIND_LATEST_PER_MACHINE.error(e);
+            throw e;
         } finally {
-            // リソースを閉じる
-            try {
-                if (rs != null) rs.close();
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
+            FIND_LATEST_PER_MACHINE.recordSince(start);
+        }
+        return list;
+    }
+    
+    /**
+     * ジオハッシュがまだ入っていない行（geohash列を追加する前のデータ）に、ジオハッシュを入れる
+     * @param batchSize 1回で更新する最大件数
+     * @return 更新した件数（0なら全部終わっている）
+     */
+    @Override
+    public int backfillGeohash(int batchSize) throws SQLException {
+        String select = "SELECT id, latitude, longitude FROM trip_data WHERE geohash IS NULL LIMIT ?";
+        String update = "UPDATE trip_data SET geohash = ? WHERE id = ?";
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement selectStmt = conn.prepareStatement(select);
+                 PreparedStatement updateStmt = conn.prepareStatement(update)) {
+                selectStmt.setInt(1, batchSize);
+                int count = 0;
+                try (ResultSet rs = selectStmt.executeQuery()) {
+                    while (rs.next()) {
+                        updateStmt.setLong(1, GeoHash.encode(rs.getDouble(2), rs.getDouble(3)));
+                        updateStmt.setInt(2, rs.getInt(1));
+                        updateStmt.addBatch();
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    updateStmt.executeBatch();
+                }
+                conn.commit();
+                BACKFILL_GEOHASH.rows(count);
+                return count;
             } catch (SQLException e) {
-                System.out.println("⚠️ リソースクローズエラー");
+                conn.rollback();
+                throw e;
             }
+        } catch (SQLException e) {
+            BACKFILL_GEOHASH.error(e);
+            throw e;
+        } finally {
+            BACKFILL_GEOHASH.recordSince(start);
         }
     }
     
@@ -70,18 +321,20 @@ public class TripDataRepository {
      * @param data 保存するTripData
      * @return 保存されたデータのID
      */
+    @Override
     public int save(TripData data) {
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
+        long start = System.nanoTime();
         
         try {
             // データベースに接続
             conn = DatabaseUtil.getConnection();
             
             // SQL文を準備（データ挿入）
-            String sql = "INSERT INTO trip_data (speed, distance, latitude, longitude) " +
-                        "VALUES (?, ?, ?, ?)";
+            String sql = "INSERT INTO trip_data (speed, distance, latitude, longitude, recorded_at, geohash, machine_id) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?)";
             stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
             
             // 値を設定
@@ -89,6 +342,9 @@ public class TripDataRepository {
             stmt.setDouble(2, data.getDistance());
             stmt.setDouble(3, data.getLatitude());
             stmt.setDouble(4, data.getLongitude());
+            stmt.setTimestamp(5, recordedAt(data));
+            stmt.setLong(6, GeoHash.encode(data.getLatitude(), data.getLongitude()));
+            stmt.setString(7, data.getMachineId());
             
             // SQL実行
             stmt.executeUpdate();
@@ -97,24 +353,159 @@ public class TripDataRepository {
             rs = stmt.getGeneratedKeys();
             if (rs.next()) {
                 int id = rs.getInt(1);
-                System.out.println("✅ データを保存しました ID: " + id);
+                INSERT.rows(1);
+                LOG.debug("✅ データを保存しました ID: {}", id);
                 return id;
             }
             
             return 0;
-            
+        
         } catch (SQLException e) {
-            System.out.println("❌ データ保存エラー: " + e.getMessage());
+            INSERT.error(e);
+            LOG.error("❌ データ保存エラー: {}", e.getMessage());
             return 0;
         } finally {
+            INSERT.recordSince(start);
             // リソースを閉じる
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.out.println("⚠️ リソースクローズエラー");
+                LOG.warn("⚠️ リソースクローズエラー");
             }
         }
     }
+    
+    /**
+     * 複数の走行データをまとめて保存（1回のトランザクション）
+     * 1件ずつ保存するよりも、DBとの往復とコミットの回数が大幅に減ります
+     *
+     * ライトアヘッドログから再生したデータ（walIdあり）は wal_id / wal_seq も保存し、
+     * 前回保存してあるもの（保存の直後に落ちて再生し直した分）は飛ばします。
+     * @param dataList 保存するTripDataのリスト
+     * @return 保存されたデータのID（dataListと同じ順番。取得できなかった場合や、保存済みで飛ばした場合は0）
+     * @throws SQLException 保存に失敗した場合（全件ロールバックされます）
+     */
+    @Override
+    public int[] saveBatch(List<TripData> dataList) throws SQLException {
+        int[] ids = new int[dataList.size()];
+        if (dataList.isEmpty()) {
+            return ids;
+        }
+        
+        // ログから再生したデータの場合だけ wal_id / wal_seq を書く（使わない場合は列を追加しなくてよい）
+        boolean replayed = false;
+        for (TripData data : dataList) {
+            if (data.getWalId() != null) {
+                replayed = true;
+                break;
+            }
+        }
+        String sql = replayed
+            ? "INSERT INTO trip_data (speed, distance, latitude, longitude, recorded_at, geohash, machine_id, " +
+              "wal_id, wal_seq) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)"
+            : "INSERT INTO trip_data (speed, distance, latitude, longitude, recorded_at, geohash, machine_id) " +
+              "VALUES (?, ?, ?, ?, ?, ?, ?)";
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                Set<String> saved = replayed ? findSavedWal(conn, dataList) : Collections.emptySet();
+                
+                // 全件をバッチに追加（保存済みのものは飛ばす）
+                List<Integer> inserted = new ArrayList<>(dataList.size());
+                for (int i = 0; i < dataList.size(); i++) {
+                    TripData data = dataList.get(i);
+                    if (data.getWalId() != null && saved.contains(data.getWalId() + ":" + data.getWalSeq())) {
+                        continue;
+                    }
+                    stmt.setDouble(1, data.getSpeed());
+                    stmt.setDouble(2, data.getDistance());
+                    stmt.setDouble(3, data.getLatitude());
+                    stmt.setDouble(4, data.getLongitude());
+                    stmt.setTimestamp(5, recordedAt(data));
+                    stmt.setLong(6, GeoHash.encode(data.getLatitude(), data.getLongitude()));
+                    stmt.setString(7, data.getMachineId());
+                    if (replayed) {
+                        stmt.setString(8, data.getWalId());
+                        if (data.getWalId() != null) {
+                            stmt.setLong(9, data.getWalSeq());
+                        } else {
+                            stmt.setNull(9, Types.BIGINT);
+                        }
+                    }
+                    stmt.addBatch();
+                    inserted.add(i);
+                }
+                if (inserted.size() < dataList.size()) {
+                    LOG.info("📦 保存済みのデータを{}件飛ばしました（ライトアヘッドログの再生）",
+                        dataList.size() - inserted.size());
+                }
+                if (inserted.isEmpty()) {
+                    conn.commit();
+                    return ids;
+                }
+                
+                // まとめて実行
+                stmt.executeBatch();
+                
+                // 自動生成されたIDを取得
+                try (ResultSet rs = stmt.getGeneratedKeys()) {
+                    int i = 0;
+                    while (rs.next() && i < inserted.size()) {
+                        ids[inserted.get(i++)] = rs.getInt(1);
+                    }
+                }
+                
+                conn.commit();
+                INSERT_BATCH.rows(inserted.size());
+                return ids;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            INSERT_BATCH.error(e);
+            throw e;
+        } finally {
+            INSERT_BATCH.recordSince(start);
+        }
+    }
+    
+    // 保存済みの wal_id / wal_seq を "wal_id:wal_seq" の形で返す（ログごとに番号の範囲で検索する）
+    private static Set<String> findSavedWal(Connection conn, List<TripData> dataList) throws SQLException {
+        Map<String, long[]> ranges = new HashMap<>();
+        for (TripData data : dataList) {
+            if (data.getWalId() == null) {
+                continue;
+            }
+            long[] range = ranges.computeIfAbsent(data.getWalId(), k -> new long[] {Long.MAX_VALUE, Long.MIN_VALUE});
+            range[0] = Math.min(range[0], data.getWalSeq());
+            range[1] = Math.max(range[1], data.getWalSeq());
+        }
+        
+        Set<String> saved = new HashSet<>();
+        String sql = "SELECT wal_seq FROM trip_data WHERE wal_id = ? AND wal_seq BETWEEN ? AND ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (Map.Entry<String, long[]> range : ranges.entrySet()) {
+                stmt.setString(1, range.getKey());
+                stmt.setLong(2, range.getValue()[0]);
+                stmt.setLong(3, range.getValue()[1]);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        saved.add(range.getKey() + ":" + rs.getLong(1));
+                    }
+                }
+            }
+        }
+        return saved;
+    }
+    
+    // 記録時刻（未設定の場合は今の時刻）
+    private static Timestamp recordedAt(TripData data) {
+        long millis = data.getRecordedAt() > 0 ? data.getRecordedAt() : System.currentTimeMillis();
+        return new Timestamp(millis);
+    }
 }
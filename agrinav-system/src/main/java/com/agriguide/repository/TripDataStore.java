@@ -0,0 +1,110 @@
+package com.agriguide.repository;
+
+import com.agriguide.model.TripData;
+import com.agriguide.model.TripPoints;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * 走行データの保存先
+ * Serviceはこのインターフェースだけを使います。どの実装を使うかは Storage で決まります。
+ *
+ * - TripDataRepository: データベース（JDBC）
+ * - EmbeddedTripDataStore: アプリの中のファイル（DBサーバーが無い環境用）
+ *
+ * どちらの実装でも、読み書きのエラーは SQLException で返します。
+ */
+public interface TripDataStore {
+    
+    /**
+     * 読み込んだ走行データを1件ずつ受け取る処理（streamAfterで使う）
+     */
+    interface RowHandler {
+        void row(int id, double speed, double distance, double latitude, double longitude,
+                 long recordedAt) throws IOException;
+    }
+    
+    /**
+     * 読み込んだ走行データの位置を、機械IDと一緒に1件ずつ受け取る処理（streamTrackInRangesで使う）
+     */
+    interface TrackHandler {
+        void point(String machineId, double latitude, double longitude, long recordedAt);
+    }
+    
+    /**
+     * 最新のN件の走行データを取得（新しい順）
+     * @param limit 取得する件数
+     * @return TripDataのリスト（エラーの場合は空のリスト）
+     */
+    List<TripData> findLatest(int limit);
+    
+    /**
+     * 最新のN件の走行データを、配列形式のTripPointsに読み込む（新しい順）
+     * @param limit 取得する件数
+     * @param out 読み込み先（最後に追加されます）
+     * @return 読み込んだ件数
+     * @throws SQLException 取得に失敗した場合
+     */
+    int findLatest(int limit, TripPoints out) throws SQLException;
+    
+    /**
+     * IDがafterIdより大きい走行データを、古い順にlimit件まで読み込む（キーセット方式のページング）
+     * @param machineId この機械のデータだけ（nullの場合は全部の機械）
+     * @param afterId このIDより後のデータを読む（最初は0）
+     * @param from 記録時刻がこれ以降のデータだけ（nullの場合は指定なし）
+     * @param to 記録時刻がこれより前のデータだけ（nullの場合は指定なし）
+     * @param limit 最大件数
+     * @param fetchSize 1回の通信でDBから受け取る件数（DB以外の実装では使いません）
+     * @param handler 1件ずつ受け取る処理
+     * @return 読み込んだ件数
+     */
+    int streamAfter(String machineId, long afterId, Timestamp from, Timestamp to, int limit, int fetchSize,
+                    RowHandler handler) throws SQLException, IOException;
+    
+    /**
+     * ジオハッシュが指定した範囲に入る走行データを、古い順にlimit件まで読み込む
+     * 範囲は AreaQuery.getRanges() の形（[開始, 終了) の組を並べた配列）で渡します。
+     * @return 読み込んだ件数
+     */
+    int streamInRanges(String machineId, long[] geohashRanges, long afterId, Timestamp from, Timestamp to,
+                       int limit, int fetchSize, RowHandler handler) throws SQLException, IOException;
+    
+    /**
+     * ジオハッシュが指定した範囲に入る走行データの位置を、機械IDと一緒に新しい順にlimit件まで読み込む
+     * （地図のタイルで、機械ごとに点を線でつなぐために使う。件数が多い場合も最近のルートが残るように新しい順）
+     * @param machineId この機械のデータだけ（nullの場合は全部の機械）
+     * @param from 記録時刻がこれ以降のデータだけ（nullの場合は指定なし）
+     * @return 読み込んだ件数
+     */
+    int streamTrackInRanges(String machineId, long[] geohashRanges, Timestamp from, int limit, int fetchSize,
+                            TrackHandler handler) throws SQLException;
+    
+    /**
+     * 機械ごとに最新の走行データを1件ずつ取得（記録時刻と機械IDも入っています）
+     */
+    List<TripData> findLatestPerMachine() throws SQLException;
+    
+    /**
+     * ジオハッシュがまだ入っていない行に、ジオハッシュを入れる
+     * @param batchSize 1回で更新する最大件数
+     * @return 更新した件数（0なら全部終わっている）
+     */
+    int backfillGeohash(int batchSize) throws SQLException;
+    
+    /**
+     * 新しい走行データを保存
+     * @return 保存されたデータのID（失敗した場合は0）
+     */
+    int save(TripData data);
+    
+    /**
+     * 複数の走行データをまとめて保存
+     * ライトアヘッドログから再生したデータ（TripData.getWalId()がnullでない）のうち、
+     * 前回保存してあるものは飛ばします（戻り値のIDは0）
+     * @return 保存されたデータのID（dataListと同じ順番）
+     * @throws SQLException 保存に失敗した場合
+     */
+    int[] saveBatch(List<TripData> dataList) throws SQLException;
+}
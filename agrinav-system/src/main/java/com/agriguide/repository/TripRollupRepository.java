@@ -0,0 +1,126 @@
+package com.agriguide.repository;
+
+import com.agriguide.model.TripRollup;
+import com.agriguide.util.DatabaseUtil;
+import com.agriguide.util.QueryMetrics;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * trip_rollupテーブル（走行データの時間ごとの集計）を読み書きするクラス
+ */
+public class TripRollupRepository {
+    
+    // 処理ごとの計測値（/agrinav-system/metrics で確認できます）
+    private static final QueryMetrics UPSERT = new QueryMetrics("trip_rollup", "upsert");
+    private static final QueryMetrics FIND = new QueryMetrics("trip_rollup", "find");
+    
+    // MySQL用: 同じ行があれば、増えた分を足す（最小・最大は比べて入れ替える）
+    private static final String UPSERT_MYSQL =
+        "INSERT INTO trip_rollup (machine_id, bucket_seconds, bucket_start, point_count, speed_sum, " +
+        "speed_min, speed_max, distance_sum) VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+        "ON DUPLICATE KEY UPDATE point_count = point_count + VALUES(point_count), " +
+        "speed_sum = speed_sum + VALUES(speed_sum), " +
+        "speed_min = LEAST(speed_min, VALUES(speed_min)), speed_max = GREATEST(speed_max, VALUES(speed_max)), " +
+        "distance_sum = distance_sum + VALUES(distance_sum)";
+    
+    // PostgreSQL用（書き方が違うだけで、内容は同じ）
+    private static final String UPSERT_POSTGRESQL =
+        "INSERT INTO trip_rollup (machine_id, bucket_seconds, bucket_start, point_count, speed_sum, " +
+        "speed_min, speed_max, distance_sum) VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+        "ON CONFLICT (machine_id, bucket_seconds, bucket_start) DO UPDATE SET " +
+        "point_count = trip_rollup.point_count + EXCLUDED.point_count, " +
+        "speed_sum = trip_rollup.speed_sum + EXCLUDED.speed_sum, " +
+        "speed_min = LEAST(trip_rollup.speed_min, EXCLUDED.speed_min), " +
+        "speed_max = GREATEST(trip_rollup.speed_max, EXCLUDED.speed_max), " +
+        "distance_sum = trip_rollup.distance_sum + EXCLUDED.distance_sum";
+    
+    /**
+     * 集計の増えた分をまとめて保存（1回のトランザクション）
+     * 行が無ければ追加し、あれば件数や合計を足し込みます。
+     * 足し込みなので、複数台のサーバーから保存しても正しい値になります。
+     * @param rollups 前回の保存から増えた分
+     * @throws SQLException 保存に失敗した場合（全件ロールバックされます）
+     */
+    public void upsert(Collection<TripRollup> rollups) throws SQLException {
+        if (rollups.isEmpty()) {
+            return;
+        }
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            boolean postgresql = conn.getMetaData().getURL().startsWith("jdbc:postgresql:");
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(postgresql ? UPSERT_POSTGRESQL : UPSERT_MYSQL)) {
+                for (TripRollup rollup : rollups) {
+                    stmt.setString(1, rollup.getMachineId());
+                    stmt.setInt(2, rollup.getBucketSeconds());
+                    stmt.setTimestamp(3, new Timestamp(rollup.getBucketStart()));
+                    stmt.setLong(4, rollup.getCount());
+                    stmt.setDouble(5, rollup.getSpeedSum());
+                    stmt.setDouble(6, rollup.getSpeedMin());
+                    stmt.setDouble(7, rollup.getSpeedMax());
+                    stmt.setDouble(8, rollup.getDistanceSum());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                conn.commit();
+                UPSERT.rows(rollups.size());
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            UPSERT.error(e);
+            throw e;
+        } finally {
+            UPSERT.recordSince(start);
+        }
+    }
+    
+    /**
+     * 指定した時間の範囲の集計を、古い順に取得
+     * @param machineId この機械の集計だけ（nullの場合は全部の機械。機械ごとに別の行で返します）
+     * @param bucketSeconds 集計の単位（60 または 3600）
+     * @param from 開始時刻がこれ以降の集計
+     * @param to 開始時刻がこれより前の集計
+     * @return 集計のリスト
+     * @throws SQLException 取得に失敗した場合
+     */
+    public List<TripRollup> find(String machineId, int bucketSeconds, Timestamp from, Timestamp to)
+            throws SQLException {
+        String sql = "SELECT machine_id, bucket_start, point_count, speed_sum, speed_min, speed_max, " +
+                    "distance_sum FROM trip_rollup " +
+                    "WHERE bucket_seconds = ? AND bucket_start >= ? AND bucket_start < ?" +
+                    (machineId != null ? " AND machine_id = ?" : "") +
+                    " ORDER BY bucket_start";
+        
+        List<TripRollup> list = new ArrayList<>();
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, bucketSeconds);
+            stmt.setTimestamp(2, from);
+            stmt.setTimestamp(3, to);
+            if (machineId != null) {
+                stmt.setString(4, machineId);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    list.add(new TripRollup(rs.getString(1), bucketSeconds, rs.getTimestamp(2).getTime(),
+                        rs.getLong(3), rs.getDouble(4), rs.getDouble(5), rs.getDouble(6),
+                        rs.getDouble(7)));
+                }
+            }
+            FIND.rows(list.size());
+        } catch (SQLException e) {
+            FIND.error(e);
+            throw e;
+        } finally {
+            FIND.recordSince(start);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,120 @@
+package com.agriguide.repository;
+
+import com.agriguide.model.TripSegment;
+import com.agriguide.util.DatabaseUtil;
+import com.agriguide.util.QueryMetrics;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * trip_segmentテーブル（走行データを状態ごとに区切った区間）を読み書きするクラス
+ */
+public class TripSegmentRepository {
+    
+    // 処理ごとの計測値（/agrinav-system/metrics で確認できます）
+    private static final QueryMetrics INSERT_BATCH = new QueryMetrics("trip_segment", "insert_batch");
+    private static final QueryMetrics FIND = new QueryMetrics("trip_segment", "find");
+    
+    /**
+     * 終わった区間をまとめて保存（1回のトランザクション）
+     * @param segments 終わった区間
+     * @throws SQLException 保存に失敗した場合（全件ロールバックされます）
+     */
+    public void insertBatch(Collection<TripSegment> segments) throws SQLException {
+        if (segments.isEmpty()) {
+            return;
+        }
+        
+        String sql = "INSERT INTO trip_segment (machine_id, segment_type, start_id, end_id, start_time, end_time, " +
+                    "point_count, distance, speed_sum, speed_max, start_latitude, start_longitude, " +
+                    "end_latitude, end_longitude) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (TripSegment segment : segments) {
+                    stmt.setString(1, segment.getMachineId());
+                    stmt.setString(2, segment.getType().label());
+                    stmt.setInt(3, segment.getStartId());
+                    stmt.setInt(4, segment.getEndId());
+                    stmt.setTimestamp(5, new Timestamp(segment.getStartTime()));
+                    stmt.setTimestamp(6, new Timestamp(segment.getEndTime()));
+                    stmt.setLong(7, segment.getCount());
+                    stmt.setDouble(8, segment.getDistance());
+                    stmt.setDouble(9, segment.getSpeedSum());
+                    stmt.setDouble(10, segment.getSpeedMax());
+                    stmt.setDouble(11, segment.getStartLatitude());
+                    stmt.setDouble(12, segment.getStartLongitude());
+                    stmt.setDouble(13, segment.getEndLatitude());
+                    stmt.setDouble(14, segment.getEndLongitude());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                conn.commit();
+                INSERT_BATCH.rows(segments.size());
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            INSERT_BATCH.error(e);
+            throw e;
+        } finally {
+            INSERT_BATCH.recordSince(start);
+        }
+    }
+    
+    /**
+     * 時間の範囲に重なる区間を、古い順に取得
+     * @param machineId この機械の区間だけ（nullの場合は全部の機械）
+     * @param type この種類の区間だけ（nullの場合は全部の種類）
+     * @param from 終了時刻がこれ以降の区間
+     * @param to 開始時刻がこれより前の区間
+     * @param limit 最大件数
+     * @return 区間のリスト
+     * @throws SQLException 取得に失敗した場合
+     */
+    public List<TripSegment> find(String machineId, TripSegment.Type type, Timestamp from, Timestamp to, int limit)
+            throws SQLException {
+        String sql = "SELECT machine_id, segment_type, start_id, end_id, start_time, end_time, point_count, " +
+                    "distance, speed_sum, speed_max, start_latitude, start_longitude, end_latitude, end_longitude " +
+                    "FROM trip_segment WHERE end_time >= ? AND start_time < ?" +
+                    (machineId != null ? " AND machine_id = ?" : "") +
+                    (type != null ? " AND segment_type = ?" : "") +
+                    " ORDER BY start_time LIMIT ?";
+        
+        List<TripSegment> list = new ArrayList<>();
+        long start = System.nanoTime();
+        try (Connection conn = DatabaseUtil.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            stmt.setTimestamp(index++, from);
+            stmt.setTimestamp(index++, to);
+            if (machineId != null) {
+                stmt.setString(index++, machineId);
+            }
+            if (type != null) {
+                stmt.setString(index++, type.label());
+            }
+            stmt.setInt(index, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    list.add(new TripSegment(rs.getString(1), TripSegment.Type.fromLabel(rs.getString(2)),
+                        rs.getInt(3), rs.getInt(4), rs.getTimestamp(5).getTime(), rs.getTimestamp(6).getTime(),
+                        rs.getLong(7), rs.getDouble(8), rs.getDouble(9), rs.getDouble(10),
+                        rs.getDouble(11), rs.getDouble(12), rs.getDouble(13), rs.getDouble(14)));
+                }
+            }
+            FIND.rows(list.size());
+        } catch (SQLException e) {
+            FIND.error(e);
+            throw e;
+        } finally {
+            FIND.recordSince(start);
+        }
+        return list;
+    }
+}
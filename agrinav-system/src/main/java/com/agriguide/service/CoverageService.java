@@ -0,0 +1,359 @@
+package com.agriguide.service;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.agriguide.model.CoverageGrid;
+import com.agriguide.model.FieldCoverage;
+import com.agriguide.model.MachineState;
+import com.agriguide.model.TripData;
+import com.agriguide.model.TripPoints;
+import com.agriguide.repository.FieldCoverageRepository;
+import com.agriguide.repository.Storage;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.Log;
+
+/**
+ * 圃場ごとの作業済みの範囲（散布・収穫が終わった割合）を数えるクラス
+ *
+ * 登録した圃場ごとに CoverageGrid を持ち、走行データが保存されるたびに前の点からの帯を塗ります。
+ * 変わった圃場は COVERAGE_SNAPSHOT_MS ごとに field_coverage テーブルへ保存し、起動時に読み込みます。
+ * 読み込みに失敗した場合は COVERAGE_WARMUP_RETRY_MS ごとにやり直し、読み込めなかった間の走行データも塗り直します。
+ * 割合を返すときは数えておいたマスの数を使うので、元の走行データは読みません。
+ */
+public class CoverageService {
+    
+    private static final Log LOG = Log.get(CoverageService.class);
+    
+    // アプリ全体で1つだけ使うインスタンス
+    private static final CoverageService INSTANCE = new CoverageService();
+    
+    private final FieldCoverageRepository repository;
+    private final boolean enabled;
+    private final double defaultCellMeters = AppConfig.getDouble("COVERAGE_CELL_METERS", 1.0);
+    private final int maxCells = AppConfig.getInt("COVERAGE_MAX_CELLS", 4000000);
+    private final double minKmh = AppConfig.getDouble("COVERAGE_MIN_KMH", 1.0);
+    private final double maxKmh = AppConfig.getDouble("COVERAGE_MAX_KMH", 15.0);
+    private final long maxGapMillis = AppConfig.getLong("COVERAGE_MAX_GAP_MS", 30000);
+    private final double maxStepMeters = AppConfig.getDouble("COVERAGE_MAX_STEP_METERS", 50.0);
+    
+    // 圃場ID → マス目（圃場ごとに同期して使う）
+    private final ConcurrentHashMap<String, CoverageGrid> grids = new ConcurrentHashMap<>();
+    
+    // 過去の走行データから作り直している圃場
+    private final Set<String> rebuilding = ConcurrentHashMap.newKeySet();
+    
+    private volatile boolean warmed = false;
+    private final AtomicBoolean warmUpScheduled = new AtomicBoolean();
+    private final long warmUpRetryMillis = AppConfig.getLong("COVERAGE_WARMUP_RETRY_MS", 5000);
+    
+    // 最初に読み込もうとした時刻（0はまだ。やり直しで読み込めた場合は、ここからの走行データを塗り直す）
+    private long firstAttemptAt;
+    
+    // 定期的に保存するスレッドと、作り直し用のスレッド（無効の場合はnull）
+    private ScheduledExecutorService flusher;
+    private ExecutorService rebuilder;
+    
+    private CoverageService() {
+        this.repository = new FieldCoverageRepository();
+        // 作業済みの範囲はデータベースに保存するので、DBサーバーが無い構成（STORAGE=embedded）では初期値を無効にする
+        this.enabled = AppConfig.getBoolean("COVERAGE_ENABLED", !Storage.isEmbedded());
+        if (enabled) {
+            long snapshotMillis = Math.max(1000, AppConfig.getLong("COVERAGE_SNAPSHOT_MS", 30000));
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "agrinav-coverage-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+            this.rebuilder = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "agrinav-coverage-rebuild");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+    
+    /**
+     * アプリ全体で共有するインスタンスを取得
+     */
+    public static CoverageService getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 無効（COVERAGE_ENABLED=false）の場合はfalse
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * 保存してある圃場を読み込む（起動時に呼ぶ）
+     * 読み込めなかった場合は、裏のスレッドでやり直します
+     */
+    public void warmUp() {
+        if (!load()) {
+            scheduleWarmUp(warmUpRetryMillis);
+        }
+    }
+    
+    // 読み込めた（またはもう読み込んである、無効）場合はtrue
+    private synchronized boolean load() {
+        if (!enabled || warmed) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        boolean retried = firstAttemptAt > 0;
+        if (!retried) {
+            firstAttemptAt = now;
+        }
+        List<FieldCoverage> saved;
+        try {
+            saved = repository.findAll();
+        } catch (SQLException e) {
+            LOG.error("❌ 圃場の作業済みの範囲の読み込みエラー（{}ミリ秒後にやり直します）: {}",
+                warmUpRetryMillis, e.getMessage());
+            return false;
+        }
+        
+        int restored = 0;
+        for (FieldCoverage field : saved) {
+            try {
+                CoverageGrid grid = newGrid(field.getFieldId(), field.getBoundary(), field.getMachineId(),
+                    field.getWidthMeters(), field.getCellMeters(), field.getCreatedAt());
+                grid.restore(field.getCoveredBitmap(), field.getOverlapBitmap(), field.getUpdatedAt());
+                // 読み込めない間に登録し直された圃場は、そちらを使う
+                if (grids.putIfAbsent(field.getFieldId(), grid) != null) {
+                    continue;
+                }
+                restored++;
+                // やり直しで読み込めた場合、最初に読もうとしてから届いた走行データは塗られていないので、
+                // 保存済みの走行データから塗り直して足す
+                if (retried) {
+                    rebuilding.add(field.getFieldId());
+                    long from = firstAttemptAt;
+                    rebuilder.execute(() -> rebuild(grid, from, now));
+                }
+            } catch (IllegalArgumentException e) {
+                LOG.warn("⚠️ 圃場 {} の作業済みの範囲を読み込めません: {}", field.getFieldId(), e.getMessage());
+            }
+        }
+        warmed = true;
+        LOG.info("✅ 圃場の作業済みの範囲を読み込みました: {}件", restored);
+        return true;
+    }
+    
+    // 裏のスレッドで読み込む（予約済みの場合は何もしない）
+    private void scheduleWarmUp(long delayMillis) {
+        if (!enabled || !warmUpScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            flusher.schedule(() -> {
+                warmUpScheduled.set(false);
+                warmUp();
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 終了処理のあと
+            warmUpScheduled.set(false);
+        }
+    }
+    
+    private CoverageGrid newGrid(String fieldId, String boundary, String machineId, double widthMeters,
+                                 double cellMeters, long createdAt) {
+        return new CoverageGrid(fieldId, boundary, machineId, widthMeters, cellMeters, createdAt,
+            maxGapMillis, maxStepMeters, maxCells);
+    }
+    
+    /**
+     * 保存された走行データ1件を、その機械が入る圃場に塗る
+     */
+    public void record(TripData data) {
+        if (!enabled || grids.isEmpty()) {
+            return;
+        }
+        boolean working = data.getSpeed() >= minKmh && data.getSpeed() < maxKmh;
+        for (CoverageGrid grid : grids.values()) {
+            if (grid.getMachineId() != null && !grid.getMachineId().equals(data.getMachineId())) {
+                continue;
+            }
+            synchronized (grid) {
+                grid.add(data.getMachineId(), data.getLatitude(), data.getLongitude(), data.getRecordedAt(), working);
+            }
+        }
+    }
+    
+    /**
+     * 圃場を登録する（同じIDの圃場があれば、作業済みの範囲を空にして置き換える）
+     * @param boundary 圃場の境界（"緯度,経度;緯度,経度;..."）
+     * @param machineId この機械だけ数える（nullの場合は全部の機械）
+     * @param widthMeters 作業機の幅 (m)
+     * @param cellMeters 1マスの大きさ (m、0以下の場合は COVERAGE_CELL_METERS)
+     * @param from この時刻からの保存済みの走行データも塗る（nullの場合は、これから届くデータだけ）
+     * @return 登録した圃場
+     * @throws IllegalArgumentException 境界や幅が不正、またはマスの数が COVERAGE_MAX_CELLS を超える場合
+     * @throws SQLException 保存に失敗した場合
+     */
+    public CoverageGrid register(String fieldId, String boundary, String machineId, double widthMeters,
+                                 double cellMeters, Timestamp from) throws SQLException {
+        if (!enabled) {
+            throw new IllegalStateException("coverage is disabled");
+        }
+        long now = System.currentTimeMillis();
+        CoverageGrid grid = newGrid(fieldId, boundary, machineId, widthMeters,
+            cellMeters > 0 ? cellMeters : defaultCellMeters, now);
+        // 保存と差し替えは flush() と同じロックの中で行う（古いマス目の保存で上書きされないように）
+        synchronized (this) {
+            repository.save(FieldCoverage.of(grid));
+            grids.put(fieldId, grid);
+        }
+        LOG.info("✅ 圃場を登録しました: {} ({}マス)", fieldId, grid.getFieldCells());
+        
+        if (from != null && from.getTime() < now) {
+            rebuilding.add(fieldId);
+            rebuilder.execute(() -> rebuild(grid, from.getTime(), now));
+        }
+        return grid;
+    }
+    
+    // 保存済みの走行データ（from〜to）を別のマス目に塗ってから、まとめて足す
+    private void rebuild(CoverageGrid grid, long fromMillis, long toMillis) {
+        try {
+            CoverageGrid rebuilt = newGrid(grid.getFieldId(), grid.getBoundaryText(), grid.getMachineId(),
+                grid.getWidthMeters(), grid.getCellMeters(), grid.getCreatedAt());
+            List<String> machineIds = new ArrayList<>();
+            if (grid.getMachineId() != null) {
+                machineIds.add(grid.getMachineId());
+            } else {
+                for (MachineState state : MachineStateRegistry.getInstance().getAll()) {
+                    machineIds.add(state.getMachineId());
+                }
+            }
+            
+            TripDataService trips = TripDataService.getInstance();
+            int pageSize = trips.clampPageLimit(Integer.MAX_VALUE);
+            TripPoints page = new TripPoints(pageSize);
+            long total = 0;
+            for (String machineId : machineIds) {
+                long afterId = 0;
+                int read;
+                do {
+                    page.clear();
+                    read = trips.loadTripPoints(machineId, afterId, new Timestamp(fromMillis),
+                        new Timestamp(toMillis), pageSize, page);
+                    for (int i = 0; i < page.size(); i++) {
+                        double speed = page.getSpeed(i);
+                        rebuilt.add(machineId, page.getLatitude(i), page.getLongitude(i), page.getRecordedAt(i),
+                            speed >= minKmh && speed < maxKmh);
+                    }
+                    if (!page.isEmpty()) {
+                        afterId = page.getId(page.size() - 1);
+                    }
+                    total += read;
+                } while (read >= pageSize && grids.get(grid.getFieldId()) == grid);
+            }
+            
+            synchronized (grid) {
+                grid.merge(rebuilt);
+            }
+            LOG.info("✅ 圃場 {} の作業済みの範囲を作り直しました: {}件", grid.getFieldId(), total);
+        } catch (Exception e) {
+            LOG.error("❌ 圃場 {} の作業済みの範囲の作り直しエラー: {}", grid.getFieldId(), e.getMessage());
+        } finally {
+            rebuilding.remove(grid.getFieldId());
+        }
+    }
+    
+    /**
+     * 圃場を取得（無い場合はnull）
+     */
+    public CoverageGrid get(String fieldId) {
+        if (!warmed) {
+            scheduleWarmUp(0);
+        }
+        return grids.get(fieldId);
+    }
+    
+    /**
+     * 全部の圃場を取得（圃場IDの順）
+     */
+    public List<CoverageGrid> getAll() {
+        if (!warmed) {
+            scheduleWarmUp(0);
+        }
+        List<CoverageGrid> list = new ArrayList<>(grids.values());
+        list.sort(Comparator.comparing(CoverageGrid::getFieldId));
+        return list;
+    }
+    
+    /**
+     * 過去の走行データから作り直している途中ならtrue
+     */
+    public boolean isRebuilding(String fieldId) {
+        return rebuilding.contains(fieldId);
+    }
+    
+    /**
+     * 圃場を削除
+     * flush() と同じロックの中で削除するので、削除した圃場が保存し直されることはありません
+     * @return 削除できた場合はtrue
+     * @throws SQLException 削除に失敗した場合
+     */
+    public synchronized boolean delete(String fieldId) throws SQLException {
+        CoverageGrid removed = grids.remove(fieldId);
+        boolean deleted = repository.delete(fieldId);
+        return removed != null || deleted;
+    }
+    
+    /**
+     * 変わった圃場をデータベースへ保存する（定期的に呼ばれる）
+     * 失敗した場合は、次の保存でもう一度試します
+     */
+    public synchronized void flush() {
+        for (CoverageGrid grid : grids.values()) {
+            FieldCoverage snapshot;
+            synchronized (grid) {
+                if (!grid.isDirty()) {
+                    continue;
+                }
+                snapshot = FieldCoverage.of(grid);
+                grid.setDirty(false);
+            }
+            // 削除・登録し直しされた圃場は保存しない（delete()・register() と同じロックの中なので、確かめてから保存するまでに変わらない）
+            if (grids.get(grid.getFieldId()) != grid) {
+                continue;
+            }
+            try {
+                repository.save(snapshot);
+            } catch (SQLException | RuntimeException e) {
+                LOG.warn("⚠️ 圃場 {} の作業済みの範囲の保存エラー: {}", grid.getFieldId(), e.getMessage());
+                synchronized (grid) {
+                    grid.setDirty(true);
+                }
+            }
+        }
+    }
+    
+    /**
+     * 残っている分を保存して終了する（アプリ終了時に呼ぶ）
+     */
+    public void shutdown() {
+        if (flusher != null) {
+            rebuilder.shutdownNow();
+            flusher.shutdownNow();
+            flush();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.agriguide.service;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.agriguide.model.SensorData;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.JsonWriter;
+
+/**
+ * 新しいデータをダッシュボードへ配信するクラス（Server-Sent Events用）
+ *
+ * データが保存されると、接続中のすべてのダッシュボード（Subscriber）へ通知します。
+ * イベントの文字列は1回だけ作り、全員で同じバイト列を共有します。
+ * 配信は専用のスレッド1本で行うので、保存したスレッドは待たされません。
+ */
+public class LiveUpdateHub {
+    
+    /**
+     * 配信を受け取る側（ダッシュボード1接続分）
+     */
+    public interface Subscriber {
+        /** 最新のセンサーデータ（同じ機械の古いものは上書きしてよい） */
+        void onSensor(String machineId, byte[] event);
+        
+        /** 新しい走行データ（1件ずつ） */
+        void onTrip(byte[] event);
+        
+        /** 取りこぼしがあったので、履歴を取り直してほしい */
+        void onResync(byte[] event);
+        
+        /** 接続確認用のコメント */
+        void onHeartbeat(byte[] event);
+    }
+    
+    // アプリ全体で1つだけ使うインスタンス
+    private static final LiveUpdateHub INSTANCE = new LiveUpdateHub();
+    
+    private static final byte[] RESYNC_EVENT = "event: resync\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEARTBEAT_EVENT = ": ping\n\n".getBytes(StandardCharsets.UTF_8);
+    
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final int maxSubscribers = AppConfig.getInt("SSE_MAX_CONNECTIONS", 5000);
+    
+    // 配信用のスレッド（キューがあふれたら捨てて、あとでresyncを送る）
+    private final ThreadPoolExecutor dispatcher;
+    private final ScheduledExecutorService heartbeat;
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+    
+    // まだ配信していない最新のセンサーデータ（機械ごと。連続で来たら最後の1件だけ送る）
+    private final ConcurrentHashMap<String, byte[]> pendingSensors = new ConcurrentHashMap<>();
+    private final AtomicBoolean sensorScheduled = new AtomicBoolean();
+    private final Runnable sensorTask = this::dispatchSensors;
+    
+    // 最後に配信したセンサーデータ（機械ごと。接続直後に送る）
+    private final ConcurrentHashMap<String, byte[]> lastSensorEvents = new ConcurrentHashMap<>();
+    
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    
+    private LiveUpdateHub() {
+        this.dispatcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(10000),
+            r -> {
+                Thread t = new Thread(r, "agrinav-live-dispatcher");
+                t.setDaemon(true);
+                return t;
+            },
+            (task, executor) -> {
+                dropped.increment();
+                overflowed.set(true);
+                if (task == sensorTask) {
+                    sensorScheduled.set(false);  // 次のデータでもう一度試す
+                }
+            });
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "agrinav-live-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleWithFixedDelay(this::sendHeartbeat, 20, 20, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * アプリ全体で共有するインスタンスを取得
+     */
+    public static LiveUpdateHub getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 配信先を登録する
+     * @return 登録できた場合はtrue（最大接続数を超えている場合はfalse）
+     */
+    public boolean subscribe(Subscriber subscriber) {
+        if (subscribers.size() >= maxSubscribers) {
+            return false;
+        }
+        subscribers.add(subscriber);
+        for (Map.Entry<String, byte[]> last : lastSensorEvents.entrySet()) {
+            subscriber.onSensor(last.getKey(), last.getValue());
+        }
+        return true;
+    }
+    
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+    
+    /**
+     * 新しいセンサーデータを配信する
+     */
+    public void publishSensor(SensorData data) {
+        byte[] event = sensorEvent(data);
+        if (subscribers.isEmpty()) {
+            lastSensorEvents.put(data.getMachineId(), event);
+            return;
+        }
+        // 配信待ちのデータがあれば差し替えるだけ（タスクは増やさない）
+        pendingSensors.put(data.getMachineId(), event);
+        if (sensorScheduled.compareAndSet(false, true)) {
+            dispatcher.execute(sensorTask);
+        }
+    }
+    
+    /**
+     * 保存された走行データを配信する
+     */
+    public void publishTrip(String machineId, int id, double speed, double distance, double latitude,
+                            double longitude) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        byte[] event = encode("trip", json -> json.writeTrip(machineId, id, speed, distance, latitude, longitude));
+        dispatcher.execute(() -> dispatchTrip(event));
+    }
+    
+    private static byte[] sensorEvent(SensorData data) {
+        return encode("sensor", json -> {
+            json.writeRaw("{\"id\":").writeLong(data.getId());
+            json.writeRaw(",\"speed\":").writeFixed(data.getSpeed(), JsonWriter.SPEED_DECIMALS);
+            json.writeRaw(",\"distance\":").writeFixed(data.getDistance(), JsonWriter.DISTANCE_DECIMALS);
+            json.writeRaw(",\"machineId\":").writeString(data.getMachineId());
+            json.writeRaw('}');
+        });
+    }
+    
+    // JSONを書く処理
+    private interface JsonBody {
+        void write(JsonWriter json) throws IOException;
+    }
+    
+    // SSEのイベント（event: 名前 / data: JSON）をバイト列にする
+    private static byte[] encode(String name, JsonBody body) {
+        StringWriter out = new StringWriter(128);
+        try {
+            JsonWriter json = new JsonWriter(out);
+            json.writeRaw("event: ").writeRaw(name).writeRaw("\ndata: ");
+            body.write(json);
+            json.writeRaw("\n\n");
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // StringWriterでは起きない
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private void dispatchSensors() {
+        // 先に印を戻しておく（配信中に来たデータは次のタスクで送る）
+        sensorScheduled.set(false);
+        resyncIfOverflowed();
+        for (Map.Entry<String, byte[]> entry : pendingSensors.entrySet()) {
+            String machineId = entry.getKey();
+            byte[] event = entry.getValue();
+            // 読んだあとに差し替えられていたら、新しいほうは次のタスクで送る
+            if (!pendingSensors.remove(machineId, event)) {
+                continue;
+            }
+            lastSensorEvents.put(machineId, event);
+            for (Subscriber s : subscribers) {
+                s.onSensor(machineId, event);
+            }
+            published.increment();
+        }
+    }
+    
+    private void dispatchTrip(byte[] event) {
+        resyncIfOverflowed();
+        for (Subscriber s : subscribers) {
+            s.onTrip(event);
+        }
+        published.increment();
+    }
+    
+    // 配信キューがあふれて捨てたイベントがあれば、全員に取り直しを頼む
+    private void resyncIfOverflowed() {
+        if (overflowed.compareAndSet(true, false)) {
+            for (Subscriber s : subscribers) {
+                s.onResync(RESYNC_EVENT);
+            }
+        }
+    }
+    
+    private void sendHeartbeat() {
+        dispatcher.execute(() -> {
+            for (Subscriber s : subscribers) {
+                s.onHeartbeat(HEARTBEAT_EVENT);
+            }
+        });
+    }
+    
+    /**
+     * 現在の接続数
+     */
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+    
+    public long getPublishedCount() {
+        return published.sum();
+    }
+    
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+    
+    /**
+     * 配信を止める（アプリ終了時に呼ぶ）
+     */
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        dispatcher.shutdownNow();
+        subscribers.clear();
+    }
+}
@@ -0,0 +1,226 @@
+package com.agriguide.service;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.agriguide.model.MachineState;
+import com.agriguide.model.TripData;
+import com.agriguide.repository.Storage;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.Log;
+
+/**
+ * 機械ごとの現在の状態（最新の速度・距離・位置）をメモリに持っておくクラス
+ *
+ * 機械IDごとに ConcurrentHashMap に入れて、更新は compute() で1台分だけ行います。
+ * 全体のロックは無いので、何十台が同時に送ってきても、ほかの機械の更新を待ちません。
+ * 読み込みはロックなしで、今の状態のオブジェクト（MachineState）を返すだけです。
+ *
+ * 速度・距離は届いた順に差し替えます（センサーと走行データは時計が違うので、時刻では比べない）。
+ *
+ * 起動時にデータベースから機械ごとの最新データを読み込みます（warmUp）。
+ * 読み込みに失敗した場合は、裏のスレッドで MACHINE_WARMUP_RETRY_MS ごとにやり直します。
+ */
+public class MachineStateRegistry {
+    
+    private static final Log LOG = Log.get(MachineStateRegistry.class);
+    
+    // アプリ全体で1つだけ使うインスタンス
+    private static final MachineStateRegistry INSTANCE = new MachineStateRegistry();
+    
+    private final ConcurrentHashMap<String, MachineState> states = new ConcurrentHashMap<>(64);
+    
+    // 登録できる機械の最大数（間違ったIDでメモリを使い切らないため）
+    private final int maxMachines = AppConfig.getInt("MACHINE_MAX_COUNT", 1000);
+    
+    // 最大数を超えて受け付けなかった回数
+    private final LongAdder rejected = new LongAdder();
+    
+    // 状態を更新するたびに増える番号（ETag用。更新した後に増やすので、番号より古い状態を返すことはない）
+    // 同時に更新するスレッドが1つの値を取り合わないように LongAdder で数え、読むときに合計する
+    private final LongAdder version = new LongAdder();
+    
+    private volatile boolean warmed;
+    private final AtomicBoolean warmUpScheduled = new AtomicBoolean();
+    private final long warmUpRetryMillis = AppConfig.getLong("MACHINE_WARMUP_RETRY_MS", 5000);
+    
+    // 読み込みをやり直すスレッド（リクエストのスレッドではデータベースを読まない）
+    private final ScheduledExecutorService loader = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "agrinav-machine-warmup");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    private MachineStateRegistry() {
+    }
+    
+    /**
+     * アプリ全体で共有するインスタンスを取得
+     */
+    public static MachineStateRegistry getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * センサーの値（速度・距離）を反映する（届いた順に差し替える）
+     * @param time 値を受け取った時刻
+     * @return 反映した場合はtrue（登録できる台数を超えた新しい機械の場合はfalse）
+     */
+    public boolean updateReading(String machineId, double speed, double distance, long time) {
+        if (!canAdd(machineId)) {
+            return false;
+        }
+        states.compute(machineId, (id, current) -> current != null
+            ? current.withReading(speed, distance, time)
+            : new MachineState(id, speed, distance, time, 0, 0, 0).withReading(speed, distance, time));
+        version.increment();
+        return true;
+    }
+    
+    /**
+     * 走行データ（速度・距離・位置）を反映する
+     * @param time 機械の記録時刻（これより新しい位置がすでにある場合は無視する）
+     * @return 反映した場合はtrue（登録できる台数を超えた新しい機械の場合はfalse）
+     */
+    public boolean updatePosition(String machineId, double speed, double distance,
+                                  double latitude, double longitude, long time) {
+        if (!canAdd(machineId)) {
+            return false;
+        }
+        states.compute(machineId, (id, current) -> current != null
+            ? current.withPosition(speed, distance, latitude, longitude, time)
+            : new MachineState(id, 0, 0, 0, 0, 0, 0).withPosition(speed, distance, latitude, longitude, time));
+        version.increment();
+        return true;
+    }
+    
+    // データベースから読んだ状態を反映する（データがもう届いている機械はそのまま）
+    private void restore(MachineState loaded) {
+        String machineId = loaded.getMachineId();
+        if (!canAdd(machineId)) {
+            return;
+        }
+        states.compute(machineId, (id, current) -> current == null ? loaded
+            : current.getSequence() > 0 ? current : current.merge(loaded));
+        version.increment();
+    }
+    
+    // 新しい機械を追加できるか（同時に追加された場合は少し超えることがある）
+    private boolean canAdd(String machineId) {
+        if (states.size() < maxMachines || states.containsKey(machineId)) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+    
+    /**
+     * 1台の状態を取得
+     * @return 状態（まだデータを受け取っていない機械の場合はnull）
+     */
+    public MachineState get(String machineId) {
+        if (!warmed) {
+            scheduleWarmUp(0);
+        }
+        return states.get(machineId);
+    }
+    
+    /**
+     * 全部の機械の状態を取得（機械IDの順）
+     */
+    public List<MachineState> getAll() {
+        if (!warmed) {
+            scheduleWarmUp(0);
+        }
+        List<MachineState> list = new ArrayList<>(states.values());
+        list.sort(Comparator.comparing(MachineState::getMachineId));
+        return list;
+    }
+    
+    /**
+     * データベースから機械ごとの最新データを読み込む（起動時に呼ぶ）
+     * 読み込みより前にデータが届いた機械は、届いたデータのほうが新しいので上書きしません
+     * 読み込めなかった場合は、裏のスレッドでやり直します（その間も、新しく届いたデータから状態を作る）
+     */
+    public void warmUp() {
+        if (!load()) {
+            scheduleWarmUp(warmUpRetryMillis);
+        }
+    }
+    
+    // 読み込めた（またはもう読み込んである）場合はtrue
+    private synchronized boolean load() {
+        if (warmed) {
+            return true;
+        }
+        try {
+            for (MachineState state : Storage.sensorData().findLatestPerMachine()) {
+                restore(state);
+            }
+            for (TripData data : Storage.tripData().findLatestPerMachine()) {
+                restore(new MachineState(data.getMachineId(), data.getSpeed(), data.getDistance(), data.getRecordedAt(),
+                    data.getLatitude(), data.getLongitude(), data.getRecordedAt()));
+            }
+            warmed = true;
+            LOG.info("📊 機械ごとの最新データを読み込みました: {}台", states.size());
+            return true;
+        } catch (SQLException e) {
+            LOG.warn("⚠️ 機械ごとの最新データの読み込みエラー（{}ミリ秒後にやり直します）: {}",
+                warmUpRetryMillis, e.getMessage());
+            return false;
+        }
+    }
+    
+    // 裏のスレッドで読み込む（予約済みの場合は何もしない）
+    private void scheduleWarmUp(long delayMillis) {
+        if (!warmUpScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            loader.schedule(() -> {
+                warmUpScheduled.set(false);
+                warmUp();
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 終了処理のあと
+            warmUpScheduled.set(false);
+        }
+    }
+    
+    /**
+     * 読み込みのやり直しを止める（アプリ終了時に呼ぶ）
+     */
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+    
+    /**
+     * 状態のバージョン（どれかの機械の状態が更新されるたびに増える。まだ何も無い場合は0）
+     */
+    public long getVersion() {
+        return version.sum();
+    }
+    
+    /**
+     * 登録されている機械の数
+     */
+    public int size() {
+        return states.size();
+    }
+    
+    /**
+     * 最大数を超えて受け付けなかった回数
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
@@ -1,51 +1,383 @@
 package com.agriguide.service;
 
 import com.agriguide.model.SensorData;
-import com.agriguide.repository.SensorDataRepository;
+import com.agriguide.repository.SensorDataStore;
+import com.agriguide.repository.Storage;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.Log;
+import com.agriguide.util.MachineId;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * センサーデータの処理を行うクラス
  * データの検証や、Repositoryへの橋渡しをします
+ *
+ * 最新のセンサーデータはメモリ上に持っていて、読み込み時にはデータベースを使いません。
+ * 保存したときに更新され、起動時にはデータベースから読み込みます（warmUp）。
+ * 読み込みに失敗した場合は、裏のスレッドで SENSOR_WARMUP_RETRY_MS ごとにやり直します。
+ * 他のサーバーから書き込まれる場合は SENSOR_CACHE_REFRESH_MS を設定すると、
+ * その間隔で裏からデータベースを確認します。
+ *
+ * 機械ごとの最新データは MachineStateRegistry に入れます。
+ * getLatestSensorData() は、どの機械かに関係なく一番新しいデータを返します。
  */
 public class SensorDataService {
     
-    private SensorDataRepository repository;
+    private static final Log LOG = Log.get(SensorDataService.class);
+    
+    /**
+     * ライトビハインドでキューに入れたときの戻り値
+     * （IDはあとでデータベースに保存されたときに決まります）
+     */
+    public static final int QUEUED = -1;
+    
+    // アプリ全体で1つだけ使うインスタンス
+    private static final SensorDataService INSTANCE = new SensorDataService();
+    
+    private SensorDataStore repository;
+    
+    // ライトビハインド用のキュー（無効の場合はnull）
+    private WriteBehindQueue<SensorData> writeBehind;
+    
+    // 先にディスクへ書いておくログ（無効の場合はnull）
+    private WriteAheadLog<SensorData> writeAhead;
+    
+    // ライトビハインドでやり直しても保存できなかったデータを書いておくログ
+    // （ライトアヘッドログが無効の場合だけ別に開く。無い場合はnull）
+    private WriteAheadLog<SensorData> deadLetter;
+    
+    // 最新のセンサーデータ（公開したオブジェクトは変更しない）
+    private final AtomicReference<SensorData> latest = new AtomicReference<>();
+    
+    // まだ読み込めていないときに返すデータ（全部0）
+    private static final SensorData EMPTY = new SensorData(0, 0.0, 0.0);
+    
+    // データベースから読み込めたらtrue（失敗した場合は、裏でやり直す）
+    private volatile boolean warmedUp;
+    private final AtomicBoolean warmUpScheduled = new AtomicBoolean();
+    private final long warmUpRetryMillis = AppConfig.getLong("SENSOR_WARMUP_RETRY_MS", 5000);
+    
+    // データベースで確認できた一番大きいID（古いデータで上書きしないため）
+    private final AtomicInteger latestDbId = new AtomicInteger();
+    
+    // 最新データが変わるたびに増える番号と、変わった時刻（ETag / Last-Modified 用）
+    private final AtomicLong version = new AtomicLong();
+    private volatile long lastModified;
+    
+    // 機械ごとの現在の状態
+    private final MachineStateRegistry machineStates = MachineStateRegistry.getInstance();
+    
+    // 起動時の読み込みのやり直しと、定期的にデータベースを確認するスレッド
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "agrinav-sensor-refresh");
+        t.setDaemon(true);
+        return t;
+    });
     
     // コンストラクタ
     public SensorDataService() {
-        this.repository = new SensorDataRepository();
+        this(Storage.sensorData(), AppConfig.getBoolean("WRITE_BEHIND_ENABLED", false));
     }
     
     /**
-     * 最新のセンサーデータを取得
-     * @return SensorData
+     * @param repository 保存先
+     * @param writeBehindEnabled trueの場合、保存をキューに入れてまとめて書き込む
+     */
+    public SensorDataService(SensorDataStore repository, boolean writeBehindEnabled) {
+        this.repository = repository;
+        if (AppConfig.getBoolean("WAL_ENABLED", false)) {
+            this.writeAhead = WriteAheadLog.open("sensor-data", WAL_CODEC, this::writeBatch);
+        }
+        
+        if (writeBehindEnabled) {
+            // やり直しても保存できなかったバッチはログに書いて、あとで保存する（受け付けたデータを失わない）
+            WriteAheadLog<SensorData> spill = writeAhead;
+            if (spill == null) {
+                this.deadLetter = WriteAheadLog.open("sensor-data-dead-letter", WAL_CODEC, this::writeBatch);
+                spill = deadLetter;
+            }
+            this.writeBehind = new WriteBehindQueue<>("sensor-data",
+                AppConfig.getInt("WRITE_BEHIND_QUEUE_CAPACITY", 10000),
+                AppConfig.getInt("WRITE_BEHIND_BATCH_SIZE", 200),
+                AppConfig.getLong("WRITE_BEHIND_FLUSH_MS", 200),
+                AppConfig.getLong("WRITE_BEHIND_OFFER_TIMEOUT_MS", 50),
+                AppConfig.getInt("WRITE_BEHIND_WRITERS", 2),
+                AppConfig.getInt("WRITE_BEHIND_MAX_RETRIES", 5),
+                AppConfig.getLong("WRITE_BEHIND_RETRY_MS", 200),
+                SensorData::getMachineId, this::writeBatch, spill != null ? spill.asDeadLetter() : null);
+        }
+        
+        long refreshMillis = AppConfig.getLong("SENSOR_CACHE_REFRESH_MS", 0);
+        if (refreshMillis > 0) {
+            refresher.scheduleWithFixedDelay(this::refreshFromDatabase,
+                refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    // ライトアヘッドログに書く形式（機械ID, 速度, 距離）
+    private static final WriteAheadLog.Codec<SensorData> WAL_CODEC = new WriteAheadLog.Codec<>() {
+        @Override
+        public int size(SensorData data) {
+            return 1 + data.getMachineId().length() + 8 * 2;
+        }
+        
+        @Override
+        public void encode(SensorData data, ByteBuffer out) {
+            WriteAheadLog.putString(out, data.getMachineId());
+            out.putDouble(data.getSpeed());
+            out.putDouble(data.getDistance());
+        }
+        
+        @Override
+        public SensorData decode(ByteBuffer in) {
+            String machineId = MachineId.normalize(WriteAheadLog.getString(in));
+            SensorData data = new SensorData(in.getDouble(), in.getDouble());
+            data.setMachineId(machineId != null ? machineId : MachineId.DEFAULT);
+            return data;
+        }
+        
+        @Override
+        public void setSequence(SensorData data, String logId, long sequence) {
+            // 保存の直後に落ちて同じデータを再生しても、sensor_data に2回入れない
+            data.setWal(logId, sequence);
+        }
+    };
+    
+    /**
+     * アプリ全体で共有するインスタンスを取得
+     */
+    public static SensorDataService getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 最新のセンサーデータを取得（メモリから返す。データベースは使いません）
+     * まだ読み込めていない場合は全部0のデータを返し、裏で読み込みます。
+     * @return SensorData（変更しないでください）
      */
     public SensorData getLatestSensorData() {
-        SensorData data = repository.findLatest();
-        System.out.println("📊 最新データ: " + data);
+        SensorData data = latest.get();
+        if (data == null) {
+            if (!warmedUp) {
+                scheduleWarmUp(0);
+            }
+            return EMPTY;
+        }
         return data;
     }
     
     /**
-     * 新しいセンサーデータを保存
-     * @param speed 速度
-     * @param distance 距離
-     * @return 保存されたデータのID
+     * データベースから最新データを読み込んでメモリに置く（起動時に呼ぶ）
+     * 読み込めなかった場合は、裏のスレッドでやり直します。
+     */
+    public void warmUp() {
+        if (!loadLatest()) {
+            scheduleWarmUp(warmUpRetryMillis);
+        }
+    }
+    
+    // 読み込めた（またはもう読み込んである）場合はtrue
+    private synchronized boolean loadLatest() {
+        if (warmedUp) {
+            return true;
+        }
+        try {
+            SensorData data = repository.findLatest();
+            // IDが0のときはデータなし（メモリには置かない）
+            if (data.getId() > 0) {
+                latestDbId.accumulateAndGet(data.getId(), Math::max);
+                latest.compareAndSet(null, data);
+            }
+            warmedUp = true;
+            touch();
+            LOG.info("📊 最新データを読み込みました: {}", data);
+            return true;
+        } catch (SQLException e) {
+            LOG.warn("⚠️ 最新データの読み込みエラー（{}ミリ秒後にやり直します）: {}", warmUpRetryMillis, e.getMessage());
+            return false;
+        }
+    }
+    
+    // 裏のスレッドで読み込む（予約済みの場合は何もしない）
+    private void scheduleWarmUp(long delayMillis) {
+        if (!warmUpScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refresher.schedule(() -> {
+                warmUpScheduled.set(false);
+                warmUp();
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 終了処理のあと
+            warmUpScheduled.set(false);
+        }
+    }
+    
+    // 他のサーバーが書き込んだ新しいデータがあれば取り込む
+    private void refreshFromDatabase() {
+        try {
+            SensorData data = repository.findLatest();
+            int id = data.getId();
+            // IDが0のときはデータなし
+            if (id > 0 && id > latestDbId.get()) {
+                latestDbId.accumulateAndGet(id, Math::max);
+                publish(data);
+            }
+        } catch (SQLException | RuntimeException e) {
+            LOG.warn("⚠️ 最新データの更新エラー: {}", e.getMessage());
+        }
+    }
+    
+    // 最新データを差し替える（同時に保存された場合、IDが古いほうで上書きしない）
+    private void publish(SensorData data) {
+        // 機械ごとの状態（登録できる台数を超えた機械は配信もしない）
+        boolean known = machineStates.updateReading(data.getMachineId(), data.getSpeed(), data.getDistance(),
+            System.currentTimeMillis());
+        
+        SensorData current = latest.accumulateAndGet(data, (cur, next) ->
+            cur == null || next.getId() == 0 || next.getId() >= cur.getId() ? next : cur);
+        
+        // データを差し替えたあとで番号を増やす（古いデータに新しい番号が付かないように）
+        touch();
+        
+        // 接続中のダッシュボードへ配信
+        if (current == data && known) {
+            LiveUpdateHub.getInstance().publishSensor(data);
+        }
+    }
+    
+    private void touch() {
+        lastModified = System.currentTimeMillis();
+        version.incrementAndGet();
+    }
+    
+    /**
+     * 最新データ（機械ごとのデータも含む）が変わるたびに増える番号
+     * まだ読み込んでいない場合は0
+     */
+    public long getVersion() {
+        return version.get();
+    }
+    
+    /**
+     * 最新データが最後に変わった時刻（1970年からのミリ秒）
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+    
+    // ライトビハインドのキューからまとめて保存する
+    private void writeBatch(List<SensorData> batch) throws SQLException {
+        int[] ids = repository.saveBatch(batch);
+        for (int id : ids) {
+            latestDbId.accumulateAndGet(id, Math::max);
+        }
+    }
+    
+    /**
+     * 新しいセンサーデータを保存（機械IDを送ってこない古い端末用）
      */
     public int saveSensorData(double speed, double distance) {
-        // データの検証
+        return saveSensorData(MachineId.DEFAULT, speed, distance);
+    }
+    
+    /**
+     * センサーデータの値を検証
+     * @return 不正な場合はエラーメッセージ、正しい場合はnull
+     */
+    public String validate(double speed, double distance) {
         if (speed < 0 || speed > 100) {
-            System.out.println("❌ 速度の値が不正です: " + speed);
-            return 0;
+            return "速度の値が不正です: " + speed;
         }
         
         if (distance < 0 || distance > 100000) {
-            System.out.println("❌ 距離の値が不正です: " + distance);
+            return "距離の値が不正です: " + distance;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * 新しいセンサーデータを保存
+     * @param machineId 機械ID
+     * @param speed 速度
+     * @param distance 距離
+     * @return 保存されたデータのID（ライトビハインドの場合はQUEUED、不正な値の場合は0）
+     */
+    public int saveSensorData(String machineId, double speed, double distance) {
+        // データの検証
+        String error = validate(speed, distance);
+        if (error != null) {
+            LOG.error("❌ {}", error);
             return 0;
         }
         
         // データを保存
         SensorData data = new SensorData(speed, distance);
-        return repository.save(data);
+        data.setMachineId(machineId);
+        
+        // ライトアヘッドログ・ライトビハインドの場合は書くだけ
+        // ログやキューが満杯のときは、その場で保存する（データを捨てない）
+        int id;
+        if (writeAhead != null && writeAhead.append(data)) {
+            id = QUEUED;
+        } else if (writeBehind != null && writeBehind.offer(data)) {
+            id = QUEUED;
+        } else {
+            id = repository.save(data);
+            if (id == 0) {
+                return 0;  // 保存に失敗したのでメモリも更新しない
+            }
+            latestDbId.accumulateAndGet(id, Math::max);
+        }
+        
+        // メモリ上の最新データを新しいオブジェクトに差し替える
+        SensorData published = new SensorData(Math.max(id, 0), speed, distance);
+        published.setMachineId(machineId);
+        publish(published);
+        return id;
+    }
+    
+    /**
+     * ライトビハインドのキュー（統計情報の確認用。無効の場合はnull）
+     */
+    public WriteBehindQueue<SensorData> getWriteBehindQueue() {
+        return writeBehind;
+    }
+    
+    /**
+     * ライトアヘッドログ（統計情報の確認用。無効の場合はnull）
+     */
+    public WriteAheadLog<SensorData> getWriteAheadLog() {
+        return writeAhead;
+    }
+    
+    /**
+     * キューに残っているデータを保存して終了する（アプリ終了時に呼ぶ）
+     * ライトアヘッドログに残った分は、次の起動時に保存します
+     */
+    public void shutdown() {
+        refresher.shutdownNow();
+        // キューで保存できなかった分をログに書けるように、キューを先に止める
+        if (writeBehind != null) {
+            writeBehind.shutdown(10000);
+        }
+        if (writeAhead != null) {
+            writeAhead.shutdown(10000);
+        }
+        if (deadLetter != null) {
+            deadLetter.shutdown(10000);
+        }
     }
 }
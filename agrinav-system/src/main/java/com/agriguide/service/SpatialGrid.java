@@ -0,0 +1,194 @@
+package com.agriguide.service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.agriguide.model.TripPoints;
+import com.agriguide.util.AreaQuery;
+import com.agriguide.util.GeoHash;
+
+/**
+ * 最近の走行データを、地図のマス（ジオハッシュ）ごとに分けて持っておくクラス
+ *
+ * 決まった件数（capacity）だけ配列に保存し、いっぱいになったら古いものから上書きします。
+ * 同じマスの点はリンクでつないであるので、範囲検索では候補のマスの点だけを調べます。
+ *
+ * アプリ起動後（または上書きで消えた時刻以降）のデータだけを持っているので、
+ * それより前の時刻を含む検索はデータベースで行います。
+ */
+public class SpatialGrid {
+    
+    /**
+     * マスの細かさ（30ビット: 緯度約0.005度 × 経度約0.01度、日本付近で約600m × 900m）
+     */
+    public static final int CELL_BITS = 30;
+    
+    /**
+     * 1件あたりのメモリ使用量（バイト）: id + 速度・距離・緯度・経度 + 記録時刻 + ジオハッシュ + 前後のリンク
+     * + 機械ID（文字列は機械ごとに1つを共有するので、参照の分だけ）
+     */
+    public static final int BYTES_PER_POINT = 4 + 8 * 4 + 8 + 8 + 4 + 4 + 4;
+    
+    private final int capacity;
+    private final int[] ids;
+    private final double[] speeds;
+    private final double[] distances;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final long[] recordedAts;
+    private final long[] hashes;
+    private final String[] machineIds;
+    private final int[] prev;
+    private final int[] next;
+    
+    // マス → そのマスの最初の点の位置（int[1]に入れておき、書き換えて使う）
+    private final TreeMap<Long, int[]> cellHeads = new TreeMap<>();
+    
+    private int writePos;
+    private int size;
+    
+    // この時刻以降に記録されたデータは、すべてここに入っている
+    private long coveredSince;
+    
+    public SpatialGrid(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.ids = new int[this.capacity];
+        this.speeds = new double[this.capacity];
+        this.distances = new double[this.capacity];
+        this.latitudes = new double[this.capacity];
+        this.longitudes = new double[this.capacity];
+        this.recordedAts = new long[this.capacity];
+        this.hashes = new long[this.capacity];
+        this.machineIds = new String[this.capacity];
+        this.prev = new int[this.capacity];
+        this.next = new int[this.capacity];
+        this.coveredSince = System.currentTimeMillis();
+    }
+    
+    /**
+     * 1件追加する（いっぱいの場合は一番古く追加したものを上書きする）
+     */
+    public synchronized void add(int id, double speed, double distance, double latitude, double longitude,
+                                 long recordedAt, String machineId) {
+        int slot = writePos;
+        if (size == capacity) {
+            // 上書きするデータの時刻より前は、もう全部は持っていない
+            unlink(slot);
+            coveredSince = Math.max(coveredSince, recordedAts[slot] + 1);
+        } else {
+            size++;
+        }
+        
+        ids[slot] = id;
+        speeds[slot] = speed;
+        distances[slot] = distance;
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        recordedAts[slot] = recordedAt;
+        hashes[slot] = GeoHash.encode(latitude, longitude);
+        machineIds[slot] = machineId;
+        link(slot);
+        
+        writePos = slot + 1 == capacity ? 0 : slot + 1;
+    }
+    
+    // マスのリストの先頭に入れる
+    private void link(int slot) {
+        int[] head = cellHeads.computeIfAbsent(GeoHash.cellOf(hashes[slot], CELL_BITS), k -> new int[] { -1 });
+        prev[slot] = -1;
+        next[slot] = head[0];
+        if (head[0] >= 0) {
+            prev[head[0]] = slot;
+        }
+        head[0] = slot;
+    }
+    
+    // マスのリストから外す
+    private void unlink(int slot) {
+        if (prev[slot] >= 0) {
+            next[prev[slot]] = next[slot];
+        } else {
+            long cell = GeoHash.cellOf(hashes[slot], CELL_BITS);
+            int[] head = cellHeads.get(cell);
+            head[0] = next[slot];
+            if (head[0] < 0) {
+                cellHeads.remove(cell);
+            }
+        }
+        if (next[slot] >= 0) {
+            prev[next[slot]] = prev[slot];
+        }
+    }
+    
+    /**
+     * 範囲内の点を探す（IDの小さい順に最大limit件）
+     * @param area 探す範囲
+     * @param machineId この機械のデータだけ（nullの場合は全部の機械）
+     * @param afterId このIDより後のデータだけ
+     * @param fromMillis 記録時刻がこれ以降（この時刻以降のデータを全部持っていない場合はfalseを返す）
+     * @param toMillis 記録時刻がこれより前
+     * @param limit 最大件数
+     * @param out 結果の追加先
+     * @return ここで検索できた場合はtrue（データベースで検索する必要がある場合はfalse）
+     */
+    public synchronized boolean query(AreaQuery area, String machineId, long afterId, long fromMillis,
+                                      long toMillis, int limit, TripPoints out) {
+        if (fromMillis < coveredSince) {
+            return false;
+        }
+        
+        // 見つかった点を「ID（上位32ビット）＋位置（下位32ビット）」にして集める
+        long[] found = new long[64];
+        int count = 0;
+        long[] ranges = area.getRanges();
+        for (int r = 0; r < ranges.length; r += 2) {
+            long start = ranges[r];
+            long end = ranges[r + 1];
+            Map<Long, int[]> candidates = cellHeads.subMap(
+                GeoHash.cellOf(start, CELL_BITS), true, GeoHash.cellOf(end - 1, CELL_BITS), true);
+            for (int[] head : candidates.values()) {
+                for (int slot = head[0]; slot >= 0; slot = next[slot]) {
+                    long hash = hashes[slot];
+                    long time = recordedAts[slot];
+                    if (hash < start || hash >= end || ids[slot] <= afterId
+                            || time < fromMillis || time >= toMillis
+                            || (machineId != null && !machineId.equals(machineIds[slot]))
+                            || !area.matches(latitudes[slot], longitudes[slot])) {
+                        continue;
+                    }
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = ((long) ids[slot] << 32) | slot;
+                }
+            }
+        }
+        
+        Arrays.sort(found, 0, count);
+        for (int i = 0; i < count && i < limit; i++) {
+            int slot = (int) found[i];
+            out.add(ids[slot], speeds[slot], distances[slot], latitudes[slot], longitudes[slot], recordedAts[slot]);
+        }
+        return true;
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * この時刻以降に記録されたデータは、すべてここに入っている
+     */
+    public synchronized long getCoveredSince() {
+        return coveredSince;
+    }
+    
+    public long getMemoryBytes() {
+        return (long) capacity * BYTES_PER_POINT;
+    }
+}
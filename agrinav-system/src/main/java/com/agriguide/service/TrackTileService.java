@@ -0,0 +1,646 @@
+package com.agriguide.service;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.AreaQuery;
+import com.agriguide.util.DbExecutor;
+import com.agriguide.util.GeoPolygon;
+import com.agriguide.util.Log;
+import com.agriguide.util.Metrics;
+import com.agriguide.util.QueryDeadline;
+
+/**
+ * 地図に重ねる走行ルートのタイル（256×256ピクセルのPNG）を作るクラス
+ *
+ * タイルの番号（ズーム z、横 x、縦 y）は OpenStreetMap と同じです。
+ * タイルの範囲（と、線がはみ出す分の余白）に入る走行データを読み、機械ごとに点を線でつないで描きます。
+ *
+ * 点は新しい順に TILE_MAX_POINTS 件まで読むので、多すぎる場合は古いルートが描かれません（そのタイルには印を付けます）。
+ * メモリに無いタイルは、タイル用のスレッド（TILE_RENDER_THREADS 本）で作ります。
+ * 頼んだリクエストが待ちきれずに終わっても最後まで作って保存するので、次に頼まれたときはすぐに返せます。
+ *
+ * 作ったタイルはメモリに TILE_CACHE_BYTES まで持ち、使われていない順に捨てます。
+ * TILE_CACHE_DIR を指定した場合は、ディスクにも TILE_DISK_MAX_TILES 枚まで保存します。
+ * 走行データが保存されたときは、その点の近くのタイルだけを捨てて、次に表示するときに作り直します。
+ */
+public class TrackTileService {
+    
+    private static final Log LOG = Log.get(TrackTileService.class);
+    
+    // アプリ全体で1つだけ使うインスタンス
+    private static final TrackTileService INSTANCE = new TrackTileService();
+    
+    // タイルの大きさ（ピクセル）
+    public static final int TILE_SIZE = 256;
+    
+    // 線の太さ（ピクセル）の分だけ、タイルの外の点も読む
+    private static final int MARGIN_PIXELS = 16;
+    
+    // 読み込む範囲を覆うジオハッシュのマスの最大数（AreaQueryServlet と同じ）
+    private static final int MAX_CELLS = 32;
+    
+    // Webメルカトルで表示できる緯度の限界
+    private static final double MAX_LATITUDE = 85.05112878;
+    
+    // 緯度・経度1度あたりのおおよその距離（メートル）
+    private static final double METERS_PER_DEGREE_LAT = 110540.0;
+    private static final double METERS_PER_DEGREE_LON = 111320.0;
+    
+    // 赤道でズーム0のときの1ピクセルの長さ（メートル）
+    private static final double METERS_PER_PIXEL_Z0 = 156543.03392;
+    
+    // ディスクに保存するときのフォルダ名（TILE_CACHE_DIR の中に作る）
+    private static final String DISK_FOLDER = "agrinav-tiles";
+    
+    // タイルを返した回数（memory: メモリから、disk: ディスクから、render: 作った）
+    private static final LongAdder FROM_MEMORY = requests("memory");
+    private static final LongAdder FROM_DISK = requests("disk");
+    private static final LongAdder RENDERED = requests("render");
+    
+    private static LongAdder requests(String source) {
+        return Metrics.counter("agrinav_tile_requests_total",
+            "地図のタイルを返した回数（memory: メモリから、disk: ディスクから、render: 作った）", "source", source);
+    }
+    
+    private final boolean enabled = AppConfig.getBoolean("TILE_ENABLED", true);
+    private final int minZoom = AppConfig.getInt("TILE_MIN_ZOOM", 10);
+    private final int maxZoom = Math.min(22, AppConfig.getInt("TILE_MAX_ZOOM", 19));
+    private final long maxBytes = AppConfig.getLong("TILE_CACHE_BYTES", 64L * 1024 * 1024);
+    private final int diskMaxTiles = AppConfig.getInt("TILE_DISK_MAX_TILES", 100000);
+    private final int maxPoints = AppConfig.getInt("TILE_MAX_POINTS", 200000);
+    private final long gapMillis = AppConfig.getLong("TILE_GAP_MS", 30000);
+    private final double maxStepMeters = AppConfig.getDouble("TILE_MAX_STEP_METERS", 50.0);
+    private final int renderThreads = Math.max(1, AppConfig.getInt("TILE_RENDER_THREADS", 2));
+    
+    // 1枚のタイルを作るときに、DBの空きを待つ時間とクエリにかける時間の合計の上限
+    private final long renderTimeoutMillis = Math.max(1000, AppConfig.getLong("TILE_RENDER_TIMEOUT_MS", 60000));
+    
+    // ディスクに保存するフォルダ（保存しない場合はnull）
+    private final Path diskDir;
+    
+    // 何も描かれていないタイル（みんなで同じものを使う）
+    private final Tile empty;
+    
+    // メモリとディスクのタイル（使った順。cacheLock で同期する）
+    private final Object cacheLock = new Object();
+    private final LinkedHashMap<TileKey, Tile> memory = new LinkedHashMap<>(1024, 0.75f, true);
+    private final LinkedHashMap<TileKey, Integer> disk = new LinkedHashMap<>(1024, 0.75f, true);
+    private long memoryBytes;
+    
+    // 作っている途中のタイル（同じタイルを同時に作らないようにする）
+    private final ConcurrentHashMap<TileKey, Render> inflight = new ConcurrentHashMap<>();
+    
+    // タイルを読んだり作ったりするスレッド（同時に作る枚数を決めて、DBへの負荷を抑える）
+    private final AtomicInteger renderCounter = new AtomicInteger();
+    private final ExecutorService renderer = Executors.newFixedThreadPool(renderThreads, r -> {
+        Thread t = new Thread(r, "agrinav-tile-" + renderCounter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+    
+    private TrackTileService() {
+        this.empty = new Tile(encode(new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB)));
+        this.diskDir = enabled ? prepareDisk(AppConfig.getString("TILE_CACHE_DIR", "")) : null;
+        Metrics.gauge("agrinav_tile_cache_bytes", "メモリに持っている地図のタイルの大きさ（バイト）",
+            () -> {
+                synchronized (cacheLock) {
+                    return memoryBytes;
+                }
+            });
+    }
+    
+    /**
+     * アプリ全体で共有するインスタンスを取得
+     */
+    public static TrackTileService getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 無効（TILE_ENABLED=false）の場合はfalse
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * 返せるタイルの番号ならtrue（ズームが TILE_MIN_ZOOM〜TILE_MAX_ZOOM で、x・yがその範囲の中）
+     */
+    public boolean isValid(int z, int x, int y) {
+        if (z < minZoom || z > maxZoom) {
+            return false;
+        }
+        int n = 1 << z;
+        return x >= 0 && x < n && y >= 0 && y < n;
+    }
+    
+    /**
+     * メモリにあるタイルを取得（無い場合はnull。データベースもディスクも読まない）
+     * @param machineId この機械のルートだけ（nullの場合は全部の機械）
+     */
+    public Tile getCached(int z, int x, int y, String machineId) {
+        if (!enabled) {
+            return null;
+        }
+        Tile tile;
+        synchronized (cacheLock) {
+            tile = memory.get(new TileKey(z, x, y, machineId));
+        }
+        if (tile != null) {
+            FROM_MEMORY.increment();
+        }
+        return tile;
+    }
+    
+    /**
+     * タイルを取得（メモリ → ディスク → 作る、の順に探す）
+     * メモリに無い場合は、タイル用のスレッドで読むか作り、できたときに結果が入ります。
+     * 同じタイルを同時に頼まれた場合は、1回だけ作ってそれを返します
+     * @param machineId この機械のルートだけ（nullの場合は全部の機械）
+     * @return できたタイル（走行データの読み込みに失敗した場合は SQLException で終わります）
+     */
+    public CompletionStage<Tile> requestTile(int z, int x, int y, String machineId) {
+        if (!enabled) {
+            throw new IllegalStateException("tiles are disabled");
+        }
+        if (!isValid(z, x, y)) {
+            throw new IllegalArgumentException("invalid tile: " + z + "/" + x + "/" + y);
+        }
+        Tile tile = getCached(z, x, y, machineId);
+        if (tile != null) {
+            return CompletableFuture.completedFuture(tile);
+        }
+        
+        TileKey key = new TileKey(z, x, y, machineId);
+        Render render = new Render();
+        Render running = inflight.putIfAbsent(key, render);
+        if (running != null) {
+            return running.result;
+        }
+        try {
+            renderer.execute(() -> load(key, render));
+        } catch (RuntimeException e) {
+            // スレッドが止まっている（終了処理中）
+            inflight.remove(key, render);
+            render.result.completeExceptionally(e);
+        }
+        return render.result;
+    }
+    
+    /**
+     * 何も描かれていないタイル（作り終わっていないタイルの代わりに返す）
+     */
+    public Tile getEmptyTile() {
+        return empty;
+    }
+    
+    /**
+     * タイル用のスレッドを止める（アプリ終了時に呼ぶ。作っている途中のタイルは捨てる）
+     */
+    public void shutdown() {
+        renderer.shutdownNow();
+    }
+    
+    /**
+     * 走行データが保存されたとき、その点が描かれるタイルを捨てる（次に表示するときに作り直す）
+     * 前の点からの線は TILE_MAX_STEP_METERS より短いので、点から余白の分の範囲のタイルだけを捨てれば足ります
+     */
+    public void invalidate(String machineId, double latitude, double longitude) {
+        if (!enabled || Math.abs(latitude) > MAX_LATITUDE) {
+            return;
+        }
+        List<Path> deleted = new ArrayList<>();
+        synchronized (cacheLock) {
+            if (memory.isEmpty() && disk.isEmpty() && inflight.isEmpty()) {
+                return;
+            }
+            for (int z = minZoom; z <= maxZoom; z++) {
+                int n = 1 << z;
+                double px = lonToX(longitude, n) * TILE_SIZE;
+                double py = latToY(latitude, n) * TILE_SIZE;
+                double margin = marginPixels(z, latitude);
+                int minX = Math.max(0, (int) Math.floor((px - margin) / TILE_SIZE));
+                int maxX = Math.min(n - 1, (int) Math.floor((px + margin) / TILE_SIZE));
+                int minY = Math.max(0, (int) Math.floor((py - margin) / TILE_SIZE));
+                int maxY = Math.min(n - 1, (int) Math.floor((py + margin) / TILE_SIZE));
+                for (int x = minX; x <= maxX; x++) {
+                    for (int y = minY; y <= maxY; y++) {
+                        remove(new TileKey(z, x, y, null), deleted);
+                        remove(new TileKey(z, x, y, machineId), deleted);
+                    }
+                }
+            }
+        }
+        deleteFiles(deleted);
+    }
+    
+    /**
+     * メモリに持っているタイルの数（統計情報の確認用）
+     */
+    public int getCachedCount() {
+        synchronized (cacheLock) {
+            return memory.size();
+        }
+    }
+    
+    // タイルを1枚捨てる（cacheLock の中で呼ぶ。作っている途中の場合は、できても保存しない）
+    private void remove(TileKey key, List<Path> deleted) {
+        Tile removed = memory.remove(key);
+        if (removed != null) {
+            memoryBytes -= removed.size();
+        }
+        if (disk.remove(key) != null) {
+            deleted.add(diskPath(key));
+        }
+        Render render = inflight.get(key);
+        if (render != null) {
+            render.stale = true;
+        }
+    }
+    
+    // できたタイルをメモリ（とディスク）に入れる。作っている途中に捨てられた場合は入れない
+    private void store(TileKey key, Tile tile, Render render, boolean writeDisk) {
+        List<Path> deleted = new ArrayList<>();
+        synchronized (cacheLock) {
+            if (render.stale) {
+                return;
+            }
+            Tile old = memory.put(key, tile);
+            memoryBytes += tile.size() - (old != null ? old.size() : 0);
+            Iterator<Map.Entry<TileKey, Tile>> it = memory.entrySet().iterator();
+            while (memoryBytes > maxBytes && it.hasNext()) {
+                memoryBytes -= it.next().getValue().size();
+                it.remove();
+            }
+        }
+        
+        // 何も描かれていないタイルはすぐ作れるので、ディスクには保存しない
+        // 点が多くて途中までしか描いていないタイルも、読み直したときに印が消えるので保存しない
+        if (!writeDisk || diskDir == null || tile == empty || tile.isTruncated()) {
+            return;
+        }
+        Path path = diskPath(key);
+        try {
+            Files.createDirectories(path.getParent());
+            Path temp = Files.createTempFile(path.getParent(), "tile", ".tmp");
+            Files.write(temp, tile.getPng());
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("⚠️ タイルをディスクに保存できません: {}", e.getMessage());
+            return;
+        }
+        synchronized (cacheLock) {
+            if (render.stale) {
+                deleted.add(path);
+            } else {
+                disk.put(key, tile.getPng().length);
+                Iterator<TileKey> it = disk.keySet().iterator();
+                while (disk.size() > diskMaxTiles && it.hasNext()) {
+                    deleted.add(diskPath(it.next()));
+                    it.remove();
+                }
+            }
+        }
+        deleteFiles(deleted);
+    }
+    
+    // タイル用のスレッドで、ディスクから読むか作る
+    private void load(TileKey key, Render render) {
+        try {
+            Tile tile = readDisk(key);
+            if (tile != null) {
+                FROM_DISK.increment();
+                store(key, tile, render, false);
+            } else {
+                long start = System.nanoTime();
+                tile = render(key);
+                RENDERED.increment();
+                store(key, tile, render, true);
+                LOG.debug("✅ タイルを作りました: {} ({}ms)", key, (System.nanoTime() - start) / 1000000);
+            }
+            render.result.complete(tile);
+        } catch (SQLException | RuntimeException e) {
+            LOG.warn("⚠️ タイルを作れません: {} ({})", key, e.getMessage());
+            render.result.completeExceptionally(e);
+        } finally {
+            inflight.remove(key, render);
+        }
+    }
+    
+    // ディスクからタイルを読む（無い場合はnull）
+    private Tile readDisk(TileKey key) {
+        if (diskDir == null) {
+            return null;
+        }
+        synchronized (cacheLock) {
+            if (disk.get(key) == null) {
+                return null;
+            }
+        }
+        try {
+            return new Tile(Files.readAllBytes(diskPath(key)));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.warn("⚠️ タイルをディスクから読めません: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    // タイルの範囲の走行データを読んで、機械ごとに線を描く
+    private Tile render(TileKey key) throws SQLException {
+        int n = 1 << key.z;
+        double north = yToLat(key.y, n);
+        double south = yToLat(key.y + 1, n);
+        double west = xToLon(key.x, n);
+        double east = xToLon(key.x + 1, n);
+        
+        // 余白の分だけ広げた範囲を読む（タイルの中では緯度の間隔はほぼ同じとみなす）
+        double margin = marginPixels(key.z, (north + south) / 2) / TILE_SIZE;
+        double latMargin = (north - south) * margin;
+        double lonMargin = (east - west) * margin;
+        AreaQuery area = new AreaQuery(GeoPolygon.box(
+            Math.max(-MAX_LATITUDE, south - latMargin), Math.max(-180, west - lonMargin),
+            Math.min(MAX_LATITUDE, north + latMargin), Math.min(180, east + lonMargin)), MAX_CELLS);
+        
+        // 新しい順に読むので、件数が多い場合は最近のルートが残る
+        // DBの空きを待つ時間とクエリの時間は、合わせて TILE_RENDER_TIMEOUT_MS まで（過ぎたら SQLTimeoutException）
+        Map<String, Track> tracks = new HashMap<>();
+        int read;
+        long deadline = System.currentTimeMillis() + renderTimeoutMillis;
+        acquirePermit(deadline);
+        QueryDeadline.set(deadline);
+        try {
+            read = TripDataService.getInstance().streamTrackInArea(area, key.machineId, maxPoints,
+                (machineId, latitude, longitude, recordedAt) -> {
+                    double px = (lonToX(longitude, n) - key.x) * TILE_SIZE;
+                    double py = (latToY(latitude, n) - key.y) * TILE_SIZE;
+                    tracks.computeIfAbsent(machineId, id -> new Track()).add(px, py, latitude, longitude, recordedAt);
+                });
+        } finally {
+            QueryDeadline.clear();
+            DbExecutor.release();
+        }
+        boolean truncated = read >= maxPoints;
+        if (truncated) {
+            LOG.debug("⚠️ タイル {} の走行データが多いので、新しい{}件までで描きました", key, maxPoints);
+        }
+        if (tracks.isEmpty() && !truncated) {
+            return empty;
+        }
+        
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setStroke(new BasicStroke(key.z >= 15 ? 3f : 2f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            for (Map.Entry<String, Track> entry : tracks.entrySet()) {
+                g.setColor(colorOf(entry.getKey()));
+                g.draw(entry.getValue().path);
+            }
+        } finally {
+            g.dispose();
+        }
+        return new Tile(encode(image), truncated);
+    }
+    
+    // DBへアクセスできる枠が空くまで、deadline まで待つ（使い終わったら DbExecutor.release() を呼ぶ）
+    private static void acquirePermit(long deadline) throws SQLTimeoutException {
+        try {
+            if (!DbExecutor.acquire(deadline - System.currentTimeMillis())) {
+                throw new SQLTimeoutException("Timed out waiting for a database permit to render a tile");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        }
+    }
+    
+    /**
+     * 1台の機械の線（点は新しい順に来る。前の点と時間が空いた、または離れすぎた場合は、つながずに新しく始める）
+     */
+    private final class Track {
+        final Path2D.Double path = new Path2D.Double();
+        boolean started;
+        double lastLatitude;
+        double lastLongitude;
+        long lastTime;
+        
+        void add(double px, double py, double latitude, double longitude, long time) {
+            long gap = lastTime - time;
+            if (started && gap >= 0 && gap <= gapMillis
+                    && metersBetween(lastLatitude, lastLongitude, latitude, longitude) <= maxStepMeters) {
+                path.lineTo(px, py);
+            } else {
+                // 長さ0の線を引いて、1点だけでも丸い点として見えるようにする
+                path.moveTo(px, py);
+                path.lineTo(px, py);
+                started = true;
+            }
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+            lastTime = time;
+        }
+    }
+    
+    // 機械ごとに決まった色（機械IDから色相を決める。似たIDでも色が離れるように混ぜる）
+    private static Color colorOf(String machineId) {
+        float hue = ((machineId.hashCode() * 0x9E3779B1) >>> 16) / 65536f;
+        Color color = Color.getHSBColor(hue, 0.85f, 0.9f);
+        return new Color(color.getRed(), color.getGreen(), color.getBlue(), 220);
+    }
+    
+    // 余白（ピクセル）。線の太さの分か、TILE_MAX_STEP_METERS の長さの大きい方
+    private double marginPixels(int z, double latitude) {
+        double metersPerPixel = METERS_PER_PIXEL_Z0 * Math.cos(Math.toRadians(latitude)) / (1 << z);
+        return Math.max(MARGIN_PIXELS, maxStepMeters / metersPerPixel);
+    }
+    
+    private static byte[] encode(BufferedImage image) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    // 経度 → タイルの横の位置（0〜n）
+    private static double lonToX(double lon, int n) {
+        return (lon + 180) / 360 * n;
+    }
+    
+    // 緯度 → タイルの縦の位置（0〜n、北が0）
+    private static double latToY(double lat, int n) {
+        double rad = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat)));
+        return (1 - Math.log(Math.tan(rad) + 1 / Math.cos(rad)) / Math.PI) / 2 * n;
+    }
+    
+    private static double xToLon(int x, int n) {
+        return (double) x / n * 360 - 180;
+    }
+    
+    private static double yToLat(int y, int n) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2.0 * y / n))));
+    }
+    
+    private static double metersBetween(double lat1, double lon1, double lat2, double lon2) {
+        double dx = (lon2 - lon1) * METERS_PER_DEGREE_LON * Math.cos(Math.toRadians(lat1));
+        double dy = (lat2 - lat1) * METERS_PER_DEGREE_LAT;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+    
+    // ディスクに保存するフォルダを用意する（前回の起動で保存したタイルは、データが変わっているかもしれないので消す）
+    private static Path prepareDisk(String dir) {
+        if (dir.isEmpty()) {
+            return null;
+        }
+        Path root = Paths.get(dir, DISK_FOLDER);
+        try {
+            if (Files.isDirectory(root)) {
+                try (Stream<Path> files = Files.walk(root)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+            Files.createDirectories(root);
+            LOG.info("✅ タイルをディスクにも保存します: {}", root);
+            return root;
+        } catch (IOException e) {
+            LOG.warn("⚠️ タイルを保存するフォルダを作れません（メモリだけ使います）: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    // タイルを保存するファイル（機械IDは "m-" を付けて、"all" と区別する）
+    private Path diskPath(TileKey key) {
+        Path dir = key.machineId != null ? diskDir.resolve("m-" + key.machineId) : diskDir.resolve("all");
+        return dir.resolve(Integer.toString(key.z)).resolve(Integer.toString(key.x)).resolve(key.y + ".png");
+    }
+    
+    private static void deleteFiles(List<Path> files) {
+        for (Path path : files) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                LOG.warn("⚠️ タイルのファイルを削除できません: {}", e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * タイル1枚（PNGと、ETag用のチェックサム）
+     */
+    public static final class Tile {
+        private final byte[] png;
+        private final long checksum;
+        private final boolean truncated;
+        
+        Tile(byte[] png) {
+            this(png, false);
+        }
+        
+        Tile(byte[] png, boolean truncated) {
+            this.png = png;
+            this.truncated = truncated;
+            CRC32 crc = new CRC32();
+            crc.update(png);
+            this.checksum = crc.getValue();
+        }
+        
+        public byte[] getPng() {
+            return png;
+        }
+        
+        public long getChecksum() {
+            return checksum;
+        }
+        
+        /**
+         * 走行データが TILE_MAX_POINTS 件より多く、新しい点だけで描いた場合はtrue
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+        
+        // メモリで使うおおよその大きさ（バイト）
+        long size() {
+            return png.length + 96;
+        }
+    }
+    
+    // タイルの番号と機械ID（全部の機械の場合はnull）
+    private static final class TileKey {
+        final int z;
+        final int x;
+        final int y;
+        final String machineId;
+        
+        TileKey(int z, int x, int y, String machineId) {
+            this.z = z;
+            this.x = x;
+            this.y = y;
+            this.machineId = machineId;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            return z == other.z && x == other.x && y == other.y && Objects.equals(machineId, other.machineId);
+        }
+        
+        @Override
+        public int hashCode() {
+            return ((z * 31 + x) * 31 + y) * 31 + Objects.hashCode(machineId);
+        }
+        
+        @Override
+        public String toString() {
+            return z + "/" + x + "/" + y + (machineId != null ? "?machineId=" + machineId : "");
+        }
+    }
+    
+    // 作っている途中のタイル（同じタイルを待っているリクエストにも結果を渡す）
+    private static final class Render {
+        final CompletableFuture<Tile> result = new CompletableFuture<>();
+        volatile boolean stale;
+    }
+}
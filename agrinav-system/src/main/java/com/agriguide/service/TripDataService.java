@@ -1,73 +1,585 @@
 package com.agriguide.service;
 
 import com.agriguide.model.TripData;
-import com.agriguide.repository.TripDataRepository;
+import com.agriguide.model.TripPoints;
+import com.agriguide.repository.Storage;
+import com.agriguide.repository.TripDataStore;
+import com.agriguide.repository.TripDataStore.TrackHandler;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.AreaQuery;
+import com.agriguide.util.Log;
+import com.agriguide.util.MachineId;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 走行データの処理を行うクラス
  * データの検証や、Repositoryへの橋渡しをします
+ *
+ * 最近の走行データはリングバッファ（TripHistoryBuffer）にも入れておき、
+ * 履歴APIからの読み込みはできるだけメモリから返します。
  */
 public class TripDataService {
     
-    private TripDataRepository repository;
+    private static final Log LOG = Log.get(TripDataService.class);
+    
+    /**
+     * ライトビハインドでキューに入れたときの戻り値
+     * （IDはあとでデータベースに保存されたときに決まります）
+     */
+    public static final int QUEUED = -1;
+    
+    // アプリ全体で1つだけ使うインスタンス
+    private static final TripDataService INSTANCE = new TripDataService();
+    
+    private TripDataStore repository;
+    
+    // ライトビハインド用のキュー（無効の場合はnull）
+    private WriteBehindQueue<TripData> writeBehind;
+    
+    // 先にディスクへ書いておくログ（無効の場合はnull）
+    private WriteAheadLog<TripData> writeAhead;
+    
+    // ライトビハインドでやり直しても保存できなかったデータを書いておくログ
+    // （ライトアヘッドログが無効の場合だけ別に開く。無い場合はnull）
+    private WriteAheadLog<TripData> deadLetter;
+    
+    // 最近の走行データ（無効の場合はnull）
+    private TripHistoryBuffer historyBuffer;
+    
+    // 最近の走行データの地図のマスごとの索引（無効の場合はnull）
+    private SpatialGrid spatialGrid;
+    
+    // 機械ごとの現在の状態
+    private final MachineStateRegistry machineStates = MachineStateRegistry.getInstance();
+    
+    // 1分ごと・1時間ごとの集計と、作業中・停止などの区間
+    private final TripRollupService rollups = TripRollupService.getInstance();
+    private final TripSegmentService segments = TripSegmentService.getInstance();
+    
+    // 圃場ごとの作業済みの範囲
+    private final CoverageService coverage = CoverageService.getInstance();
+    
+    // 地図に重ねる走行ルートのタイル
+    private final TrackTileService tiles = TrackTileService.getInstance();
+    
+    // 走行データを保存するたびに増える番号と、保存した時刻（ETag / Last-Modified 用）
+    private final AtomicLong version = new AtomicLong();
+    private volatile long lastModified;
+    
+    // 最後にバッファの読み込みを試した時刻（DBが落ちているときに何度も試さないため）
+    private volatile long lastWarmAttemptMillis;
+    
+    // ページングで1回に返す最大件数と、DBから1回の通信で受け取る件数
+    private final int pageMaxLimit = AppConfig.getInt("TRIP_PAGE_MAX_LIMIT", 10000);
+    private final int fetchSize = AppConfig.getInt("TRIP_FETCH_SIZE", 1000);
     
     // コンストラクタ
     public TripDataService() {
-        this.repository = new TripDataRepository();
+        this(Storage.tripData(), AppConfig.getBoolean("WRITE_BEHIND_ENABLED", false));
+    }
+    
+    /**
+     * @param repository 保存先
+     * @param writeBehindEnabled trueの場合、保存をキューに入れてまとめて書き込む
+     */
+    public TripDataService(TripDataStore repository, boolean writeBehindEnabled) {
+        this.repository = repository;
+        
+        int bufferCapacity = AppConfig.getInt("TRIP_BUFFER_CAPACITY", 10000);
+        if (bufferCapacity > 0) {
+            this.historyBuffer = new TripHistoryBuffer(bufferCapacity);
+            LOG.info("📦 走行データバッファ: {}件, {}バイト/件, 合計{}バイト",
+                bufferCapacity, TripHistoryBuffer.BYTES_PER_POINT, historyBuffer.getMemoryBytes());
+        }
+        
+        int gridCapacity = AppConfig.getInt("SPATIAL_GRID_CAPACITY", 100000);
+        if (gridCapacity > 0) {
+            this.spatialGrid = new SpatialGrid(gridCapacity);
+            LOG.info("📦 走行データの空間索引: {}件, 合計{}バイト", gridCapacity, spatialGrid.getMemoryBytes());
+        }
+        
+        if (AppConfig.getBoolean("WAL_ENABLED", false)) {
+            this.writeAhead = WriteAheadLog.open("trip-data", WAL_CODEC, this::writeBatch);
+        }
+        
+        if (writeBehindEnabled) {
+            // やり直しても保存できなかったバッチはログに書いて、あとで保存する（受け付けたデータを失わない）
+            WriteAheadLog<TripData> spill = writeAhead;
+            if (spill == null) {
+                this.deadLetter = WriteAheadLog.open("trip-data-dead-letter", WAL_CODEC, this::writeBatch);
+                spill = deadLetter;
+            }
+            this.writeBehind = new WriteBehindQueue<>("trip-data",
+                AppConfig.getInt("WRITE_BEHIND_QUEUE_CAPACITY", 10000),
+                AppConfig.getInt("WRITE_BEHIND_BATCH_SIZE", 200),
+                AppConfig.getLong("WRITE_BEHIND_FLUSH_MS", 200),
+                AppConfig.getLong("WRITE_BEHIND_OFFER_TIMEOUT_MS", 50),
+                AppConfig.getInt("WRITE_BEHIND_WRITERS", 2),
+                AppConfig.getInt("WRITE_BEHIND_MAX_RETRIES", 5),
+                AppConfig.getLong("WRITE_BEHIND_RETRY_MS", 200),
+                TripData::getMachineId, this::writeBatch, spill != null ? spill.asDeadLetter() : null);
+        }
+    }
+    
+    // ライトアヘッドログに書く形式（機械ID, 速度, 距離, 緯度, 経度, 記録時刻）
+    private static final WriteAheadLog.Codec<TripData> WAL_CODEC = new WriteAheadLog.Codec<>() {
+        @Override
+        public int size(TripData data) {
+            return 1 + data.getMachineId().length() + 8 * 5;
+        }
+        
+        @Override
+        public void encode(TripData data, ByteBuffer out) {
+            WriteAheadLog.putString(out, data.getMachineId());
+            out.putDouble(data.getSpeed());
+            out.putDouble(data.getDistance());
+            out.putDouble(data.getLatitude());
+            out.putDouble(data.getLongitude());
+            out.putLong(data.getRecordedAt());
+        }
+        
+        @Override
+        public TripData decode(ByteBuffer in) {
+            String machineId = MachineId.normalize(WriteAheadLog.getString(in));
+            TripData data = new TripData(in.getDouble(), in.getDouble(), in.getDouble(), in.getDouble());
+            data.setRecordedAt(in.getLong());
+            data.setMachineId(machineId != null ? machineId : MachineId.DEFAULT);
+            return data;
+        }
+        
+        @Override
+        public void setSequence(TripData data, String logId, long sequence) {
+            // 保存の直後に落ちて同じデータを再生しても、trip_data に2回入れない
+            data.setWal(logId, sequence);
+        }
+    };
+    
+    /**
+     * アプリ全体で共有するインスタンスを取得
+     */
+    public static TripDataService getInstance() {
+        return INSTANCE;
     }
     
     /**
      * 最新のN件の走行データを取得
      * @param limit 取得件数
      * @return TripDataのリスト
+     * @throws SQLException データベースから読めなかった場合
+     */
+    public List<TripData> getLatestTripData(int limit) throws SQLException {
+        return getLatestTripPoints(limit).toList();
+    }
+    
+    /**
+     * 最新のN件の走行データを配列形式で取得（新しい順）
+     * リングバッファで返せる場合はデータベースに問い合わせません
+     * @param limit 取得件数
+     * @return TripPoints
+     * @throws SQLException データベースから読めなかった場合（空の結果をキャッシュしないように、呼び出し元へ伝える）
+     */
+    public TripPoints getLatestTripPoints(int limit) throws SQLException {
+        limit = clampLatestLimit(limit);
+        
+        TripPoints points = new TripPoints(limit);
+        if (historyBuffer != null) {
+            if (!historyBuffer.isWarmed()) {
+                warmUp();
+            }
+            if (historyBuffer.canServe(limit)) {
+                historyBuffer.copyLatest(limit, points);
+                return points;
+            }
+        }
+        
+        // バッファで返せない場合はデータベースから取得
+        repository.findLatest(limit, points);
+        return points;
+    }
+    
+    /**
+     * IDがafterIdより大きい走行データを、古い順に1件ずつhandlerへ渡す
+     * 1日分の走行ルートなど、件数の多いデータを順番に読むときに使います
+     * @param machineId この機械のデータだけ（nullの場合は全部の機械）
+     * @param afterId このIDより後のデータを読む（最初は0）
+     * @param from 記録時刻がこれ以降のデータだけ（nullの場合は指定なし）
+     * @param to 記録時刻がこれより前のデータだけ（nullの場合は指定なし）
+     * @param limit 最大件数（1〜TRIP_PAGE_MAX_LIMIT件）
+     * @param handler 1件ずつ受け取る処理
+     * @return 渡した件数
+     */
+    public int streamTripPoints(String machineId, long afterId, Timestamp from, Timestamp to, int limit,
+                                TripDataStore.RowHandler handler) throws SQLException, IOException {
+        return repository.streamAfter(machineId, Math.max(0, afterId), from, to, clampPageLimit(limit), fetchSize,
+            handler);
+    }
+    
+    /**
+     * IDがafterIdより大きい走行データを、古い順にlimit件までTripPointsへ読み込む
+     * （走行ルートを間引いて表示するときなど、まとめて計算したい場合に使う）
+     * @return 読み込んだ件数
+     */
+    public int loadTripPoints(String machineId, long afterId, Timestamp from, Timestamp to, int limit,
+                              TripPoints out) throws SQLException, IOException {
+        return repository.streamAfter(machineId, Math.max(0, afterId), from, to, limit, fetchSize, out::add);
+    }
+    
+    /**
+     * 範囲（長方形や圃場の多角形）の中の走行データを、古い順に探す
+     * 最近のデータだけの検索はメモリ上の索引で、それ以外はデータベースで探します
+     * @param area 探す範囲
+     * @param machineId この機械のデータだけ（nullの場合は全部の機械）
+     * @param afterId このIDより後のデータを読む（最初は0）
+     * @param from 記録時刻がこれ以降のデータだけ（nullの場合は指定なし）
+     * @param to 記録時刻がこれより前のデータだけ（nullの場合は指定なし）
+     * @param limit 最大件数（1〜TRIP_PAGE_MAX_LIMIT件）
+     * @param out 結果の追加先
+     * @return 続きを読むときのafterId（最後まで読んだ場合は0）
+     */
+    public long findInArea(AreaQuery area, String machineId, long afterId, Timestamp from, Timestamp to,
+                           int limit, TripPoints out) throws SQLException, IOException {
+        limit = clampPageLimit(limit);
+        afterId = Math.max(0, afterId);
+        
+        // メモリ上の索引で探せる場合（1件多く探して、続きがあるか調べる）
+        if (spatialGrid != null && from != null) {
+            long toMillis = to != null ? to.getTime() : Long.MAX_VALUE;
+            int before = out.size();
+            if (spatialGrid.query(area, machineId, afterId, from.getTime(), toMillis, limit + 1, out)) {
+                if (out.size() - before > limit) {
+                    out.truncate(before + limit);
+                    return out.getId(before + limit - 1);
+                }
+                return 0;
+            }
+        }
+        
+        // データベースでマス単位に絞り込んでから、範囲の中の点だけを残す
+        long[] lastId = new long[1];
+        int scanned = repository.streamInRanges(machineId, area.getRanges(), afterId, from, to, limit, fetchSize,
+            (id, speed, distance, latitude, longitude, recordedAt) -> {
+                lastId[0] = id;
+                if (area.matches(latitude, longitude)) {
+                    out.add(id, speed, distance, latitude, longitude, recordedAt);
+                }
+            });
+        // limit件ちょうど読んだ場合は、続きがあるかもしれない
+        return scanned >= limit ? lastId[0] : 0;
+    }
+    
+    /**
+     * 範囲の中の走行データの位置を、機械IDと一緒に新しい順に読み込む（地図のタイルを描くときに使う）
+     * @param area 探す範囲
+     * @param machineId この機械のデータだけ（nullの場合は全部の機械）
+     * @param limit 最大件数（範囲の外の点も含めて数える）
+     * @param handler 範囲の中の点を1件ずつ受け取る処理
+     * @return データベースから読んだ件数
      */
-    public List<TripData> getLatestTripData(int limit) {
-        // limitの検証（1〜100件まで）
+    public int streamTrackInArea(AreaQuery area, String machineId, int limit, TrackHandler handler)
+            throws SQLException {
+        return repository.streamTrackInRanges(machineId, area.getRanges(), null, limit, fetchSize,
+            (machine, latitude, longitude, recordedAt) -> {
+                if (area.matches(latitude, longitude)) {
+                    handler.point(machine, latitude, longitude, recordedAt);
+                }
+            });
+    }
+    
+    /**
+     * geohash列を追加する前のデータに、ジオハッシュを入れる（裏のスレッドで少しずつ）
+     */
+    public void startGeohashBackfill() {
+        Thread thread = new Thread(() -> {
+            int total = 0;
+            try {
+                int updated;
+                while ((updated = repository.backfillGeohash(1000)) > 0) {
+                    total += updated;
+                }
+                if (total > 0) {
+                    LOG.info("✅ ジオハッシュを追加しました: {}件", total);
+                }
+            } catch (SQLException e) {
+                LOG.warn("⚠️ ジオハッシュの追加エラー: {}", e.getMessage());
+            }
+        }, "agrinav-geohash-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * 最新N件の件数を 1〜100 件に収める
+     */
+    public int clampLatestLimit(int limit) {
         if (limit < 1) {
-            limit = 10;  // デフォルト10件
+            return 10;  // デフォルト10件
         }
-        if (limit > 100) {
-            limit = 100;  // 最大100件
+        return Math.min(limit, 100);  // 最大100件
+    }
+    
+    /**
+     * ページングの件数を 1〜TRIP_PAGE_MAX_LIMIT 件に収める
+     */
+    public int clampPageLimit(int limit) {
+        if (limit < 1) {
+            return Math.min(1000, pageMaxLimit);  // デフォルト1000件
         }
+        return Math.min(limit, pageMaxLimit);
+    }
+    
+    /**
+     * データベースから最近の走行データをバッファに読み込む（起動時に呼ぶ）
+     * 失敗した場合は、30秒以上たってから次の読み込みで再び試します
+     */
+    public synchronized void warmUp() {
+        if (historyBuffer == null || historyBuffer.isWarmed()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastWarmAttemptMillis < 30000) {
+            return;
+        }
+        lastWarmAttemptMillis = now;
         
-        List<TripData> dataList = repository.findLatest(limit);
-        System.out.println("📊 走行データ: " + dataList.size() + "件取得");
-        return dataList;
+        int capacity = historyBuffer.getCapacity();
+        TripPoints points = new TripPoints(Math.min(capacity, 1024));
+        try {
+            repository.findLatest(capacity, points);
+            historyBuffer.warm(points, capacity);
+            touch();
+            LOG.info("📦 走行データバッファに{}件を読み込みました", points.size());
+        } catch (SQLException e) {
+            LOG.warn("⚠️ 走行データバッファの読み込みエラー: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * 新しい走行データを保存（機械IDを送ってこない古い端末用）
+     */
+    public int saveTripData(double speed, double distance, double latitude, double longitude) {
+        return saveTripData(MachineId.DEFAULT, speed, distance, latitude, longitude);
     }
     
     /**
      * 新しい走行データを保存
+     * @param machineId 機械ID
      * @param speed 速度
      * @param distance 距離
      * @param latitude 緯度
      * @param longitude 経度
-     * @return 保存されたデータのID
+     * @return 保存されたデータのID（ライトビハインドの場合はQUEUED、不正な値の場合は0）
      */
-    public int saveTripData(double speed, double distance, double latitude, double longitude) {
+    public int saveTripData(String machineId, double speed, double distance, double latitude, double longitude) {
         // データの検証
-        if (speed < 0 || speed > 100) {
-            System.out.println("❌ 速度の値が不正です: " + speed);
+        String error = validate(speed, distance, latitude, longitude);
+        if (error != null) {
+            LOG.error("❌ {}", error);
             return 0;
         }
         
+        // データを保存（受け取った時刻を記録時刻にする）
+        TripData data = new TripData(speed, distance, latitude, longitude);
+        data.setRecordedAt(System.currentTimeMillis());
+        data.setMachineId(machineId);
+        
+        // 機械ごとの現在の状態は、データベースへの保存を待たずに更新する
+        machineStates.updatePosition(machineId, speed, distance, latitude, longitude, data.getRecordedAt());
+        
+        // ライトアヘッドログ・ライトビハインドの場合は書くだけ
+        // ログやキューが満杯のときは、その場で保存する（データを捨てない）
+        if (writeAhead != null && writeAhead.append(data)) {
+            return QUEUED;
+        }
+        if (writeBehind != null && writeBehind.offer(data)) {
+            return QUEUED;
+        }
+        int id = repository.save(data);
+        if (id > 0) {
+            onSaved(id, data);
+        }
+        return id;
+    }
+    
+    /**
+     * 走行データの値を検証
+     * @return 不正な場合はエラーメッセージ、正しい場合はnull
+     */
+    public String validate(double speed, double distance, double latitude, double longitude) {
+        if (speed < 0 || speed > 100) {
+            return "速度の値が不正です: " + speed;
+        }
+        
         if (distance < 0 || distance > 100000) {
-            System.out.println("❌ 距離の値が不正です: " + distance);
-            return 0;
+            return "距離の値が不正です: " + distance;
         }
         
         if (latitude < -90 || latitude > 90) {
-            System.out.println("❌ 緯度の値が不正です: " + latitude);
-            return 0;
+            return "緯度の値が不正です: " + latitude;
         }
         
         if (longitude < -180 || longitude > 180) {
-            System.out.println("❌ 経度の値が不正です: " + longitude);
-            return 0;
+            return "経度の値が不正です: " + longitude;
         }
         
-        // データを保存
-        TripData data = new TripData(speed, distance, latitude, longitude);
-        return repository.save(data);
+        return null;
+    }
+    
+    /**
+     * 検証済みの走行データをまとめて保存
+     * ライトビハインドが有効な場合はキューに入れ、入りきらない分はその場で保存します
+     * @param dataList validate() を通過したデータのリスト
+     * @return 受け付けた件数（保存に失敗した分は含まない）
+     */
+    public int saveTripDataBatch(List<TripData> dataList) {
+        // 記録時刻が送られてこなかったデータは、受け取った時刻にする
+        long now = System.currentTimeMillis();
+        for (TripData data : dataList) {
+            if (data.getRecordedAt() <= 0) {
+                data.setRecordedAt(now);
+            }
+            machineStates.updatePosition(data.getMachineId(), data.getSpeed(), data.getDistance(),
+                data.getLatitude(), data.getLongitude(), data.getRecordedAt());
+        }
+        
+        List<TripData> remaining = dataList;
+        
+        if (writeAhead != null) {
+            int logged = writeAhead.appendAll(remaining);
+            if (logged == remaining.size()) {
+                return dataList.size();
+            }
+            // ログの上限を超えた分は、キューに入れるかその場で保存する
+            remaining = remaining.subList(logged, remaining.size());
+        }
+        
+        if (writeBehind != null) {
+            int queued = 0;
+            while (queued < remaining.size() && writeBehind.offer(remaining.get(queued))) {
+                queued++;
+            }
+            if (queued == remaining.size()) {
+                return dataList.size();
+            }
+            // キューが満杯になった分はその場で保存する
+            remaining = remaining.subList(queued, remaining.size());
+        }
+        
+        try {
+            writeBatch(remaining);
+            return dataList.size();
+        } catch (SQLException e) {
+            LOG.error("❌ 一括保存エラー: {}", e.getMessage());
+            return dataList.size() - remaining.size();
+        }
+    }
+    
+    // まとめて保存し、保存できたデータをバッファとダッシュボードへ反映する
+    // やり直し（ライトビハインド・ライトアヘッドログ）の対象は saveBatch だけ。
+    // 反映でエラーが出ても例外は外に出さない（やり直すと保存済みのデータをもう一度入れてしまう）
+    private void writeBatch(List<TripData> batch) throws SQLException {
+        int[] ids = repository.saveBatch(batch);
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] > 0) {
+                onSaved(ids[i], batch.get(i));
+            }
+        }
+    }
+    
+    // データベースに保存できたデータを反映する（エラーは1件ずつログに書いて、次のデータへ進む）
+    private void onSaved(int id, TripData data) {
+        try {
+            publishSaved(id, data);
+        } catch (RuntimeException e) {
+            LOG.error("❌ 保存した走行データの反映エラー (id={}, machine={}): {}", id, data.getMachineId(), e.getMessage());
+        }
+    }
+    
+    // データベースに保存できたデータを、バッファ・集計・区間・作業済みの範囲・地図のタイル・ダッシュボードへ反映する
+    private void publishSaved(int id, TripData data) {
+        rollups.record(data.getMachineId(), data.getSpeed(), data.getDistance(), data.getRecordedAt());
+        segments.record(id, data);
+        coverage.record(data);
+        tiles.invalidate(data.getMachineId(), data.getLatitude(), data.getLongitude());
+        if (historyBuffer != null) {
+            historyBuffer.add(id, data.getSpeed(), data.getDistance(),
+                data.getLatitude(), data.getLongitude());
+        }
+        if (spatialGrid != null) {
+            spatialGrid.add(id, data.getSpeed(), data.getDistance(),
+                data.getLatitude(), data.getLongitude(), data.getRecordedAt(), data.getMachineId());
+        }
+        LiveUpdateHub.getInstance().publishTrip(data.getMachineId(), id, data.getSpeed(), data.getDistance(),
+            data.getLatitude(), data.getLongitude());
+        touch();
+    }
+    
+    private void touch() {
+        lastModified = System.currentTimeMillis();
+        version.incrementAndGet();
+    }
+    
+    /**
+     * 走行データを保存するたびに増える番号
+     * （バッファが無効の場合は、起動してから最初に保存するまで0）
+     */
+    public long getVersion() {
+        return version.get();
+    }
+    
+    /**
+     * 最後に走行データを保存した時刻（1970年からのミリ秒）
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+    
+    /**
+     * 最近の走行データのバッファ（統計情報の確認用。無効の場合はnull）
+     */
+    public TripHistoryBuffer getHistoryBuffer() {
+        return historyBuffer;
+    }
+    
+    /**
+     * 走行データの空間索引（統計情報の確認用。無効の場合はnull）
+     */
+    public SpatialGrid getSpatialGrid() {
+        return spatialGrid;
+    }
+    
+    /**
+     * ライトビハインドのキュー（統計情報の確認用。無効の場合はnull）
+     */
+    public WriteBehindQueue<TripData> getWriteBehindQueue() {
+        return writeBehind;
+    }
+    
+    /**
+     * ライトアヘッドログ（統計情報の確認用。無効の場合はnull）
+     */
+    public WriteAheadLog<TripData> getWriteAheadLog() {
+        return writeAhead;
+    }
+    
+    /**
+     * キューに残っているデータを保存して終了する（アプリ終了時に呼ぶ）
+     * ライトアヘッドログに残った分は、次の起動時に保存します
+     */
+    public void shutdown() {
+        // キューで保存できなかった分をログに書けるように、キューを先に止める
+        if (writeBehind != null) {
+            writeBehind.shutdown(10000);
+        }
+        if (writeAhead != null) {
+            writeAhead.shutdown(10000);
+        }
+        if (deadLetter != null) {
+            deadLetter.shutdown(10000);
+        }
     }
 }
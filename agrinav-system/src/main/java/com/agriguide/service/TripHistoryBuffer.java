@@ -0,0 +1,158 @@
+package com.agriguide.service;
+
+import com.agriguide.model.TripPoints;
+
+/**
+ * 最近の走行データをメモリに持っておくリングバッファ
+ *
+ * 決まった件数（capacity）だけ、項目ごとの配列（int[] / double[]）で保存します。
+ * いっぱいになったら一番古いデータから上書きします。
+ * 履歴APIはここから最新N件を返すので、データベースに問い合わせる必要がありません。
+ *
+ * データはIDの小さい順（古い順）に並べています。
+ * 複数のスレッドから少し順番が前後して追加されても、正しい位置に入れ直します。
+ */
+public class TripHistoryBuffer {
+    
+    /**
+     * 1件あたりのメモリ使用量（バイト）: id(int) + 速度・距離・緯度・経度(double×4)
+     */
+    public static final int BYTES_PER_POINT = 4 + 8 * 4;
+    
+    private final int capacity;
+    private final int[] ids;
+    private final double[] speeds;
+    private final double[] distances;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    
+    private int start;   // 一番古いデータの位置
+    private int size;    // 入っている件数
+    
+    // データベースから読み込み済みか
+    private boolean warmed;
+    // データベースの全件がバッファに入っているか（件数がcapacity未満のとき）
+    private boolean complete;
+    
+    public TripHistoryBuffer(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.ids = new int[this.capacity];
+        this.speeds = new double[this.capacity];
+        this.distances = new double[this.capacity];
+        this.latitudes = new double[this.capacity];
+        this.longitudes = new double[this.capacity];
+    }
+    
+    // 古い順でi番目のデータが入っている配列の位置
+    private int slot(int i) {
+        int s = start + i;
+        return s >= capacity ? s - capacity : s;
+    }
+    
+    /**
+     * 1件追加する
+     * すでに同じIDがある場合や、保持しているどのデータよりも古い場合は何もしない
+     */
+    public synchronized void add(int id, double speed, double distance, double latitude, double longitude) {
+        // 入れる位置を後ろから探す（ほとんどの場合は一番後ろ）
+        int pos = size;
+        while (pos > 0 && ids[slot(pos - 1)] > id) {
+            pos--;
+        }
+        if (pos > 0 && ids[slot(pos - 1)] == id) {
+            return;
+        }
+        
+        if (size == capacity) {
+            if (pos == 0) {
+                return;  // 保持しているデータより古いので入れない
+            }
+            // 一番古いデータを捨てる
+            start = slot(1);
+            size--;
+            pos--;
+            complete = false;
+        }
+        
+        // pos以降を1つずつ後ろにずらす
+        for (int k = size; k > pos; k--) {
+            int to = slot(k);
+            int from = slot(k - 1);
+            ids[to] = ids[from];
+            speeds[to] = speeds[from];
+            distances[to] = distances[from];
+            latitudes[to] = latitudes[from];
+            longitudes[to] = longitudes[from];
+        }
+        
+        int s = slot(pos);
+        ids[s] = id;
+        speeds[s] = speed;
+        distances[s] = distance;
+        latitudes[s] = latitude;
+        longitudes[s] = longitude;
+        size++;
+    }
+    
+    /**
+     * データベースから読み込んだデータで初期化する
+     * @param points 読み込んだデータ（新しい順）
+     * @param requested 読み込もうとした件数（これより少なければ全件読み込めた）
+     */
+    public synchronized void warm(TripPoints points, int requested) {
+        // 古い順に追加する（すでに追加済みのデータとは重複しない）
+        for (int i = points.size() - 1; i >= 0; i--) {
+            add(points.getId(i), points.getSpeed(i), points.getDistance(i),
+                points.getLatitude(i), points.getLongitude(i));
+        }
+        warmed = true;
+        complete = points.size() < requested && size < capacity;
+    }
+    
+    /**
+     * 最新limit件をこのバッファだけで返せるか
+     */
+    public synchronized boolean canServe(int limit) {
+        return warmed && (size >= limit || complete);
+    }
+    
+    public synchronized boolean isWarmed() {
+        return warmed;
+    }
+    
+    /**
+     * 最新limit件を新しい順にコピーする
+     * @param limit 最大件数
+     * @param out コピー先（最後に追加されます）
+     * @return コピーした件数
+     */
+    public synchronized int copyLatest(int limit, TripPoints out) {
+        int n = Math.min(limit, size);
+        for (int i = 0; i < n; i++) {
+            int s = slot(size - 1 - i);
+            out.add(ids[s], speeds[s], distances[s], latitudes[s], longitudes[s]);
+        }
+        return n;
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * このバッファが確保しているメモリ（バイト）
+     */
+    public long getMemoryBytes() {
+        return (long) capacity * BYTES_PER_POINT;
+    }
+    
+    @Override
+    public String toString() {
+        return "TripHistoryBuffer{size=" + size() + "/" + capacity
+            + ", bytesPerPoint=" + BYTES_PER_POINT + ", memory=" + getMemoryBytes() + " bytes}";
+    }
+}
@@ -0,0 +1,306 @@
+package com.agriguide.service;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.agriguide.model.TripRollup;
+import com.agriguide.repository.Storage;
+import com.agriguide.repository.TripRollupRepository;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.Log;
+
+/**
+ * 走行データの1分ごと・1時間ごとの集計を作るクラス
+ *
+ * 走行データが保存されるたびに、メモリ上の集計（前回の保存から増えた分）に足していき、
+ * 距離は機械ごとに前の点からの差を足します（距離が0に戻った場合は、戻ってから走った分）。
+ * ROLLUP_FLUSH_MS ごとにまとめて trip_rollup テーブルへ足し込みます。
+ * グラフ用の読み込みは集計の行数（時間の数）だけで済み、元の走行データは読みません。
+ */
+public class TripRollupService {
+    
+    private static final Log LOG = Log.get(TripRollupService.class);
+    
+    /**
+     * 集計の単位（秒）
+     */
+    public static final int MINUTE = 60;
+    public static final int HOUR = 3600;
+    
+    private static final int[] RESOLUTIONS = { MINUTE, HOUR };
+    
+    // アプリ全体で1つだけ使うインスタンス
+    private static final TripRollupService INSTANCE = new TripRollupService();
+    
+    private final TripRollupRepository repository;
+    private final boolean enabled;
+    private final int maxBuckets = AppConfig.getInt("ROLLUP_MAX_BUCKETS", 10000);
+    
+    // 機械ごとの前の点（距離の差を出すため）
+    private final ConcurrentHashMap<String, LastPoint> lastPoints = new ConcurrentHashMap<>();
+    
+    // まだ保存していない増えた分（機械・単位・開始時刻ごと）
+    private volatile ConcurrentHashMap<Key, TripRollup> pending = new ConcurrentHashMap<>();
+    
+    // 保存中の分（保存が終わるまでは読み込みに含める）
+    private volatile Map<Key, TripRollup> flushing;
+    
+    // 追加する側は読み込みロック、pendingを入れ替えるときだけ書き込みロック
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    
+    // 読み込む側は読み込みロック、保存をコミットしてflushingを消すまでは書き込みロック
+    // （同じ分をデータベースとメモリの両方から数えないため）
+    private final ReentrantReadWriteLock visibilityLock = new ReentrantReadWriteLock();
+    
+    // 定期的に保存するスレッド（無効の場合はnull）
+    private ScheduledExecutorService flusher;
+    
+    private TripRollupService() {
+        this.repository = new TripRollupRepository();
+        // 集計はデータベースに保存するので、DBサーバーが無い構成（STORAGE=embedded）では初期値を無効にする
+        this.enabled = AppConfig.getBoolean("ROLLUP_ENABLED", !Storage.isEmbedded());
+        if (enabled) {
+            long flushMillis = Math.max(100, AppConfig.getLong("ROLLUP_FLUSH_MS", 10000));
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "agrinav-rollup-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * アプリ全体で共有するインスタンスを取得
+     */
+    public static TripRollupService getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 保存された走行データ1件を集計に足す
+     * @param recordedAt 記録時刻（1970年からのミリ秒）
+     */
+    public void record(String machineId, double speed, double distance, long recordedAt) {
+        if (!enabled) {
+            return;
+        }
+        double delta = distanceDelta(machineId, distance, recordedAt);
+        swapLock.readLock().lock();
+        try {
+            for (int seconds : RESOLUTIONS) {
+                Key key = new Key(machineId, seconds, bucketStart(recordedAt, seconds));
+                TripRollup rollup = pending.computeIfAbsent(key,
+                    k -> new TripRollup(k.machineId, k.seconds, k.start));
+                synchronized (rollup) {
+                    rollup.add(speed, delta);
+                }
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+    
+    // 同じ機械の前の点から進んだ距離（TripSegmenter と同じく、0に戻った場合は戻ってから走った分）
+    // 最初の点と、前の点より古い時刻の点は0にする（前の点はそのまま）
+    private double distanceDelta(String machineId, double distance, long recordedAt) {
+        double[] delta = new double[1];
+        lastPoints.compute(machineId, (id, last) -> {
+            if (last == null) {
+                return new LastPoint(distance, recordedAt);
+            }
+            if (recordedAt < last.time) {
+                return last;
+            }
+            delta[0] = distance >= last.distance ? distance - last.distance : distance;
+            return new LastPoint(distance, recordedAt);
+        });
+        return delta[0];
+    }
+    
+    /**
+     * 時間の範囲の集計を、古い順に取得（まだ保存していない分も含む）
+     * @param machineId この機械の集計だけ（nullの場合は全部の機械の合計）
+     * @param seconds 集計の単位（MINUTE または HOUR）
+     * @param from 開始
+     * @param to 終了（この時刻は含まない）
+     * @return 時間ごとの集計（データが無い時間は含まない）
+     * @throws IllegalArgumentException 単位が不正、または時間の数が ROLLUP_MAX_BUCKETS を超える場合
+     */
+    public List<TripRollup> query(String machineId, int seconds, Timestamp from, Timestamp to)
+            throws SQLException {
+        if (seconds != MINUTE && seconds != HOUR) {
+            throw new IllegalArgumentException("unsupported resolution: " + seconds);
+        }
+        long fromStart = bucketStart(from.getTime(), seconds);
+        if ((to.getTime() - fromStart) / (seconds * 1000L) > maxBuckets) {
+            throw new IllegalArgumentException("too many buckets");
+        }
+        
+        // 機械ごと・時間ごとに、保存済みの分とまだ保存していない分を足す
+        Map<Key, TripRollup> merged = new HashMap<>();
+        visibilityLock.readLock().lock();
+        try {
+            for (TripRollup rollup : repository.find(machineId, seconds, new Timestamp(fromStart), to)) {
+                merged.put(new Key(rollup.getMachineId(), seconds, rollup.getBucketStart()), rollup);
+            }
+            Map<Key, TripRollup> inFlight = flushing;
+            if (inFlight != null) {
+                mergeInto(merged, inFlight, machineId, seconds, fromStart, to.getTime());
+            }
+            mergeInto(merged, pending, machineId, seconds, fromStart, to.getTime());
+        } finally {
+            visibilityLock.readLock().unlock();
+        }
+        
+        // 時間ごとに全部の機械をまとめる（距離は機械ごとに進んだ分の合計）
+        TreeMap<Long, TripRollup> byTime = new TreeMap<>();
+        for (TripRollup rollup : merged.values()) {
+            TripRollup total = byTime.get(rollup.getBucketStart());
+            if (total == null) {
+                byTime.put(rollup.getBucketStart(), rollup);
+            } else {
+                total.merge(rollup);
+            }
+        }
+        return new ArrayList<>(byTime.values());
+    }
+    
+    private static void mergeInto(Map<Key, TripRollup> merged, Map<Key, TripRollup> source, String machineId,
+                                  int seconds, long fromMillis, long toMillis) {
+        for (Map.Entry<Key, TripRollup> entry : source.entrySet()) {
+            Key key = entry.getKey();
+            if (key.seconds != seconds || key.start < fromMillis || key.start >= toMillis
+                    || (machineId != null && !machineId.equals(key.machineId))) {
+                continue;
+            }
+            TripRollup copy;
+            TripRollup rollup = entry.getValue();
+            synchronized (rollup) {
+                copy = rollup.copy();
+            }
+            TripRollup current = merged.get(key);
+            if (current == null) {
+                merged.put(key, copy);
+            } else {
+                current.merge(copy);
+            }
+        }
+    }
+    
+    /**
+     * たまっている分をデータベースへ足し込む（定期的に呼ばれる）
+     * 失敗した場合は、次の保存でもう一度試します
+     */
+    public synchronized void flush() {
+        ConcurrentHashMap<Key, TripRollup> batch;
+        swapLock.writeLock().lock();
+        try {
+            batch = pending;
+            if (batch.isEmpty()) {
+                return;
+            }
+            pending = new ConcurrentHashMap<>();
+            flushing = batch;
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        
+        visibilityLock.writeLock().lock();
+        try {
+            repository.upsert(batch.values());
+        } catch (SQLException | RuntimeException e) {
+            LOG.warn("⚠️ 走行データの集計の保存エラー ({}件): {}", batch.size(), e.getMessage());
+            // 保存できなかった分を戻す
+            swapLock.readLock().lock();
+            try {
+                for (Map.Entry<Key, TripRollup> entry : batch.entrySet()) {
+                    TripRollup rollup = pending.computeIfAbsent(entry.getKey(),
+                        k -> new TripRollup(k.machineId, k.seconds, k.start));
+                    synchronized (rollup) {
+                        rollup.merge(entry.getValue());
+                    }
+                }
+            } finally {
+                swapLock.readLock().unlock();
+            }
+        } finally {
+            flushing = null;
+            visibilityLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * まだ保存していない集計の数
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+    
+    /**
+     * 残っている分を保存して終了する（アプリ終了時に呼ぶ）
+     */
+    public void shutdown() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flush();
+        }
+    }
+    
+    /**
+     * 時刻が入る集計の開始時刻
+     */
+    public static long bucketStart(long millis, int seconds) {
+        long size = seconds * 1000L;
+        return Math.floorDiv(millis, size) * size;
+    }
+    
+    // 機械ごとの前の点の距離と時刻
+    private static final class LastPoint {
+        final double distance;
+        final long time;
+        
+        LastPoint(double distance, long time) {
+            this.distance = distance;
+            this.time = time;
+        }
+    }
+    
+    // 集計を区別するキー（機械・単位・開始時刻）
+    private static final class Key {
+        final String machineId;
+        final int seconds;
+        final long start;
+        
+        Key(String machineId, int seconds, long start) {
+            this.machineId = machineId;
+            this.seconds = seconds;
+            this.start = start;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return seconds == other.seconds && start == other.start && machineId.equals(other.machineId);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(machineId, seconds, start);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.agriguide.service;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.agriguide.model.TripData;
+import com.agriguide.model.TripSegment;
+import com.agriguide.repository.Storage;
+import com.agriguide.repository.TripSegmentRepository;
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.Log;
+
+/**
+ * 走行データを作業中・アイドル・停止・移動の区間に区切るクラス
+ *
+ * 走行データが保存されるたびに、機械ごとの TripSegmenter に1件ずつ渡します。
+ * 終わった区間はメモリにためておき、SEGMENT_FLUSH_MS ごとにまとめて trip_segment テーブルへ保存します。
+ * 作業時間や停止時間の集計は区間の数だけの読み込みで済み、元の走行データは読みません。
+ */
+public class TripSegmentService {
+    
+    private static final Log LOG = Log.get(TripSegmentService.class);
+    
+    // アプリ全体で1つだけ使うインスタンス
+    private static final TripSegmentService INSTANCE = new TripSegmentService();
+    
+    private final TripSegmentRepository repository;
+    private final boolean enabled;
+    private final TripSegmenter.Thresholds thresholds;
+    private final long gapMillis;
+    
+    // 機械ID → 区切り途中の状態（機械ごとに同期して使う）
+    private final ConcurrentHashMap<String, TripSegmenter> segmenters = new ConcurrentHashMap<>();
+    
+    // 終わったが、まだ保存していない区間（pendingLockで同期）
+    private final Object pendingLock = new Object();
+    private List<TripSegment> pending = new ArrayList<>();
+    
+    // 保存中の区間（保存が終わるまでは読み込みに含める）
+    private volatile List<TripSegment> flushing;
+    
+    // 読み込む側は読み込みロック、保存をコミットしてflushingを消すまでは書き込みロック
+    // （同じ区間をデータベースとメモリの両方から数えないため）
+    private final ReentrantReadWriteLock visibilityLock = new ReentrantReadWriteLock();
+    
+    // 定期的に保存するスレッド（無効の場合はnull）
+    private ScheduledExecutorService flusher;
+    
+    private TripSegmentService() {
+        this.repository = new TripSegmentRepository();
+        // 区間はデータベースに保存するので、DBサーバーが無い構成（STORAGE=embedded）では初期値を無効にする
+        this.enabled = AppConfig.getBoolean("SEGMENTS_ENABLED", !Storage.isEmbedded());
+        this.gapMillis = AppConfig.getLong("SEGMENT_GAP_MS", 300000);
+        this.thresholds = new TripSegmenter.Thresholds(
+            AppConfig.getDouble("SEGMENT_MOVE_KMH", 2.0),
+            AppConfig.getDouble("SEGMENT_STOP_KMH", 1.0),
+            AppConfig.getDouble("SEGMENT_TRANSIT_KMH", 15.0),
+            AppConfig.getDouble("SEGMENT_TRANSIT_EXIT_KMH", 12.0),
+            AppConfig.getLong("SEGMENT_CONFIRM_MS", 10000),
+            AppConfig.getLong("SEGMENT_STOP_DWELL_MS", 120000),
+            gapMillis,
+            AppConfig.getDouble("SEGMENT_GAP_METERS", 500.0));
+        if (enabled) {
+            long flushMillis = Math.max(100, AppConfig.getLong("SEGMENT_FLUSH_MS", 5000));
+            this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "agrinav-segment-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * アプリ全体で共有するインスタンスを取得
+     */
+    public static TripSegmentService getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * 保存された走行データ1件を、その機械の区間に足す
+     * @param id 保存した走行データのID
+     */
+    public void record(int id, TripData data) {
+        if (!enabled) {
+            return;
+        }
+        TripSegmenter segmenter = segmenters.computeIfAbsent(data.getMachineId(),
+            machineId -> new TripSegmenter(machineId, thresholds));
+        TripSegment closed;
+        synchronized (segmenter) {
+            closed = segmenter.add(id, data.getSpeed(), data.getDistance(),
+                data.getLatitude(), data.getLongitude(), data.getRecordedAt());
+            segmenter.arrived(System.currentTimeMillis());
+        }
+        if (closed != null) {
+            enqueue(closed);
+        }
+    }
+    
+    private void enqueue(TripSegment segment) {
+        synchronized (pendingLock) {
+            pending.add(segment);
+        }
+    }
+    
+    /**
+     * 時間の範囲に重なる区間を、古い順に取得（まだ保存していない区間・終わっていない区間も含む）
+     * @param machineId この機械の区間だけ（nullの場合は全部の機械）
+     * @param type この種類の区間だけ（nullの場合は全部の種類）
+     * @param from 開始
+     * @param to 終了（この時刻は含まない）
+     * @param limit 最大件数
+     * @return 区間と、終わっていない区間かどうか
+     */
+    public List<Entry> query(String machineId, TripSegment.Type type, Timestamp from, Timestamp to, int limit)
+            throws SQLException {
+        // 機械と開始IDが同じ区間は、後から入れた方（終わった区間）を使う
+        Map<String, Entry> merged = new LinkedHashMap<>();
+        for (TripSegmenter segmenter : segmenters.values()) {
+            TripSegment open;
+            synchronized (segmenter) {
+                open = segmenter.snapshot();
+            }
+            if (open != null) {
+                addIfMatches(merged, open, true, machineId, type, from.getTime(), to.getTime());
+            }
+        }
+        
+        visibilityLock.readLock().lock();
+        try {
+            for (TripSegment segment : repository.find(machineId, type, from, to, limit)) {
+                addIfMatches(merged, segment, false, machineId, type, from.getTime(), to.getTime());
+            }
+            List<TripSegment> inFlight = flushing;
+            if (inFlight != null) {
+                for (TripSegment segment : inFlight) {
+                    addIfMatches(merged, segment, false, machineId, type, from.getTime(), to.getTime());
+                }
+            }
+            synchronized (pendingLock) {
+                for (TripSegment segment : pending) {
+                    addIfMatches(merged, segment, false, machineId, type, from.getTime(), to.getTime());
+                }
+            }
+        } finally {
+            visibilityLock.readLock().unlock();
+        }
+        
+        List<Entry> list = new ArrayList<>(merged.values());
+        list.sort(Comparator.comparingLong(entry -> entry.segment.getStartTime()));
+        return list.size() > limit ? new ArrayList<>(list.subList(0, limit)) : list;
+    }
+    
+    private static void addIfMatches(Map<String, Entry> merged, TripSegment segment, boolean open, String machineId,
+                                     TripSegment.Type type, long fromMillis, long toMillis) {
+        if (segment.getEndTime() < fromMillis || segment.getStartTime() >= toMillis
+                || (machineId != null && !machineId.equals(segment.getMachineId()))
+                || (type != null && type != segment.getType())) {
+            return;
+        }
+        merged.put(segment.getMachineId() + "#" + segment.getStartId(), new Entry(segment, open));
+    }
+    
+    /**
+     * たまっている区間をデータベースへ保存する（定期的に呼ばれる）
+     * しばらくデータが届かない機械の区間もここで終わらせます。失敗した場合は、次の保存でもう一度試します
+     */
+    public synchronized void flush() {
+        closeIdle(System.currentTimeMillis() - gapMillis);
+        
+        List<TripSegment> batch;
+        synchronized (pendingLock) {
+            batch = pending;
+            if (batch.isEmpty()) {
+                return;
+            }
+            pending = new ArrayList<>();
+            flushing = batch;
+        }
+        
+        visibilityLock.writeLock().lock();
+        try {
+            repository.insertBatch(batch);
+            LOG.debug("📦 区間を保存しました: {}件", batch.size());
+        } catch (SQLException | RuntimeException e) {
+            LOG.warn("⚠️ 区間の保存エラー ({}件): {}", batch.size(), e.getMessage());
+            // 保存できなかった分を戻す
+            synchronized (pendingLock) {
+                pending.addAll(0, batch);
+            }
+        } finally {
+            flushing = null;
+            visibilityLock.writeLock().unlock();
+        }
+    }
+    
+    // しばらくデータが届いていない機械の区間を終わらせる
+    // （記録時刻ではなく届いた時刻で比べる。まとめて送られた古いデータで、区間を毎回終わらせないため）
+    private void closeIdle(long before) {
+        for (TripSegmenter segmenter : segmenters.values()) {
+            TripSegment closed = null;
+            synchronized (segmenter) {
+                if (segmenter.getLastArrival() < before) {
+                    closed = segmenter.close();
+                }
+            }
+            if (closed != null) {
+                enqueue(closed);
+            }
+        }
+    }
+    
+    /**
+     * まだ保存していない区間の数
+     */
+    public int getPendingCount() {
+        synchronized (pendingLock) {
+            return pending.size();
+        }
+    }
+    
+    /**
+     * 終わっていない区間も終わらせて保存し、終了する（アプリ終了時に呼ぶ）
+     */
+    public void shutdown() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            closeIdle(Long.MAX_VALUE);
+            flush();
+        }
+    }
+    
+    /**
+     * query() の結果1件（区間と、まだ終わっていない区間かどうか）
+     */
+    public static final class Entry {
+        public final TripSegment segment;
+        public final boolean open;
+        
+        Entry(TripSegment segment, boolean open) {
+            this.segment = segment;
+            this.open = open;
+        }
+    }
+}
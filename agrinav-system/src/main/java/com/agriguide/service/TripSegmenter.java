@@ -0,0 +1,234 @@
+package com.agriguide.service;
+
+import com.agriguide.model.TripSegment;
+import com.agriguide.model.TripSegment.Type;
+
+/**
+ * 1台の機械の走行データを、届いた順に区間（TripSegment）へ区切るクラス
+ *
+ * 走行データ1件ごとに、速度から状態を決めます。
+ * - 移動:   速度が transitKmh 以上（一度移動になったら transitExitKmh を下回るまで移動）
+ * - 作業中: 速度が moveKmh 以上（一度動き出したら stopKmh を下回るまで作業中）
+ * - 止まっている: それより遅い。stopDwellMillis より長く続いたら「停止」、短い場合は「アイドル」
+ *
+ * 状態が変わっても、confirmMillis の間続くまでは区間を区切りません（候補として別に数えておき、
+ * 元の状態に戻った場合は今の区間につなげます）。GPSの速度のぶれで区間が細かく分かれないようにするためです。
+ * 前の走行データから gapMillis より時間が空いた、または gapMeters より離れた場合は、
+ * 通信が途切れたものとして、その場で区間を終わらせて新しく始めます。
+ *
+ * 1件ごとの処理は数回の比較と足し算だけです。同時に呼ばないでください（呼び出し側で機械ごとに同期します）。
+ */
+public class TripSegmenter {
+    
+    // 緯度・経度1度あたりのおおよその距離（メートル）
+    private static final double METERS_PER_DEGREE_LAT = 110540.0;
+    private static final double METERS_PER_DEGREE_LON = 111320.0;
+    
+    /**
+     * 区切り方の設定（速度は km/h、時間はミリ秒、距離はメートル）
+     */
+    public static final class Thresholds {
+        final double moveKmh;
+        final double stopKmh;
+        final double transitKmh;
+        final double transitExitKmh;
+        final long confirmMillis;
+        final long stopDwellMillis;
+        final long gapMillis;
+        final double gapMeters;
+        
+        public Thresholds(double moveKmh, double stopKmh, double transitKmh, double transitExitKmh,
+                          long confirmMillis, long stopDwellMillis, long gapMillis, double gapMeters) {
+            this.moveKmh = moveKmh;
+            this.stopKmh = Math.min(stopKmh, moveKmh);
+            this.transitKmh = transitKmh;
+            this.transitExitKmh = Math.min(transitExitKmh, transitKmh);
+            this.confirmMillis = Math.max(0, confirmMillis);
+            this.stopDwellMillis = Math.max(0, stopDwellMillis);
+            this.gapMillis = Math.max(1, gapMillis);
+            this.gapMeters = gapMeters;
+        }
+    }
+    
+    private final String machineId;
+    private final Thresholds thresholds;
+    
+    // 今の区間と、状態が変わりかけている分（無い場合はnull）
+    private TripSegment current;
+    private TripSegment candidate;
+    
+    // 前の走行データ
+    private long lastTime;
+    private double lastDistance;
+    private double lastLatitude;
+    private double lastLongitude;
+    
+    // 最後に走行データが届いたサーバーの時刻（記録時刻とは別。しばらく届かない機械を見つけるため）
+    private long lastArrival;
+    
+    public TripSegmenter(String machineId, Thresholds thresholds) {
+        this.machineId = machineId;
+        this.thresholds = thresholds;
+    }
+    
+    /**
+     * 走行データ1件を足す
+     * @param time 記録時刻（1970年からのミリ秒、前のデータより古い場合は無視します）
+     * @return この1件で終わった区間（無い場合はnull）
+     */
+    public TripSegment add(int id, double speed, double distance, double latitude, double longitude, long time) {
+        if (current == null) {
+            current = start(classify(speed, null), id, speed, 0, latitude, longitude, time);
+            remember(distance, latitude, longitude, time);
+            return null;
+        }
+        if (time < lastTime) {
+            return null;
+        }
+        
+        // 通信が途切れていた場合は、そこで区切る
+        if (time - lastTime > thresholds.gapMillis
+                || metersBetween(lastLatitude, lastLongitude, latitude, longitude) > thresholds.gapMeters) {
+            TripSegment closed = close();
+            current = start(classify(speed, null), id, speed, 0, latitude, longitude, time);
+            remember(distance, latitude, longitude, time);
+            return closed;
+        }
+        
+        // 距離は走った合計なので差を足す（0に戻った場合は、戻ってから走った分）
+        double delta = distance >= lastDistance ? distance - lastDistance : distance;
+        remember(distance, latitude, longitude, time);
+        
+        Type type = classify(speed, candidate != null ? candidate.getType() : current.getType());
+        TripSegment closed = null;
+        if (sameState(type, current.getType())) {
+            // 元の状態に戻った（候補の分は今の区間につなげる）
+            if (candidate != null) {
+                current.append(candidate);
+                candidate = null;
+            }
+            current.add(id, speed, delta, latitude, longitude, time);
+        } else if (candidate != null && sameState(type, candidate.getType())) {
+            candidate.add(id, speed, delta, latitude, longitude, time);
+        } else {
+            if (candidate != null) {
+                current.append(candidate);
+            }
+            candidate = start(type, id, speed, delta, latitude, longitude, time);
+        }
+        
+        // 候補の状態が confirmMillis 続いたら、今の区間を終わらせて候補を新しい区間にする
+        if (candidate != null && candidate.getDurationMillis() >= thresholds.confirmMillis) {
+            current.setEndTime(candidate.getStartTime());
+            closed = finish(current);
+            current = candidate;
+            candidate = null;
+        }
+        markStopped(current);
+        return closed;
+    }
+    
+    /**
+     * 今の区間を終わらせる（しばらくデータが届かない機械や、アプリ終了時）
+     * @return 終わった区間（無い場合はnull）
+     */
+    public TripSegment close() {
+        if (current == null) {
+            return null;
+        }
+        if (candidate != null) {
+            current.append(candidate);
+            candidate = null;
+        }
+        TripSegment closed = finish(current);
+        current = null;
+        return closed;
+    }
+    
+    /**
+     * まだ終わっていない区間のコピー（無い場合はnull）
+     */
+    public TripSegment snapshot() {
+        if (current == null) {
+            return null;
+        }
+        TripSegment copy = current.copy();
+        if (candidate != null) {
+            copy.append(candidate);
+        }
+        markStopped(copy);
+        return copy;
+    }
+    
+    /**
+     * 最後に受け取った走行データの記録時刻（まだ無い場合は0）
+     */
+    public long getLastTime() {
+        return lastTime;
+    }
+    
+    /**
+     * 走行データが届いたサーバーの時刻を記録する
+     * （まとめて送られた古いデータは記録時刻が古いので、届かなくなったかどうかはこちらで判断する）
+     */
+    public void arrived(long arrivalMillis) {
+        lastArrival = Math.max(lastArrival, arrivalMillis);
+    }
+    
+    /**
+     * 最後に走行データが届いたサーバーの時刻（まだ無い場合は0）
+     */
+    public long getLastArrival() {
+        return lastArrival;
+    }
+    
+    private TripSegment start(Type type, int id, double speed, double delta, double latitude, double longitude,
+                              long time) {
+        TripSegment segment = new TripSegment(machineId, type, id, latitude, longitude, time);
+        segment.add(id, speed, delta, latitude, longitude, time);
+        return segment;
+    }
+    
+    private TripSegment finish(TripSegment segment) {
+        markStopped(segment);
+        return segment;
+    }
+    
+    // 止まっている区間が長く続いたら「停止」にする
+    private void markStopped(TripSegment segment) {
+        if (segment.getType() == Type.IDLE && segment.getDurationMillis() >= thresholds.stopDwellMillis) {
+            segment.setType(Type.STOPPED);
+        }
+    }
+    
+    // 速度から状態を決める（前の状態によって、抜けるときのしきい値を下げる）
+    private Type classify(double speed, Type previous) {
+        boolean inTransit = previous == Type.TRANSIT;
+        boolean moving = inTransit || previous == Type.MOVING;
+        if (speed >= (inTransit ? thresholds.transitExitKmh : thresholds.transitKmh)) {
+            return Type.TRANSIT;
+        }
+        if (speed >= (moving ? thresholds.stopKmh : thresholds.moveKmh)) {
+            return Type.MOVING;
+        }
+        return Type.IDLE;
+    }
+    
+    // アイドルと停止は同じ状態として扱う（長さで分けるだけ）
+    private static boolean sameState(Type a, Type b) {
+        return a == b || (a != Type.MOVING && a != Type.TRANSIT && b != Type.MOVING && b != Type.TRANSIT);
+    }
+    
+    private void remember(double distance, double latitude, double longitude, long time) {
+        lastDistance = distance;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastTime = time;
+    }
+    
+    private static double metersBetween(double lat1, double lon1, double lat2, double lon2) {
+        double dx = (lon2 - lon1) * METERS_PER_DEGREE_LON * Math.cos(Math.toRadians(lat1));
+        double dy = (lat2 - lat1) * METERS_PER_DEGREE_LAT;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,748 @@
+package com.agriguide.service;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import com.agriguide.util.AppConfig;
+import com.agriguide.util.LatencyHistogram;
+import com.agriguide.util.Log;
+
+/**
+ * 受け取ったデータを先にディスクへ書いておくログ（ライトアヘッドログ）
+ *
+ * サーブレットのスレッドは、メモリマップしたファイル（セグメント）の末尾に書くだけで戻ります。
+ * 裏の再生スレッドが古い順にまとめて読み出してデータベースへ保存し、
+ * どこまで保存できたかをチェックポイントのファイルに記録します。
+ *
+ * データベースが止まっている間はログにたまり続け、復旧すると続きから保存します。
+ * アプリが落ちても、次の起動時にチェックポイントの続きから保存し直します。
+ * 保存の直後（チェックポイントの記録前）に落ちた場合は、同じデータをもう一度再生します。
+ * 再生するデータには、ログのIDとログの中の番号（Codec.setSequence）を付けるので、
+ * 保存先はそれを見て、前回保存してあるデータを飛ばせます。
+ *
+ * ファイルの中身（1件ごと）:
+ *   長さ（4バイト）, CRC32（4バイト）, 書いた時刻（8バイト）, データ（長さバイト）
+ * 長さが0の場所がセグメントの終わりです。途中までしか書けていない最後の1件は、
+ * CRC32が合わないので起動時に捨てます。
+ *
+ * @param <T> 保存するデータの型
+ */
+public class WriteAheadLog<T> {
+    
+    private static final Log LOG = Log.get(WriteAheadLog.class);
+    
+    /**
+     * データとバイト列の変換
+     */
+    public interface Codec<T> {
+        /**
+         * 書き出したときのバイト数
+         */
+        int size(T item);
+        
+        void encode(T item, ByteBuffer out);
+        
+        T decode(ByteBuffer in);
+        
+        /**
+         * 再生するデータに、ログのIDとログの中の番号を付ける（同じデータなら何回再生しても同じ番号）
+         * 二重に保存しないようにする場合に実装します
+         */
+        default void setSequence(T item, String logId, long sequence) {
+        }
+    }
+    
+    // 1件ごとの先頭部分のバイト数（長さ, CRC32, 書いた時刻）
+    private static final int HEADER_BYTES = 16;
+    
+    // 失敗が続いたときの再試行の最大間隔
+    private static final long MAX_RETRY_MILLIS = 30000;
+    
+    private static final String SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String LOG_ID_FILE = "log-id";
+    
+    /**
+     * 1つのセグメント（固定サイズのファイル）
+     */
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        
+        // 書き終わった位置（この位置より前は読んでよい）
+        volatile int end;
+        
+        // これ以上書かない（次のセグメントに移った）
+        volatile boolean sealed;
+        
+        // マップを外した（消したセグメント。このセグメントのロックで守る）
+        boolean unmapped;
+        
+        Segment(long id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+        
+        // 書いた内容をディスクへ書き出す
+        synchronized void force() {
+            if (!unmapped) {
+                buffer.force();
+            }
+        }
+        
+        // マップを外す（GCを待たずにディスクの領域を返すため。これ以降 buffer は使えない）
+        synchronized void unmap() {
+            if (!unmapped) {
+                unmapped = true;
+                WriteAheadLog.unmap(buffer);
+            }
+        }
+    }
+    
+    // マップを外す処理（sun.misc.Unsafe.invokeCleaner。使えない場合はnullで、GCで外れるのを待つ）
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+    
+    static {
+        Method method = null;
+        Object unsafe = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            method = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("⚠️ メモリマップを外せないので、消したセグメントの領域はGCのあとで返ります");
+        }
+        INVOKE_CLEANER = method;
+        UNSAFE = unsafe;
+    }
+    
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("⚠️ メモリマップを外せません: {}", e.getMessage());
+        }
+    }
+    
+    private final String name;
+    private final Path directory;
+    private String logId;
+    private final Codec<T> codec;
+    private final WriteBehindQueue.BatchWriter<T> writer;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final int batchSize;
+    private final long retryMillis;
+    private final long syncMillis;
+    private final Thread replayer;
+    private volatile boolean running = true;
+    
+    // セグメントの一覧と書き込み中のセグメント（lockで守る）
+    private final Object lock = new Object();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    
+    // 次のセグメントに移ったあと、まだディスクへ書き出していないセグメント
+    private final List<Segment> unforced = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+    private boolean replayerWaiting;
+    
+    // 再生スレッドの読み込み位置と、保存できた位置（チェックポイント）
+    private long readSegmentId;
+    private int readOffset;
+    private volatile long checkpointSegmentId;
+    private volatile int checkpointOffset;
+    
+    // 統計情報
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LatencyHistogram replayLatency = new LatencyHistogram();
+    private long recovered;
+    
+    /**
+     * ログを開いて（前回の残りがあれば読み込んで）、再生スレッドを起動する
+     * @param name スレッド名やファイル名に使う名前
+     * @param directory セグメントを置くディレクトリ
+     * @param segmentBytes 1つのセグメントのバイト数
+     * @param maxBytes ディスクに置く最大バイト数（超える場合は書き込まない）
+     * @param batchSize 1回で保存する最大件数
+     * @param retryMillis 保存に失敗したときに再試行するまでの時間（失敗が続くと2倍ずつ延ばす）
+     * @param syncMillis 書いた内容をディスクへ書き出す間隔
+     * @param codec データとバイト列の変換
+     * @param writer まとめて保存する処理
+     * @throws IOException ディレクトリやファイルを用意できない場合
+     */
+    public WriteAheadLog(String name, Path directory, int segmentBytes, long maxBytes, int batchSize,
+                         long retryMillis, long syncMillis, Codec<T> codec,
+                         WriteBehindQueue.BatchWriter<T> writer) throws IOException {
+        this.name = name;
+        this.directory = directory;
+        this.segmentBytes = Math.max(4096, segmentBytes);
+        this.maxSegments = (int) Math.max(2, Math.min(Integer.MAX_VALUE, maxBytes / this.segmentBytes));
+        this.batchSize = Math.max(1, batchSize);
+        this.retryMillis = Math.max(1, retryMillis);
+        this.syncMillis = Math.max(1, syncMillis);
+        this.codec = codec;
+        this.writer = writer;
+        
+        Files.createDirectories(directory);
+        recover();
+        
+        this.replayer = new Thread(this::runReplayer, "agrinav-" + name + "-wal-replay");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+    
+    // 前回のセグメントとチェックポイントを読み込む
+    private void recover() throws IOException {
+        // ログのID（最初に開いたときに決めて、ずっと同じものを使う）
+        Path idFile = directory.resolve(LOG_ID_FILE);
+        if (Files.exists(idFile)) {
+            logId = Files.readString(idFile, StandardCharsets.US_ASCII).trim();
+        }
+        if (logId == null || logId.isEmpty()) {
+            logId = UUID.randomUUID().toString();
+            Path tmp = directory.resolve(LOG_ID_FILE + ".tmp");
+            Files.writeString(tmp, logId + "\n", StandardCharsets.US_ASCII);
+            Files.move(tmp, idFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        
+        // チェックポイント（"セグメント番号 位置"）
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            String[] parts = Files.readString(checkpoint, StandardCharsets.US_ASCII).trim().split(" ");
+            try {
+                checkpointSegmentId = Long.parseLong(parts[0]);
+                checkpointOffset = Integer.parseInt(parts[1]);
+            } catch (RuntimeException e) {
+                LOG.warn("⚠️ {} のチェックポイントが読めません。最初から保存し直します", name);
+            }
+        }
+        
+        // セグメントを番号順に開く
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "-*" + SUFFIX)) {
+            for (Path path : files) {
+                String fileName = path.getFileName().toString();
+                long id;
+                try {
+                    id = Long.parseLong(fileName.substring(name.length() + 1, fileName.length() - SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (id < checkpointSegmentId) {
+                    // 全部保存済み
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                Segment segment = new Segment(id, path, map(path, (int) Files.size(path)));
+                segment.end = scan(segment);
+                segment.sealed = true;
+                segments.put(id, segment);
+            }
+        }
+        
+        // 保存済みの位置から、残っている件数を数える
+        if (!segments.isEmpty() && segments.firstKey() > checkpointSegmentId) {
+            checkpointSegmentId = segments.firstKey();
+            checkpointOffset = 0;
+        }
+        for (Segment segment : segments.values()) {
+            int offset = segment.id == checkpointSegmentId ? checkpointOffset : 0;
+            while (offset < segment.end) {
+                offset += HEADER_BYTES + segment.buffer.getInt(offset);
+                recovered++;
+            }
+        }
+        readSegmentId = checkpointSegmentId;
+        readOffset = checkpointOffset;
+        
+        // 新しいデータは新しいセグメントに書く
+        long nextId = segments.isEmpty() ? checkpointSegmentId + 1 : segments.lastKey() + 1;
+        active = createSegment(nextId);
+        if (segments.size() == 1) {
+            // 残っているデータがない
+            checkpointSegmentId = nextId;
+            checkpointOffset = 0;
+            readSegmentId = nextId;
+            readOffset = 0;
+        }
+        
+        if (recovered > 0) {
+            LOG.info("📦 {} のログに未保存のデータが{}件あります。続きから保存します", name, recovered);
+        }
+    }
+    
+    // セグメントの中の正しく書けている部分の終わりを探す
+    private int scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int offset = 0;
+        while (offset + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + HEADER_BYTES + length > buffer.capacity()) {
+                break;
+            }
+            int expected = buffer.getInt(offset + 4);
+            crc.reset();
+            crc.update(buffer.duplicate().position(offset + HEADER_BYTES).limit(offset + HEADER_BYTES + length));
+            if ((int) crc.getValue() != expected) {
+                LOG.warn("⚠️ {} の位置{}以降は壊れているので捨てます", segment.path.getFileName(), offset);
+                break;
+            }
+            offset += HEADER_BYTES + length;
+        }
+        return offset;
+    }
+    
+    private MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // チャネルを閉じてもマップした領域は使える
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+    
+    /**
+     * 設定値（WAL_*）を使ってログを開く
+     * （置き場所の初期値は、OSやTomcatが消すことのある一時ディレクトリではなく、ホームディレクトリの中にする）
+     * @return 開けなかった場合はnull（ログを使わずに保存します）
+     */
+    public static <T> WriteAheadLog<T> open(String name, Codec<T> codec, WriteBehindQueue.BatchWriter<T> writer) {
+        Path directory = Path.of(AppConfig.getString("WAL_DIR",
+            Path.of(System.getProperty("user.home"), "agrinav", "wal").toString())).resolve(name);
+        try {
+            WriteAheadLog<T> log = new WriteAheadLog<>(name, directory,
+                AppConfig.getInt("WAL_SEGMENT_BYTES", 64 * 1024 * 1024),
+                AppConfig.getLong("WAL_MAX_BYTES", 1024L * 1024 * 1024),
+                AppConfig.getInt("WAL_BATCH_SIZE", 500),
+                AppConfig.getLong("WAL_RETRY_MS", 1000),
+                AppConfig.getLong("WAL_SYNC_MS", 1000),
+                codec, writer);
+            LOG.info("📦 {} のライトアヘッドログ: {}", name, directory.toAbsolutePath());
+            return log;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("⚠️ {} のライトアヘッドログを開けません: {}", name, e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 文字列（ASCII、255文字まで）を書く（Codecの実装用）
+     */
+    static void putString(ByteBuffer out, String value) {
+        out.put((byte) value.length());
+        for (int i = 0; i < value.length(); i++) {
+            out.put((byte) value.charAt(i));
+        }
+    }
+    
+    /**
+     * putString で書いた文字列を読む
+     */
+    static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.get() & 0xFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+    
+    // lockを持って呼ぶ
+    private Segment createSegment(long id) throws IOException {
+        Path path = directory.resolve(String.format("%s-%016d%s", name, id, SUFFIX));
+        Segment segment = new Segment(id, path, map(path, segmentBytes));
+        segments.put(id, segment);
+        return segment;
+    }
+    
+    /**
+     * データをログの末尾に書く
+     * @return 書けた場合はtrue、ディスクの上限に達した場合や停止後はfalse
+     */
+    public boolean append(T item) {
+        synchronized (lock) {
+            return appendLocked(item);
+        }
+    }
+    
+    /**
+     * 複数のデータを順番にログの末尾に書く
+     * @return 書けた件数（途中で上限に達した場合は、そこまでの件数）
+     */
+    public int appendAll(List<T> items) {
+        synchronized (lock) {
+            int count = 0;
+            while (count < items.size() && appendLocked(items.get(count))) {
+                count++;
+            }
+            return count;
+        }
+    }
+    
+    /**
+     * WriteBehindQueue でやり直しても保存できなかったバッチを、このログに書く処理
+     * （ログに書いた分は、再生スレッドがあとで保存します）
+     */
+    public WriteBehindQueue.BatchWriter<T> asDeadLetter() {
+        return batch -> {
+            int logged = appendAll(batch);
+            if (logged < batch.size()) {
+                throw new SQLException(name + " log is full: " + (batch.size() - logged) + " records not logged");
+            }
+        };
+    }
+    
+    // lockを持って呼ぶ
+    private boolean appendLocked(T item) {
+        int length = codec.size(item);
+        if (!running || HEADER_BYTES + length > segmentBytes) {
+            rejected.increment();
+            return false;
+        }
+        
+        // 入りきらない場合は次のセグメントへ
+        Segment segment = active;
+        if (segment.end + HEADER_BYTES + length > segmentBytes) {
+            if (segments.size() >= maxSegments) {
+                rejected.increment();
+                return false;
+            }
+            try {
+                Segment next = createSegment(segment.id + 1);
+                segment.sealed = true;
+                unforced.add(segment);
+                active = next;
+                segment = next;
+            } catch (IOException e) {
+                LOG.error("❌ {} のセグメントを作れません: {}", name, e.getMessage());
+                rejected.increment();
+                return false;
+            }
+        }
+        
+        // データ → CRC32 → 先頭部分 の順に書き、最後に end を進める（再生スレッドに見せる）
+        int offset = segment.end;
+        ByteBuffer out = segment.buffer.duplicate();
+        out.position(offset + HEADER_BYTES);
+        codec.encode(item, out);
+        crc.reset();
+        crc.update(segment.buffer.duplicate().position(offset + HEADER_BYTES).limit(offset + HEADER_BYTES + length));
+        out.putInt(offset, length);
+        out.putInt(offset + 4, (int) crc.getValue());
+        out.putLong(offset + 8, System.currentTimeMillis());
+        segment.end = offset + HEADER_BYTES + length;
+        appended.increment();
+        
+        if (replayerWaiting) {
+            replayerWaiting = false;
+            lock.notifyAll();
+        }
+        return true;
+    }
+    
+    // 再生スレッドの処理
+    private void runReplayer() {
+        List<T> batch = new ArrayList<>(batchSize);
+        long backoff = retryMillis;
+        long lastSync = System.currentTimeMillis();
+        boolean failing = false;
+        
+        // 停止後も、データベースに保存できる間は残りを保存する
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (now - lastSync >= syncMillis) {
+                sync();
+                lastSync = now;
+            }
+            
+            readBatch(batch);
+            if (batch.isEmpty()) {
+                if (!running) {
+                    break;
+                }
+                synchronized (lock) {
+                    if (!hasUnread()) {
+                        replayerWaiting = true;
+                        try {
+                            lock.wait(syncMillis);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+                continue;
+            }
+            
+            long start = System.nanoTime();
+            try {
+                writer.write(batch);
+                replayLatency.recordSince(start);
+                replayed.add(batch.size());
+                checkpoint(readSegmentId, readOffset);
+                if (failing) {
+                    LOG.info("✅ {} のログからの保存を再開しました", name);
+                    failing = false;
+                }
+                backoff = retryMillis;
+            } catch (SQLException | RuntimeException e) {
+                failedAttempts.increment();
+                if (!failing) {
+                    LOG.error("❌ {} のログからの保存エラー（あとで再試行します）: {}", name, e.getMessage());
+                    failing = true;
+                }
+                // 保存できた位置まで戻って、しばらく待ってからやり直す
+                readSegmentId = checkpointSegmentId;
+                readOffset = checkpointOffset;
+                if (!running) {
+                    break;  // 残りは次の起動時に保存する
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                backoff = Math.min(backoff * 2, MAX_RETRY_MILLIS);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+    
+    // lockを持って呼ぶ
+    private boolean hasUnread() {
+        Segment segment = segments.get(readSegmentId);
+        return segment != null && (readOffset < segment.end || segments.higherKey(readSegmentId) != null);
+    }
+    
+    // 読み込み位置から最大batchSize件を読む
+    private void readBatch(List<T> out) {
+        Segment segment;
+        synchronized (lock) {
+            segment = segments.get(readSegmentId);
+        }
+        while (segment != null && out.size() < batchSize) {
+            // sealed を先に読む（sealed のときは end がもう変わらない）
+            boolean sealed = segment.sealed;
+            int end = segment.end;
+            if (readOffset >= end) {
+                if (!sealed) {
+                    break;
+                }
+                synchronized (lock) {
+                    Map.Entry<Long, Segment> next = segments.higherEntry(segment.id);
+                    segment = next != null ? next.getValue() : null;
+                }
+                if (segment != null) {
+                    readSegmentId = segment.id;
+                    readOffset = 0;
+                }
+                continue;
+            }
+            ByteBuffer in = segment.buffer.duplicate();
+            int length = in.getInt(readOffset);
+            in.position(readOffset + HEADER_BYTES).limit(readOffset + HEADER_BYTES + length);
+            T item = codec.decode(in);
+            // セグメント番号と位置から作る番号（ファイルの中身が同じなら何回読んでも同じ）
+            codec.setSequence(item, logId, (segment.id << 32) | readOffset);
+            out.add(item);
+            readOffset += HEADER_BYTES + length;
+        }
+    }
+    
+    // 保存できた位置を記録して、全部保存したセグメントを消す
+    private void checkpoint(long segmentId, int offset) {
+        checkpointSegmentId = segmentId;
+        checkpointOffset = offset;
+        try {
+            Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+            Files.writeString(tmp, segmentId + " " + offset + "\n", StandardCharsets.US_ASCII);
+            Files.move(tmp, directory.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("⚠️ {} のチェックポイントを書けません: {}", name, e.getMessage());
+            return;
+        }
+        
+        List<Segment> done = new ArrayList<>();
+        synchronized (lock) {
+            while (!segments.isEmpty() && segments.firstKey() < segmentId) {
+                done.add(segments.pollFirstEntry().getValue());
+            }
+            unforced.removeAll(done);
+        }
+        for (Segment segment : done) {
+            // マップしたまま消すと、GCで外れるまでディスクの領域が返らない
+            segment.unmap();
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                LOG.warn("⚠️ {} を消せません: {}", segment.path.getFileName(), e.getMessage());
+            }
+        }
+    }
+    
+    // 書いた内容をディスクへ書き出す（途中で次のセグメントに移った場合は、前のセグメントも）
+    private void sync() {
+        List<Segment> targets;
+        synchronized (lock) {
+            targets = new ArrayList<>(unforced);
+            unforced.clear();
+            targets.add(active);
+        }
+        for (Segment segment : targets) {
+            segment.force();
+        }
+    }
+    
+    /**
+     * 新しい書き込みを止めて、保存できる分を保存してから終了する
+     * 保存しきれなかった分はファイルに残り、次の起動時に保存されます
+     * @param timeoutMillis 待つ最大時間
+     */
+    public void shutdown(long timeoutMillis) {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            replayer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sync();
+        long lag = getLagCount();
+        if (lag > 0) {
+            LOG.warn("⚠️ {} のログに {}件を残したまま終了します（次の起動時に保存します）", name, lag);
+        }
+    }
+    
+    public long getAppendedCount() {
+        return appended.sum();
+    }
+    
+    public long getReplayedCount() {
+        return replayed.sum();
+    }
+    
+    /**
+     * ディスクの上限などで書き込めなかった件数
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    /**
+     * データベースへの保存に失敗した回数
+     */
+    public long getFailedAttempts() {
+        return failedAttempts.sum();
+    }
+    
+    /**
+     * まだデータベースに保存していない件数（再生の遅れ）
+     */
+    public long getLagCount() {
+        return Math.max(0, recovered + appended.sum() - replayed.sum());
+    }
+    
+    /**
+     * まだデータベースに保存していないバイト数
+     */
+    public long getLagBytes() {
+        long segmentId = checkpointSegmentId;
+        int offset = checkpointOffset;
+        long bytes = 0;
+        synchronized (lock) {
+            for (Segment segment : segments.tailMap(segmentId, true).values()) {
+                bytes += segment.end - (segment.id == segmentId ? offset : 0);
+            }
+        }
+        return Math.max(0, bytes);
+    }
+    
+    /**
+     * まだ保存していない一番古いデータを書いてからの時間（ミリ秒、遅れがない場合は0）
+     */
+    public long getLagMillis() {
+        long segmentId = checkpointSegmentId;
+        int offset = checkpointOffset;
+        Segment segment;
+        synchronized (lock) {
+            segment = segments.get(segmentId);
+            if (segment != null && offset >= segment.end) {
+                Map.Entry<Long, Segment> next = segments.higherEntry(segmentId);
+                segment = next != null && next.getValue().end > 0 ? next.getValue() : null;
+                offset = 0;
+            }
+        }
+        if (segment == null || offset >= segment.end) {
+            return 0;
+        }
+        synchronized (segment) {
+            // 読んでいる間に保存が終わって、消されている場合
+            if (segment.unmapped) {
+                return 0;
+            }
+            return Math.max(0, System.currentTimeMillis() - segment.buffer.getLong(offset + 8));
+        }
+    }
+    
+    /**
+     * ディスクに置いているバイト数（セグメントの数 × セグメントのサイズ）
+     */
+    public long getDiskBytes() {
+        synchronized (lock) {
+            long bytes = 0;
+            for (Segment segment : segments.values()) {
+                bytes += segment.buffer.capacity();
+            }
+            return bytes;
+        }
+    }
+    
+    public int getSegmentCount() {
+        synchronized (lock) {
+            return segments.size();
+        }
+    }
+    
+    /**
+     * 1回の保存にかかった時間のヒストグラム
+     */
+    public LatencyHistogram getReplayLatency() {
+        return replayLatency;
+    }
+    
+    @Override
+    public String toString() {
+        return "WriteAheadLog{" + name + ", lag=" + getLagCount() + "件/" + getLagBytes() + "バイト/"
+            + getLagMillis() + "ms, segments=" + getSegmentCount() + ", appended=" + getAppendedCount()
+            + ", replayed=" + getReplayedCount() + ", rejected=" + getRejectedCount()
+            + ", failedAttempts=" + getFailedAttempts() + ", replay=[" + replayLatency + "]}";
+    }
+}
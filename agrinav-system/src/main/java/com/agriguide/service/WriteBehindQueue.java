@@ -0,0 +1,350 @@
+package com.agriguide.service;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.agriguide.util.LatencyHistogram;
+import com.agriguide.util.Log;
+
+/**
+ * 書き込みを後回しにしてまとめて保存するキュー（ライトビハインド）
+ *
+ * サーブレットのスレッドはキューに入れるだけですぐに戻ります。
+ * 裏の書き込みスレッドがキューからデータを取り出し、
+ * 「batchSize件たまった」か「flushIntervalMillis経った」タイミングで
+ * まとめてデータベースに保存します（1回のコミットで複数件）。
+ *
+ * キューは書き込みスレッドごとに分かれていて、同じキー（機械ID）のデータは
+ * いつも同じスレッドが保存します。そのため、1台の機械のデータは届いた順に保存されます。
+ *
+ * 保存に失敗したバッチは、間隔を2倍ずつ延ばしながら maxRetries 回までやり直します。
+ * それでも保存できない場合（停止中も含む）は deadLetter に渡します（ライトアヘッドログなど）。
+ * deadLetter にも書けなかった分だけが失われ、failed として数えます。
+ *
+ * @param <T> 保存するデータの型
+ */
+public class WriteBehindQueue<T> {
+    
+    private static final Log LOG = Log.get(WriteBehindQueue.class);
+    
+    /**
+     * まとめて保存する処理（Repositoryのバッチ保存を呼び出す）
+     * 例外を投げるとバッチ全体をやり直すので、保存したあとの処理のエラーは外に出さないでください
+     */
+    public interface BatchWriter<T> {
+        void write(List<T> batch) throws SQLException;
+    }
+    
+    // バッチサイズの分布を数えるバケット数（1, 2〜3, 4〜7, ... と2倍ずつ）
+    private static final int SIZE_BUCKETS = 16;
+    
+    // 失敗が続いたときの再試行の最大間隔
+    private static final long MAX_RETRY_MILLIS = 30000;
+    
+    private final String name;
+    private final ArrayBlockingQueue<T>[] queues;
+    private final Function<T, String> keyOf;
+    private final BatchWriter<T> writer;
+    private final BatchWriter<T> deadLetter;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long offerTimeoutMillis;
+    private final int maxRetries;
+    private final long retryMillis;
+    private final Thread[] threads;
+    private volatile boolean running = true;
+    
+    // 統計情報
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder[] batchSizes = new LongAdder[SIZE_BUCKETS];
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+    
+    /**
+     * @param name スレッド名などに使う名前
+     * @param capacity キューに入れられる最大件数
+     * @param batchSize 1回で保存する最大件数
+     * @param flushIntervalMillis 件数がたまらなくても保存するまでの時間
+     * @param offerTimeoutMillis キューが満杯のときに空きを待つ時間
+     * @param writerThreads 書き込みスレッドの数（キューもこの数に分ける）
+     * @param maxRetries 保存に失敗したときにやり直す最大回数
+     * @param retryMillis 最初にやり直すまでの時間（失敗が続くと2倍ずつ延ばす）
+     * @param keyOf 同じ順番で保存したいデータのキー（機械IDなど）
+     * @param writer まとめて保存する処理
+     * @param deadLetter やり直しても保存できなかったバッチを渡す先（nullの場合は失う）
+     */
+    @SuppressWarnings("unchecked")
+    public WriteBehindQueue(String name, int capacity, int batchSize, long flushIntervalMillis,
+                            long offerTimeoutMillis, int writerThreads, int maxRetries, long retryMillis,
+                            Function<T, String> keyOf, BatchWriter<T> writer, BatchWriter<T> deadLetter) {
+        this.name = name;
+        int threadCount = Math.max(1, writerThreads);
+        this.queues = (ArrayBlockingQueue<T>[]) new ArrayBlockingQueue<?>[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            queues[i] = new ArrayBlockingQueue<>(Math.max(1, capacity / threadCount));
+        }
+        this.keyOf = keyOf;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+        this.offerTimeoutMillis = Math.max(0, offerTimeoutMillis);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryMillis = Math.max(1, retryMillis);
+        this.writer = writer;
+        this.deadLetter = deadLetter;
+        for (int i = 0; i < batchSizes.length; i++) {
+            batchSizes[i] = new LongAdder();
+        }
+        
+        // 書き込みスレッドを起動（1本のスレッドが1つのキューを受け持つ）
+        this.threads = new Thread[threadCount];
+        for (int i = 0; i < threads.length; i++) {
+            ArrayBlockingQueue<T> queue = queues[i];
+            threads[i] = new Thread(() -> runWriter(queue), "agrinav-" + name + "-writer-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+    
+    /**
+     * データをキューに入れる
+     * @return 入れられた場合はtrue、満杯のまま待ち時間が過ぎた場合はfalse
+     */
+    public boolean offer(T item) {
+        if (!running) {
+            rejected.increment();
+            return false;
+        }
+        ArrayBlockingQueue<T> queue = queues[Math.floorMod(keyOf.apply(item).hashCode(), queues.length)];
+        try {
+            if (queue.offer(item, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                enqueued.increment();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejected.increment();
+        return false;
+    }
+    
+    // 書き込みスレッドの処理
+    private void runWriter(ArrayBlockingQueue<T> queue) {
+        List<T> batch = new ArrayList<>(batchSize);
+        
+        // 停止後もキューが空になるまでは書き込みを続ける
+        while (running || !queue.isEmpty()) {
+            try {
+                // 1件目が来るまで待つ
+                T first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                
+                // batchSize件になるか、flushIntervalMillis経つまで集める
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    if (batch.size() >= batchSize || !running) {
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    T next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // 停止の合図。集めた分は下で保存する
+                Thread.currentThread().interrupt();
+            }
+            
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+            if (Thread.currentThread().isInterrupted() && queue.isEmpty()) {
+                break;
+            }
+        }
+    }
+    
+    // 集めたデータをまとめて保存（失敗した場合は待ってからやり直し、だめなら deadLetter へ）
+    // やり直している間はこのスレッドのキューは進まないので、同じ機械のデータが追い越すことはない
+    private void flush(List<T> batch) {
+        long start = System.nanoTime();
+        long backoff = retryMillis;
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    writer.write(batch);
+                    written.add(batch.size());
+                    return;
+                } catch (SQLException | RuntimeException e) {
+                    if (attempt >= maxRetries || !running) {
+                        LOG.error("❌ {} のバッチ保存エラー ({}件): {}", name, batch.size(), e.getMessage());
+                        break;
+                    }
+                    retried.increment();
+                    LOG.warn("⚠️ {} のバッチ保存エラー（{}ms後にやり直します）: {}", name, backoff, e.getMessage());
+                }
+                if (!sleepWhileRunning(backoff)) {
+                    // 停止の合図。やり直さずに deadLetter へ渡す
+                    break;
+                }
+                backoff = Math.min(backoff * 2, MAX_RETRY_MILLIS);
+            }
+            
+            if (deadLetter != null) {
+                try {
+                    deadLetter.write(batch);
+                    deadLettered.add(batch.size());
+                    LOG.warn("⚠️ {} の保存できなかった{}件を、あとで保存するためにログへ書きました", name, batch.size());
+                    return;
+                } catch (SQLException | RuntimeException e) {
+                    LOG.error("❌ {} の保存できなかったデータをログへ書けません: {}", name, e.getMessage());
+                }
+            }
+            failed.add(batch.size());
+            LOG.error("❌ {} のデータ{}件を保存できずに失いました", name, batch.size());
+        } finally {
+            flushLatency.recordSince(start);
+            int bucket = 31 - Integer.numberOfLeadingZeros(batch.size());
+            batchSizes[Math.min(bucket, SIZE_BUCKETS - 1)].increment();
+        }
+    }
+    
+    // 停止するまで待つ（停止した、または割り込まれた場合はfalse）
+    private boolean sleepWhileRunning(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            while (running) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return true;
+                }
+                Thread.sleep(Math.min(remaining, 100));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+    
+    /**
+     * 新しい受付を止めて、キューに残っているデータを保存してから終了する
+     * @param timeoutMillis 待つ最大時間
+     */
+    public void shutdown(long timeoutMillis) {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Thread t : threads) {
+            try {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining > 0) {
+                    t.join(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        int depth = getQueueDepth();
+        if (depth > 0) {
+            LOG.warn("⚠️ {} のキューに {}件が残ったまま終了します", name, depth);
+        }
+    }
+    
+    /**
+     * 現在キューに入っている件数（全部のキューの合計）
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ArrayBlockingQueue<T> queue : queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+    
+    public int getCapacity() {
+        int capacity = 0;
+        for (ArrayBlockingQueue<T> queue : queues) {
+            capacity += queue.size() + queue.remainingCapacity();
+        }
+        return capacity;
+    }
+    
+    public long getEnqueuedCount() {
+        return enqueued.sum();
+    }
+    
+    public long getWrittenCount() {
+        return written.sum();
+    }
+    
+    /**
+     * 保存をやり直した回数
+     */
+    public long getRetriedCount() {
+        return retried.sum();
+    }
+    
+    /**
+     * やり直しても保存できず、deadLetter に渡した件数
+     */
+    public long getDeadLetteredCount() {
+        return deadLettered.sum();
+    }
+    
+    /**
+     * 保存できず、deadLetter にも渡せずに失った件数
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+    
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    /**
+     * バッチサイズの分布
+     * index i のバケットは 2^i 〜 2^(i+1)-1 件のバッチの回数です
+     */
+    public long[] getBatchSizeCounts() {
+        long[] counts = new long[batchSizes.length];
+        for (int i = 0; i < batchSizes.length; i++) {
+            counts[i] = batchSizes[i].sum();
+        }
+        return counts;
+    }
+    
+    /**
+     * 1回の保存にかかった時間のヒストグラム
+     */
+    public LatencyHistogram getFlushLatency() {
+        return flushLatency;
+    }
+    
+    @Override
+    public String toString() {
+        return "WriteBehindQueue{" + name + ", depth=" + getQueueDepth() + "/" + getCapacity()
+            + ", enqueued=" + getEnqueuedCount() + ", written=" + getWrittenCount()
+            + ", retried=" + getRetriedCount() + ", deadLettered=" + getDeadLetteredCount()
+            + ", failed=" + getFailedCount() + ", rejected=" + getRejectedCount()
+            + ", flush=[" + flushLatency + "]}";
+    }
+}
@@ -0,0 +1,265 @@
+package com.agriguide.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 列ごとの値を、ビット単位で詰めて書く・読むクラス（ColumnarTable から使います）
+ *
+ * - 整数（ID・時刻）: 「差の差」を書きます。IDは1ずつ、時刻はほぼ一定間隔で増えるので、
+ *   ほとんどの行が1ビット（差の差が0）で済みます
+ * - 小数（速度・緯度など）: 前の値とのXORを書きます（Gorilla方式）。
+ *   値が少ししか変わらない場合は、変わったビットの部分だけを書きます
+ * - 機械の番号: 前の行と同じなら1ビット、違う場合だけ番号を書きます
+ */
+final class BlockCodec {
+    
+    private BlockCodec() {
+    }
+    
+    /**
+     * 1ブロック分の最大バイト数（書く前に空きを確認するため）
+     * 一番長いのは小数の列で、1行あたり最大 2 + 5 + 6 + 64 ビット ＋ 最初の値
+     */
+    static int maxEncodedBytes(int rows) {
+        return rows * 10 + 16;
+    }
+    
+    // ---- ビット単位の書き込み・読み込み ----
+    
+    /**
+     * ByteBuffer の今の位置から、ビット単位で書く
+     */
+    static final class BitWriter {
+        private final ByteBuffer out;
+        private long pending;
+        private int pendingBits;
+        
+        BitWriter(ByteBuffer out) {
+            this.out = out;
+        }
+        
+        /**
+         * value の下位 bits ビットを書く（bits は 1〜64）
+         */
+        void write(long value, int bits) {
+            if (bits > 32) {
+                write(value >>> 32, bits - 32);
+                write(value & 0xFFFFFFFFL, 32);
+                return;
+            }
+            pending = (pending << bits) | (value & ((1L << bits) - 1));
+            pendingBits += bits;
+            while (pendingBits >= 8) {
+                pendingBits -= 8;
+                out.put((byte) (pending >>> pendingBits));
+            }
+            pending &= (1L << pendingBits) - 1;
+        }
+        
+        /**
+         * 残りのビットを書き出す（最後のバイトの余りは0）
+         */
+        void flush() {
+            if (pendingBits > 0) {
+                out.put((byte) (pending << (8 - pendingBits)));
+                pending = 0;
+                pendingBits = 0;
+            }
+        }
+    }
+    
+    /**
+     * ByteBuffer の今の位置から、ビット単位で読む
+     */
+    static final class BitReader {
+        private final ByteBuffer in;
+        private long pending;
+        private int pendingBits;
+        
+        BitReader(ByteBuffer in) {
+            this.in = in;
+        }
+        
+        long read(int bits) {
+            if (bits > 32) {
+                long high = read(bits - 32);
+                return (high << 32) | read(32);
+            }
+            while (pendingBits < bits) {
+                pending = (pending << 8) | (in.get() & 0xFF);
+                pendingBits += 8;
+            }
+            pendingBits -= bits;
+            long value = (pending >>> pendingBits) & ((1L << bits) - 1);
+            pending &= (1L << pendingBits) - 1;
+            return value;
+        }
+        
+        boolean readBit() {
+            return read(1) == 1;
+        }
+    }
+    
+    // ---- 整数の列（差の差） ----
+    
+    static void encodeLongs(long[] values, int count, ByteBuffer out) {
+        BitWriter w = new BitWriter(out);
+        long previous = 0;
+        long previousDelta = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                w.write(values[0], 64);
+            } else {
+                long delta = values[i] - previous;
+                writeVarBits(w, delta - previousDelta);
+                previousDelta = delta;
+            }
+            previous = values[i];
+        }
+        w.flush();
+    }
+    
+    static void decodeLongs(ByteBuffer in, long[] values, int count) {
+        BitReader r = new BitReader(in);
+        long previous = 0;
+        long previousDelta = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                previous = r.read(64);
+            } else {
+                previousDelta += readVarBits(r);
+                previous += previousDelta;
+            }
+            values[i] = previous;
+        }
+    }
+    
+    // 差の差を、大きさに合わせたビット数で書く
+    // 0 → "0"、7ビット → "10"、12ビット → "110"、20ビット → "1110"、それ以上 → "1111" + 64ビット
+    // 差の差の絶対値が2^62以上（時刻が大きく飛んだ場合など）だと zigzag の最上位ビットが立ち、
+    // 符号付きで比べると負になるので、上位ビットが残っているかで比べる（その場合は必ず64ビットで書く）
+    private static void writeVarBits(BitWriter w, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        if (zigzag == 0) {
+            w.write(0b0, 1);
+        } else if ((zigzag >>> 7) == 0) {
+            w.write(0b10, 2);
+            w.write(zigzag, 7);
+        } else if ((zigzag >>> 12) == 0) {
+            w.write(0b110, 3);
+            w.write(zigzag, 12);
+        } else if ((zigzag >>> 20) == 0) {
+            w.write(0b1110, 4);
+            w.write(zigzag, 20);
+        } else {
+            w.write(0b1111, 4);
+            w.write(zigzag, 64);
+        }
+    }
+    
+    private static long readVarBits(BitReader r) {
+        long zigzag;
+        if (!r.readBit()) {
+            return 0;
+        } else if (!r.readBit()) {
+            zigzag = r.read(7);
+        } else if (!r.readBit()) {
+            zigzag = r.read(12);
+        } else if (!r.readBit()) {
+            zigzag = r.read(20);
+        } else {
+            zigzag = r.read(64);
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+    
+    // ---- 小数の列（XOR） ----
+    
+    static void encodeDoubles(double[] values, int count, ByteBuffer out) {
+        BitWriter w = new BitWriter(out);
+        long previous = 0;
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = 0; i < count; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            if (i == 0) {
+                w.write(bits, 64);
+                previous = bits;
+                continue;
+            }
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                // 前と同じ値
+                w.write(0b0, 1);
+                continue;
+            }
+            int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                // 変わったビットが前回の範囲に収まる → 範囲の中だけ書く
+                w.write(0b10, 2);
+                w.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                // 範囲（先頭の0の数、長さ）を書いてから中身を書く
+                int length = 64 - leading - trailing;
+                w.write(0b11, 2);
+                w.write(leading, 5);
+                w.write(length - 1, 6);
+                w.write(xor >>> trailing, length);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+        w.flush();
+    }
+    
+    static void decodeDoubles(ByteBuffer in, double[] values, int count) {
+        BitReader r = new BitReader(in);
+        long previous = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                previous = r.read(64);
+            } else if (r.readBit()) {
+                if (r.readBit()) {
+                    leading = (int) r.read(5);
+                    int length = (int) r.read(6) + 1;
+                    trailing = 64 - leading - length;
+                }
+                long xor = r.read(64 - leading - trailing) << trailing;
+                previous ^= xor;
+            }
+            values[i] = Double.longBitsToDouble(previous);
+        }
+    }
+    
+    // ---- 機械の番号の列 ----
+    
+    static void encodeCodes(int[] codes, int count, ByteBuffer out) {
+        BitWriter w = new BitWriter(out);
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            if (codes[i] == previous) {
+                w.write(0b0, 1);
+            } else {
+                w.write(0b1, 1);
+                w.write(codes[i], 16);
+                previous = codes[i];
+            }
+        }
+        w.flush();
+    }
+    
+    static void decodeCodes(ByteBuffer in, int[] codes, int count) {
+        BitReader r = new BitReader(in);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            if (r.readBit()) {
+                previous = (int) r.read(16);
+            }
+            codes[i] = previous;
+        }
+    }
+}
@@ -0,0 +1,1137 @@
+package com.agriguide.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.agriguide.util.Log;
+
+/**
+ * 列ごとに分けて、追記だけで保存する時系列のテーブル（データベースサーバーが無い環境用）
+ *
+ * 1行は ID（1から順番）, 時刻（ミリ秒）, 機械ID, 小数の列（速度・緯度など）です。
+ * 新しい行は、メモリ上の書き込み中のブロック（blockRows 行）と、
+ * メモリマップした tail.log に書きます。ブロックがいっぱいになると、
+ * 列ごとに圧縮して（BlockCodec）セグメントの列ファイルの末尾に追記し、
+ * 索引（ブロックごとのIDと時刻の範囲）に1件追加します。
+ *
+ * ディレクトリの中身:
+ *   machines.dict          機械IDの一覧（1行に1つ。行番号が機械の番号）
+ *   tail.log               まだブロックになっていない行（起動時に読み込み直す）
+ *   positions              出どころ（ライトアヘッドログなど）ごとの、最後に追加した行の位置
+ *   seg-00000001/index.bin ブロックの索引（最初のID, 最後のID, 最小・最大の時刻, 行数, 列ごとの位置と長さ,
+ *                          入っている機械の目印, 小数の列ごとの最小・最大の値）
+ *   seg-00000001/id.col など 列ごとの圧縮したデータ
+ *
+ * 索引の件数（ヘッダーの「確定したブロック数」）は列と索引をディスクへ書き出してから書くので、
+ * 途中で落ちた場合は書きかけのブロックは無かったことになり、tail.log から作り直します。
+ * tail.log を空にするのは、確定したブロック数をディスクへ書き出したあとです。
+ *
+ * 読み込むときは、索引の時刻・機械・値の範囲が合わないブロックは展開せずに飛ばします。
+ * 形式1の索引（機械と値の範囲が無い）のセグメントも読めます（時刻だけで飛ばします）。
+ *
+ * appendAll() は、例外になりうる処理を行を書く前に済ませるので、途中まで追加して失敗することはありません。
+ */
+public class ColumnarTable {
+    
+    private static final Log LOG = Log.get(ColumnarTable.class);
+    
+    /**
+     * 読み込んだ行を1件ずつ受け取る処理
+     */
+    public interface RowVisitor {
+        /**
+         * @param values 小数の列の値（次の行で中身が変わるので、取っておく場合はコピーしてください）
+         * @return 件数に数える場合はtrue（呼び出し側の絞り込みで外した行はfalse）
+         */
+        boolean row(long id, long time, String machineId, double[] values) throws IOException;
+    }
+    
+    /**
+     * 1行分のデータ（機械ごとの最新の行）
+     */
+    public static final class Row {
+        public final long id;
+        public final long time;
+        public final String machineId;
+        public final double[] values;
+        
+        Row(long id, long time, String machineId, double[] values) {
+            this.id = id;
+            this.time = time;
+            this.machineId = machineId;
+            this.values = values;
+        }
+    }
+    
+    // ファイルの先頭に書く目印と形式の番号
+    private static final int MAGIC = 0x41475453;
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_STATS = 1;
+    
+    // 索引のヘッダー（目印, 形式, 列の数, 確定したブロック数）と、1ブロック分の固定部分
+    // （形式2では、列ごとの位置と長さのあとに、機械の目印と小数の列ごとの最小・最大の値が続く）
+    private static final int INDEX_HEADER_BYTES = 16;
+    private static final int ENTRY_FIXED_BYTES = 8 * 4 + 4;
+    private static final int MAX_BLOCKS_PER_SEGMENT = 4096;
+    
+    // tail.log のヘッダー（目印, 行数）
+    private static final int TAIL_HEADER_BYTES = 8;
+    
+    // 機械の番号は16ビットで書く
+    private static final int MAX_MACHINES = 1 << 16;
+    
+    // 小数の列の前にある列（ID, 時刻, 機械）
+    private static final String[] FIXED_COLUMNS = {"id", "time", "machine"};
+    
+    /**
+     * メモリ上の1ブロック分のデータ
+     * 書き込み中のブロックは、count より後ろだけが書き換わります（読む側は count をlockの中で取ります）
+     */
+    private static final class Block {
+        final long[] ids;
+        final long[] times;
+        final int[] codes;
+        final double[][] values;
+        int count;
+        
+        Block(int rows, int doubleColumns) {
+            this.ids = new long[rows];
+            this.times = new long[rows];
+            this.codes = new int[rows];
+            this.values = new double[doubleColumns][rows];
+        }
+    }
+    
+    /**
+     * 1つのセグメント（列ファイルと索引のディレクトリ）
+     */
+    private static final class Segment {
+        final int id;
+        final Path directory;
+        final MappedByteBuffer index;
+        final MappedByteBuffer[] columns;
+        final int[] used;
+        final boolean stats;
+        final int entryBytes;
+        int blocks;
+        
+        Segment(int id, Path directory, MappedByteBuffer index, MappedByteBuffer[] columns, int[] used, int blocks,
+                boolean stats, int entryBytes) {
+            this.id = id;
+            this.directory = directory;
+            this.index = index;
+            this.columns = columns;
+            this.used = used;
+            this.blocks = blocks;
+            this.stats = stats;
+            this.entryBytes = entryBytes;
+        }
+    }
+    
+    /**
+     * 索引の1件（メモリ上に全部持っておき、読み込むブロックを選ぶのに使う）
+     */
+    private static final class BlockRef {
+        final Segment segment;
+        final int number;
+        final long firstId;
+        final long lastId;
+        final long minTime;
+        final long maxTime;
+        final int rows;
+        final int[] offsets;
+        final int[] lengths;
+        // 入っている機械の番号を64で割った余りのビット（-1はどの機械も入っているかもしれない）
+        final long machineMask;
+        // 小数の列ごとの最小・最大の値（nullは分からない）
+        final double[] minValues;
+        final double[] maxValues;
+        
+        BlockRef(Segment segment, int number, long firstId, long lastId, long minTime, long maxTime, int rows,
+                 int[] offsets, int[] lengths, long machineMask, double[] minValues, double[] maxValues) {
+            this.segment = segment;
+            this.number = number;
+            this.firstId = firstId;
+            this.lastId = lastId;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.rows = rows;
+            this.offsets = offsets;
+            this.lengths = lengths;
+            this.machineMask = machineMask;
+            this.minValues = minValues;
+            this.maxValues = maxValues;
+        }
+        
+        /**
+         * このブロックに条件に合う行があるかもしれないか（索引だけで調べる）
+         * @param code 機械の番号（-1は指定なし）
+         * @param low 小数の列ごとの最小値（nullは指定なし）
+         * @param high 小数の列ごとの最大値（nullは指定なし）
+         */
+        boolean mayContain(int code, long fromTime, long toTime, double[] low, double[] high) {
+            if (maxTime < fromTime || minTime >= toTime) {
+                return false;
+            }
+            if (code >= 0 && (machineMask & (1L << (code & 63))) == 0) {
+                return false;
+            }
+            if (low != null && minValues != null) {
+                for (int c = 0; c < minValues.length; c++) {
+                    if (maxValues[c] < low[c] || minValues[c] > high[c]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        
+        long cacheKey() {
+            return ((long) segment.id << 32) | number;
+        }
+    }
+    
+    private final String name;
+    private final Path directory;
+    private final String[] columnNames;
+    private final int doubleColumns;
+    private final int totalColumns;
+    private final int blockRows;
+    private final int segmentBytes;
+    private final int entryBytes;
+    private final int tailRecordBytes;
+    
+    // 書き込みとセグメントの切り替えはlockで守る
+    private final Object lock = new Object();
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment writable;
+    private int nextSegmentId = 1;
+    private Block active;
+    private long lastId;
+    private long committedRows;
+    private MappedByteBuffer tail;
+    private final ByteBuffer[] scratch;
+    
+    // 出どころごとの最後に追加した行の位置（書けなかった場合は positionsDirty にして、sync() で書き直す）
+    private final Map<String, Long> positions = new HashMap<>();
+    private boolean positionsDirty;
+    private boolean closed;
+    
+    // 確定したブロックの索引（追加するたびに配列ごと置き換える）
+    private volatile BlockRef[] blocks = new BlockRef[0];
+    
+    // 機械IDと番号（追加するたびに配列ごと置き換える）
+    private final Map<String, Integer> machineCodes = new HashMap<>();
+    private volatile String[] machines = new String[0];
+    
+    // 機械ごとの最新の行（機械の番号 → 行）
+    private final Map<Integer, Row> latest = new HashMap<>();
+    
+    // 読み込んで展開したブロック（新しく使ったものを残す）
+    private final Map<Long, Block> cache;
+    private long cacheHits;
+    private long cacheMisses;
+    
+    private final ScheduledExecutorService syncer;
+    
+    /**
+     * テーブルを開く（前回のデータがあれば読み込む）
+     * @param name ログやスレッド名に使う名前
+     * @param directory ファイルを置くディレクトリ
+     * @param columns 小数の列の名前（順番は保存したときと同じにしてください）
+     * @param blockRows 1ブロックの行数
+     * @param segmentBytes 1つの列ファイルの最大バイト数（超えると次のセグメントに書く）
+     * @param syncMillis 書いた内容をディスクへ書き出す間隔
+     * @param cacheBlocks 展開したブロックをメモリに残しておく数
+     * @throws IOException ファイルを用意できない・読めない場合
+     */
+    public ColumnarTable(String name, Path directory, String[] columns, int blockRows, int segmentBytes,
+                         long syncMillis, int cacheBlocks) throws IOException {
+        this.name = name;
+        this.directory = directory;
+        this.columnNames = columns.clone();
+        this.doubleColumns = columns.length;
+        this.totalColumns = FIXED_COLUMNS.length + doubleColumns;
+        this.blockRows = Math.max(16, blockRows);
+        this.segmentBytes = Math.max(BlockCodec.maxEncodedBytes(this.blockRows), segmentBytes);
+        this.entryBytes = ENTRY_FIXED_BYTES + 8 * totalColumns + 8 + 16 * doubleColumns;
+        this.tailRecordBytes = 8 + 8 + 2 + 8 * doubleColumns;
+        this.scratch = new ByteBuffer[totalColumns];
+        for (int c = 0; c < totalColumns; c++) {
+            scratch[c] = ByteBuffer.allocate(BlockCodec.maxEncodedBytes(this.blockRows));
+        }
+        int cacheSize = Math.max(1, cacheBlocks);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Block> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        
+        Files.createDirectories(directory);
+        synchronized (lock) {
+            loadMachines();
+            loadPositions();
+            loadSegments();
+            loadTail();
+            loadLatest();
+        }
+        
+        long interval = Math.max(1, syncMillis);
+        this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "agrinav-" + name + "-store-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, interval, interval, TimeUnit.MILLISECONDS);
+        
+        LOG.info("📦 {} を開きました: {}行, {}", name, getRowCount(), directory);
+    }
+    
+    // ---- 起動時の読み込み ----
+    
+    private void loadMachines() throws IOException {
+        Path file = directory.resolve("machines.dict");
+        if (!Files.exists(file)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            machineCodes.put(line, machineCodes.size());
+        }
+        machines = lines.toArray(new String[0]);
+    }
+    
+    private void loadPositions() throws IOException {
+        Path file = directory.resolve("positions");
+        if (!Files.exists(file)) {
+            return;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            int space = line.lastIndexOf(' ');
+            if (space > 0) {
+                positions.put(line.substring(0, space), Long.parseLong(line.substring(space + 1)));
+            }
+        }
+    }
+    
+    private void loadSegments() throws IOException {
+        List<Path> directories = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "seg-*")) {
+            for (Path path : files) {
+                directories.add(path);
+            }
+        }
+        directories.sort(null);
+        
+        List<BlockRef> refs = new ArrayList<>();
+        for (Path path : directories) {
+            int id;
+            try {
+                id = Integer.parseInt(path.getFileName().toString().substring(4));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+            Segment segment = openSegment(id, path, refs);
+            if (segment == null) {
+                // 1つもブロックが確定していない（作った直後に落ちた）
+                deleteSegment(path);
+                continue;
+            }
+            segments.add(segment);
+        }
+        blocks = refs.toArray(new BlockRef[0]);
+        if (!refs.isEmpty()) {
+            lastId = refs.get(refs.size() - 1).lastId;
+        }
+    }
+    
+    // 確定したブロックまでに切り詰めて、読み込み専用で開く
+    private Segment openSegment(int id, Path path, List<BlockRef> refs) throws IOException {
+        Path indexFile = path.resolve("index.bin");
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_BYTES);
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            channel.read(header, 0);
+        }
+        int version = header.getInt(4);
+        if (header.getInt(0) != MAGIC || (version != VERSION && version != VERSION_WITHOUT_STATS)) {
+            throw new IOException(indexFile + " は " + name + " の索引ではありません");
+        }
+        if (header.getInt(8) != totalColumns) {
+            throw new IOException(indexFile + " の列の数が違います（" + header.getInt(8) + "）");
+        }
+        int committed = header.getInt(12);
+        if (committed <= 0) {
+            return null;
+        }
+        
+        boolean stats = version == VERSION;
+        int segmentEntryBytes = stats ? entryBytes : ENTRY_FIXED_BYTES + 8 * totalColumns;
+        MappedByteBuffer index = mapReadOnly(indexFile, INDEX_HEADER_BYTES + (long) committed * segmentEntryBytes);
+        int[] used = new int[totalColumns];
+        int last = INDEX_HEADER_BYTES + (committed - 1) * segmentEntryBytes;
+        for (int c = 0; c < totalColumns; c++) {
+            used[c] = index.getInt(last + ENTRY_FIXED_BYTES + c * 8) + index.getInt(last + ENTRY_FIXED_BYTES + c * 8 + 4);
+        }
+        MappedByteBuffer[] columns = new MappedByteBuffer[totalColumns];
+        for (int c = 0; c < totalColumns; c++) {
+            columns[c] = mapReadOnly(path.resolve(columnFile(c)), used[c]);
+        }
+        
+        Segment segment = new Segment(id, path, index, columns, used, committed, stats, segmentEntryBytes);
+        for (int b = 0; b < committed; b++) {
+            refs.add(readEntry(segment, b));
+        }
+        committedRows += countRows(segment);
+        return segment;
+    }
+    
+    private long countRows(Segment segment) {
+        long rows = 0;
+        for (int b = 0; b < segment.blocks; b++) {
+            rows += segment.index.getInt(INDEX_HEADER_BYTES + b * segment.entryBytes + 32);
+        }
+        return rows;
+    }
+    
+    private BlockRef readEntry(Segment segment, int number) {
+        MappedByteBuffer index = segment.index;
+        int at = INDEX_HEADER_BYTES + number * segment.entryBytes;
+        int[] offsets = new int[totalColumns];
+        int[] lengths = new int[totalColumns];
+        for (int c = 0; c < totalColumns; c++) {
+            offsets[c] = index.getInt(at + ENTRY_FIXED_BYTES + c * 8);
+            lengths[c] = index.getInt(at + ENTRY_FIXED_BYTES + c * 8 + 4);
+        }
+        long machineMask = -1;
+        double[] minValues = null;
+        double[] maxValues = null;
+        if (segment.stats) {
+            int statsAt = at + ENTRY_FIXED_BYTES + 8 * totalColumns;
+            machineMask = index.getLong(statsAt);
+            minValues = new double[doubleColumns];
+            maxValues = new double[doubleColumns];
+            for (int c = 0; c < doubleColumns; c++) {
+                minValues[c] = index.getDouble(statsAt + 8 + c * 16);
+                maxValues[c] = index.getDouble(statsAt + 8 + c * 16 + 8);
+            }
+        }
+        return new BlockRef(segment, number, index.getLong(at), index.getLong(at + 8), index.getLong(at + 16),
+            index.getLong(at + 24), index.getInt(at + 32), offsets, lengths, machineMask, minValues, maxValues);
+    }
+    
+    // まだブロックになっていない行を読み込み直す
+    private void loadTail() throws IOException {
+        Path file = directory.resolve("tail.log");
+        long needed = TAIL_HEADER_BYTES + (long) blockRows * tailRecordBytes;
+        long size = Files.exists(file) ? Math.max(Files.size(file), needed) : needed;
+        tail = mapReadWrite(file, size);
+        
+        int count = tail.getInt(0) == MAGIC ? tail.getInt(4) : 0;
+        int capacity = (int) ((size - TAIL_HEADER_BYTES) / tailRecordBytes);
+        count = Math.max(0, Math.min(count, capacity));
+        
+        // ブロックの行数を減らして起動した場合でも、残っている行は全部入れる
+        active = new Block(Math.max(blockRows, count), doubleColumns);
+        double[] values = new double[doubleColumns];
+        for (int i = 0; i < count; i++) {
+            int at = TAIL_HEADER_BYTES + i * tailRecordBytes;
+            long id = tail.getLong(at);
+            if (id <= lastId) {
+                // ブロックを確定した直後に落ちた（もう索引に入っている）
+                continue;
+            }
+            int code = tail.getShort(at + 16) & 0xFFFF;
+            if (code >= machines.length) {
+                LOG.warn("⚠️ {} の tail.log の {}行目以降は壊れているので捨てます", name, i);
+                break;
+            }
+            for (int c = 0; c < doubleColumns; c++) {
+                values[c] = tail.getDouble(at + 18 + c * 8);
+            }
+            putRow(active, id, tail.getLong(at + 8), code, values);
+            lastId = id;
+        }
+        
+        // 読み込んだ行だけを書き直す
+        tail.putInt(0, MAGIC);
+        for (int i = 0; i < active.count; i++) {
+            writeTail(i);
+        }
+        tail.putInt(4, active.count);
+        if (active.count > 0) {
+            LOG.info("📦 {} の未確定の{}行を読み込みました", name, active.count);
+        }
+    }
+    
+    // 機械ごとの最新の行を、新しい方から探す（全部の機械が見つかったら止める）
+    private void loadLatest() throws IOException {
+        int wanted = machines.length;
+        if (wanted == 0) {
+            return;
+        }
+        // 初めて見た機械の行だけを数えるので、wanted 件で止まる
+        scanBackward(wanted, (id, time, machineId, values) -> {
+            int code = machineCodes.get(machineId);
+            if (latest.containsKey(code)) {
+                return false;
+            }
+            latest.put(code, new Row(id, time, machineId, values.clone()));
+            return true;
+        });
+    }
+    
+    // ---- 書き込み ----
+    
+    /**
+     * 1行を追加する
+     * @param time 時刻（ミリ秒）
+     * @param machineId 機械ID
+     * @param values 小数の列の値（コンストラクタで渡した列の順番）
+     * @return 追加した行のID
+     * @throws IOException ファイルに書けない場合
+     */
+    public long append(long time, String machineId, double[] values) throws IOException {
+        return appendAll(1, new long[] {time}, new String[] {machineId}, new double[][] {values}, null, 0)[0];
+    }
+    
+    /**
+     * 何行かをまとめて追加する（全部追加するか、1行も追加しないか）
+     *
+     * 前回確定できなかったブロックの確定・機械の登録・tail.log を広げる処理を行を書く前に済ませるので、
+     * 例外の場合は1行も追加されていません（呼び出し側はそのままやり直せます）。
+     * 行を書いたあとのブロックの確定に失敗した場合は、次の追加のときにもう一度確定します。
+     * @param count 追加する行数
+     * @param times 時刻（ミリ秒）
+     * @param machineIds 機械ID
+     * @param values 1行ごとの小数の列の値（コンストラクタで渡した列の順番）
+     * @param source 行の出どころ（ライトアヘッドログのIDなど。nullの場合は位置を記録しない）
+     * @param position 出どころの中の最後の行の位置（getPosition() で返す）
+     * @return 追加した行のID
+     * @throws IOException ファイルに書けない場合
+     */
+    public long[] appendAll(int count, long[] times, String[] machineIds, double[][] values, String source,
+                            long position) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (values[i].length != doubleColumns) {
+                throw new IllegalArgumentException("列の数が違います: " + values[i].length);
+            }
+        }
+        long[] ids = new long[count];
+        synchronized (lock) {
+            if (closed) {
+                throw new IOException(name + " は閉じています");
+            }
+            if (active.count >= blockRows) {
+                // 前回の確定に失敗していた場合もここでやり直す
+                seal();
+            }
+            int[] codes = new int[count];
+            for (int i = 0; i < count; i++) {
+                codes[i] = machineCode(machineIds[i]);
+            }
+            // ブロックの途中で確定しなくて済むように、書き込み中のブロックと tail.log を先に広げる
+            ensureRoom(active.count + count);
+            
+            for (int i = 0; i < count; i++) {
+                long id = lastId + 1;
+                int index = active.count;
+                putRow(active, id, times[i], codes[i], values[i]);
+                writeTail(index);
+                lastId = id;
+                ids[i] = id;
+                latest.put(codes[i], new Row(id, times[i], machineIds[i], values[i].clone()));
+            }
+            tail.putInt(4, active.count);
+            
+            if (source != null && count > 0) {
+                positions.put(source, position);
+                writePositions();
+            }
+            if (active.count >= blockRows) {
+                try {
+                    seal();
+                } catch (IOException e) {
+                    // 行は tail.log に入っているので、次の追加のときにもう一度確定する
+                    LOG.warn("⚠️ {} のブロックを確定できません: {}", name, e.getMessage());
+                }
+            }
+            return ids;
+        }
+    }
+    
+    /**
+     * 出どころの中で最後に追加した行の位置（まだ追加していない場合は -1）
+     * ライトアヘッドログを再生し直したときに、追加済みの行を飛ばすのに使います
+     */
+    public long getPosition(String source) {
+        synchronized (lock) {
+            return positions.getOrDefault(source, -1L);
+        }
+    }
+    
+    // 書き込み中のブロックと tail.log を、rows 行が入る大きさにする（lockを持って呼ぶ）
+    private void ensureRoom(int rows) throws IOException {
+        long needed = TAIL_HEADER_BYTES + (long) rows * tailRecordBytes;
+        if (needed > tail.capacity()) {
+            tail.force();
+            tail = mapReadWrite(directory.resolve("tail.log"), needed);
+        }
+        if (rows > active.ids.length) {
+            Block grown = new Block(rows, doubleColumns);
+            System.arraycopy(active.ids, 0, grown.ids, 0, active.count);
+            System.arraycopy(active.times, 0, grown.times, 0, active.count);
+            System.arraycopy(active.codes, 0, grown.codes, 0, active.count);
+            for (int c = 0; c < doubleColumns; c++) {
+                System.arraycopy(active.values[c], 0, grown.values[c], 0, active.count);
+            }
+            grown.count = active.count;
+            active = grown;
+        }
+    }
+    
+    // 出どころごとの位置を書き直す（lockを持って呼ぶ）
+    // 行はもう追加してあるので、書けなくても例外にはせず、sync() でやり直す
+    // （落ちた場合は、最後の位置より後の行をもう一度追加することがある。失うことはない）
+    private void writePositions() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Long> entry : positions.entrySet()) {
+            text.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        Path file = directory.resolve("positions");
+        Path tmp = directory.resolve("positions.tmp");
+        try {
+            Files.writeString(tmp, text, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            positionsDirty = false;
+        } catch (IOException e) {
+            positionsDirty = true;
+            LOG.warn("⚠️ {} の追加した位置を書けません: {}", name, e.getMessage());
+        }
+    }
+    
+    // lockを持って呼ぶ
+    private void putRow(Block block, long id, long time, int code, double[] values) {
+        int i = block.count;
+        block.ids[i] = id;
+        block.times[i] = time;
+        block.codes[i] = code;
+        for (int c = 0; c < doubleColumns; c++) {
+            block.values[c][i] = values[c];
+        }
+        block.count = i + 1;
+    }
+    
+    // lockを持って呼ぶ
+    private void writeTail(int i) {
+        int at = TAIL_HEADER_BYTES + i * tailRecordBytes;
+        tail.putLong(at, active.ids[i]);
+        tail.putLong(at + 8, active.times[i]);
+        tail.putShort(at + 16, (short) active.codes[i]);
+        for (int c = 0; c < doubleColumns; c++) {
+            tail.putDouble(at + 18 + c * 8, active.values[c][i]);
+        }
+    }
+    
+    // lockを持って呼ぶ
+    private int machineCode(String machineId) throws IOException {
+        Integer code = machineCodes.get(machineId);
+        if (code != null) {
+            return code;
+        }
+        if (machineCodes.size() >= MAX_MACHINES) {
+            throw new IOException(name + " の機械の数が上限（" + MAX_MACHINES + "）に達しました");
+        }
+        // 行より先に一覧に書く（落ちても、番号の分からない行が残らないように）
+        Files.writeString(directory.resolve("machines.dict"), machineId + "\n", StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        int newCode = machineCodes.size();
+        machineCodes.put(machineId, newCode);
+        String[] grown = Arrays.copyOf(machines, newCode + 1);
+        grown[newCode] = machineId;
+        machines = grown;
+        return newCode;
+    }
+    
+    // 書き込み中のブロックを圧縮してセグメントに追記する（lockを持って呼ぶ）
+    private void seal() throws IOException {
+        Block block = active;
+        int rows = block.count;
+        
+        for (int c = 0; c < totalColumns; c++) {
+            if (scratch[c].capacity() < BlockCodec.maxEncodedBytes(rows)) {
+                // ブロックの行数を減らして起動して、前回の行が多く残っていた場合
+                scratch[c] = ByteBuffer.allocate(BlockCodec.maxEncodedBytes(rows));
+            }
+            scratch[c].clear();
+        }
+        BlockCodec.encodeLongs(block.ids, rows, scratch[0]);
+        BlockCodec.encodeLongs(block.times, rows, scratch[1]);
+        BlockCodec.encodeCodes(block.codes, rows, scratch[2]);
+        for (int c = 0; c < doubleColumns; c++) {
+            BlockCodec.encodeDoubles(block.values[c], rows, scratch[FIXED_COLUMNS.length + c]);
+        }
+        
+        if (writable == null || writable.blocks >= MAX_BLOCKS_PER_SEGMENT || !fits(writable)) {
+            if (writable != null) {
+                forceSegment(writable);
+            }
+            writable = createSegment(nextSegmentId++);
+            segments.add(writable);
+        }
+        Segment segment = writable;
+        
+        // 列のデータ → 索引の1件 → 確定したブロック数 → tail.log を空にする、の順に書き、
+        // それぞれディスクへ書き出してから次に進む（途中で落ちても、tail.log の行を先に消さない）
+        int[] offsets = new int[totalColumns];
+        int[] lengths = new int[totalColumns];
+        for (int c = 0; c < totalColumns; c++) {
+            offsets[c] = segment.used[c];
+            lengths[c] = scratch[c].position();
+            segment.columns[c].put(offsets[c], scratch[c], 0, lengths[c]);
+            segment.columns[c].force(offsets[c], lengths[c]);
+            segment.used[c] += lengths[c];
+        }
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        long machineMask = 0;
+        for (int i = 0; i < rows; i++) {
+            minTime = Math.min(minTime, block.times[i]);
+            maxTime = Math.max(maxTime, block.times[i]);
+            machineMask |= 1L << (block.codes[i] & 63);
+        }
+        double[] minValues = new double[doubleColumns];
+        double[] maxValues = new double[doubleColumns];
+        for (int c = 0; c < doubleColumns; c++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < rows; i++) {
+                min = Math.min(min, block.values[c][i]);
+                max = Math.max(max, block.values[c][i]);
+            }
+            minValues[c] = min;
+            maxValues[c] = max;
+        }
+        int number = segment.blocks;
+        int at = INDEX_HEADER_BYTES + number * entryBytes;
+        MappedByteBuffer index = segment.index;
+        index.putLong(at, block.ids[0]);
+        index.putLong(at + 8, block.ids[rows - 1]);
+        index.putLong(at + 16, minTime);
+        index.putLong(at + 24, maxTime);
+        index.putInt(at + 32, rows);
+        for (int c = 0; c < totalColumns; c++) {
+            index.putInt(at + ENTRY_FIXED_BYTES + c * 8, offsets[c]);
+            index.putInt(at + ENTRY_FIXED_BYTES + c * 8 + 4, lengths[c]);
+        }
+        int statsAt = at + ENTRY_FIXED_BYTES + 8 * totalColumns;
+        index.putLong(statsAt, machineMask);
+        for (int c = 0; c < doubleColumns; c++) {
+            index.putDouble(statsAt + 8 + c * 16, minValues[c]);
+            index.putDouble(statsAt + 8 + c * 16 + 8, maxValues[c]);
+        }
+        index.force(at, entryBytes);
+        segment.blocks = number + 1;
+        index.putInt(12, segment.blocks);
+        index.force(0, INDEX_HEADER_BYTES);
+        
+        BlockRef ref = new BlockRef(segment, number, block.ids[0], block.ids[rows - 1], minTime, maxTime, rows,
+            offsets, lengths, machineMask, minValues, maxValues);
+        BlockRef[] grown = Arrays.copyOf(blocks, blocks.length + 1);
+        grown[blocks.length] = ref;
+        blocks = grown;
+        committedRows += rows;
+        
+        // 書き終わったブロックはそのまま読み込み用に残す
+        synchronized (cache) {
+            cache.put(ref.cacheKey(), block);
+        }
+        active = new Block(blockRows, doubleColumns);
+        tail.putInt(4, 0);
+        tail.force(0, TAIL_HEADER_BYTES);
+    }
+    
+    private boolean fits(Segment segment) {
+        for (int c = 0; c < totalColumns; c++) {
+            if ((long) segment.used[c] + scratch[c].position() > segmentBytes) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // lockを持って呼ぶ
+    private Segment createSegment(int id) throws IOException {
+        Path path = directory.resolve(String.format("seg-%08d", id));
+        Files.createDirectories(path);
+        MappedByteBuffer index = mapReadWrite(path.resolve("index.bin"),
+            INDEX_HEADER_BYTES + (long) MAX_BLOCKS_PER_SEGMENT * entryBytes);
+        index.putInt(0, MAGIC);
+        index.putInt(4, VERSION);
+        index.putInt(8, totalColumns);
+        index.putInt(12, 0);
+        MappedByteBuffer[] columns = new MappedByteBuffer[totalColumns];
+        for (int c = 0; c < totalColumns; c++) {
+            // ファイルは最大サイズで作るが、書いていない部分はディスクを使わない
+            columns[c] = mapReadWrite(path.resolve(columnFile(c)), segmentBytes);
+        }
+        return new Segment(id, path, index, columns, new int[totalColumns], 0, true, entryBytes);
+    }
+    
+    private String columnFile(int column) {
+        String columnName = column < FIXED_COLUMNS.length
+            ? FIXED_COLUMNS[column] : columnNames[column - FIXED_COLUMNS.length];
+        return columnName + ".col";
+    }
+    
+    private static MappedByteBuffer mapReadWrite(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+    
+    // 前回の起動で最大サイズのまま残ったファイルは、使った分までに切り詰める
+    private static MappedByteBuffer mapReadOnly(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < size) {
+                throw new IOException(path + " が途中までしかありません");
+            }
+            if (channel.size() > size) {
+                channel.truncate(size);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+    
+    private static void deleteSegment(Path path) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+    
+    // ---- 読み込み ----
+    
+    /**
+     * IDが afterId より大きい行を、古い順に limit 件まで読む
+     * 索引でID・時刻・機械の範囲が合わないブロックは読みません。
+     * @param machineId この機械の行だけ（nullの場合は全部の機械）
+     * @param afterId このIDより後の行を読む（最初は0）
+     * @param fromTime 時刻がこれ以降の行だけ（指定しない場合は Long.MIN_VALUE）
+     * @param toTime 時刻がこれより前の行だけ（指定しない場合は Long.MAX_VALUE）
+     * @param limit 最大件数（visitor が true を返した行を数える）
+     * @return 読み込んだ件数
+     */
+    public int scan(String machineId, long afterId, long fromTime, long toTime, int limit, RowVisitor visitor)
+            throws IOException {
+        return scan(machineId, afterId, fromTime, toTime, null, null, limit, visitor);
+    }
+    
+    /**
+     * scan() と同じですが、小数の列の値の範囲が low 〜 high と重ならないブロックも読みません
+     * （範囲の外の行が visitor に渡ることはあるので、行ごとの絞り込みは visitor で行ってください）
+     * @param low 小数の列ごとの最小値（nullは指定なし。指定しない列は Double.NEGATIVE_INFINITY）
+     * @param high 小数の列ごとの最大値（nullは指定なし。指定しない列は Double.POSITIVE_INFINITY）
+     */
+    public int scan(String machineId, long afterId, long fromTime, long toTime, double[] low, double[] high,
+                    int limit, RowVisitor visitor) throws IOException {
+        int code = -1;
+        BlockRef[] refs;
+        Block current;
+        int currentCount;
+        synchronized (lock) {
+            if (machineId != null) {
+                Integer found = machineCodes.get(machineId);
+                if (found == null) {
+                    return 0;
+                }
+                code = found;
+            }
+            refs = blocks;
+            current = active;
+            currentCount = active.count;
+        }
+        String[] names = machines;
+        double[] values = new double[doubleColumns];
+        
+        // lastId が afterId より大きい最初のブロックを探す
+        int first = 0;
+        int end = refs.length;
+        while (first < end) {
+            int mid = (first + end) >>> 1;
+            if (refs[mid].lastId <= afterId) {
+                first = mid + 1;
+            } else {
+                end = mid;
+            }
+        }
+        
+        int count = 0;
+        for (int b = first; b < refs.length && count < limit; b++) {
+            BlockRef ref = refs[b];
+            if (!ref.mayContain(code, fromTime, toTime, low, high)) {
+                continue;
+            }
+            count = visitForward(load(ref), ref.rows, code, afterId, fromTime, toTime, limit, count, names,
+                values, visitor);
+        }
+        if (count < limit) {
+            count = visitForward(current, currentCount, code, afterId, fromTime, toTime, limit, count, names,
+                values, visitor);
+        }
+        return count;
+    }
+    
+    private int visitForward(Block block, int rows, int code, long afterId, long fromTime, long toTime, int limit,
+                             int count, String[] names, double[] values, RowVisitor visitor) throws IOException {
+        for (int i = 0; i < rows && count < limit; i++) {
+            if (block.ids[i] <= afterId || (code >= 0 && block.codes[i] != code)) {
+                continue;
+            }
+            long time = block.times[i];
+            if (time < fromTime || time >= toTime) {
+                continue;
+            }
+            for (int c = 0; c < doubleColumns; c++) {
+                values[c] = block.values[c][i];
+            }
+            if (visitor.row(block.ids[i], time, names[block.codes[i]], values)) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * 新しい順に limit 件まで読む
+     * @return 読み込んだ件数
+     */
+    public int scanBackward(int limit, RowVisitor visitor) throws IOException {
+        return scanBackward(null, Long.MIN_VALUE, null, null, limit, visitor);
+    }
+    
+    /**
+     * 新しい順に limit 件まで読む（機械・時刻・小数の列の値の範囲で絞り込む）
+     * 索引で範囲が合わないブロックは読みません。機械と時刻が合わない行は visitor に渡しません。
+     * @param machineId この機械の行だけ（nullの場合は全部の機械）
+     * @param fromTime 時刻がこれ以降の行だけ（指定しない場合は Long.MIN_VALUE）
+     * @param low 小数の列ごとの最小値（nullは指定なし）
+     * @param high 小数の列ごとの最大値（nullは指定なし）
+     * @return 読み込んだ件数
+     */
+    public int scanBackward(String machineId, long fromTime, double[] low, double[] high, int limit,
+                            RowVisitor visitor) throws IOException {
+        int code = -1;
+        BlockRef[] refs;
+        Block current;
+        int currentCount;
+        synchronized (lock) {
+            if (machineId != null) {
+                Integer found = machineCodes.get(machineId);
+                if (found == null) {
+                    return 0;
+                }
+                code = found;
+            }
+            refs = blocks;
+            current = active;
+            currentCount = active.count;
+        }
+        String[] names = machines;
+        double[] values = new double[doubleColumns];
+        
+        int count = visitBackward(current, currentCount, code, fromTime, limit, 0, names, values, visitor);
+        for (int b = refs.length - 1; b >= 0 && count < limit; b--) {
+            BlockRef ref = refs[b];
+            if (!ref.mayContain(code, fromTime, Long.MAX_VALUE, low, high)) {
+                continue;
+            }
+            count = visitBackward(load(ref), ref.rows, code, fromTime, limit, count, names, values, visitor);
+        }
+        return count;
+    }
+    
+    private int visitBackward(Block block, int rows, int code, long fromTime, int limit, int count, String[] names,
+                              double[] values, RowVisitor visitor) throws IOException {
+        for (int i = rows - 1; i >= 0 && count < limit; i--) {
+            if ((code >= 0 && block.codes[i] != code) || block.times[i] < fromTime) {
+                continue;
+            }
+            for (int c = 0; c < doubleColumns; c++) {
+                values[c] = block.values[c][i];
+            }
+            if (visitor.row(block.ids[i], block.times[i], names[block.codes[i]], values)) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * 機械ごとの最新の行（機械IDの順ではありません）
+     */
+    public List<Row> latestPerMachine() {
+        synchronized (lock) {
+            return new ArrayList<>(latest.values());
+        }
+    }
+    
+    // 確定したブロックを展開する（展開したものはしばらく残す）
+    private Block load(BlockRef ref) {
+        Long key = ref.cacheKey();
+        synchronized (cache) {
+            Block cached = cache.get(key);
+            if (cached != null) {
+                cacheHits++;
+                return cached;
+            }
+            cacheMisses++;
+        }
+        Segment segment = ref.segment;
+        Block block = new Block(ref.rows, doubleColumns);
+        BlockCodec.decodeLongs(segment.columns[0].slice(ref.offsets[0], ref.lengths[0]), block.ids, ref.rows);
+        BlockCodec.decodeLongs(segment.columns[1].slice(ref.offsets[1], ref.lengths[1]), block.times, ref.rows);
+        BlockCodec.decodeCodes(segment.columns[2].slice(ref.offsets[2], ref.lengths[2]), block.codes, ref.rows);
+        for (int c = 0; c < doubleColumns; c++) {
+            int column = FIXED_COLUMNS.length + c;
+            BlockCodec.decodeDoubles(segment.columns[column].slice(ref.offsets[column], ref.lengths[column]),
+                block.values[c], ref.rows);
+        }
+        block.count = ref.rows;
+        synchronized (cache) {
+            cache.put(key, block);
+        }
+        return block;
+    }
+    
+    // ---- ディスクへの書き出しと終了 ----
+    
+    // 書いた内容をディスクへ書き出す
+    private void sync() {
+        Segment segment;
+        MappedByteBuffer tailBuffer;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            segment = writable;
+            tailBuffer = tail;
+            if (positionsDirty) {
+                writePositions();
+            }
+        }
+        try {
+            if (segment != null) {
+                forceSegment(segment);
+            }
+            tailBuffer.force();
+        } catch (RuntimeException e) {
+            LOG.warn("⚠️ {} をディスクへ書き出せません: {}", name, e.getMessage());
+        }
+    }
+    
+    private static void forceSegment(Segment segment) {
+        for (MappedByteBuffer column : segment.columns) {
+            column.force();
+        }
+        segment.index.force();
+    }
+    
+    /**
+     * 書いた内容をディスクへ書き出して、これ以降の書き込みを止める
+     * （書き込み中のブロックは tail.log に残り、次に開いたときに読み込みます）
+     */
+    public void close() {
+        syncer.shutdownNow();
+        sync();
+        synchronized (lock) {
+            closed = true;
+        }
+        LOG.info("📦 {} を閉じました: {}行, {}バイト", name, getRowCount(), getDiskBytes());
+    }
+    
+    // ---- 統計情報 ----
+    
+    /**
+     * 全部の行数（まだブロックになっていない行を含む）
+     */
+    public long getRowCount() {
+        synchronized (lock) {
+            return committedRows + active.count;
+        }
+    }
+    
+    /**
+     * 確定したブロックの数
+     */
+    public int getBlockCount() {
+        return blocks.length;
+    }
+    
+    /**
+     * 圧縮したデータと索引のバイト数（tail.log と、確保しただけでまだ書いていない部分は含まない）
+     */
+    public long getDiskBytes() {
+        synchronized (lock) {
+            long bytes = 0;
+            for (Segment segment : segments) {
+                bytes += INDEX_HEADER_BYTES + (long) segment.blocks * segment.entryBytes;
+                for (int used : segment.used) {
+                    bytes += used;
+                }
+            }
+            return bytes;
+        }
+    }
+    
+    /**
+     * 圧縮前（1行 = ID, 時刻, 機械の番号, 小数の列を固定長で書いた場合）のバイト数
+     */
+    public long getRawBytes() {
+        synchronized (lock) {
+            return committedRows * tailRecordBytes;
+        }
+    }
+    
+    public long getCacheHits() {
+        synchronized (cache) {
+            return cacheHits;
+        }
+    }
+    
+    public long getCacheMisses() {
+        synchronized (cache) {
+            return cacheMisses;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "ColumnarTable{" + name + ", rows=" + getRowCount() + ", blocks=" + getBlockCount()
+            + ", disk=" + getDiskBytes() + "バイト, raw=" + getRawBytes() + "バイト}";
+    }
+}
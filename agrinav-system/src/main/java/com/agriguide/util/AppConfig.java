@@ -0,0 +1,114 @@
+package com.agriguide.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 設定値を読み込むクラス
+ * システムプロパティ → 環境変数 → デフォルト値 の順に探します
+ * （Renderでは環境変数、ローカルのテストでは -D オプションで設定できます）
+ */
+public class AppConfig {
+    
+    // Log の準備ができるまでの警告（Log 自身も設定を読むので、それまではここにためておく）
+    private static final List<String[]> pendingWarnings = new ArrayList<>();
+    private static Log log;
+    
+    /**
+     * 文字列の設定値を取得
+     * @param name 設定名（例: DB_POOL_MAX_SIZE）
+     * @param defaultValue 設定が無いときの値
+     * @return 設定値
+     */
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.isEmpty()) {
+            value = System.getenv(name);
+        }
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+    
+    /**
+     * 整数の設定値を取得（数値でない場合はデフォルト値）
+     */
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            warn("⚠️ 設定値が数値ではありません: {}", name);
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * long型の設定値を取得（数値でない場合はデフォルト値）
+     */
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            warn("⚠️ 設定値が数値ではありません: {}", name);
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * 小数の設定値を取得（数値でない場合はデフォルト値）
+     */
+    public static double getDouble(String name, double defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            warn("⚠️ 設定値が数値ではありません: {}", name);
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * true/falseの設定値を取得
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value.equalsIgnoreCase("true") || value.equals("1") || value.equalsIgnoreCase("yes");
+    }
+    
+    /**
+     * 設定値についての警告を出す（Log の準備ができる前なら、できたときに出す）
+     */
+    static synchronized void warn(String message, String arg) {
+        if (log != null) {
+            log.warn(message, arg);
+        } else {
+            pendingWarnings.add(new String[] { message, arg });
+        }
+    }
+    
+    /**
+     * Log の準備ができたときに呼ばれる（ためておいた警告をここで出す）
+     */
+    static synchronized void setLog(Log ready) {
+        log = ready;
+        for (String[] warning : pendingWarnings) {
+            ready.warn(warning[0], warning[1]);
+        }
+        pendingWarnings.clear();
+    }
+}
@@ -0,0 +1,88 @@
+package com.agriguide.util;
+
+import java.util.Arrays;
+
+/**
+ * 「この範囲（長方形や圃場の多角形）の中の点」を探すための準備をするクラス
+ *
+ * 1. 範囲を覆うジオハッシュのマスを求める
+ * 2. マスごとに「丸ごと中」「一部だけ中」「外」を調べ、外のマスは捨てる
+ * 3. 残ったマスを、ジオハッシュの範囲（データベースのインデックスで探せる形）にまとめる
+ *
+ * 点ごとの多角形の判定は「一部だけ中」のマスに入っている点だけで行います。
+ */
+public class AreaQuery {
+    
+    private final GeoPolygon area;
+    private final int bits;
+    private final long[] cells;     // 候補のマス（小さい順）
+    private final boolean[] inside; // マスが丸ごと範囲の中か
+    private final long[] ranges;    // 52ビットのジオハッシュの範囲 [開始, 終了) の組
+    
+    /**
+     * @param area 探す範囲
+     * @param maxCells 範囲を覆うマスの最大数（多いほど細かく絞り込めるが、SQLが長くなる）
+     */
+    public AreaQuery(GeoPolygon area, int maxCells) {
+        this.area = area;
+        long[] cover = GeoHash.cover(area.getMinLat(), area.getMinLon(), area.getMaxLat(), area.getMaxLon(), maxCells);
+        this.bits = (int) cover[0];
+        
+        long[] candidates = new long[cover.length - 1];
+        boolean[] candidateInside = new boolean[cover.length - 1];
+        int n = 0;
+        for (int i = 1; i < cover.length; i++) {
+            double[] b = GeoHash.bounds(cover[i], bits);
+            int kind = area.classify(b[0], b[1], b[2], b[3]);
+            if (kind != GeoPolygon.OUTSIDE) {
+                candidates[n] = cover[i];
+                candidateInside[n] = kind == GeoPolygon.INSIDE;
+                n++;
+            }
+        }
+        this.cells = Arrays.copyOf(candidates, n);
+        this.inside = Arrays.copyOf(candidateInside, n);
+        
+        // 連続したマスは1つの範囲にまとめる
+        long[] merged = new long[n * 2];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            long start = GeoHash.rangeStart(cells[i], bits);
+            long end = GeoHash.rangeEnd(cells[i], bits);
+            if (m > 0 && merged[m - 1] == start) {
+                merged[m - 1] = end;
+            } else {
+                merged[m++] = start;
+                merged[m++] = end;
+            }
+        }
+        this.ranges = Arrays.copyOf(merged, m);
+    }
+    
+    /**
+     * 点が範囲の中にあるか
+     * 丸ごと中のマスの点は、多角形の計算をせずにtrueを返します
+     */
+    public boolean matches(double lat, double lon) {
+        int i = Arrays.binarySearch(cells, GeoHash.cellOf(GeoHash.encode(lat, lon), bits));
+        if (i < 0) {
+            return false;
+        }
+        return inside[i] || area.contains(lat, lon);
+    }
+    
+    /**
+     * 候補のジオハッシュの範囲（[開始, 終了) の組を並べた配列）
+     */
+    public long[] getRanges() {
+        return ranges;
+    }
+    
+    public int getCellCount() {
+        return cells.length;
+    }
+    
+    public GeoPolygon getArea() {
+        return area;
+    }
+}
@@ -0,0 +1,144 @@
+package com.agriguide.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ログを裏のスレッドでまとめて書き出すクラス（Log から使います）
+ *
+ * リングバッファ（決まった大きさの配列をぐるぐる使う）にログを入れるだけなので、
+ * リクエストのスレッドはロックも画面への出力も待ちません。
+ * 書き出し用のスレッドは、たまっている分を1つの文字列にしてから
+ * System.out に1回で書き出します（System.out のロックを取るのも1回）。
+ */
+final class AsyncLogAppender {
+    
+    // 1回にまとめて書き出す最大件数
+    private static final int MAX_BATCH = 256;
+    
+    // ログが無いときに眠る時間（ログが入ると起こされる）
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    
+    private final AtomicReferenceArray<Log.Event> slots;
+    private final int mask;
+    
+    // 次に入れる番号（リクエストのスレッドが取り合う）と、次に読む番号（書き出し用のスレッドだけが進める）
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    
+    private final LongAdder dropped = new LongAdder();
+    private long reportedDropped;
+    
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean sleeping;
+    
+    /**
+     * @param capacity バッファに入れられる件数（2のべき乗に切り上げます）
+     */
+    AsyncLogAppender(int capacity) {
+        int size = Integer.highestOneBit(Math.max(16, Math.min(capacity, 1 << 20)) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.thread = new Thread(this::run, "agrinav-log-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * ログを入れる（満杯の場合は待たずに捨てて false）
+     */
+    boolean offer(Log.Event event) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head.get() >= slots.length()) {
+                dropped.increment();
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        slots.set((int) t & mask, event);
+        if (sleeping) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+    
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+    
+    long getPendingCount() {
+        return Math.max(0, tail.get() - head.get());
+    }
+    
+    // 書き出し用のスレッドの処理
+    private void run() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        while (true) {
+            out.setLength(0);
+            int count = drain(out);
+            if (count > 0) {
+                System.out.print(out);
+                System.out.flush();
+                // 大きくなりすぎたバッファは作り直す（長いスタックトレースの後など）
+                if (out.capacity() > 1024 * 1024) {
+                    out = new StringBuilder(16 * 1024);
+                }
+            } else if (!running) {
+                return;
+            } else {
+                // 眠る前にもう一度確認する（確認の後に入ったログは offer が起こしてくれる）
+                sleeping = true;
+                if (slots.get((int) head.get() & mask) == null && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+    }
+    
+    // たまっているログを順番に取り出して文字列にする
+    private int drain(StringBuilder out) {
+        int count = 0;
+        long h = head.get();
+        while (count < MAX_BATCH) {
+            int index = (int) h & mask;
+            Log.Event event = slots.get(index);
+            if (event == null) {
+                // 空、または番号を取ったスレッドがまだ入れ終わっていない
+                break;
+            }
+            slots.set(index, null);
+            head.set(++h);
+            event.appendTo(out);
+            count++;
+        }
+        
+        // 捨てたログがあれば、その件数を1行で知らせる
+        long lost = dropped.sum();
+        if (lost > reportedDropped) {
+            out.append("⚠️ ログの書き出しが追いつかず、").append(lost - reportedDropped)
+                .append("件を捨てました").append(System.lineSeparator());
+            reportedDropped = lost;
+            count++;
+        }
+        return count;
+    }
+    
+    /**
+     * 残っているログを書き出してから止める
+     */
+    void shutdown(long timeoutMillis) {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(Math.max(1, timeoutMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
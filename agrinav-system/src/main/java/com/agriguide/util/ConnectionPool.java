@@ -0,0 +1,536 @@
+package com.agriguide.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * データベース接続を使い回すためのコネクションプール
+ *
+ * 毎回DriverManagerで新しい接続を作ると、TCP接続・TLS・認証に時間がかかります。
+ * このクラスは一度作った接続を取っておき、次のリクエストで再利用します。
+ *
+ * - 最大接続数を超えると、空きが出るまで最大 maxWaitMillis だけ待ちます
+ * - 新しい接続を作るときも、maxWaitMillis の残りまでしか待ちません
+ *   （DBサーバーが応答しないときに止まらないため。間に合わなかった接続は、できあがったらプールへ入れます）
+ * - QueryDeadline で期限が決まっている場合は、空きを待つのも期限までにし、
+ *   貸し出す接続にネットワークのタイムアウトを、作った Statement にクエリのタイムアウトをかけます
+ * - しばらく使われていない接続は、使う前に isValid() で生きているか確認します
+ * - idleTimeoutMillis より長く使われていない接続は裏で閉じます
+ *
+ * getConnection() で返す接続の close() を呼ぶと、実際には閉じずにプールへ戻ります。
+ */
+public class ConnectionPool {
+    
+    private final String jdbcUrl;
+    private final String user;
+    private final String password;
+    
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    
+    // プールの状態（lockで保護）
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ArrayDeque<PooledEntry> idle = new ArrayDeque<>();
+    private int total;      // 作成済みの接続数（作成中を含む）
+    private int waiters;    // 空きを待っているスレッド数
+    private boolean closed;
+    
+    // 統計情報
+    private final LatencyHistogram acquireLatency = new LatencyHistogram();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder discardedCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    
+    // 使われていない接続を定期的に閉じるスレッド
+    private final ScheduledExecutorService evictor;
+    
+    // 新しい物理接続を作るスレッド（作っている数は maxSize までなので、スレッドも maxSize まで）
+    private final ExecutorService connector;
+    
+    // ネットワークのタイムアウトはクエリのタイムアウト（秒単位で切り上げる）より少し長くする
+    // （先にクエリを取り消して、接続は壊さずに済むように）
+    private static final long NETWORK_TIMEOUT_GRACE_MILLIS = 2000;
+    
+    public ConnectionPool(String jdbcUrl, String user, String password,
+                          int maxSize, long maxWaitMillis,
+                          long idleTimeoutMillis, long validationIntervalMillis) {
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.maxWaitMillis = Math.max(0, maxWaitMillis);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "agrinav-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        if (idleTimeoutMillis > 0) {
+            long period = Math.max(1000, idleTimeoutMillis / 2);
+            evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+        }
+        this.connector = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "agrinav-pool-connect");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * プールから接続を1つ借りる
+     * @return 接続（close()するとプールへ戻ります）
+     * @throws SQLTimeoutException maxWaitMillis 待っても空きが出なかった、または新しい接続ができなかった場合
+     */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        if (QueryDeadline.isSet()) {
+            deadline = Math.min(deadline, start + TimeUnit.MILLISECONDS.toNanos(QueryDeadline.remainingMillis()));
+        }
+        
+        while (true) {
+            PooledEntry entry = null;
+            boolean create = false;
+            
+            lock.lock();
+            try {
+                while (entry == null && !create) {
+                    if (closed) {
+                        throw new SQLException("Connection pool is closed");
+                    }
+                    // 最近使った接続から再利用する（温まっている接続を優先）
+                    entry = idle.pollFirst();
+                    if (entry == null) {
+                        if (total < maxSize) {
+                            total++;
+                            create = true;
+                        } else {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) {
+                                timeoutCount.increment();
+                                throw new SQLTimeoutException(
+                                    "Timed out waiting for a database connection (" + maxWaitMillis + "ms)");
+                            }
+                            waiters++;
+                            try {
+                                available.awaitNanos(remaining);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new SQLException("Interrupted while waiting for a database connection", e);
+                            } finally {
+                                waiters--;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            
+            if (create) {
+                // 新しい物理接続を作る（ロックの外で行う）
+                entry = create(deadline);
+            } else if (needsValidation(entry) && !isAlive(entry)) {
+                // 壊れた接続は捨てて、もう一度借り直す
+                discard(entry);
+                continue;
+            }
+            
+            applyDeadline(entry);
+            acquireLatency.recordSince(start);
+            return entry.newHandle(this);
+        }
+    }
+    
+    // 新しい物理接続を別のスレッドで作り、deadline まで待つ
+    private PooledEntry create(long deadline) throws SQLException {
+        CompletableFuture<Connection> future = new CompletableFuture<>();
+        try {
+            connector.execute(() -> connect(future));
+        } catch (RejectedExecutionException e) {
+            forget();
+            throw new SQLException("Connection pool is closed", e);
+        }
+        
+        boolean interrupted = false;
+        try {
+            future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } catch (TimeoutException | ExecutionException e) {
+            // 結果は下で確かめる
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        // 間に合わなかった場合は諦める（できあがった接続は connect() がプールへ入れる）
+        if (future.cancel(false)) {
+            if (interrupted) {
+                throw new SQLException("Interrupted while connecting to the database");
+            }
+            timeoutCount.increment();
+            throw new SQLTimeoutException("Timed out connecting to the database (" + maxWaitMillis + "ms)");
+        }
+        try {
+            Connection raw = future.join();
+            createdCount.increment();
+            return new PooledEntry(raw);
+        } catch (CompletionException e) {
+            forget();
+            Throwable cause = e.getCause();
+            throw cause instanceof SQLException ? (SQLException) cause : new SQLException(cause);
+        }
+    }
+    
+    // 物理接続を作る（connector のスレッドで動く）
+    // 借りる側が諦めたあとにできた接続は、空きとしてプールへ入れる（失敗した場合は数から外す）
+    private void connect(CompletableFuture<Connection> future) {
+        try {
+            Connection raw = DriverManager.getConnection(jdbcUrl, user, password);
+            if (!future.complete(raw)) {
+                createdCount.increment();
+                release(new PooledEntry(raw));
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (!future.completeExceptionally(e)) {
+                forget();
+            }
+        }
+    }
+    
+    // 期限が決まっている場合は、残り時間をネットワークのタイムアウトにする
+    private void applyDeadline(PooledEntry entry) throws SQLException {
+        if (!QueryDeadline.isSet()) {
+            return;
+        }
+        try {
+            long millis = QueryDeadline.remainingMillis() + NETWORK_TIMEOUT_GRACE_MILLIS;
+            entry.raw.setNetworkTimeout(connector, (int) Math.min(Integer.MAX_VALUE, millis));
+            entry.networkTimeout = true;
+        } catch (SQLFeatureNotSupportedException e) {
+            // ドライバーが対応していない場合は、クエリのタイムアウトだけにする
+        } catch (SQLException e) {
+            release(entry);
+            throw e;
+        }
+    }
+    
+    // しばらく使っていない接続だけ確認する（毎回確認するとDBへの往復が増えるため）
+    private boolean needsValidation(PooledEntry entry) {
+        return System.currentTimeMillis() - entry.lastUsedMillis >= validationIntervalMillis;
+    }
+    
+    private boolean isAlive(PooledEntry entry) {
+        try {
+            return entry.raw.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * 借りていた接続を返す（PooledEntryのハンドルから呼ばれる）
+     */
+    void release(PooledEntry entry) {
+        // トランザクションの途中で返された場合は元に戻す
+        try {
+            if (entry.raw.isClosed()) {
+                discard(entry);
+                return;
+            }
+            if (entry.networkTimeout) {
+                entry.raw.setNetworkTimeout(connector, 0);
+                entry.networkTimeout = false;
+            }
+            if (entry.queryTimeout) {
+                // H2 のようにクエリのタイムアウトを接続ごとに持つドライバーもあるので、戻しておく
+                try (Statement statement = entry.raw.createStatement()) {
+                    statement.setQueryTimeout(0);
+                }
+                entry.queryTimeout = false;
+            }
+            if (!entry.raw.getAutoCommit()) {
+                entry.raw.rollback();
+                entry.raw.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            discard(entry);
+            return;
+        }
+        
+        entry.lastUsedMillis = System.currentTimeMillis();
+        boolean closeNow = false;
+        lock.lock();
+        try {
+            if (closed) {
+                total--;
+                closeNow = true;
+            } else {
+                idle.addFirst(entry);
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (closeNow) {
+            closeQuietly(entry);
+        }
+    }
+    
+    // 物理接続を閉じて、プールの数から外す
+    private void discard(PooledEntry entry) {
+        closeQuietly(entry);
+        discardedCount.increment();
+        forget();
+    }
+    
+    // 接続数を1つ減らし、待っているスレッドに知らせる
+    private void forget() {
+        lock.lock();
+        try {
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // idleTimeoutMillis より長く使われていない接続を閉じる
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<PooledEntry> expired = new ArrayList<>();
+        lock.lock();
+        try {
+            // 古い接続は末尾にたまっている
+            Iterator<PooledEntry> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledEntry entry = it.next();
+                if (now - entry.lastUsedMillis < idleTimeoutMillis) {
+                    break;
+                }
+                it.remove();
+                total--;
+                expired.add(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (PooledEntry entry : expired) {
+            closeQuietly(entry);
+            discardedCount.increment();
+        }
+    }
+    
+    private static void closeQuietly(PooledEntry entry) {
+        try {
+            entry.raw.close();
+        } catch (SQLException e) {
+            // 閉じるときのエラーは無視する
+        }
+    }
+    
+    /**
+     * プールを閉じる（アプリ終了時に呼ぶ）
+     * 貸し出し中の接続は、返されたときに閉じます
+     */
+    public void close() {
+        List<PooledEntry> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            total -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (PooledEntry entry : toClose) {
+            closeQuietly(entry);
+        }
+        evictor.shutdownNow();
+        // 作っている途中の接続は、できあがったときに release() で閉じる
+        connector.shutdown();
+    }
+    
+    /**
+     * 現在のプールの統計情報を返す
+     */
+    public PoolStats getStats() {
+        lock.lock();
+        try {
+            int idleCount = idle.size();
+            return new PoolStats(maxSize, total, total - idleCount, idleCount, waiters,
+                createdCount.sum(), discardedCount.sum(), timeoutCount.sum(), acquireLatency);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * プール内の物理接続1つ分の情報
+     */
+    static class PooledEntry {
+        final Connection raw;
+        volatile long lastUsedMillis;
+        boolean networkTimeout;  // 貸し出し中にネットワークのタイムアウトをかけたか（返すときに戻す）
+        boolean queryTimeout;    // 貸し出し中にクエリのタイムアウトをかけたか（返すときに戻す）
+        
+        PooledEntry(Connection raw) {
+            this.raw = raw;
+            this.lastUsedMillis = System.currentTimeMillis();
+        }
+        
+        // 貸し出し1回ごとに新しいハンドルを作る（close()の二重呼び出し対策）
+        Connection newHandle(ConnectionPool pool) {
+            return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new Handle(pool, this));
+        }
+    }
+    
+    /**
+     * 借りた側に渡すConnectionの中身
+     * close()だけ横取りして、それ以外は本物の接続に任せます
+     * （期限が決まっている場合は、作った Statement にクエリのタイムアウトをかけます）
+     */
+    private static class Handle implements InvocationHandler {
+        private final ConnectionPool pool;
+        private final PooledEntry entry;
+        private boolean returned;
+        
+        Handle(ConnectionPool pool, PooledEntry entry) {
+            this.pool = pool;
+            this.entry = entry;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!returned) {
+                    returned = true;
+                    pool.release(entry);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return returned || entry.raw.isClosed();
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return "PooledConnection[" + entry.raw + "]";
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            Object result;
+            try {
+                result = method.invoke(entry.raw, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Statement && QueryDeadline.isSet()) {
+                entry.queryTimeout = true;
+                applyQueryTimeout((Statement) result);
+            }
+            return result;
+        }
+        
+        // 残り時間を秒に切り上げて、クエリのタイムアウトにする
+        private static void applyQueryTimeout(Statement statement) throws SQLException {
+            try {
+                long remaining = QueryDeadline.remainingMillis();
+                statement.setQueryTimeout((int) Math.min(Integer.MAX_VALUE, (remaining + 999) / 1000));
+            } catch (SQLException e) {
+                statement.close();
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * プールの統計情報（取得した時点のスナップショット）
+     */
+    public static class PoolStats {
+        private final int maxSize;
+        private final int total;
+        private final int active;
+        private final int idle;
+        private final int waiters;
+        private final long created;
+        private final long discarded;
+        private final long timeouts;
+        private final LatencyHistogram acquireLatency;
+        
+        PoolStats(int maxSize, int total, int active, int idle, int waiters,
+                  long created, long discarded, long timeouts, LatencyHistogram acquireLatency) {
+            this.maxSize = maxSize;
+            this.total = total;
+            this.active = active;
+            this.idle = idle;
+            this.waiters = waiters;
+            this.created = created;
+            this.discarded = discarded;
+            this.timeouts = timeouts;
+            this.acquireLatency = acquireLatency;
+        }
+        
+        public int getMaxSize() { return maxSize; }
+        public int getTotal() { return total; }
+        public int getActive() { return active; }
+        public int getIdle() { return idle; }
+        public int getWaiters() { return waiters; }
+        public long getCreated() { return created; }
+        public long getDiscarded() { return discarded; }
+        public long getTimeouts() { return timeouts; }
+        
+        /**
+         * 接続を借りるまでにかかった時間のヒストグラム
+         */
+        public LatencyHistogram getAcquireLatency() { return acquireLatency; }
+        
+        @Override
+        public String toString() {
+            return "PoolStats{max=" + maxSize + ", total=" + total + ", active=" + active
+                + ", idle=" + idle + ", waiters=" + waiters + ", created=" + created
+                + ", discarded=" + discarded + ", timeouts=" + timeouts
+                + ", acquire=[" + acquireLatency + "]}";
+        }
+    }
+}
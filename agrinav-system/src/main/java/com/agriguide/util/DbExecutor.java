@@ -0,0 +1,112 @@
+package com.agriguide.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * データベースを使う処理（待ち時間の長い処理）を実行するスレッドの置き場
+ *
+ * Java 21以上で動いている場合は仮想スレッド（Virtual Thread）を使います。
+ * 仮想スレッドはとても軽いので、DBの応答が遅くてもスレッドが足りなくなりません。
+ * Java 17の場合は、決まった数のスレッドを使い回します。
+ *
+ * データベースへの同時アクセス数はセマフォで制限します（DB_MAX_CONCURRENCY）。
+ */
+public class DbExecutor {
+    
+    private static final Log LOG = Log.get(DbExecutor.class);
+    
+    private static final ExecutorService EXECUTOR = createExecutor();
+    
+    // データベースへ同時に問い合わせる処理の数の上限
+    private static final int MAX_CONCURRENCY = AppConfig.getInt("DB_MAX_CONCURRENCY",
+        AppConfig.getInt("DB_POOL_MAX_SIZE", 10));
+    private static final Semaphore PERMITS = new Semaphore(Math.max(1, MAX_CONCURRENCY), true);
+    
+    private static boolean virtualThreads;
+    
+    private static ExecutorService createExecutor() {
+        String mode = AppConfig.getString("DB_EXECUTOR", "auto");
+        
+        if (!mode.equalsIgnoreCase("platform")) {
+            try {
+                // Java 21の Executors.newVirtualThreadPerTaskExecutor() を呼ぶ
+                // （Java 17でもコンパイルできるようにリフレクションを使う）
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                ExecutorService executor = (ExecutorService) factory.invoke(null);
+                virtualThreads = true;
+                LOG.info("🧵 DB処理: 仮想スレッドを使います");
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                if (mode.equalsIgnoreCase("virtual")) {
+                    LOG.warn("⚠️ 仮想スレッドが使えないため、通常のスレッドを使います");
+                }
+            }
+        }
+        
+        int threads = AppConfig.getInt("DB_EXECUTOR_THREADS", 64);
+        AtomicInteger counter = new AtomicInteger();
+        LOG.info("🧵 DB処理: 通常のスレッド {}本を使います", threads);
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "agrinav-db-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * 処理を実行する
+     */
+    public static void execute(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+    
+    /**
+     * データベースへアクセスする許可を取る（空きが出るまで最大timeoutMillis待つ）
+     * 取れた場合は、使い終わったら必ず release() を呼んでください
+     * @return 取れた場合はtrue
+     */
+    public static boolean acquire(long timeoutMillis) throws InterruptedException {
+        return PERMITS.tryAcquire(Math.max(0, timeoutMillis), TimeUnit.MILLISECONDS);
+    }
+    
+    public static void release() {
+        PERMITS.release();
+    }
+    
+    /**
+     * 仮想スレッドを使っているか
+     */
+    public static boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+    
+    public static int getMaxConcurrency() {
+        return MAX_CONCURRENCY;
+    }
+    
+    /**
+     * 今データベースを使っている処理の数
+     */
+    public static int getActiveCount() {
+        return Math.max(1, MAX_CONCURRENCY) - PERMITS.availablePermits();
+    }
+    
+    /**
+     * 許可待ちの処理の数（目安）
+     */
+    public static int getWaitingCount() {
+        return PERMITS.getQueueLength();
+    }
+    
+    /**
+     * 終了する（アプリ終了時に呼ぶ）
+     */
+    public static void shutdown() {
+        EXECUTOR.shutdown();
+    }
+}
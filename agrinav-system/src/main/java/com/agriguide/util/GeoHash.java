@@ -0,0 +1,119 @@
+package com.agriguide.util;
+
+import java.util.Arrays;
+
+/**
+ * 緯度・経度を1つの整数（ジオハッシュ）に変換するクラス
+ *
+ * 地図を縦横に半分ずつ分けていき、「どちら側か」を1ビットずつ並べた値です。
+ * 近い場所は上位のビットが同じになるので、
+ * 「ある範囲のマス」は「ある範囲の整数」として、データベースのインデックスで探せます。
+ *
+ * ここでは経度26ビット＋緯度26ビット＝52ビット（約0.6m四方）で保存します。
+ * 上位のビットだけを使うと、もっと大きなマスになります（bits = 2, 4, ... 52）。
+ */
+public class GeoHash {
+    
+    /**
+     * 保存するジオハッシュのビット数
+     */
+    public static final int BITS = 52;
+    
+    private static final int HALF_BITS = BITS / 2;
+    
+    /**
+     * 緯度・経度を52ビットのジオハッシュにする
+     */
+    public static long encode(double latitude, double longitude) {
+        return interleave(index(longitude, -180, 360, HALF_BITS), index(latitude, -90, 180, HALF_BITS), HALF_BITS);
+    }
+    
+    /**
+     * 52ビットのジオハッシュを、上位bitsビットのマスにする
+     */
+    public static long cellOf(long hash, int bits) {
+        return hash >>> (BITS - bits);
+    }
+    
+    /**
+     * マスに入る52ビットのジオハッシュの最小値
+     */
+    public static long rangeStart(long cell, int bits) {
+        return cell << (BITS - bits);
+    }
+    
+    /**
+     * マスに入る52ビットのジオハッシュの最大値 + 1
+     */
+    public static long rangeEnd(long cell, int bits) {
+        return (cell + 1) << (BITS - bits);
+    }
+    
+    /**
+     * マスの範囲 {最小緯度, 最小経度, 最大緯度, 最大経度}
+     */
+    public static double[] bounds(long cell, int bits) {
+        int half = bits / 2;
+        long lonIndex = 0;
+        long latIndex = 0;
+        // 上位から「経度, 緯度, 経度, 緯度...」の順にビットが並んでいる
+        for (int i = half - 1; i >= 0; i--) {
+            lonIndex = (lonIndex << 1) | ((cell >>> (2 * i + 1)) & 1);
+            latIndex = (latIndex << 1) | ((cell >>> (2 * i)) & 1);
+        }
+        double latSize = 180.0 / (1L << half);
+        double lonSize = 360.0 / (1L << half);
+        return new double[] {
+            -90 + latIndex * latSize, -180 + lonIndex * lonSize,
+            -90 + (latIndex + 1) * latSize, -180 + (lonIndex + 1) * lonSize
+        };
+    }
+    
+    /**
+     * 範囲（四角形）を覆うマスを求める
+     * マスの数が maxCells 以下になる中で、一番細かいマスを使います
+     * @return マスの一覧（小さい順）。先頭に使ったビット数を入れて返します
+     */
+    public static long[] cover(double minLat, double minLon, double maxLat, double maxLon, int maxCells) {
+        for (int bits = BITS; bits >= 2; bits -= 2) {
+            int half = bits / 2;
+            long lonFrom = index(minLon, -180, 360, half);
+            long lonTo = index(maxLon, -180, 360, half);
+            long latFrom = index(minLat, -90, 180, half);
+            long latTo = index(maxLat, -90, 180, half);
+            long count = (lonTo - lonFrom + 1) * (latTo - latFrom + 1);
+            if (count > maxCells && bits > 2) {
+                continue;
+            }
+            
+            long[] result = new long[(int) count + 1];
+            result[0] = bits;
+            int k = 1;
+            for (long lon = lonFrom; lon <= lonTo; lon++) {
+                for (long lat = latFrom; lat <= latTo; lat++) {
+                    result[k++] = interleave(lon, lat, half);
+                }
+            }
+            Arrays.sort(result, 1, result.length);
+            return result;
+        }
+        return new long[] { 2, 0, 1, 2, 3 };
+    }
+    
+    // 値が範囲（origin〜origin+size）を2^bits等分したうちの何番目か
+    private static long index(double value, double origin, double size, int bits) {
+        long cells = 1L << bits;
+        long i = (long) Math.floor((value - origin) / size * cells);
+        return i < 0 ? 0 : (i >= cells ? cells - 1 : i);
+    }
+    
+    // 経度と緯度のビットを交互に並べる（経度が上位）
+    private static long interleave(long lonIndex, long latIndex, int half) {
+        long result = 0;
+        for (int i = half - 1; i >= 0; i--) {
+            result = (result << 1) | ((lonIndex >>> i) & 1);
+            result = (result << 1) | ((latIndex >>> i) & 1);
+        }
+        return result;
+    }
+}
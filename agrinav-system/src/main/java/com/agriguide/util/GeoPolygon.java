@@ -0,0 +1,172 @@
+package com.agriguide.util;
+
+/**
+ * 圃場の境界などを表す多角形（緯度・経度の頂点の並び）
+ *
+ * 長方形（バウンディングボックス）も4つの頂点の多角形として扱います。
+ * 1つの圃場くらいの広さなら、緯度・経度をそのまま平面の座標として計算しても問題ありません。
+ */
+public class GeoPolygon {
+    
+    /**
+     * マスと多角形の関係
+     */
+    public static final int OUTSIDE = 0;
+    public static final int PARTIAL = 1;
+    public static final int INSIDE = 2;
+    
+    private final double[] lats;
+    private final double[] lons;
+    private final double minLat;
+    private final double minLon;
+    private final double maxLat;
+    private final double maxLon;
+    
+    /**
+     * @param lats 頂点の緯度（3つ以上）
+     * @param lons 頂点の経度
+     */
+    public GeoPolygon(double[] lats, double[] lons) {
+        if (lats.length < 3 || lats.length != lons.length) {
+            throw new IllegalArgumentException("polygon needs at least 3 points");
+        }
+        this.lats = lats.clone();
+        this.lons = lons.clone();
+        double minLa = 90, minLo = 180, maxLa = -90, maxLo = -180;
+        for (int i = 0; i < lats.length; i++) {
+            minLa = Math.min(minLa, lats[i]);
+            maxLa = Math.max(maxLa, lats[i]);
+            minLo = Math.min(minLo, lons[i]);
+            maxLo = Math.max(maxLo, lons[i]);
+        }
+        this.minLat = minLa;
+        this.minLon = minLo;
+        this.maxLat = maxLa;
+        this.maxLon = maxLo;
+    }
+    
+    /**
+     * 長方形を作る
+     */
+    public static GeoPolygon box(double minLat, double minLon, double maxLat, double maxLon) {
+        if (minLat > maxLat || minLon > maxLon) {
+            throw new IllegalArgumentException("invalid box");
+        }
+        return new GeoPolygon(new double[] { minLat, minLat, maxLat, maxLat },
+            new double[] { minLon, maxLon, maxLon, minLon });
+    }
+    
+    /**
+     * "緯度,経度;緯度,経度;..." の形の文字列から作る
+     */
+    public static GeoPolygon parse(String text) {
+        String[] vertices = text.split(";");
+        double[] lats = new double[vertices.length];
+        double[] lons = new double[vertices.length];
+        for (int i = 0; i < vertices.length; i++) {
+            String[] pair = vertices[i].split(",");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("invalid vertex: " + vertices[i]);
+            }
+            lats[i] = Double.parseDouble(pair[0].trim());
+            lons[i] = Double.parseDouble(pair[1].trim());
+        }
+        return new GeoPolygon(lats, lons);
+    }
+    
+    /**
+     * "最小緯度,最小経度,最大緯度,最大経度" の形の文字列から長方形を作る
+     */
+    public static GeoPolygon parseBox(String text) {
+        String[] parts = text.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("invalid bbox");
+        }
+        return box(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()),
+            Double.parseDouble(parts[2].trim()), Double.parseDouble(parts[3].trim()));
+    }
+    
+    /**
+     * 点が多角形の中にあるか（境界線上は中として扱う場合があります）
+     */
+    public boolean contains(double lat, double lon) {
+        if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon) {
+            return false;
+        }
+        // 点から右へ伸ばした線が、辺と何回交わるかを数える（奇数なら中）
+        boolean inside = false;
+        for (int i = 0, j = lats.length - 1; i < lats.length; j = i++) {
+            if ((lats[i] > lat) != (lats[j] > lat)) {
+                double crossLon = lons[j] + (lat - lats[j]) * (lons[i] - lons[j]) / (lats[i] - lats[j]);
+                if (lon <= crossLon) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+    
+    /**
+     * マス（長方形）と多角形の関係を調べる
+     * @return INSIDE（マス全体が中）、OUTSIDE（マス全体が外）、PARTIAL（一部だけ中）
+     */
+    public int classify(double cellMinLat, double cellMinLon, double cellMaxLat, double cellMaxLon) {
+        if (cellMaxLat < minLat || cellMinLat > maxLat || cellMaxLon < minLon || cellMinLon > maxLon) {
+            return OUTSIDE;
+        }
+        // 辺がマスを横切っていれば一部だけ
+        for (int i = 0, j = lats.length - 1; i < lats.length; j = i++) {
+            if (segmentIntersectsBox(lats[j], lons[j], lats[i], lons[i],
+                    cellMinLat, cellMinLon, cellMaxLat, cellMaxLon)) {
+                return PARTIAL;
+            }
+        }
+        // 辺が横切らない場合は、マスが丸ごと中か、丸ごと外
+        return contains((cellMinLat + cellMaxLat) / 2, (cellMinLon + cellMaxLon) / 2) ? INSIDE : OUTSIDE;
+    }
+    
+    // 線分が長方形と重なるか（Liang-Barsky法）
+    private static boolean segmentIntersectsBox(double lat1, double lon1, double lat2, double lon2,
+                                                double minLat, double minLon, double maxLat, double maxLon) {
+        double t0 = 0;
+        double t1 = 1;
+        double dLat = lat2 - lat1;
+        double dLon = lon2 - lon1;
+        double[] p = { -dLon, dLon, -dLat, dLat };
+        double[] q = { lon1 - minLon, maxLon - lon1, lat1 - minLat, maxLat - lat1 };
+        for (int k = 0; k < 4; k++) {
+            if (p[k] == 0) {
+                if (q[k] < 0) {
+                    return false;
+                }
+            } else {
+                double t = q[k] / p[k];
+                if (p[k] < 0) {
+                    t0 = Math.max(t0, t);
+                } else {
+                    t1 = Math.min(t1, t);
+                }
+                if (t0 > t1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    public double getMinLat() {
+        return minLat;
+    }
+    
+    public double getMinLon() {
+        return minLon;
+    }
+    
+    public double getMaxLat() {
+        return maxLat;
+    }
+    
+    public double getMaxLon() {
+        return maxLon;
+    }
+}
@@ -1,11 +1,18 @@
 package com.agriguide.util;
 
 import com.agriguide.model.TripData;
+import com.agriguide.model.TripPoints;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 /**
  * JavaオブジェクトをJSON文字列に変換するクラス
  * フロントエンドにデータを送るときに使います
+ *
+ * 中身はJsonWriterを使っています。レスポンスに直接書く場合は、
+ * 文字列を作らずに JsonWriter を使うほうが速くなります。
  */
 public class JsonUtil {
     
@@ -18,15 +25,15 @@ public class JsonUtil {
             return "{}";
         }
         
-        // JSON形式の文字列を作成
-        return String.format(
-            "{\"id\":%d,\"speed\":%.1f,\"distance\":%.1f,\"latitude\":%.6f,\"longitude\":%.6f}",
-            data.getId(),
-            data.getSpeed(),
-            data.getDistance(),
-            data.getLatitude(),
-            data.getLongitude()
-        );
+        StringWriter out = new StringWriter(96);
+        try {
+            JsonWriter json = new JsonWriter(out);
+            json.writeTrip(data);
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // StringWriterでは起きない
+        }
+        return out.toString();
     }
     
     /**
@@ -38,25 +45,53 @@ public class JsonUtil {
             return "[]";
         }
         
-        // JSON配列の文字列を作成
-        StringBuilder json = new StringBuilder("[");
-        
-        for (int i = 0; i < dataList.size(); i++) {
-            if (i > 0) {
-                json.append(",");  // 2個目以降はカンマを追加
-            }
-            json.append(toJson(dataList.get(i)));
+        StringWriter out = new StringWriter(dataList.size() * 96);
+        try {
+            JsonWriter json = new JsonWriter(out);
+            json.writeTripArray(dataList);
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+    
+    /**
+     * TripPoints（配列形式の走行データ）をJSON配列に変換
+     * 例: [{"id":1,...},{"id":2,...}]
+     */
+    public static String toJsonArray(TripPoints points) {
+        if (points == null || points.isEmpty()) {
+            return "[]";
         }
         
-        json.append("]");
-        return json.toString();
+        StringWriter out = new StringWriter(points.size() * 96);
+        try {
+            JsonWriter json = new JsonWriter(out);
+            json.writeTripArray(points);
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
     }
     
     /**
      * エラーメッセージをJSON形式で返す
      * 例: {"error":"データが見つかりません"}
+     * （" や \ などはエスケープされます）
      */
     public static String toErrorJson(String errorMessage) {
-        return "{\"error\":\"" + errorMessage + "\"}";
+        StringWriter out = new StringWriter();
+        try {
+            JsonWriter json = new JsonWriter(out);
+            json.writeRaw("{\"error\":");
+            json.writeString(errorMessage);
+            json.writeRaw('}');
+            json.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
     }
 }
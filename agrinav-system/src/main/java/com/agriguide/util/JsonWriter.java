@@ -0,0 +1,286 @@
+package com.agriguide.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+import com.agriguide.model.TripData;
+import com.agriguide.model.TripPoints;
+
+/**
+ * JSONを直接Writerへ書き出すクラス
+ *
+ * String.formatや途中の文字列を作らずに、自前のchar配列にためてから
+ * まとめてWriterへ書き込みます。件数の多い履歴データでも速く、ゴミが出ません。
+ *
+ * 小数は桁数を固定して書きます（例: 速度は小数1桁、緯度経度は小数6桁）。
+ * 使い終わったら必ず flush() を呼んでください。
+ */
+public class JsonWriter {
+    
+    // 小数の桁数（JsonUtil.toJson と同じ）
+    public static final int SPEED_DECIMALS = 1;
+    public static final int DISTANCE_DECIMALS = 1;
+    public static final int COORDINATE_DECIMALS = 6;
+    
+    private static final long[] POW10 = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+    
+    // これより大きい値は long で丸めると誤差が出るので BigDecimal を使う
+    private static final double MAX_FAST_SCALED = 1e15;
+    
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    private final Writer out;
+    private final char[] buffer = new char[4096];
+    private int pos;
+    
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+    
+    /**
+     * 走行データ1件をJSONオブジェクトとして書く
+     * 例: {"id":1,"speed":8.5,"distance":150.3,"latitude":36.500000,"longitude":138.500000}
+     */
+    public JsonWriter writeTrip(int id, double speed, double distance, double latitude, double longitude)
+            throws IOException {
+        writeTripFields(id, speed, distance, latitude, longitude);
+        writeRaw('}');
+        return this;
+    }
+    
+    /**
+     * 記録時刻つきで走行データ1件を書く
+     * 例: {"id":1,"speed":8.5,...,"longitude":138.500000,"recordedAt":1717200000000}
+     */
+    public JsonWriter writeTrip(int id, double speed, double distance, double latitude, double longitude,
+                                long recordedAt) throws IOException {
+        writeTripFields(id, speed, distance, latitude, longitude);
+        writeRaw(",\"recordedAt\":");
+        writeLong(recordedAt);
+        writeRaw('}');
+        return this;
+    }
+    
+    /**
+     * 機械IDつきで走行データ1件を書く（リアルタイム配信用）
+     * 例: {"id":1,"speed":8.5,...,"longitude":138.500000,"machineId":"tractor-01"}
+     */
+    public JsonWriter writeTrip(String machineId, int id, double speed, double distance, double latitude,
+                                double longitude) throws IOException {
+        writeTripFields(id, speed, distance, latitude, longitude);
+        writeRaw(",\"machineId\":");
+        writeString(machineId);
+        writeRaw('}');
+        return this;
+    }
+    
+    // 走行データの項目を書く（最後の '}' は呼び出し側で書く）
+    private void writeTripFields(int id, double speed, double distance, double latitude, double longitude)
+            throws IOException {
+        writeRaw("{\"id\":");
+        writeLong(id);
+        writeRaw(",\"speed\":");
+        writeFixed(speed, SPEED_DECIMALS);
+        writeRaw(",\"distance\":");
+        writeFixed(distance, DISTANCE_DECIMALS);
+        writeRaw(",\"latitude\":");
+        writeFixed(latitude, COORDINATE_DECIMALS);
+        writeRaw(",\"longitude\":");
+        writeFixed(longitude, COORDINATE_DECIMALS);
+    }
+    
+    /**
+     * TripDataを1件書く（nullの場合は {}）
+     */
+    public JsonWriter writeTrip(TripData data) throws IOException {
+        if (data == null) {
+            writeRaw("{}");
+            return this;
+        }
+        return writeTrip(data.getId(), data.getSpeed(), data.getDistance(),
+            data.getLatitude(), data.getLongitude());
+    }
+    
+    /**
+     * 配列形式の走行データをJSON配列として書く
+     */
+    public JsonWriter writeTripArray(TripPoints points) throws IOException {
+        writeRaw('[');
+        int n = points == null ? 0 : points.size();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                writeRaw(',');
+            }
+            writeTrip(points.getId(i), points.getSpeed(i), points.getDistance(i),
+                points.getLatitude(i), points.getLongitude(i));
+        }
+        writeRaw(']');
+        return this;
+    }
+    
+    /**
+     * TripDataのリストをJSON配列として書く
+     */
+    public JsonWriter writeTripArray(List<TripData> dataList) throws IOException {
+        writeRaw('[');
+        int n = dataList == null ? 0 : dataList.size();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                writeRaw(',');
+            }
+            writeTrip(dataList.get(i));
+        }
+        writeRaw(']');
+        return this;
+    }
+    
+    /**
+     * 文字列を "..." で囲み、必要な文字をエスケープして書く（nullの場合は null）
+     */
+    public JsonWriter writeString(CharSequence value) throws IOException {
+        if (value == null) {
+            writeRaw("null");
+            return this;
+        }
+        writeRaw('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': writeRaw("\\\""); break;
+                case '\\': writeRaw("\\\\"); break;
+                case '\n': writeRaw("\\n"); break;
+                case '\r': writeRaw("\\r"); break;
+                case '\t': writeRaw("\\t"); break;
+                case '\b': writeRaw("\\b"); break;
+                case '\f': writeRaw("\\f"); break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        // 制御文字と行区切り文字は 16進数4桁の形にする
+                        writeRaw("\\u");
+                        writeRaw(HEX[(c >> 12) & 0xF]);
+                        writeRaw(HEX[(c >> 8) & 0xF]);
+                        writeRaw(HEX[(c >> 4) & 0xF]);
+                        writeRaw(HEX[c & 0xF]);
+                    } else {
+                        writeRaw(c);
+                    }
+            }
+        }
+        writeRaw('"');
+        return this;
+    }
+    
+    /**
+     * 整数を書く
+     */
+    public JsonWriter writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeRaw("-9223372036854775808");
+            return this;
+        }
+        if (value < 0) {
+            writeRaw('-');
+            value = -value;
+        }
+        writeDigits(value, 0);
+        return this;
+    }
+    
+    /**
+     * 小数を決まった桁数で書く（四捨五入。NaNや無限大は null）
+     * @param value 値
+     * @param decimals 小数点以下の桁数（0〜9）
+     */
+    public JsonWriter writeFixed(double value, int decimals) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeRaw("null");
+            return this;
+        }
+        double scaled = Math.abs(value) * POW10[decimals];
+        if (scaled >= MAX_FAST_SCALED) {
+            // とても大きい値はめったにないので、標準の方法で変換する
+            writeRaw(BigDecimal.valueOf(value).setScale(decimals, RoundingMode.HALF_UP).toPlainString());
+            return this;
+        }
+        long rounded = Math.round(scaled);
+        if (value < 0 && rounded != 0) {
+            writeRaw('-');
+        }
+        writeDigits(rounded, decimals);
+        return this;
+    }
+    
+    // 正の整数を、下からdecimals桁を小数部として書く（例: 1503, 1 → "150.3"）
+    private void writeDigits(long value, int decimals) throws IOException {
+        // 最大で 19桁 + 小数点 + 先頭の0 なので22文字あれば足りる
+        if (pos + 22 > buffer.length) {
+            flushBuffer();
+        }
+        
+        // バッファの後ろから右詰めで数字を作る
+        int end = pos + 22;
+        int p = end;
+        int written = 0;
+        do {
+            if (decimals > 0 && written == decimals) {
+                buffer[--p] = '.';
+            }
+            buffer[--p] = (char) ('0' + (value % 10));
+            value /= 10;
+            written++;
+        } while (value != 0 || written <= decimals);
+        
+        // 左に寄せる
+        int length = end - p;
+        System.arraycopy(buffer, p, buffer, pos, length);
+        pos += length;
+    }
+    
+    /**
+     * 文字列をそのまま書く（エスケープしない）
+     */
+    public JsonWriter writeRaw(String s) throws IOException {
+        int len = s.length();
+        if (pos + len > buffer.length) {
+            flushBuffer();
+            if (len > buffer.length) {
+                out.write(s);
+                return this;
+            }
+        }
+        s.getChars(0, len, buffer, pos);
+        pos += len;
+        return this;
+    }
+    
+    /**
+     * 1文字をそのまま書く
+     */
+    public JsonWriter writeRaw(char c) throws IOException {
+        if (pos == buffer.length) {
+            flushBuffer();
+        }
+        buffer[pos++] = c;
+        return this;
+    }
+    
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+    
+    /**
+     * ためている文字をWriterへ書き出す
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+}
@@ -0,0 +1,132 @@
+package com.agriguide.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 処理時間（レイテンシ）を記録するヒストグラム
+ *
+ * バケットは 1µs, 2µs, 4µs ... と2倍ずつ増えていき、約33秒まで数えます。
+ * LongAdderを使っているので、たくさんのスレッドから同時に記録しても
+ * ロックで待たされることはありません。
+ */
+public class LatencyHistogram {
+    
+    // バケットの数（2^0µs 〜 2^25µs）＋ それを超えた分
+    private static final int BUCKET_COUNT = 26;
+    
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+    
+    /**
+     * 1回分の処理時間を記録
+     * @param nanos 処理時間（ナノ秒）
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[bucketIndex(nanos / 1000)].increment();
+        count.increment();
+        sumNanos.add(nanos);
+    }
+    
+    /**
+     * 開始時刻（System.nanoTime()）から今までの時間を記録
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+    
+    // マイクロ秒の値が入るバケットの番号を計算
+    private static int bucketIndex(long micros) {
+        if (micros <= 1) {
+            return 0;
+        }
+        int index = 64 - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(index, BUCKET_COUNT);
+    }
+    
+    /**
+     * バケットの上限値（マイクロ秒）。最後のバケットは上限なし（Long.MAX_VALUE）
+     */
+    public static long bucketUpperBoundMicros(int index) {
+        if (index >= BUCKET_COUNT) {
+            return Long.MAX_VALUE;
+        }
+        return 1L << index;
+    }
+    
+    /**
+     * バケットの数（上限なしのバケットを含む）
+     */
+    public static int getBucketCount() {
+        return BUCKET_COUNT + 1;
+    }
+    
+    public long getCount() {
+        return count.sum();
+    }
+    
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+    
+    /**
+     * 各バケットの件数をコピーして返す（累積ではありません）
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+    
+    /**
+     * パーセンタイル値（マイクロ秒）の目安を返す
+     * バケットの上限値を返すので、実際の値より最大2倍まで大きく出ます
+     * @param percentile 0〜100（例: 99）
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= threshold) {
+                return i >= BUCKET_COUNT ? bucketUpperBoundMicros(BUCKET_COUNT - 1) * 2 : bucketUpperBoundMicros(i);
+            }
+        }
+        return bucketUpperBoundMicros(BUCKET_COUNT - 1) * 2;
+    }
+    
+    /**
+     * 平均値（マイクロ秒）
+     */
+    public double getMeanMicros() {
+        long n = getCount();
+        return n == 0 ? 0.0 : getSumNanos() / 1000.0 / n;
+    }
+    
+    @Override
+    public String toString() {
+        return "count=" + getCount()
+            + ", mean=" + String.format("%.1f", getMeanMicros()) + "µs"
+            + ", p50<=" + getPercentileMicros(50) + "µs"
+            + ", p99<=" + getPercentileMicros(99) + "µs";
+    }
+}
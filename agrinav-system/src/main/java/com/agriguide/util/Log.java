@@ -0,0 +1,273 @@
+package com.agriguide.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * ログを出すクラス
+ *
+ * 使い方:
+ * <pre>
+ * private static final Log LOG = Log.get(HistoryDataServlet.class);
+ * LOG.debug("✅ 履歴データを返しました: {}件", points.size());
+ * </pre>
+ *
+ * レベル（LOG_LEVEL）より低いログは、メッセージを作る前に捨てます。
+ * {} の部分に値を入れるのは、書き出し用のスレッドが行います
+ * （リクエストのスレッドでは文字列をつなげない・画面への出力を待たない）。
+ * そのため、値には数値や文字列など、あとから変わらないものを渡してください。
+ *
+ * 書き出し用のスレッドが追いつかずバッファ（LOG_BUFFER_SIZE）が満杯のときは、
+ * 待たずにそのログを捨てて、捨てた件数をあとで表示します。
+ */
+public final class Log {
+    
+    /**
+     * ログのレベル（下に行くほど重要）
+     */
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+    
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    
+    private static final Level THRESHOLD = parseLevel(AppConfig.getString("LOG_LEVEL", "INFO"));
+    
+    // 書き出し用のスレッド（LOG_ASYNC=false の場合はnull = その場で書き出す）
+    private static volatile AsyncLogAppender appender = AppConfig.getBoolean("LOG_ASYNC", true)
+        ? new AsyncLogAppender(AppConfig.getInt("LOG_BUFFER_SIZE", 8192)) : null;
+    
+    // ここまでで設定を読み終わったので、その間の警告を出してもらう
+    static {
+        AppConfig.setLog(get(AppConfig.class));
+    }
+    
+    private final String name;
+    
+    private Log(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * クラスごとのログを取得（クラス名がログに出ます）
+     */
+    public static Log get(Class<?> owner) {
+        return new Log(owner.getSimpleName());
+    }
+    
+    private static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            AppConfig.warn("⚠️ LOG_LEVEL が不正です: {}（INFOにします）", value);
+            return Level.INFO;
+        }
+    }
+    
+    /**
+     * このレベルのログを出すかどうか
+     * 値を用意するのに時間がかかる場合は、先にこれで確認してください
+     */
+    public boolean isEnabled(Level level) {
+        return level.compareTo(THRESHOLD) >= 0;
+    }
+    
+    public boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+    
+    // ---- DEBUG: リクエストごとの細かい情報（普段は出さない） ----
+    
+    public void debug(String message) {
+        log(Level.DEBUG, message, null, null, null, 0);
+    }
+    
+    public void debug(String message, Object arg) {
+        log(Level.DEBUG, message, arg, null, null, 1);
+    }
+    
+    public void debug(String message, Object arg1, Object arg2) {
+        log(Level.DEBUG, message, arg1, arg2, null, 2);
+    }
+    
+    public void debug(String message, Object arg1, Object arg2, Object arg3) {
+        log(Level.DEBUG, message, arg1, arg2, arg3, 3);
+    }
+    
+    // ---- INFO: 起動・終了など、ときどき起きること ----
+    
+    public void info(String message) {
+        log(Level.INFO, message, null, null, null, 0);
+    }
+    
+    public void info(String message, Object arg) {
+        log(Level.INFO, message, arg, null, null, 1);
+    }
+    
+    public void info(String message, Object arg1, Object arg2) {
+        log(Level.INFO, message, arg1, arg2, null, 2);
+    }
+    
+    public void info(String message, Object arg1, Object arg2, Object arg3) {
+        log(Level.INFO, message, arg1, arg2, arg3, 3);
+    }
+    
+    // ---- WARN: 処理は続けられるが、おかしなこと ----
+    
+    public void warn(String message) {
+        log(Level.WARN, message, null, null, null, 0);
+    }
+    
+    public void warn(String message, Object arg) {
+        log(Level.WARN, message, arg, null, null, 1);
+    }
+    
+    public void warn(String message, Object arg1, Object arg2) {
+        log(Level.WARN, message, arg1, arg2, null, 2);
+    }
+    
+    public void warn(String message, Object arg1, Object arg2, Object arg3) {
+        log(Level.WARN, message, arg1, arg2, arg3, 3);
+    }
+    
+    // ---- ERROR: 処理に失敗したこと ----
+    
+    public void error(String message) {
+        log(Level.ERROR, message, null, null, null, 0);
+    }
+    
+    public void error(String message, Object arg) {
+        log(Level.ERROR, message, arg, null, null, 1);
+    }
+    
+    public void error(String message, Object arg1, Object arg2) {
+        log(Level.ERROR, message, arg1, arg2, null, 2);
+    }
+    
+    public void error(String message, Object arg1, Object arg2, Object arg3) {
+        log(Level.ERROR, message, arg1, arg2, arg3, 3);
+    }
+    
+    private void log(Level level, String message, Object arg1, Object arg2, Object arg3, int argCount) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        Event event = new Event(System.currentTimeMillis(), level, name, message, arg1, arg2, arg3, argCount);
+        AsyncLogAppender a = appender;
+        if (a != null) {
+            // 満杯の場合は捨てる（件数は数えておく）
+            a.offer(event);
+            return;
+        }
+        // 非同期にしない設定、または終了した後はその場で書き出す
+        StringBuilder line = new StringBuilder(128);
+        event.appendTo(line);
+        System.out.print(line);
+    }
+    
+    /**
+     * バッファが満杯で捨てたログの件数
+     */
+    public static long getDroppedCount() {
+        AsyncLogAppender a = appender;
+        return a != null ? a.getDroppedCount() : 0;
+    }
+    
+    /**
+     * まだ書き出していないログの件数
+     */
+    public static long getPendingCount() {
+        AsyncLogAppender a = appender;
+        return a != null ? a.getPendingCount() : 0;
+    }
+    
+    /**
+     * 残っているログを書き出して、書き出し用のスレッドを止める（アプリ終了時に呼ぶ）
+     * これより後のログは、その場で書き出します
+     */
+    public static void shutdown(long timeoutMillis) {
+        AsyncLogAppender a = appender;
+        appender = null;
+        if (a != null) {
+            a.shutdown(timeoutMillis);
+        }
+    }
+    
+    /**
+     * 1件分のログ（書き出し用のスレッドに渡す）
+     */
+    static final class Event {
+        private final long millis;
+        private final Level level;
+        private final String logger;
+        private final String message;
+        private final Object arg1;
+        private final Object arg2;
+        private final Object arg3;
+        private final int argCount;
+        
+        Event(long millis, Level level, String logger, String message,
+              Object arg1, Object arg2, Object arg3, int argCount) {
+            this.millis = millis;
+            this.level = level;
+            this.logger = logger;
+            this.message = message;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.arg3 = arg3;
+            this.argCount = argCount;
+        }
+        
+        /**
+         * 1行にして追加する（例: 2024-06-01 12:00:00.000 INFO  [TripDataService] メッセージ）
+         */
+        void appendTo(StringBuilder out) {
+            TIME_FORMAT.formatTo(Instant.ofEpochMilli(millis), out);
+            out.append(' ').append(level.name());
+            for (int i = level.name().length(); i < 6; i++) {
+                out.append(' ');
+            }
+            out.append('[').append(logger).append("] ");
+            
+            // {} を順番に値で置きかえる
+            int next = 0;
+            int from = 0;
+            Throwable thrown = null;
+            while (from < message.length()) {
+                int at = message.indexOf("{}", from);
+                if (at < 0 || next >= argCount) {
+                    break;
+                }
+                out.append(message, from, at).append(argument(next++));
+                from = at + 2;
+            }
+            out.append(message, from, message.length());
+            
+            // {} が足りない最後の値が例外の場合は、スタックトレースを出す
+            if (next < argCount && argument(argCount - 1) instanceof Throwable) {
+                thrown = (Throwable) argument(argCount - 1);
+            }
+            out.append(System.lineSeparator());
+            if (thrown != null) {
+                StringWriter trace = new StringWriter();
+                thrown.printStackTrace(new PrintWriter(trace));
+                out.append(trace);
+            }
+        }
+        
+        private Object argument(int index) {
+            switch (index) {
+                case 0:
+                    return arg1;
+                case 1:
+                    return arg2;
+                default:
+                    return arg3;
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.agriguide.util;
+
+/**
+ * 機械（トラクターなど）を区別するIDのチェック用クラス
+ *
+ * IDは英数字と「-」「_」「.」だけの1〜64文字です（例: tractor-01）。
+ * IDを送ってこない古い端末のデータは、DEFAULT の機械として扱います。
+ */
+public class MachineId {
+    
+    /**
+     * IDが指定されなかったときの機械ID
+     */
+    public static final String DEFAULT = "default";
+    
+    /**
+     * IDの最大文字数（machine_id列の長さ）
+     */
+    public static final int MAX_LENGTH = 64;
+    
+    private MachineId() {
+    }
+    
+    /**
+     * パラメータの値を機械IDにする
+     * @param value パラメータの値（nullや空の場合は DEFAULT）
+     * @return 機械ID（使えない文字が含まれる場合はnull）
+     *         同じIDは同じ文字列オブジェクトになるので、たくさんのデータで持ってもメモリを使いません
+     */
+    public static String normalize(String value) {
+        if (value == null || value.isEmpty()) {
+            return DEFAULT;
+        }
+        return isValid(value) ? value.intern() : null;
+    }
+    
+    /**
+     * 機械IDとして使える文字列かどうか
+     */
+    public static boolean isValid(String value) {
+        if (value == null || value.isEmpty() || value.length() > MAX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.';
+            if (!ok) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,188 @@
+package com.agriguide.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * アプリ全体の計測値（メトリクス）を集めておくクラス
+ * /agrinav-system/metrics で Prometheus のテキスト形式で返します
+ *
+ * 種類は3つです。
+ * - カウンター: 増えるだけの回数（LongAdder）
+ * - ヒストグラム: 処理時間の分布（LatencyHistogram）
+ * - ゲージ: 読んだときの値（キューの長さなど。読むたびに関数を呼ぶ）
+ *
+ * 記録するときはロックを使いません（LongAdderで数えるだけ）。
+ * 名前とラベルで探す処理は少しだけ時間がかかるので、よく使うものは
+ * static final のフィールドに取っておいてください。
+ *
+ * 例:
+ *   private static final LongAdder ERRORS = Metrics.counter("agrinav_x_errors_total", "説明", "type", "timeout");
+ *   ERRORS.increment();
+ */
+public class Metrics {
+    
+    // 名前 → 同じ名前の計測値のまとまり（名前順に出力する）
+    private static final Map<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+    
+    // 同じ名前・種類で、ラベルだけ違う計測値のまとまり
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        
+        // ラベル（出力する形の文字列）→ 計測値
+        final Map<String, Object> series = new ConcurrentHashMap<>();
+        
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+    
+    private Metrics() {
+    }
+    
+    /**
+     * カウンターを取得（無ければ作る）
+     * @param name 名前（_total で終わる）
+     * @param help 説明
+     * @param labels ラベルの名前と値を交互に並べたもの（例: "endpoint", "/api/x"）
+     */
+    public static LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, "counter").series
+            .computeIfAbsent(formatLabels(labels), k -> new LongAdder());
+    }
+    
+    /**
+     * 処理時間のヒストグラムを取得（無ければ作る）
+     * @param name 名前（_seconds で終わる）
+     */
+    public static LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, "histogram").series
+            .computeIfAbsent(formatLabels(labels), k -> new LatencyHistogram());
+    }
+    
+    /**
+     * ほかのクラスが持っているヒストグラムを登録する（読むたびにsupplierを呼ぶ）
+     */
+    public static void histogram(String name, String help, Supplier<LatencyHistogram> supplier, String... labels) {
+        family(name, help, "histogram").series.put(formatLabels(labels), supplier);
+    }
+    
+    /**
+     * ゲージを登録する（読むたびにsupplierを呼ぶ。同じ名前・ラベルの場合は置き換える）
+     */
+    public static void gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        family(name, help, "gauge").series.put(formatLabels(labels), supplier);
+    }
+    
+    /**
+     * 増えるだけの値を、ほかのクラスのカウンターから読んで登録する
+     */
+    public static void counter(String name, String help, DoubleSupplier supplier, String... labels) {
+        family(name, help, "counter").series.put(formatLabels(labels), supplier);
+    }
+    
+    private static Family family(String name, String help, String type) {
+        Family family = FAMILIES.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("metric " + name + " is already registered as " + family.type);
+        }
+        return family;
+    }
+    
+    // ラベルを {a="1",b="2"} の中身の形にする
+    private static String formatLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels must be name/value pairs");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"");
+            String value = labels[i + 1] != null ? labels[i + 1] : "";
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * 全部の計測値を Prometheus のテキスト形式で書き出す
+     */
+    public static void writePrometheus(Writer out) throws IOException {
+        for (Family family : FAMILIES.values()) {
+            out.write("# HELP " + family.name + " " + family.help.replace("\n", " ") + "\n");
+            out.write("# TYPE " + family.name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> entry : family.series.entrySet()) {
+                String labels = entry.getKey();
+                Object value = entry.getValue();
+                if (value instanceof LongAdder adder) {
+                    writeSample(out, family.name, labels, adder.sum());
+                } else if (value instanceof LatencyHistogram histogram) {
+                    writeHistogram(out, family.name, labels, histogram);
+                } else if (value instanceof DoubleSupplier supplier) {
+                    writeSample(out, family.name, labels, supplier.getAsDouble());
+                } else if (value instanceof Supplier<?> supplier) {
+                    Object histogram = supplier.get();
+                    if (histogram instanceof LatencyHistogram h) {
+                        writeHistogram(out, family.name, labels, h);
+                    }
+                }
+            }
+        }
+    }
+    
+    // ヒストグラム（バケットは累積、秒単位）
+    private static void writeHistogram(Writer out, String name, String labels, LatencyHistogram histogram)
+            throws IOException {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long[] counts = histogram.getBucketCounts();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            long upper = LatencyHistogram.bucketUpperBoundMicros(i);
+            String le = upper == Long.MAX_VALUE ? "+Inf" : BigDecimal.valueOf(upper, 6).toPlainString();
+            out.write(name + "_bucket{" + prefix + "le=\"" + le + "\"} " + cumulative + "\n");
+        }
+        writeSample(out, name + "_sum", labels, histogram.getSumNanos() / 1_000_000_000.0);
+        // 記録中に読んでも +Inf のバケットと件数がずれないように、バケットの合計を件数にする
+        writeSample(out, name + "_count", labels, cumulative);
+    }
+    
+    private static void writeSample(Writer out, String name, String labels, double value) throws IOException {
+        out.write(name);
+        if (!labels.isEmpty()) {
+            out.write("{" + labels + "}");
+        }
+        out.write(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            out.write(Long.toString((long) value));
+        } else if (Double.isNaN(value)) {
+            out.write("NaN");
+        } else {
+            out.write(Double.toString(value));
+        }
+        out.write('\n');
+    }
+}
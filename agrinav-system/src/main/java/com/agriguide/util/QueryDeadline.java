@@ -0,0 +1,78 @@
+package com.agriguide.util;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+
+/**
+ * 今のスレッドで行うDB処理の期限
+ *
+ * リクエストの時間制限（ASYNC_REQUEST_TIMEOUT_MS）を、JDBCのタイムアウトにするためのものです。
+ * set() で期限を決めると、それから clear() までにプールから借りた接続には
+ * 残り時間からネットワークのタイムアウト（setNetworkTimeout）を、作った Statement には
+ * クエリのタイムアウト（setQueryTimeout）をかけます（ConnectionPool が行う）。
+ * DBサーバーが応答しなくなっても、DBへアクセスできる枠を持ったまま止まり続けることはありません。
+ *
+ * 時間切れの例外かどうかは isTimeout() で調べます（呼び出し元は503を返す）。
+ */
+public final class QueryDeadline {
+    
+    // 期限（1970年からのミリ秒、無い場合は0）
+    private static final ThreadLocal<long[]> DEADLINE = ThreadLocal.withInitial(() -> new long[1]);
+    
+    // 時間切れのときのSQLState（クエリを取り消した: PostgreSQL・H2 / MySQL、タイムアウト: ODBC）
+    private static final String[] TIMEOUT_STATES = { "57014", "70100", "HYT00", "HYT01" };
+    
+    private QueryDeadline() {
+    }
+    
+    /**
+     * 今のスレッドのDB処理の期限を決める（終わったら必ず clear() を呼んでください）
+     * @param deadlineMillis 期限（1970年からのミリ秒）
+     */
+    public static void set(long deadlineMillis) {
+        DEADLINE.get()[0] = deadlineMillis;
+    }
+    
+    public static void clear() {
+        DEADLINE.get()[0] = 0;
+    }
+    
+    /**
+     * 期限が決まっているか
+     */
+    public static boolean isSet() {
+        return DEADLINE.get()[0] > 0;
+    }
+    
+    /**
+     * 期限までの残り時間（ミリ秒）
+     * @throws SQLTimeoutException 期限が過ぎている場合
+     */
+    static long remainingMillis() throws SQLTimeoutException {
+        long remaining = DEADLINE.get()[0] - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new SQLTimeoutException("Request deadline has passed");
+        }
+        return remaining;
+    }
+    
+    /**
+     * 時間切れでDB処理が止まった例外か（原因をたどって調べる）
+     */
+    public static boolean isTimeout(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLTimeoutException) {
+                return true;
+            }
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                for (String timeout : TIMEOUT_STATES) {
+                    if (timeout.equals(state)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
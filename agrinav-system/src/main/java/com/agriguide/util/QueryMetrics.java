@@ -0,0 +1,54 @@
+package com.agriguide.util;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Repositoryの1つの処理（SQL）の計測値
+ * 処理時間・読み書きした行数・エラーの回数を記録します
+ *
+ * 使い方:
+ *   private static final QueryMetrics FIND = new QueryMetrics("trip_data", "find_latest");
+ *   long start = System.nanoTime();
+ *   try { ... FIND.rows(count); } catch (SQLException e) { FIND.error(e); throw e; }
+ *   finally { FIND.recordSince(start); }
+ */
+public class QueryMetrics {
+    
+    private final String table;
+    private final String operation;
+    private final LatencyHistogram latency;
+    private final LongAdder rows;
+    
+    /**
+     * @param table テーブル名
+     * @param operation 処理の名前（find_latest, insert など）
+     */
+    public QueryMetrics(String table, String operation) {
+        this.table = table;
+        this.operation = operation;
+        this.latency = Metrics.histogram("agrinav_db_query_duration_seconds",
+            "Repositoryの処理時間（接続の取得と、結果を呼び出し元へ渡す時間を含む）",
+            "table", table, "operation", operation);
+        this.rows = Metrics.counter("agrinav_db_rows_total",
+            "Repositoryで読み込んだ・書き込んだ行数", "table", table, "operation", operation);
+    }
+    
+    public void recordSince(long startNanos) {
+        latency.recordSince(startNanos);
+    }
+    
+    public void rows(long count) {
+        rows.add(count);
+    }
+    
+    /**
+     * エラーを数える（種類はSQLSTATEの先頭2文字。08 = 接続エラー、23 = 制約違反 など）
+     */
+    public void error(SQLException e) {
+        String state = e.getSQLState();
+        String type = state != null && state.length() >= 2 ? state.substring(0, 2) : "unknown";
+        Metrics.counter("agrinav_db_errors_total", "Repositoryの処理でのエラーの回数（SQLSTATEの分類ごと）",
+            "table", table, "operation", operation, "sqlstate", type).increment();
+    }
+}
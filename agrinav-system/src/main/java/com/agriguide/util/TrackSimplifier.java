@@ -0,0 +1,287 @@
+package com.agriguide.util;
+
+import java.util.Arrays;
+
+import com.agriguide.model.TripPoints;
+
+/**
+ * 走行データの点を間引くクラス（地図やグラフに表示する点を減らす）
+ *
+ * - 走行ルート（地図）: Douglas-Peucker法
+ *   線の形からのずれが大きい点から順に残していくので、曲がり角が残ります。
+ * - 速度のグラフ: LTTB法（Largest-Triangle-Three-Buckets）
+ *   区間ごとに「前後の点と作る三角形が一番大きい点」を残すので、山や谷が残ります。
+ *
+ * どちらも配列のまま計算し、点ごとのオブジェクトは作りません。
+ * 戻り値は残す点の番号（古い順）です。
+ */
+public class TrackSimplifier {
+    
+    // 緯度・経度1度あたりのおおよその距離（メートル）
+    private static final double METERS_PER_DEGREE_LAT = 110540.0;
+    private static final double METERS_PER_DEGREE_LON = 111320.0;
+    
+    /**
+     * 走行ルートを間引く（Douglas-Peucker法）
+     *
+     * ずれが一番大きい区間から順に分割し、次のどちらかで止めます。
+     * - 残りの区間のずれがすべて toleranceMeters 以下になった
+     * - 残す点の数が maxPoints になった
+     *
+     * 計算量は普通の走行ルートで O(n log n) 程度です。
+     *
+     * @param points 走行データ（古い順）
+     * @param toleranceMeters 許容するずれ（メートル、0の場合は点の数だけで決める）
+     * @param maxPoints 残す点の最大数（2以上）
+     * @return 残す点の番号
+     */
+    public static int[] simplifyRoute(TripPoints points, double toleranceMeters, int maxPoints) {
+        int n = points.size();
+        maxPoints = Math.max(2, maxPoints);
+        if (n <= 2 || (n <= maxPoints && toleranceMeters <= 0)) {
+            return all(n);
+        }
+        
+        // 緯度経度を、最初の点を原点にしたメートル単位の平面座標にする
+        double lat0 = points.getLatitude(0);
+        double lon0 = points.getLongitude(0);
+        double lonScale = METERS_PER_DEGREE_LON * Math.cos(Math.toRadians(lat0));
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = (points.getLongitude(i) - lon0) * lonScale;
+            y[i] = (points.getLatitude(i) - lat0) * METERS_PER_DEGREE_LAT;
+        }
+        
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        int kept = 2;
+        
+        // 区間をずれの大きい順に取り出すヒープ（配列で持つ）
+        SegmentHeap heap = new SegmentHeap(Math.min(n, 2 * maxPoints + 2));
+        pushSegment(heap, x, y, 0, n - 1);
+        
+        while (heap.size > 0 && kept < maxPoints) {
+            if (heap.maxDistance() <= toleranceMeters) {
+                break;
+            }
+            int start = heap.start[0];
+            int end = heap.end[0];
+            int farthest = heap.farthest[0];
+            heap.pop();
+            
+            keep[farthest] = true;
+            kept++;
+            pushSegment(heap, x, y, start, farthest);
+            pushSegment(heap, x, y, farthest, end);
+        }
+        
+        int[] result = new int[kept];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                result[k++] = i;
+            }
+        }
+        return result;
+    }
+    
+    // 区間の中で線から一番離れた点を探してヒープに入れる
+    private static void pushSegment(SegmentHeap heap, double[] x, double[] y, int start, int end) {
+        if (end - start < 2) {
+            return;
+        }
+        double ax = x[start];
+        double ay = y[start];
+        double dx = x[end] - ax;
+        double dy = y[end] - ay;
+        double lengthSq = dx * dx + dy * dy;
+        
+        int farthest = -1;
+        double maxSq = -1;
+        for (int i = start + 1; i < end; i++) {
+            double px = x[i] - ax;
+            double py = y[i] - ay;
+            double distSq;
+            if (lengthSq == 0) {
+                // 始点と終点が同じ場所（同じ場所を往復した場合など）
+                distSq = px * px + py * py;
+            } else {
+                // 線分上で一番近い点までの距離
+                double t = (px * dx + py * dy) / lengthSq;
+                t = t < 0 ? 0 : (t > 1 ? 1 : t);
+                double ex = px - t * dx;
+                double ey = py - t * dy;
+                distSq = ex * ex + ey * ey;
+            }
+            if (distSq > maxSq) {
+                maxSq = distSq;
+                farthest = i;
+            }
+        }
+        heap.push(start, end, farthest, Math.sqrt(maxSq));
+    }
+    
+    /**
+     * 速度のグラフ用に間引く（LTTB法、x軸は記録時刻）
+     * 記録時刻が無いデータの場合は、x軸に点の番号を使います
+     * @param points 走行データ（古い順）
+     * @param threshold 残す点の数
+     * @return 残す点の番号
+     */
+    public static int[] downsampleSeries(TripPoints points, int threshold) {
+        int n = points.size();
+        if (threshold >= n || threshold < 3) {
+            return threshold < 3 && n > 2 ? firstAndLast(n) : all(n);
+        }
+        
+        boolean useTime = points.getRecordedAt(0) > 0 && points.getRecordedAt(n - 1) > 0;
+        long time0 = points.getRecordedAt(0);
+        int[] result = new int[threshold];
+        int k = 0;
+        
+        // 最初の点は必ず残す
+        int a = 0;
+        result[k++] = a;
+        
+        // 最初と最後を除いた点を threshold - 2 個のバケットに分ける
+        double bucketSize = (double) (n - 2) / (threshold - 2);
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // 次のバケットの平均（三角形の3つ目の頂点）
+            int nextStart = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) Math.floor((bucket + 2) * bucketSize) + 1, n);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += xOf(points, i, useTime, time0);
+                avgY += points.getSpeed(i);
+            }
+            int count = nextEnd - nextStart;
+            avgX /= count;
+            avgY /= count;
+            
+            // このバケットの中で、三角形の面積が一番大きい点を選ぶ
+            int start = (int) Math.floor(bucket * bucketSize) + 1;
+            int end = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            double ax = xOf(points, a, useTime, time0);
+            double ay = points.getSpeed(a);
+            double maxArea = -1;
+            int selected = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((ax - avgX) * (points.getSpeed(i) - ay)
+                    - (ax - xOf(points, i, useTime, time0)) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    selected = i;
+                }
+            }
+            result[k++] = selected;
+            a = selected;
+        }
+        
+        // 最後の点も必ず残す
+        result[k] = n - 1;
+        return result;
+    }
+    
+    private static double xOf(TripPoints points, int i, boolean useTime, long time0) {
+        return useTime ? (double) (points.getRecordedAt(i) - time0) : i;
+    }
+    
+    private static int[] all(int n) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = i;
+        }
+        return result;
+    }
+    
+    private static int[] firstAndLast(int n) {
+        return new int[] { 0, n - 1 };
+    }
+    
+    /**
+     * 区間（start〜end）を「線から一番離れた点の距離」の大きい順に取り出すヒープ
+     */
+    private static class SegmentHeap {
+        int[] start;
+        int[] end;
+        int[] farthest;
+        double[] distance;
+        int size;
+        
+        SegmentHeap(int capacity) {
+            start = new int[capacity];
+            end = new int[capacity];
+            farthest = new int[capacity];
+            distance = new double[capacity];
+        }
+        
+        double maxDistance() {
+            return distance[0];
+        }
+        
+        void push(int s, int e, int f, double d) {
+            if (size == start.length) {
+                int capacity = size * 2;
+                start = Arrays.copyOf(start, capacity);
+                end = Arrays.copyOf(end, capacity);
+                farthest = Arrays.copyOf(farthest, capacity);
+                distance = Arrays.copyOf(distance, capacity);
+            }
+            int i = size++;
+            // 親より大きければ上へ移動
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (distance[parent] >= d) {
+                    break;
+                }
+                set(i, parent);
+                i = parent;
+            }
+            start[i] = s;
+            end[i] = e;
+            farthest[i] = f;
+            distance[i] = d;
+        }
+        
+        void pop() {
+            size--;
+            if (size == 0) {
+                return;
+            }
+            // 最後の要素を先頭に置いて、子より小さければ下へ移動
+            int s = start[size];
+            int e = end[size];
+            int f = farthest[size];
+            double d = distance[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && distance[child + 1] > distance[child]) {
+                    child++;
+                }
+                if (distance[child] <= d) {
+                    break;
+                }
+                set(i, child);
+                i = child;
+            }
+            start[i] = s;
+            end[i] = e;
+            farthest[i] = f;
+            distance[i] = d;
+        }
+        
+        private void set(int to, int from) {
+            start[to] = start[from];
+            end[to] = end[from];
+            farthest[to] = farthest[from];
+            distance[to] = distance[from];
+        }
+    }
+}
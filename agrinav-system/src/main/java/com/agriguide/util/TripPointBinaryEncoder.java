@@ -0,0 +1,90 @@
+package com.agriguide.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 走行データをバイナリ形式（application/x-agrinav-trip）で書き出すクラス
+ * 形式の説明は TripPointBinaryDecoder を見てください。
+ *
+ * 端末側の実装の見本と、性能測定用のデータ作りに使います。
+ */
+public class TripPointBinaryEncoder {
+    
+    private final OutputStream out;
+    private final boolean hasTime;
+    
+    // 前の点の値（差分にする）
+    private long latitudeUnits;
+    private long longitudeUnits;
+    private long distanceUnits;
+    private long time;
+    
+    /**
+     * ヘッダーを書く
+     * @param out 書き出し先
+     * @param machineId 機械ID（nullの場合は書かない）
+     * @param baseTime 基準時刻（1970年からのミリ秒。0以下の場合は記録時刻を送らない）
+     */
+    public TripPointBinaryEncoder(OutputStream out, String machineId, long baseTime) throws IOException {
+        this.out = out;
+        this.hasTime = baseTime > 0;
+        this.time = hasTime ? baseTime : 0;
+        
+        out.write(TripPointBinaryDecoder.MAGIC);
+        int flags = (machineId != null ? TripPointBinaryDecoder.FLAG_MACHINE_ID : 0)
+            | (hasTime ? TripPointBinaryDecoder.FLAG_RECORDED_AT : 0);
+        out.write(flags);
+        if (machineId != null) {
+            if (!MachineId.isValid(machineId)) {
+                throw new IllegalArgumentException("invalid machineId: " + machineId);
+            }
+            out.write(machineId.length());
+            for (int i = 0; i < machineId.length(); i++) {
+                out.write(machineId.charAt(i));
+            }
+        }
+        if (hasTime) {
+            writeVarint(baseTime);
+        }
+    }
+    
+    /**
+     * 1件書く
+     * @param recordedAt 記録時刻（ヘッダーで記録時刻なしの場合は使わない）
+     */
+    public void write(double speed, double distance, double latitude, double longitude, long recordedAt)
+            throws IOException {
+        long lat = Math.round(latitude * TripPointBinaryDecoder.COORDINATE_SCALE);
+        long lon = Math.round(longitude * TripPointBinaryDecoder.COORDINATE_SCALE);
+        long dist = Math.round(distance * TripPointBinaryDecoder.VALUE_SCALE);
+        
+        writeSignedVarint(lat - latitudeUnits);
+        writeSignedVarint(lon - longitudeUnits);
+        writeVarint(Math.max(0, Math.round(speed * TripPointBinaryDecoder.VALUE_SCALE)));
+        writeSignedVarint(dist - distanceUnits);
+        if (hasTime) {
+            writeSignedVarint(recordedAt - time);
+            time = recordedAt;
+        }
+        latitudeUnits = lat;
+        longitudeUnits = lon;
+        distanceUnits = dist;
+    }
+    
+    public void flush() throws IOException {
+        out.flush();
+    }
+    
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+    
+    private void writeSignedVarint(long value) throws IOException {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+}
@@ -0,0 +1,484 @@
+package com.agriguide.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import com.agriguide.model.TripData;
+
+/**
+ * 走行データのJSONを少しずつ読み込むパーサー
+ *
+ * 次の2つの形式に対応しています:
+ * - JSON配列:  [{"speed":8.5,"distance":150.3,"latitude":36.5,"longitude":138.5}, ...]
+ * - NDJSON:    1行に1つのJSONオブジェクト
+ *
+ * "recordedAt"（記録時刻、1970年からのミリ秒）と "machineId"（機械ID、文字列）は省略できます。
+ *
+ * リクエストの本文を全部メモリに読み込まず、next() を呼ぶたびに
+ * 1件分だけ読み進めます。何百件あってもメモリ使用量は一定です。
+ */
+public class TripPointStreamParser {
+    
+    /**
+     * JSONの書き方が間違っているときの例外
+     */
+    public static class ParseException extends Exception {
+        private static final long serialVersionUID = 1L;
+        
+        public ParseException(String message, long position) {
+            super(message + " (position " + position + ")");
+        }
+    }
+    
+    // 10の累乗（数値の高速変換用。2^53以下の整数と10^22までは誤差なく計算できる）
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1.0;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10.0;
+        }
+    }
+    
+    // 読み込んだ項目を記録するビット
+    private static final int SPEED = 1;
+    private static final int DISTANCE = 2;
+    private static final int LATITUDE = 4;
+    private static final int LONGITUDE = 8;
+    private static final int RECORDED_AT = 16;  // 省略可
+    private static final int MACHINE_ID = 32;   // 省略可（文字列）
+    private static final int ALL_FIELDS = SPEED | DISTANCE | LATITUDE | LONGITUDE;
+    
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    private long consumed;
+    
+    // 文字列や数値を一時的にためておく場所（使い回す）
+    private final StringBuilder token = new StringBuilder();
+    
+    private boolean started;
+    private boolean inArray;
+    private boolean first = true;
+    private boolean finished;
+    
+    // 現在のデータ
+    private int fields;
+    private double speed;
+    private double distance;
+    private double latitude;
+    private double longitude;
+    private long recordedAt;
+    private String machineId;
+    
+    // 前のデータの機械ID（同じ機械が続くときに文字列を作り直さない）
+    private String lastMachineId;
+    
+    public TripPointStreamParser(Reader reader) {
+        this.reader = reader;
+    }
+    
+    /**
+     * 次のデータを読み込む
+     * @return データがあればtrue、最後まで読んだらfalse
+     * @throws ParseException JSONの形式が正しくない場合
+     */
+    public boolean next() throws IOException, ParseException {
+        if (finished) {
+            return false;
+        }
+        
+        int c = skipWhitespace();
+        if (!started) {
+            started = true;
+            if (c == '[') {
+                // JSON配列の形式
+                read();
+                inArray = true;
+                c = skipWhitespace();
+            }
+        }
+        
+        if (inArray) {
+            if (c == ']') {
+                read();
+                finish();
+                return false;
+            }
+            if (!first) {
+                if (c != ',') {
+                    throw error("',' or ']' expected");
+                }
+                read();
+                c = skipWhitespace();
+            }
+        } else if (c == -1) {
+            // NDJSONの終わり
+            finished = true;
+            return false;
+        }
+        
+        if (c != '{') {
+            throw error("'{' expected");
+        }
+        first = false;
+        parseObject();
+        return true;
+    }
+    
+    /**
+     * 現在のデータに4つの項目（speed, distance, latitude, longitude）が揃っているか
+     */
+    public boolean isComplete() {
+        return (fields & ALL_FIELDS) == ALL_FIELDS;
+    }
+    
+    /**
+     * 現在のデータをTripDataに変換
+     */
+    public TripData toTripData() {
+        TripData data = new TripData(speed, distance, latitude, longitude);
+        data.setRecordedAt(recordedAt);
+        if (machineId != null) {
+            data.setMachineId(machineId);
+        }
+        return data;
+    }
+    
+    public double getSpeed() {
+        return speed;
+    }
+    
+    public double getDistance() {
+        return distance;
+    }
+    
+    public double getLatitude() {
+        return latitude;
+    }
+    
+    public double getLongitude() {
+        return longitude;
+    }
+    
+    /**
+     * 記録時刻（1970年からのミリ秒、送られてこなかった場合は0）
+     */
+    public long getRecordedAt() {
+        return recordedAt;
+    }
+    
+    /**
+     * 機械ID（送られてこなかった場合はnull。文字のチェックはしていません）
+     */
+    public String getMachineId() {
+        return machineId;
+    }
+    
+    // 配列の後ろに余計な文字がないか確認
+    private void finish() throws IOException, ParseException {
+        finished = true;
+        if (skipWhitespace() != -1) {
+            throw error("unexpected data after ']'");
+        }
+    }
+    
+    // { ... } を1つ読む
+    private void parseObject() throws IOException, ParseException {
+        read();  // '{'
+        fields = 0;
+        speed = 0;
+        distance = 0;
+        latitude = 0;
+        longitude = 0;
+        recordedAt = 0;
+        machineId = null;
+        
+        int c = skipWhitespace();
+        if (c == '}') {
+            read();
+            return;
+        }
+        
+        while (true) {
+            if (c != '"') {
+                throw error("field name expected");
+            }
+            parseString();
+            int field = fieldOf(token);
+            
+            if (skipWhitespace() != ':') {
+                throw error("':' expected");
+            }
+            read();
+            c = skipWhitespace();
+            
+            if (field == MACHINE_ID) {
+                parseMachineId(c);
+            } else if (field != 0) {
+                double value = parseNumberValue(c);
+                setField(field, value);
+            } else {
+                // 知らない項目は読み飛ばす
+                skipValue(c);
+            }
+            
+            c = skipWhitespace();
+            if (c == ',') {
+                read();
+                c = skipWhitespace();
+            } else if (c == '}') {
+                read();
+                return;
+            } else {
+                throw error("',' or '}' expected");
+            }
+        }
+    }
+    
+    private static int fieldOf(CharSequence name) {
+        if (equals(name, "speed")) return SPEED;
+        if (equals(name, "distance")) return DISTANCE;
+        if (equals(name, "latitude")) return LATITUDE;
+        if (equals(name, "longitude")) return LONGITUDE;
+        if (equals(name, "recordedAt")) return RECORDED_AT;
+        if (equals(name, "machineId")) return MACHINE_ID;
+        return 0;
+    }
+    
+    private void setField(int field, double value) {
+        switch (field) {
+            case SPEED: speed = value; break;
+            case DISTANCE: distance = value; break;
+            case LATITUDE: latitude = value; break;
+            case LONGITUDE: longitude = value; break;
+            case RECORDED_AT: recordedAt = (long) value; break;
+            default: return;
+        }
+        fields |= field;
+    }
+    
+    // 機械IDの文字列を読む
+    private void parseMachineId(int c) throws IOException, ParseException {
+        if (c != '"') {
+            throw error("string expected");
+        }
+        parseString();
+        if (lastMachineId == null || !equals(token, lastMachineId)) {
+            lastMachineId = token.toString();
+        }
+        machineId = lastMachineId;
+        fields |= MACHINE_ID;
+    }
+    
+    private static boolean equals(CharSequence a, String b) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < b.length(); i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // 数値を読む（"8.5" のように文字列で送られてきた場合も受け付ける）
+    private double parseNumberValue(int c) throws IOException, ParseException {
+        if (c == '"') {
+            parseString();
+        } else {
+            token.setLength(0);
+            while (true) {
+                c = peek();
+                if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                    token.append((char) read());
+                } else {
+                    break;
+                }
+            }
+        }
+        return parseDouble();
+    }
+    
+    // tokenの内容をdoubleに変換（よくある桁数なら文字列を作らずに計算する）
+    private double parseDouble() throws ParseException {
+        int len = token.length();
+        int i = 0;
+        boolean negative = false;
+        if (len > 0 && (token.charAt(0) == '-' || token.charAt(0) == '+')) {
+            negative = token.charAt(0) == '-';
+            i++;
+        }
+        
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean dot = false;
+        boolean anyDigit = false;
+        for (; i < len; i++) {
+            char ch = token.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                anyDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (ch - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    if (dot) {
+                        exponent--;
+                    }
+                } else if (!dot) {
+                    exponent++;
+                }
+            } else if (ch == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (!anyDigit) {
+            throw error("number expected");
+        }
+        
+        if (i == len && digits <= 15 && exponent >= -22 && exponent <= 22) {
+            double value = mantissa;
+            value = exponent < 0 ? value / POW10[-exponent] : value * POW10[exponent];
+            return negative ? -value : value;
+        }
+        
+        // 指数表記や桁数が多い場合は標準の変換を使う
+        try {
+            return Double.parseDouble(token.toString());
+        } catch (NumberFormatException e) {
+            throw error("invalid number");
+        }
+    }
+    
+    // "..." を読んでtokenに入れる
+    private void parseString() throws IOException, ParseException {
+        read();  // '"'
+        token.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw error("unterminated string");
+            }
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                int e = read();
+                switch (e) {
+                    case '"': token.append('"'); break;
+                    case '\\': token.append('\\'); break;
+                    case '/': token.append('/'); break;
+                    case 'b': token.append('\b'); break;
+                    case 'f': token.append('\f'); break;
+                    case 'n': token.append('\n'); break;
+                    case 'r': token.append('\r'); break;
+                    case 't': token.append('\t'); break;
+                    case 'u':
+                        int code = 0;
+                        for (int k = 0; k < 4; k++) {
+                            int h = Character.digit(read(), 16);
+                            if (h < 0) {
+                                throw error("invalid unicode escape");
+                            }
+                            code = code * 16 + h;
+                        }
+                        token.append((char) code);
+                        break;
+                    default:
+                        throw error("invalid escape");
+                }
+            } else {
+                token.append((char) c);
+            }
+        }
+    }
+    
+    // 値を1つ読み飛ばす（入れ子のオブジェクトや配列も含む）
+    private void skipValue(int c) throws IOException, ParseException {
+        if (c == '"') {
+            parseString();
+            return;
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (true) {
+                c = peek();
+                if (c == -1) {
+                    throw error("unexpected end of input");
+                }
+                if (c == '"') {
+                    parseString();
+                    continue;
+                }
+                read();
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return;
+                    }
+                }
+            }
+        }
+        // 数値・true・false・null
+        boolean any = false;
+        while (true) {
+            c = peek();
+            if (c == -1 || c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                break;
+            }
+            read();
+            any = true;
+        }
+        if (!any) {
+            throw error("value expected");
+        }
+    }
+    
+    // 空白・改行を読み飛ばして、次の文字を返す（読み進めない）
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                read();
+            } else {
+                return c;
+            }
+        }
+    }
+    
+    private int peek() throws IOException {
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+    
+    private int read() throws IOException {
+        if (pos >= limit && !fill()) {
+            return -1;
+        }
+        consumed++;
+        return buffer[pos++];
+    }
+    
+    private boolean fill() throws IOException {
+        int n = reader.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+    
+    private ParseException error(String message) {
+        return new ParseException(message, consumed);
+    }
+}
@@ -16,6 +16,21 @@ let animationId = null;
 let speedChart = null;
 let distanceChart = null;
 
+// グラフに表示している履歴データ（古い順、最大10件）
+let historyPoints = [];
+
+// 定期取得のタイマー（リアルタイム配信が使えないときだけ動かす）
+let sensorTimer = null;
+let historyTimer = null;
+
+// サーバーで描いた走行ルートのタイル（ズーム10以上で表示する）
+const TRACK_TILE_MIN_ZOOM = 10;
+let trackTiles = null;
+let trackTileTimer = null;
+
+// タイルを表示しない縮尺で描く、機械ごとの線の色（順番に使う）
+const ROUTE_COLORS = ['blue', 'red', 'green', 'purple', 'orange', 'darkcyan', 'brown', 'magenta'];
+
 // ========================================
 // ページ読み込み時の処理
 // ========================================
@@ -32,17 +47,85 @@ document.addEventListener('DOMContentLoaded', function() {
     // ボタンにイベントを設定
     setupButtons();
     
-    // 定期的にデータを取得（3秒ごと）
-    setInterval(fetchSensorData, 3000);
-    
-    // 定期的にグラフを更新（10秒ごと）
-    setInterval(fetchHistoryData, 10000);
-    
     // 初回のデータ取得
     fetchSensorData();
     fetchHistoryData();
+    
+    // リアルタイム配信を開始（使えないブラウザでは定期取得）
+    if (!startLiveUpdates()) {
+        startPolling();
+    }
 });
 
+// ========================================
+// リアルタイム配信（Server-Sent Events）
+// ========================================
+
+function startLiveUpdates() {
+    if (!window.EventSource) {
+        return false;
+    }
+    
+    const source = new EventSource('/agrinav-system/api/stream');
+    
+    // つながったら定期取得を止める
+    source.onopen = function() {
+        console.log('📡 リアルタイム配信に接続しました');
+        stopPolling();
+    };
+    
+    // 切断中は定期取得に切り替える（EventSourceは自動で再接続します）
+    source.onerror = function() {
+        console.log('⚠️ リアルタイム配信が切断されました');
+        startPolling();
+    };
+    
+    // 新しいセンサーデータ
+    source.addEventListener('sensor', function(event) {
+        const data = JSON.parse(event.data);
+        speed = data.speed;
+        distance = data.distance;
+        updateDisplay();
+        updateLEDs(speed);
+    });
+    
+    // 新しい走行データ
+    source.addEventListener('trip', function(event) {
+        const data = JSON.parse(event.data);
+        historyPoints.push(data);
+        if (historyPoints.length > 10) {
+            historyPoints.shift();  // 古いものを捨てる
+        }
+        updateHistoryCharts();
+        refreshTrackTiles();
+    });
+    
+    // 取りこぼしがあったので取り直す
+    source.addEventListener('resync', function() {
+        fetchHistoryData();
+    });
+    
+    return true;
+}
+
+// 定期取得を開始
+function startPolling() {
+    if (sensorTimer === null) {
+        sensorTimer = setInterval(fetchSensorData, 3000);   // 3秒ごと
+    }
+    if (historyTimer === null) {
+        historyTimer = setInterval(fetchHistoryData, 10000);  // 10秒ごと
+    }
+}
+
+// 定期取得を停止
+function stopPolling() {
+    clearInterval(sensorTimer);
+    clearInterval(historyTimer);
+    sensorTimer = null;
+    historyTimer = null;
+}
+
 // ========================================
 // ボタンのイベント設定
 // ========================================
@@ -180,23 +263,31 @@ function fetchHistoryData() {
             
             // 新しい順で取得されるので、古い順に並び替え
             data.reverse();
+            historyPoints = data;
             
-            // ラベル（1, 2, 3...）
-            const labels = data.map((item, index) => (index + 1).toString());
-            
-            // 速度と距離のデータ
-            const speedData = data.map(item => item.speed);
-            const distanceData = data.map(item => item.distance);
-            
-            // グラフを更新
-            updateChart(speedChart, labels, speedData);
-            updateChart(distanceChart, labels, distanceData);
+            // グラフと地図のタイルを更新
+            updateHistoryCharts();
+            refreshTrackTiles();
         })
         .catch(error => {
             console.error('❌ 履歴データ取得エラー:', error);
         });
 }
 
+// 履歴データのグラフを更新
+function updateHistoryCharts() {
+    // ラベル（1, 2, 3...）
+    const labels = historyPoints.map((item, index) => (index + 1).toString());
+    
+    // 速度と距離のデータ
+    const speedData = historyPoints.map(item => item.speed);
+    const distanceData = historyPoints.map(item => item.distance);
+    
+    // グラフを更新
+    updateChart(speedChart, labels, speedData);
+    updateChart(distanceChart, labels, distanceData);
+}
+
 // ========================================
 // 地図の初期化
 // ========================================
@@ -210,8 +301,8 @@ function initializeMap() {
         attribution: '© OpenStreetMap contributors'
     }).addTo(map);
     
-    // サンプルの走行ルート
-    const route = [
+    // サンプルの走行ルート（データが無いときに表示する）
+    const sampleRoute = [
         [36.5, 138.5],
         [36.51, 138.51],
         [36.52, 138.52],
@@ -220,25 +311,96 @@ function initializeMap() {
         [36.55, 138.49]
     ];
     
-    // ルートを青い線で描画
-    const polyline = L.polyline(route, {
-        color: 'blue',
-        weight: 4
+    // 拡大したときは、サーバーで描いたタイルで全部の走行ルートを表示する
+    // （点をブラウザに送らないので、シーズン分のデータでも軽い）
+    trackTiles = L.tileLayer('/agrinav-system/api/tiles/{z}/{x}/{y}.png', {
+        minZoom: TRACK_TILE_MIN_ZOOM,
+        maxZoom: 19
     }).addTo(map);
     
-    // 地図の表示範囲をルートに合わせる
-    map.fitBounds(polyline.getBounds());
+    // 最近24時間の走行ルートを、間引いた状態で取得する（タイルを表示しない縮尺で使う）
+    // 全部の機械をまとめて取ると、機械をまたいで線がつながってしまうので、1台ずつ取る
+    fetch('/agrinav-system/api/machines')
+        .then(response => response.json())
+        .then(data => Promise.all((data.machines || []).map(machine =>
+            fetch('/agrinav-system/api/history-data/track?maxPoints=500&machineId='
+                    + encodeURIComponent(machine.machineId))
+                .then(response => response.json())
+                .then(track => ({ machineId: machine.machineId, track: track }))
+        )))
+        .then(results => {
+            const routes = results
+                .filter(result => result.track.route && result.track.route.length >= 2)
+                .map(result => {
+                    console.log('🗺️ 走行ルートを取得:', result.machineId + ' '
+                        + result.track.sourceCount + '件 → ' + result.track.route.length + '件');
+                    return {
+                        machineId: result.machineId,
+                        points: result.track.route.map(point => [point.latitude, point.longitude])
+                    };
+                });
+            drawRoutes(map, routes.length > 0 ? routes : [{ machineId: null, points: sampleRoute }]);
+        })
+        .catch(error => {
+            console.error('❌ 走行ルート取得エラー:', error);
+            drawRoutes(map, [{ machineId: null, points: sampleRoute }]);
+        });
+    
+    console.log('🗺️ 地図を初期化しました');
+}
+
+// 走行ルートを地図に描く（機械ごとに別の線にする）
+function drawRoutes(map, routes) {
+    const lines = L.featureGroup();
+    routes.forEach(function(route, index) {
+        L.polyline(route.points, {
+            color: ROUTE_COLORS[index % ROUTE_COLORS.length],
+            weight: 4
+        }).addTo(lines);
+    });
+    lines.addTo(map);
     
-    // スタート地点のマーカー
-    L.marker(route[0]).addTo(map)
-        .bindPopup('スタート地点')
-        .openPopup();
+    // 地図の表示範囲を全部のルートに合わせる
+    map.fitBounds(lines.getBounds());
     
-    // ゴール地点のマーカー
-    L.marker(route[route.length - 1]).addTo(map)
-        .bindPopup('ゴール地点');
+    // タイルを表示する縮尺では、間引いた線は隠す（タイルが使えない場合はずっと表示する）
+    let tilesAvailable = true;
+    trackTiles.on('tileerror', function() {
+        tilesAvailable = false;
+        updateRouteVisibility();
+    });
+    function updateRouteVisibility() {
+        if (!tilesAvailable || map.getZoom() < TRACK_TILE_MIN_ZOOM) {
+            lines.addTo(map);
+        } else {
+            lines.remove();
+        }
+    }
+    map.on('zoomend', updateRouteVisibility);
+    updateRouteVisibility();
     
-    console.log('🗺️ 地図を初期化しました');
+    // スタート地点とゴール地点のマーカー（機械IDがある場合は一緒に表示する）
+    routes.forEach(function(route, index) {
+        const name = route.machineId ? route.machineId + ' の' : '';
+        const start = L.marker(route.points[0]).addTo(map)
+            .bindPopup(name + 'スタート地点');
+        if (index === 0) {
+            start.openPopup();
+        }
+        L.marker(route.points[route.points.length - 1]).addTo(map)
+            .bindPopup(name + 'ゴール地点');
+    });
+}
+
+// 新しい走行データが届いたらタイルを取り直す（30秒に1回まで。変わっていないタイルは304になる）
+function refreshTrackTiles() {
+    if (trackTiles === null || trackTileTimer !== null) {
+        return;
+    }
+    trackTileTimer = setTimeout(function() {
+        trackTileTimer = null;
+        trackTiles.redraw();
+    }, 30000);
 }
 
 // ========================================
@@ -0,0 +1,149 @@
+package com.agriguide.store;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * BlockCodec で書いた列を読み直して、元の値に戻ることを確かめるテスト
+ */
+class BlockCodecTest {
+    
+    // ---- 整数の列 ----
+    
+    @Test
+    void longsRoundTripEvenlySpacedTimes() {
+        long[] times = new long[1000];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = 1_711_929_600_000L + i * 1000L + (i % 7 == 0 ? 3 : 0);
+        }
+        assertArrayEquals(times, roundTripLongs(times));
+    }
+    
+    @Test
+    void longsRoundTripHugeJumps() {
+        // 差の差の絶対値が2^62以上になる（zigzag の最上位ビットが立つ）並び
+        long[] values = {
+            0, 1L << 62, 0, Long.MAX_VALUE, Long.MIN_VALUE, 5, -(1L << 62), (1L << 62) - 1,
+            Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, -1, 1
+        };
+        assertArrayEquals(values, roundTripLongs(values));
+    }
+    
+    @Test
+    void longsRoundTripEveryEncodedWidth() {
+        // 差の差が 0 / 7ビット / 12ビット / 20ビット / 64ビット のそれぞれの境目
+        long[] deltas = {0, 63, -64, 64, 2047, -2048, 2048, 524_287, -524_288, 524_288, 1L << 40, -(1L << 61)};
+        long[] values = new long[deltas.length + 1];
+        long delta = 0;
+        for (int i = 0; i < deltas.length; i++) {
+            delta += deltas[i];
+            values[i + 1] = values[i] + delta;
+        }
+        assertArrayEquals(values, roundTripLongs(values));
+    }
+    
+    @Test
+    void longsRoundTripRandom() {
+        Random random = new Random(42);
+        long[] values = new long[4096];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(4) == 0 ? random.nextLong() : random.nextInt(1 << 24);
+        }
+        assertArrayEquals(values, roundTripLongs(values));
+    }
+    
+    @Test
+    void longsRoundTripSingleValue() {
+        assertArrayEquals(new long[] {Long.MIN_VALUE}, roundTripLongs(new long[] {Long.MIN_VALUE}));
+        assertArrayEquals(new long[] {7}, roundTripLongs(new long[] {7}));
+    }
+    
+    // ---- 小数の列 ----
+    
+    @Test
+    void doublesRoundTripSpecialValues() {
+        double[] values = {
+            0.0, -0.0, 0.0, Double.NaN, Double.NaN, Double.longBitsToDouble(0x7ff8_0000_0000_0001L),
+            Double.longBitsToDouble(0xfff0_0000_0000_0001L), Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+            Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, 1.0, -0.0
+        };
+        assertSameBits(values, roundTripDoubles(values));
+    }
+    
+    @Test
+    void doublesRoundTripSlowlyChangingValues() {
+        double[] values = new double[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 35.6812 + (i / 10) * 0.00001;
+        }
+        assertSameBits(values, roundTripDoubles(values));
+    }
+    
+    @Test
+    void doublesRoundTripRandomBits() {
+        Random random = new Random(7);
+        double[] values = new double[4096];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Double.longBitsToDouble(random.nextLong());
+        }
+        assertSameBits(values, roundTripDoubles(values));
+    }
+    
+    @Test
+    void doublesRoundTripSingleValue() {
+        assertSameBits(new double[] {Double.NaN}, roundTripDoubles(new double[] {Double.NaN}));
+        assertSameBits(new double[] {-0.0}, roundTripDoubles(new double[] {-0.0}));
+    }
+    
+    // ---- 機械の番号の列 ----
+    
+    @Test
+    void codesRoundTrip() {
+        int[] codes = {0, 0, 0, 65_535, 65_535, 1, 0, 2, 2, 300};
+        assertArrayEquals(codes, roundTripCodes(codes));
+        assertArrayEquals(new int[] {12}, roundTripCodes(new int[] {12}));
+    }
+    
+    // ---- 共通 ----
+    
+    private static long[] roundTripLongs(long[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(BlockCodec.maxEncodedBytes(values.length));
+        BlockCodec.encodeLongs(values, values.length, buffer);
+        buffer.flip();
+        long[] decoded = new long[values.length];
+        BlockCodec.decodeLongs(buffer, decoded, values.length);
+        return decoded;
+    }
+    
+    private static double[] roundTripDoubles(double[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(BlockCodec.maxEncodedBytes(values.length));
+        BlockCodec.encodeDoubles(values, values.length, buffer);
+        buffer.flip();
+        double[] decoded = new double[values.length];
+        BlockCodec.decodeDoubles(buffer, decoded, values.length);
+        return decoded;
+    }
+    
+    private static int[] roundTripCodes(int[] codes) {
+        ByteBuffer buffer = ByteBuffer.allocate(BlockCodec.maxEncodedBytes(codes.length));
+        BlockCodec.encodeCodes(codes, codes.length, buffer);
+        buffer.flip();
+        int[] decoded = new int[codes.length];
+        BlockCodec.decodeCodes(buffer, decoded, codes.length);
+        return decoded;
+    }
+    
+    // NaN の中身や 0.0 と -0.0 の違いも含めて、ビットが同じか
+    private static void assertSameBits(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Double.doubleToRawLongBits(expected[i]), Double.doubleToRawLongBits(actual[i]),
+                "index " + i);
+        }
+    }
+}